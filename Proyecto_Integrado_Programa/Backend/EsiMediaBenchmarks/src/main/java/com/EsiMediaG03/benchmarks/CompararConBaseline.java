@@ -0,0 +1,68 @@
+package com.EsiMediaG03.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compara dos resultados JMH en JSON (-rf json) benchmark a benchmark y termina con código 1 si
+ * alguno empeora más que la tolerancia. Solo admite modos de tiempo por operación (menos es mejor).
+ * <p>
+ * Uso: {@code java -cp target/benchmarks.jar com.EsiMediaG03.benchmarks.CompararConBaseline
+ * baseline/jmh-baseline.json target/jmh-result.json [tolerancia%]}
+ */
+public final class CompararConBaseline {
+
+    private static final double TOLERANCIA_POR_DEFECTO = 10.0;
+
+    private CompararConBaseline() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Uso: CompararConBaseline <baseline.json> <resultado.json> [tolerancia%]");
+            System.exit(2);
+        }
+        double tolerancia = args.length > 2 ? Double.parseDouble(args[2]) : TOLERANCIA_POR_DEFECTO;
+        Map<String, Resultado> baseline = leer(new File(args[0]));
+        Map<String, Resultado> actual = leer(new File(args[1]));
+
+        int regresiones = 0;
+        for (Map.Entry<String, Resultado> e : new TreeMap<>(actual).entrySet()) {
+            Resultado antes = baseline.get(e.getKey());
+            Resultado ahora = e.getValue();
+            if (antes == null) {
+                System.out.printf("NUEVO      %-100s %12.3f %s%n", e.getKey(), ahora.score, ahora.unidad);
+                continue;
+            }
+            double cambio = (ahora.score - antes.score) / antes.score * 100.0;
+            // Solo cuenta como regresión si la diferencia supera también el error de ambas medidas
+            boolean peor = cambio > tolerancia && ahora.score - ahora.error > antes.score + antes.error;
+            if (peor) regresiones++;
+            System.out.printf("%-10s %-100s %12.3f -> %12.3f %s (%+.1f%%)%n", peor ? "REGRESIÓN" : "ok",
+                    e.getKey(), antes.score, ahora.score, ahora.unidad, cambio);
+        }
+        System.out.printf("%d regresiones por encima del %.1f%%%n", regresiones, tolerancia);
+        if (regresiones > 0) System.exit(1);
+    }
+
+    private static Map<String, Resultado> leer(File f) throws IOException {
+        Map<String, Resultado> m = new LinkedHashMap<>();
+        for (JsonNode n : new ObjectMapper().readTree(f)) {
+            StringBuilder clave = new StringBuilder(n.path("benchmark").asText());
+            n.path("params").fields().forEachRemaining(p -> clave.append(' ').append(p.getKey()).append('=').append(p.getValue().asText()));
+            JsonNode metrica = n.path("primaryMetric");
+            double error = metrica.path("scoreError").asDouble(0);
+            m.put(clave.toString(), new Resultado(metrica.path("score").asDouble(),
+                    Double.isNaN(error) ? 0 : error, metrica.path("scoreUnit").asText()));
+        }
+        return m;
+    }
+
+    private record Resultado(double score, double error, String unidad) {}
+}
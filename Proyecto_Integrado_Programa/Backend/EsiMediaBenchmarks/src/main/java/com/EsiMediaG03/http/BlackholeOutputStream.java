@@ -0,0 +1,28 @@
+package com.EsiMediaG03.http;
+
+import java.io.OutputStream;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Salida que descarta los bytes pero se los pasa al Blackhole para que el JIT no elimine la copia. */
+final class BlackholeOutputStream extends OutputStream {
+
+    private final Blackhole bh;
+    long written;
+
+    BlackholeOutputStream(Blackhole bh) {
+        this.bh = bh;
+    }
+
+    @Override
+    public void write(int b) {
+        bh.consume(b);
+        written++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (len > 0) bh.consume(b[off + len - 1]);
+        written += len;
+    }
+}
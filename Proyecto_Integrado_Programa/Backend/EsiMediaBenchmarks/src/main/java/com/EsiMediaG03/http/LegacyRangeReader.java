@@ -0,0 +1,57 @@
+package com.EsiMediaG03.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Copia de la lectura de rangos anterior a las regiones de fichero: {@code Files.newInputStream},
+ * {@code skip} hasta el inicio y un {@code LimitedInputStream} que corta en el tamaño del tramo.
+ * Se conserva solo como referencia para los benchmarks; el controlador ya no la usa.
+ */
+final class LegacyRangeReader {
+
+    private LegacyRangeReader() {
+    }
+
+    static InputStream open(Path file, long start, long chunk) throws IOException {
+        InputStream is = Files.newInputStream(file);
+        try {
+            long skipped = is.skip(start);
+            while (skipped < start) {
+                long remaining = start - skipped;
+                long additionalSkipped = is.skip(remaining);
+                if (additionalSkipped <= 0) {
+                    throw new java.io.IOException("Unable to skip to the desired position in the stream.");
+                }
+                skipped += additionalSkipped;
+            }
+            return new LimitedInputStream(is, chunk);
+        } catch (IOException e) {
+            is.close();
+            throw e;
+        }
+    }
+
+    static class LimitedInputStream extends java.io.FilterInputStream {
+        private long remaining;
+        protected LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+        @Override public int read() throws java.io.IOException {
+            if (remaining <= 0) return -1;
+            int b = super.read();
+            if (b != -1) remaining--;
+            return b;
+        }
+        @Override public int read(byte[] b, int off, int len) throws java.io.IOException {
+            if (remaining <= 0) return -1;
+            len = (int)Math.min(len, remaining);
+            int read = super.read(b, off, len);
+            if (read > 0) remaining -= read;
+            return read;
+        }
+    }
+}
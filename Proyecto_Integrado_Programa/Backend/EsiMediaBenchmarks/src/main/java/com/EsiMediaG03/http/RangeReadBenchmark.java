@@ -0,0 +1,135 @@
+package com.EsiMediaG03.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Coste de servir un tramo [offset, offset + chunk) de un fichero local según cómo se lea:
+ * la ruta antigua (skip + LimitedInputStream copiado por StreamUtils, como hacía InputStreamResource),
+ * la actual sin sendfile ({@link FileRegionWriter#transfer}, transferTo hacia el stream de salida),
+ * transferTo hacia otro FileChannel (lo que hace sendfile en el kernel) y lecturas posicionales
+ * en un buffer directo reutilizado (la ruta de los tramos en memoria).
+ * El fichero está en la caché de páginas: se mide la CPU y las copias, no el disco.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RangeReadBenchmark {
+
+    private static final int BUFFER_LECTURA = 64 * 1024;
+
+    @Param({ "1048576", "67108864" })
+    long fileSize;
+
+    @Param({ "0.0", "0.5", "0.9" })
+    double offset;
+
+    @Param({ "262144", "4194304" })
+    long chunk;
+
+    private Path file;
+    private long start;
+    private long count;
+    private FileChannel devNull;
+    private ByteBuffer directo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("esimedia-bench-", ".bin");
+        byte[] bloque = new byte[1024 * 1024];
+        new Random(42).nextBytes(bloque);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            for (long escrito = 0; escrito < fileSize; escrito += bloque.length) {
+                ch.write(ByteBuffer.wrap(bloque, 0, (int) Math.min(bloque.length, fileSize - escrito)));
+            }
+        }
+        start = (long) (fileSize * offset);
+        count = Math.min(chunk, fileSize - start);
+        devNull = FileChannel.open(Path.of("/dev/null"), StandardOpenOption.WRITE);
+        directo = ByteBuffer.allocateDirect(BUFFER_LECTURA);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        devNull.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long legacySkipLimitedInputStream(Blackhole bh) throws IOException {
+        BlackholeOutputStream out = new BlackholeOutputStream(bh);
+        try (InputStream in = LegacyRangeReader.open(file, start, count)) {
+            StreamUtils.copy(in, out);
+        }
+        return out.written;
+    }
+
+    @Benchmark
+    public long fileRegionTransferToStream(Blackhole bh) throws IOException {
+        BlackholeOutputStream out = new BlackholeOutputStream(bh);
+        FileRegionWriter.transfer(file, start, count, out);
+        return out.written;
+    }
+
+    @Benchmark
+    public long transferToFileChannel() throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long pos = start;
+            long fin = start + count;
+            while (pos < fin) {
+                long n = ch.transferTo(pos, fin - pos, devNull);
+                if (n <= 0) throw new EOFException();
+                pos += n;
+            }
+            return pos - start;
+        }
+    }
+
+    @Benchmark
+    public long positionalReadDirectBuffer(Blackhole bh) throws IOException {
+        BlackholeOutputStream out = new BlackholeOutputStream(bh);
+        WritableByteChannel salida = Channels.newChannel(out);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long pos = start;
+            long fin = start + count;
+            while (pos < fin) {
+                directo.clear().limit((int) Math.min(directo.capacity(), fin - pos));
+                int n = ch.read(directo, pos);
+                if (n < 0) throw new EOFException();
+                directo.flip();
+                while (directo.hasRemaining()) salida.write(directo);
+                pos += n;
+            }
+            return out.written;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.EsiMediaG03.services;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.EsiMediaG03.dao.ContenidoDAO;
+import com.EsiMediaG03.model.Contenido;
+
+/**
+ * {@link ContenidoDAO} sobre un mapa en memoria para medir el servicio sin Mongo.
+ * Solo implementa lo que usa la resolución de reproducción; el resto lanza UnsupportedOperationException.
+ */
+final class ContenidoDAOEnMemoria {
+
+    private ContenidoDAOEnMemoria() {
+    }
+
+    static ContenidoDAO crear(Map<String, Contenido> datos) {
+        Map<String, Contenido> mapa = new ConcurrentHashMap<>(datos);
+        return (ContenidoDAO) Proxy.newProxyInstance(ContenidoDAO.class.getClassLoader(),
+                new Class<?>[] { ContenidoDAO.class }, (proxy, method, args) -> switch (method.getName()) {
+                    case "findById" -> Optional.ofNullable(mapa.get((String) args[0]));
+                    case "existsById" -> mapa.containsKey((String) args[0]);
+                    case "findAll" -> new ArrayList<>(mapa.values());
+                    case "count" -> (long) mapa.size();
+                    case "save" -> {
+                        Contenido c = (Contenido) args[0];
+                        mapa.put(c.getId(), c);
+                        yield c;
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "ContenidoDAOEnMemoria" + mapa.keySet();
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,96 @@
+package com.EsiMediaG03.services;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.exceptions.StreamingTargetException;
+import com.EsiMediaG03.exceptions.StreamingTargetResolutionException;
+import com.EsiMediaG03.model.Contenido;
+
+/**
+ * {@link ContenidoService#resolveStreamingTarget} con el DAO en memoria: con el destino en caché
+ * (cada petición de rango de una reproducción), sin él (primera petición: DAO, reglas, índice MP4
+ * y HLS) y sin él ni los metadatos del fichero (además un stat del fichero).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolveStreamingTargetBenchmark {
+
+    private static final String ID = "bench-1";
+
+    @Param({ "AUDIO", "VIDEO" })
+    Contenido.Tipo tipo;
+
+    private Path dir;
+    private Path fichero;
+    private ContenidoService service;
+    private StreamingTargetCache targetCache;
+    private MediaFileMetadataCache metadataCache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("esimedia-bench-");
+        fichero = Files.write(dir.resolve(tipo == Contenido.Tipo.AUDIO ? "pista.mp3" : "video.mp4"), new byte[64 * 1024]);
+
+        Contenido c = new Contenido();
+        c.setId(ID);
+        c.setTitulo("Benchmark");
+        c.setTipo(tipo);
+        c.setVisible(true);
+        if (tipo == Contenido.Tipo.AUDIO) c.setFicheroAudio(fichero.toString());
+        else c.setUrlVideo(fichero.toString());
+
+        targetCache = new StreamingTargetCache();
+        metadataCache = new MediaFileMetadataCache();
+        metadataCache.init();
+        service = new ContenidoService(ContenidoDAOEnMemoria.crear(Map.of(ID, c)), null, null, targetCache, null,
+                new HlsPackager(targetCache), new Mp4IndexService(targetCache), metadataCache, null, null, null, null);
+        service.resolveStreamingTarget(ID, false, 30);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        metadataCache.shutdown();
+        Files.deleteIfExists(fichero);
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public StreamingTarget cacheHit() throws StreamingTargetResolutionException, StreamingTargetException {
+        return service.resolveStreamingTarget(ID, false, 30);
+    }
+
+    @Benchmark
+    public StreamingTarget targetCacheMiss() throws StreamingTargetResolutionException, StreamingTargetException {
+        targetCache.invalidate(ID);
+        return service.resolveStreamingTarget(ID, false, 30);
+    }
+
+    @Benchmark
+    public StreamingTarget targetAndMetadataMiss() throws StreamingTargetResolutionException, StreamingTargetException {
+        targetCache.invalidate(ID);
+        metadataCache.invalidate(fichero);
+        return service.resolveStreamingTarget(ID, false, 30);
+    }
+}
@@ -0,0 +1,143 @@
+package com.EsiMediaG03.carga;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.ServerSocket;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Arranca usersbe y EsiMediaContenidosG03 contra un Mongo en memoria, lanza {@code carga.usuarios}
+ * usuarios virtuales durante {@code carga.duracion-s} segundos (tras {@code carga.calentamiento-s}
+ * de calentamiento) y falla si algún endpoint se sale de {@code presupuestos.properties}.
+ * El informe queda en {@code target/carga/informe.txt} e {@code informe.json}.
+ */
+class CargaMixtaIT {
+
+    private static final String BASE_DE_DATOS = "esimedia";
+
+    private static Path salida;
+    private static MongoEnProceso mongo;
+    private static ProcesoSpringBoot usuarios;
+    private static ProcesoSpringBoot contenidos;
+    private static DatosDeCarga datos;
+
+    @BeforeAll
+    static void arrancar() throws Exception {
+        salida = Files.createDirectories(Path.of(System.getProperty("carga.salida", "target/carga")));
+        mongo = new MongoEnProceso();
+        String uri = mongo.uri(BASE_DE_DATOS);
+        datos = DatosDeCarga.sembrar(uri, salida.resolve("media"), entero("carga.usuarios", 16),
+                entero("carga.videos", 6), entero("carga.audios", 6), 32L * 1024 * 1024, 4L * 1024 * 1024);
+
+        Map<String, String> propsUsuarios = new LinkedHashMap<>();
+        propsUsuarios.put("spring.data.mongodb.uri", uri);
+        propsUsuarios.put("app.superadmin.email", "superadmin@esimedia.local");
+        propsUsuarios.put("app.superadmin.initial-password", "Carga,Superadmin2024");
+        // Nunca se llega a enviar correo: los usuarios de carga usan TOTP
+        propsUsuarios.put("spring.mail.host", "127.0.0.1");
+        propsUsuarios.put("spring.mail.username", "carga@esimedia.local");
+        propsUsuarios.put("spring.mail.password", "carga");
+        propsUsuarios.put("app.mail.from", "carga@esimedia.local");
+        usuarios = ProcesoSpringBoot.arrancar("usersbe", Path.of(System.getProperty("carga.jar.usuarios")),
+                puertoLibre(), salida, propsUsuarios);
+
+        Map<String, String> propsContenidos = new LinkedHashMap<>();
+        propsContenidos.put("spring.data.mongodb.uri", uri);
+        contenidos = ProcesoSpringBoot.arrancar("contenidos", Path.of(System.getProperty("carga.jar.contenidos")),
+                puertoLibre(), salida, propsContenidos);
+    }
+
+    @AfterAll
+    static void parar() throws Exception {
+        if (contenidos != null) contenidos.close();
+        if (usuarios != null) usuarios.close();
+        if (mongo != null) mongo.close();
+    }
+
+    @Test
+    void cargaMixtaDentroDePresupuesto() throws Exception {
+        int nUsuarios = datos.usuarios.size();
+        long calentamientoMs = TimeUnit.SECONDS.toMillis(entero("carga.calentamiento-s", 10));
+        long duracionMs = TimeUnit.SECONDS.toMillis(entero("carga.duracion-s", 30));
+        UsuarioVirtual.Escenario escenario = new UsuarioVirtual.Escenario(
+                20, 45, 10, 15, 10, 4, 1024L * 1024, 15, entero("carga.pausa-ms", 0));
+
+        Metricas metricas = new Metricas();
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        long fin = System.currentTimeMillis() + calentamientoMs + duracionMs;
+        ExecutorService pool = Executors.newFixedThreadPool(nUsuarios);
+        for (int i = 0; i < nUsuarios; i++) {
+            pool.execute(new UsuarioVirtual(http, usuarios.url(), contenidos.url(), metricas, datos.usuarios.get(i),
+                    datos.medios, escenario, () -> System.currentTimeMillis() >= fin, i));
+        }
+        Thread.sleep(calentamientoMs);
+        metricas.empezar();
+        long inicio = System.nanoTime();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(duracionMs + 120_000, TimeUnit.MILLISECONDS), "Los usuarios virtuales no terminaron");
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        List<Metricas.Resumen> resumen = metricas.resumir(segundos);
+        List<String> violaciones = Presupuestos.cargar().comprobar(resumen);
+        escribirInforme(resumen, violaciones, nUsuarios, segundos);
+        assertTrue(violaciones.isEmpty(), "Presupuestos superados:\n" + String.join("\n", violaciones));
+    }
+
+    private static void escribirInforme(List<Metricas.Resumen> resumen, List<String> violaciones, int nUsuarios,
+                                        double segundos) throws IOException {
+        StringWriter sw = new StringWriter();
+        PrintWriter out = new PrintWriter(sw);
+        out.printf("%d usuarios virtuales, %.1f s medidos%n%n", nUsuarios, segundos);
+        out.printf("%-22s %9s %8s %7s %9s %9s %9s %9s %9s%n",
+                "endpoint", "peticiones", "4xx", "errores", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Metricas.Resumen r : resumen) {
+            out.printf("%-22s %9d %8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n", r.endpoint(), r.peticiones(),
+                    r.rechazos(), r.errores(), r.rps(), r.p50Ms(), r.p99Ms(), r.p999Ms(), r.maxMs());
+        }
+        out.println();
+        out.println(violaciones.isEmpty() ? "Todos los presupuestos se cumplen" : String.join("\n", violaciones));
+        out.flush();
+        System.out.print(sw);
+        Files.writeString(salida.resolve("informe.txt"), sw.toString());
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("usuarios", nUsuarios);
+        json.put("segundos", segundos);
+        json.put("endpoints", resumen);
+        json.put("violaciones", new ArrayList<>(violaciones));
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(salida.resolve("informe.json").toFile(), json);
+    }
+
+    private static int entero(String propiedad, int porDefecto) {
+        return Integer.getInteger(propiedad, porDefecto);
+    }
+
+    private static int puertoLibre() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.EsiMediaG03.carga;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.bson.Document;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * Usuarios con TOTP y contenidos locales de audio y vídeo escritos directamente en las colecciones
+ * que leen las dos aplicaciones, con los mismos campos que guardaría Spring Data.
+ */
+final class DatosDeCarga {
+
+    static final String PASSWORD = "Carga,2024pw";
+
+    record Usuario(String id, String email, byte[] claveTotp) {}
+
+    record Medio(String id, String tipo, long bytes) {}
+
+    final List<Usuario> usuarios = new ArrayList<>();
+    final List<Medio> medios = new ArrayList<>();
+
+    static DatosDeCarga sembrar(String uri, Path dirMedios, int nUsuarios, int nVideos, int nAudios,
+                                long bytesVideo, long bytesAudio) throws IOException {
+        DatosDeCarga d = new DatosDeCarga();
+        Files.createDirectories(dirMedios);
+        SecureRandom rnd = new SecureRandom();
+        // Mismo hash para todos: el coste de BCrypt lo pagan los logins, no la siembra
+        String hash = new BCryptPasswordEncoder().encode(PASSWORD);
+
+        try (MongoClient client = MongoClients.create(uri)) {
+            MongoDatabase db = client.getDatabase(new ConnectionString(uri).getDatabase());
+            List<Document> users = new ArrayList<>();
+            for (int i = 0; i < nUsuarios; i++) {
+                byte[] clave = new byte[20];
+                rnd.nextBytes(clave);
+                Usuario u = new Usuario("carga-usuario-" + i, "carga" + i + "@esimedia.local", clave);
+                d.usuarios.add(u);
+                users.add(new Document("_id", u.id())
+                        .append("email", u.email())
+                        .append("nombre", "Carga")
+                        .append("apellidos", "Usuario " + i)
+                        .append("alias", "carga" + i)
+                        .append("fechaNac", Date.from(java.time.Instant.parse("1994-05-01T00:00:00Z")))
+                        .append("pwd", hash)
+                        .append("vip", false)
+                        .append("role", "USUARIO")
+                        .append("mfaEnabled", true)
+                        .append("mfaMethod", "TOTP")
+                        .append("totpSecret", Totp.base32(clave))
+                        .append("failedLoginAttempts", 0)
+                        .append("blocked", false)
+                        .append("_class", "com.example.usersbe.model.User"));
+            }
+            db.getCollection("users").insertMany(users);
+
+            List<Document> contenidos = new ArrayList<>();
+            for (int i = 0; i < nVideos + nAudios; i++) {
+                boolean video = i < nVideos;
+                String id = (video ? "carga-video-" : "carga-audio-") + i;
+                long bytes = video ? bytesVideo : bytesAudio;
+                Path f = escribirMedio(dirMedios.resolve(id + (video ? ".mp4" : ".mp3")), bytes, i);
+                d.medios.add(new Medio(id, video ? "VIDEO" : "AUDIO", bytes));
+                Document c = new Document("_id", id)
+                        .append("titulo", "Contenido de carga " + i)
+                        .append("descripcion", "Generado por la prueba de carga")
+                        .append("tags", List.of(video ? "cine" : "musica", "carga"))
+                        .append("duracionMinutos", video ? 90 : 4)
+                        .append("vip", false)
+                        .append("visible", true)
+                        .append("fechaEstado", new Date())
+                        .append("restringidoEdad", 0)
+                        .append("tipo", video ? "VIDEO" : "AUDIO")
+                        .append("numReproducciones", 0L)
+                        .append("ratingCount", 0)
+                        .append("ratingAvg", 0.0)
+                        .append("_class", "com.EsiMediaG03.model.Contenido");
+                if (video) c.append("urlVideo", f.toString()).append("resolucion", "1080p");
+                else c.append("ficheroAudio", f.toString());
+                contenidos.add(c);
+            }
+            db.getCollection("contenidos").insertMany(contenidos);
+        }
+        return d;
+    }
+
+    private static Path escribirMedio(Path f, long bytes, long semilla) throws IOException {
+        byte[] bloque = new byte[1024 * 1024];
+        new Random(semilla).nextBytes(bloque);
+        try (OutputStream out = Files.newOutputStream(f)) {
+            for (long escrito = 0; escrito < bytes; escrito += bloque.length) {
+                out.write(bloque, 0, (int) Math.min(bloque.length, bytes - escrito));
+            }
+        }
+        return f.toAbsolutePath();
+    }
+}
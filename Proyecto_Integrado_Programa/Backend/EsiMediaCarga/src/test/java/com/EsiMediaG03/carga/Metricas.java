@@ -0,0 +1,67 @@
+package com.EsiMediaG03.carga;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latencias por endpoint en histogramas HdrHistogram (microsegundos, 3 cifras significativas).
+ * Las respuestas 4xx cuentan como rechazos y las 5xx o los fallos de E/S como errores;
+ * durante el calentamiento no se registra nada.
+ */
+final class Metricas {
+
+    static final int FALLO_ES = -1;
+
+    private final Map<String, PorEndpoint> endpoints = new ConcurrentHashMap<>();
+    private volatile boolean midiendo;
+
+    void empezar() {
+        midiendo = true;
+    }
+
+    void registrar(String endpoint, long nanos, int status) {
+        if (!midiendo) return;
+        PorEndpoint e = endpoints.computeIfAbsent(endpoint, k -> new PorEndpoint());
+        e.latencias.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos)));
+        if (status == FALLO_ES || status >= 500) e.errores.increment();
+        else if (status >= 400) e.rechazos.increment();
+    }
+
+    List<Resumen> resumir(double segundos) {
+        List<Resumen> r = new ArrayList<>();
+        for (Map.Entry<String, PorEndpoint> x : new TreeMap<>(endpoints).entrySet()) {
+            Histogram h = x.getValue().latencias.copy();
+            long total = h.getTotalCount();
+            r.add(new Resumen(x.getKey(), total, x.getValue().rechazos.sum(), x.getValue().errores.sum(),
+                    total / segundos, ms(h.getValueAtPercentile(50)), ms(h.getValueAtPercentile(99)),
+                    ms(h.getValueAtPercentile(99.9)), ms(h.getMaxValue())));
+        }
+        return r;
+    }
+
+    private static double ms(long micros) {
+        return micros / 1000.0;
+    }
+
+    record Resumen(String endpoint, long peticiones, long rechazos, long errores, double rps,
+                   double p50Ms, double p99Ms, double p999Ms, double maxMs) {
+
+        double tasaDeError() {
+            return peticiones == 0 ? 0 : (double) errores / peticiones;
+        }
+    }
+
+    private static final class PorEndpoint {
+        final ConcurrentHistogram latencias = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(5), 3);
+        final LongAdder rechazos = new LongAdder();
+        final LongAdder errores = new LongAdder();
+    }
+}
@@ -0,0 +1,26 @@
+package com.EsiMediaG03.carga;
+
+import java.net.InetSocketAddress;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+/** Servidor compatible con el protocolo de Mongo, en memoria y dentro del proceso de la prueba. */
+final class MongoEnProceso implements AutoCloseable {
+
+    private final MongoServer server = new MongoServer(new MemoryBackend());
+    private final InetSocketAddress direccion;
+
+    MongoEnProceso() {
+        direccion = server.bind();
+    }
+
+    String uri(String baseDeDatos) {
+        return "mongodb://" + direccion.getHostString() + ":" + direccion.getPort() + "/" + baseDeDatos;
+    }
+
+    @Override
+    public void close() {
+        server.shutdownNow();
+    }
+}
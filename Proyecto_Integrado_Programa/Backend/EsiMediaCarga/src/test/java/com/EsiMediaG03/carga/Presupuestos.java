@@ -0,0 +1,70 @@
+package com.EsiMediaG03.carga;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Límites por endpoint de {@code presupuestos.properties}: {@code <endpoint>.p50-ms}, {@code .p99-ms},
+ * {@code .p999-ms}, {@code .min-rps} y {@code .max-error-rate}. Cualquiera se puede cambiar con
+ * {@code -Dcarga.presupuesto.<endpoint>.<límite>=valor}.
+ */
+final class Presupuestos {
+
+    private final Properties limites = new Properties();
+
+    static Presupuestos cargar() throws IOException {
+        Presupuestos p = new Presupuestos();
+        try (InputStream in = Presupuestos.class.getResourceAsStream("/presupuestos.properties")) {
+            if (in != null) p.limites.load(in);
+        }
+        System.getProperties().forEach((k, v) -> {
+            String clave = k.toString();
+            if (clave.startsWith("carga.presupuesto.")) p.limites.setProperty(clave.substring("carga.presupuesto.".length()), v.toString());
+        });
+        return p;
+    }
+
+    /** Mensajes de los límites superados; vacío si la carga cumple todos. */
+    List<String> comprobar(List<Metricas.Resumen> resumenes) {
+        Map<String, Metricas.Resumen> porEndpoint = resumenes.stream()
+                .collect(Collectors.toMap(Metricas.Resumen::endpoint, Function.identity()));
+        List<String> violaciones = new ArrayList<>();
+        for (String endpoint : endpoints()) {
+            Metricas.Resumen r = porEndpoint.get(endpoint);
+            if (r == null || r.peticiones() == 0) {
+                violaciones.add(endpoint + ": no ha recibido tráfico");
+                continue;
+            }
+            maximo(violaciones, endpoint, "p50-ms", r.p50Ms());
+            maximo(violaciones, endpoint, "p99-ms", r.p99Ms());
+            maximo(violaciones, endpoint, "p999-ms", r.p999Ms());
+            maximo(violaciones, endpoint, "max-error-rate", r.tasaDeError());
+            String min = limites.getProperty(endpoint + ".min-rps");
+            if (min != null && r.rps() < Double.parseDouble(min)) {
+                violaciones.add(String.format("%s: %.1f req/s < %s req/s", endpoint, r.rps(), min));
+            }
+        }
+        return violaciones;
+    }
+
+    private void maximo(List<String> violaciones, String endpoint, String limite, double valor) {
+        String max = limites.getProperty(endpoint + "." + limite);
+        if (max != null && valor > Double.parseDouble(max)) {
+            violaciones.add(String.format("%s: %s = %.3f > %s", endpoint, limite, valor, max));
+        }
+    }
+
+    private List<String> endpoints() {
+        return limites.stringPropertyNames().stream()
+                .map(k -> k.substring(0, k.lastIndexOf('.')))
+                .distinct()
+                .sorted()
+                .toList();
+    }
+}
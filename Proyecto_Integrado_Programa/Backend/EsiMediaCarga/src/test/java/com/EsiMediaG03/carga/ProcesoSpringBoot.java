@@ -0,0 +1,97 @@
+package com.EsiMediaG03.carga;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Una de las aplicaciones Spring Boot arrancada desde su jar ejecutable en una JVM aparte,
+ * como en el contenedor. La salida va a {@code <dir>/<nombre>.log} y el directorio de trabajo
+ * es {@code <dir>/<nombre>} (ahí quedan los ficheros que la aplicación crea con rutas relativas).
+ */
+final class ProcesoSpringBoot implements AutoCloseable {
+
+    private static final Duration ARRANQUE_MAXIMO = Duration.ofMinutes(3);
+
+    private final String nombre;
+    private final Process proceso;
+    private final Path log;
+    final int puerto;
+
+    private ProcesoSpringBoot(String nombre, Process proceso, Path log, int puerto) {
+        this.nombre = nombre;
+        this.proceso = proceso;
+        this.log = log;
+        this.puerto = puerto;
+    }
+
+    static ProcesoSpringBoot arrancar(String nombre, Path jar, int puerto, Path dir, Map<String, String> propiedades)
+            throws IOException, InterruptedException {
+        if (!Files.isRegularFile(jar)) {
+            throw new IllegalStateException("No existe " + jar + ": empaqueta antes las aplicaciones (mvn -Pcarga verify lo hace)");
+        }
+        Path trabajo = Files.createDirectories(dir.resolve(nombre));
+        Path log = dir.resolve(nombre + ".log");
+
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        cmd.add("-Xmx" + System.getProperty("carga.xmx", "512m"));
+        cmd.add("-jar");
+        cmd.add(jar.toAbsolutePath().toString());
+        cmd.add("--server.port=" + puerto);
+        propiedades.forEach((k, v) -> cmd.add("--" + k + "=" + v));
+
+        Process p = new ProcessBuilder(cmd)
+                .directory(trabajo.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        ProcesoSpringBoot app = new ProcesoSpringBoot(nombre, p, log, puerto);
+        app.esperarArranque();
+        return app;
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + puerto;
+    }
+
+    // Cualquier respuesta HTTP vale: basta con que Tomcat ya esté aceptando peticiones
+    private void esperarArranque() throws IOException, InterruptedException {
+        HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        HttpRequest ping = HttpRequest.newBuilder(URI.create(url() + "/")).timeout(Duration.ofSeconds(2)).build();
+        long limite = System.nanoTime() + ARRANQUE_MAXIMO.toNanos();
+        while (System.nanoTime() < limite) {
+            if (!proceso.isAlive()) {
+                throw new IllegalStateException(nombre + " terminó al arrancar (código " + proceso.exitValue() + "):\n" + colaDelLog());
+            }
+            try {
+                http.send(ping, HttpResponse.BodyHandlers.discarding());
+                return;
+            } catch (IOException e) {
+                Thread.sleep(250);
+            }
+        }
+        close();
+        throw new IllegalStateException(nombre + " no arrancó en " + ARRANQUE_MAXIMO + ":\n" + colaDelLog());
+    }
+
+    private String colaDelLog() throws IOException {
+        List<String> lineas = Files.readAllLines(log);
+        return String.join("\n", lineas.subList(Math.max(0, lineas.size() - 40), lineas.size()));
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        proceso.destroy();
+        if (!proceso.waitFor(20, TimeUnit.SECONDS)) proceso.destroyForcibly().waitFor();
+    }
+}
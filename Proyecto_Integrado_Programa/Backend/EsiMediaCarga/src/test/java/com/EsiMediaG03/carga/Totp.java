@@ -0,0 +1,46 @@
+package com.EsiMediaG03.carga;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/** Códigos TOTP (RFC 6238: HMAC-SHA1, 6 dígitos, 30 s) como los que verifica el TOTPService de usersbe. */
+final class Totp {
+
+    private static final String BASE32 = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+
+    private Totp() {
+    }
+
+    static String codigo(byte[] clave, long ahoraMs) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA1");
+            mac.init(new SecretKeySpec(clave, "HmacSHA1"));
+            byte[] h = mac.doFinal(ByteBuffer.allocate(8).putLong(ahoraMs / 1000 / 30).array());
+            int o = h[h.length - 1] & 0x0f;
+            int bin = ((h[o] & 0x7f) << 24) | ((h[o + 1] & 0xff) << 16) | ((h[o + 2] & 0xff) << 8) | (h[o + 3] & 0xff);
+            return String.format("%06d", bin % 1_000_000);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Base32 sin relleno, el formato en que usersbe guarda {@code totpSecret}. */
+    static String base32(byte[] datos) {
+        StringBuilder sb = new StringBuilder();
+        int buffer = 0;
+        int bits = 0;
+        for (byte b : datos) {
+            buffer = (buffer << 8) | (b & 0xff);
+            bits += 8;
+            while (bits >= 5) {
+                sb.append(BASE32.charAt((buffer >> (bits - 5)) & 31));
+                bits -= 5;
+            }
+        }
+        if (bits > 0) sb.append(BASE32.charAt((buffer << (5 - bits)) & 31));
+        return sb.toString();
+    }
+}
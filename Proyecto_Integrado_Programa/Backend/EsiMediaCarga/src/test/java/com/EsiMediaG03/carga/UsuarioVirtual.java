@@ -0,0 +1,187 @@
+package com.EsiMediaG03.carga;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Un usuario que repite una mezcla parecida a la del front: inicia sesión con TOTP, lista el
+ * catálogo, reproduce por rangos (HEAD y varias peticiones consecutivas de la misma sesión),
+ * valora lo que ya ha reproducido y marca y consulta favoritos. Cada cierto número de acciones
+ * vuelve a iniciar sesión.
+ */
+final class UsuarioVirtual implements Runnable {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    // La cola de reproducciones vuelca a Mongo cada segundo; antes no se puede valorar
+    private static final long ESPERA_PARA_VALORAR_MS = 3000;
+
+    private final HttpClient http;
+    private final String urlUsuarios;
+    private final String urlContenidos;
+    private final Metricas metricas;
+    private final DatosDeCarga.Usuario usuario;
+    private final List<DatosDeCarga.Medio> medios;
+    private final Escenario escenario;
+    private final BooleanSupplier parar;
+    private final Random rnd;
+
+    private final Map<String, Long> reproducidos = new HashMap<>();
+    private final Set<String> valorados = new HashSet<>();
+    private int accionesDesdeLogin = Integer.MAX_VALUE;
+
+    UsuarioVirtual(HttpClient http, String urlUsuarios, String urlContenidos, Metricas metricas,
+                   DatosDeCarga.Usuario usuario, List<DatosDeCarga.Medio> medios, Escenario escenario,
+                   BooleanSupplier parar, long semilla) {
+        this.http = http;
+        this.urlUsuarios = urlUsuarios;
+        this.urlContenidos = urlContenidos;
+        this.metricas = metricas;
+        this.usuario = usuario;
+        this.medios = medios;
+        this.escenario = escenario;
+        this.parar = parar;
+        this.rnd = new Random(semilla);
+    }
+
+    /** Pesos de cada acción y tamaño de las sesiones de reproducción. */
+    record Escenario(int pesoListar, int pesoReproducir, int pesoValorar, int pesoFavorito, int pesoFavoritos,
+                     int rangosPorSesion, long bytesPorRango, int accionesPorLogin, long pausaMs) {
+
+        int total() {
+            return pesoListar + pesoReproducir + pesoValorar + pesoFavorito + pesoFavoritos;
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!parar.getAsBoolean()) {
+            try {
+                if (accionesDesdeLogin >= escenario.accionesPorLogin()) {
+                    iniciarSesion();
+                    accionesDesdeLogin = 0;
+                }
+                accion();
+                accionesDesdeLogin++;
+                if (escenario.pausaMs() > 0) Thread.sleep(escenario.pausaMs());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void accion() throws InterruptedException {
+        int x = rnd.nextInt(escenario.total());
+        if ((x -= escenario.pesoListar()) < 0) {
+            enviar("contenidos.listar", contenidos("/Contenidos/ListarContenidos").build());
+        } else if ((x -= escenario.pesoReproducir()) < 0) {
+            reproducir(medios.get(rnd.nextInt(medios.size())));
+        } else if ((x -= escenario.pesoValorar()) < 0) {
+            valorar();
+        } else if ((x -= escenario.pesoFavorito()) < 0) {
+            String id = medios.get(rnd.nextInt(medios.size())).id();
+            enviar("contenidos.favorito", contenidos("/Contenidos/" + id + "/favorito")
+                    .POST(HttpRequest.BodyPublishers.noBody()).build());
+        } else {
+            enviar("contenidos.favoritos", contenidos("/Contenidos/favoritos").build());
+        }
+    }
+
+    private void iniciarSesion() throws InterruptedException {
+        String login = "{\"email\":\"" + usuario.email() + "\",\"password\":\"" + DatosDeCarga.PASSWORD + "\"}";
+        JsonNode r = enviarJson("auth.login", post(urlUsuarios + "/auth/login", login));
+        if (r == null || !r.path("needMfa").asBoolean()) return;
+        String verificar = "{\"mfaToken\":\"" + r.path("mfaToken").asText() + "\",\"code\":\""
+                + Totp.codigo(usuario.claveTotp(), System.currentTimeMillis()) + "\"}";
+        enviarJson("auth.mfa", post(urlUsuarios + "/auth/mfa/verify", verificar));
+    }
+
+    private void reproducir(DatosDeCarga.Medio m) throws InterruptedException {
+        String ruta = "/Contenidos/ReproducirContenido/" + m.id();
+        enviar("contenidos.head", contenidos(ruta).method("HEAD", HttpRequest.BodyPublishers.noBody()).build());
+        String sesion = UUID.randomUUID().toString();
+        long inicio = 0;
+        for (int i = 0; i < escenario.rangosPorSesion() && inicio < m.bytes(); i++) {
+            long fin = Math.min(m.bytes(), inicio + escenario.bytesPorRango()) - 1;
+            int status = enviar("contenidos.rango", contenidos(ruta + "?sesion=" + sesion)
+                    .header("Range", "bytes=" + inicio + "-" + fin).build());
+            if (status != 206) break;
+            inicio = fin + 1;
+        }
+        reproducidos.putIfAbsent(m.id(), System.currentTimeMillis());
+    }
+
+    private void valorar() throws InterruptedException {
+        long limite = System.currentTimeMillis() - ESPERA_PARA_VALORAR_MS;
+        String id = reproducidos.entrySet().stream()
+                .filter(e -> e.getValue() <= limite && !valorados.contains(e.getKey()))
+                .map(Map.Entry::getKey)
+                .findFirst().orElse(null);
+        if (id == null) {
+            enviar("contenidos.rating", contenidos("/Contenidos/RatingContenido/" + medios.get(rnd.nextInt(medios.size())).id()).build());
+            return;
+        }
+        double score = (1 + rnd.nextInt(10)) / 2.0;
+        enviar("contenidos.valorar", contenidos("/Contenidos/ValorarContenido/" + id + "/" + score)
+                .POST(HttpRequest.BodyPublishers.noBody()).build());
+        valorados.add(id);
+    }
+
+    private HttpRequest.Builder contenidos(String ruta) {
+        return HttpRequest.newBuilder(URI.create(urlContenidos + ruta))
+                .timeout(TIMEOUT)
+                .header("X-User-Email", usuario.email())
+                .header("X-User-Role", "USUARIO")
+                .header("X-User-Vip", "false")
+                .header("X-User-Age", "30");
+    }
+
+    private static HttpRequest post(String url, String json) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    private int enviar(String endpoint, HttpRequest req) throws InterruptedException {
+        long t0 = System.nanoTime();
+        try {
+            // El cuerpo se consume entero: la latencia incluye la transferencia
+            HttpResponse<Void> res = http.send(req, HttpResponse.BodyHandlers.discarding());
+            metricas.registrar(endpoint, System.nanoTime() - t0, res.statusCode());
+            return res.statusCode();
+        } catch (IOException e) {
+            metricas.registrar(endpoint, System.nanoTime() - t0, Metricas.FALLO_ES);
+            return Metricas.FALLO_ES;
+        }
+    }
+
+    private JsonNode enviarJson(String endpoint, HttpRequest req) throws InterruptedException {
+        long t0 = System.nanoTime();
+        try {
+            HttpResponse<byte[]> res = http.send(req, HttpResponse.BodyHandlers.ofByteArray());
+            metricas.registrar(endpoint, System.nanoTime() - t0, res.statusCode());
+            return res.statusCode() == 200 ? JSON.readTree(res.body()) : null;
+        } catch (IOException e) {
+            metricas.registrar(endpoint, System.nanoTime() - t0, Metricas.FALLO_ES);
+            return null;
+        }
+    }
+}
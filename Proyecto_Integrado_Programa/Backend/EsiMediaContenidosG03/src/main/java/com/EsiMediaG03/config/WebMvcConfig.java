@@ -0,0 +1,36 @@
+package com.EsiMediaG03.config;
+
+import java.util.List;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.EsiMediaG03.http.MediaStreamExecutor;
+import com.EsiMediaG03.http.MediaStreamReturnValueHandler;
+import com.EsiMediaG03.http.ZeroCopyResourceHttpMessageConverter;
+import com.EsiMediaG03.http.ZeroCopyResourceRegionHttpMessageConverter;
+
+@Configuration
+public class WebMvcConfig implements WebMvcConfigurer {
+
+    private final MediaStreamExecutor mediaStreamExecutor;
+
+    public WebMvcConfig(MediaStreamExecutor mediaStreamExecutor) {
+        this.mediaStreamExecutor = mediaStreamExecutor;
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        // Los ficheros multimedia locales se sirven como regiones de fichero (sendfile / transferTo)
+        converters.add(0, new ZeroCopyResourceRegionHttpMessageConverter());
+        converters.add(0, new ZeroCopyResourceHttpMessageConverter());
+    }
+
+    @Override
+    public void addReturnValueHandlers(List<HandlerMethodReturnValueHandler> handlers) {
+        // Las descargas largas se escriben desde el pool multimedia, no desde el de Tomcat
+        handlers.add(new MediaStreamReturnValueHandler(mediaStreamExecutor));
+    }
+}
@@ -0,0 +1,21 @@
+package com.EsiMediaG03.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import com.EsiMediaG03.model.Contenido;
+
+/** Lo que necesita el catálogo de un contenido, sin reproductores, valoraciones ni favoritos por usuario. */
+public record ContenidoResumen(String id, String userEmail, String titulo, String descripcion, Contenido.Tipo tipo,
+                               List<String> tags, int duracionMinutos, String resolucion, boolean vip,
+                               boolean visible, int restringidoEdad, String imagen, LocalDateTime fechaEstado,
+                               LocalDateTime fechaModificacion, LocalDateTime disponibleHasta,
+                               long reproducciones, double ratingAvg, int ratingCount) {
+
+    public static ContenidoResumen of(Contenido c) {
+        return new ContenidoResumen(c.getId(), c.getUserEmail(), c.getTitulo(), c.getDescripcion(), c.getTipo(),
+                c.getTags(), c.getDuracionMinutos(), c.getResolucion(), c.isVip(), c.isVisible(),
+                c.getRestringidoEdad(), c.getImagen(), c.getFechaEstado(), c.getFechaModificacion(), c.getDisponibleHasta(),
+                c.getNumReproducciones(), c.getRatingAvg(), c.getRatingCount());
+    }
+}
@@ -0,0 +1,17 @@
+package com.EsiMediaG03.dto;
+
+import java.util.List;
+import java.util.Objects;
+
+import com.EsiMediaG03.model.Contenido;
+
+/** Un contenido en el ranking de valoraciones; ratingCount sirve además de versión para descartar escrituras viejas. */
+public record EntradaRanking(String id, String titulo, Contenido.Tipo tipo, List<String> tags,
+                             double ratingBayes, double ratingAvg, int ratingCount) {
+
+    public static EntradaRanking of(Contenido c) {
+        List<String> tags = c.getTags() != null ? c.getTags().stream().filter(Objects::nonNull).toList() : List.of();
+        return new EntradaRanking(c.getId(), c.getTitulo(), c.getTipo(), tags,
+                c.getRatingBayes(), c.getRatingAvg(), c.getRatingCount());
+    }
+}
@@ -0,0 +1,13 @@
+package com.EsiMediaG03.dto;
+
+import java.util.List;
+
+import com.EsiMediaG03.model.Contenido;
+
+/** Filtros del listado del catálogo; los null no filtran. Con varios tags el contenido debe tenerlos todos. */
+public record FiltroCatalogo(Contenido.Tipo tipo, Boolean vip, Boolean visible, List<String> tags) {
+
+    public static FiltroCatalogo sinFiltros() {
+        return new FiltroCatalogo(null, null, null, null);
+    }
+}
@@ -0,0 +1,14 @@
+package com.EsiMediaG03.dto;
+
+import java.nio.file.Path;
+
+public record MediaFileMetadata(Path path, long size, long lastModified, String etag, String mimeType, boolean readable) {
+
+    public MediaFileMetadata(Path path, long size, long lastModified, String etag) {
+        this(path, size, lastModified, etag, null, true);
+    }
+
+    public static MediaFileMetadata noLegible(Path path) {
+        return new MediaFileMetadata(path, -1, -1, null, null, false);
+    }
+}
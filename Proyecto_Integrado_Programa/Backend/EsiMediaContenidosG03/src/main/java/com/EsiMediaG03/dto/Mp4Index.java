@@ -0,0 +1,27 @@
+package com.EsiMediaG03.dto;
+
+import java.util.List;
+
+/**
+ * Índice de un MP4 local calculado al darlo de alta: posición del moov, duración, bitrate
+ * y tabla de keyframes. Los offsets de los keyframes se refieren a {@code servedPath},
+ * que es la copia faststart si se generó o el fichero original si no hizo falta.
+ */
+public record Mp4Index(String version, long size, long moovOffset, long moovSize, long mdatOffset,
+                       boolean faststart, double durationSeconds, long bitrate,
+                       String servedPath, List<Keyframe> keyframes) {
+
+    public record Keyframe(double time, long offset) {}
+
+    /** Último keyframe en o antes de {@code seconds}; el primero si se pide un tiempo anterior. */
+    public Keyframe keyframeAt(double seconds) {
+        if (keyframes == null || keyframes.isEmpty()) return null;
+        int lo = 0;
+        int hi = keyframes.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (keyframes.get(mid).time() <= seconds) lo = mid; else hi = mid - 1;
+        }
+        return keyframes.get(lo);
+    }
+}
@@ -0,0 +1,6 @@
+package com.EsiMediaG03.dto;
+
+import java.util.List;
+
+/** Una página del catálogo; siguienteCursor es null cuando ya no quedan más. */
+public record PaginaCatalogo(List<ContenidoResumen> contenidos, String siguienteCursor) {}
@@ -0,0 +1,12 @@
+package com.EsiMediaG03.dto;
+
+import java.time.LocalDateTime;
+
+import com.EsiMediaG03.model.Contenido;
+
+public record ReglasAcceso(boolean visible, boolean vip, int restringidoEdad, LocalDateTime disponibleHasta) {
+
+    public static ReglasAcceso of(Contenido c) {
+        return new ReglasAcceso(c.isVisible(), c.isVip(), c.getRestringidoEdad(), c.getDisponibleHasta());
+    }
+}
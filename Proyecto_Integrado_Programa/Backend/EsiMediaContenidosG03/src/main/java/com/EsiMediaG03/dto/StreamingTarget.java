@@ -2,8 +2,21 @@ package com.EsiMediaG03.dto;
 
 import java.nio.file.Path;
 
+import com.EsiMediaG03.model.Contenido;
+
 public record StreamingTarget(Path path, long length, String mimeType,
-                              boolean externalRedirect, String externalUrl) {
+                              boolean externalRedirect, String externalUrl,
+                              Contenido.Tipo tipo, String resolucion, int duracionMinutos,
+                              Path hlsManifest) {
+
+    public StreamingTarget(Path path, long length, String mimeType, boolean externalRedirect, String externalUrl) {
+        this(path, length, mimeType, externalRedirect, externalUrl, null, null, 0);
+    }
+
+    public StreamingTarget(Path path, long length, String mimeType, boolean externalRedirect, String externalUrl,
+                           Contenido.Tipo tipo, String resolucion, int duracionMinutos) {
+        this(path, length, mimeType, externalRedirect, externalUrl, tipo, resolucion, duracionMinutos, null);
+    }
 
     public static StreamingTarget local(Path path, long length, String mimeType) {
         return new StreamingTarget(path, length, mimeType, false, null);
@@ -12,5 +25,20 @@ public record StreamingTarget(Path path, long length, String mimeType,
         return new StreamingTarget(null, -1, mimeType, true, url);
     }
 
+    public StreamingTarget withProfile(Contenido c) {
+        return new StreamingTarget(path, length, mimeType, externalRedirect, externalUrl,
+                c.getTipo(), c.getResolucion(), c.getDuracionMinutos(), hlsManifest);
+    }
+
+    public StreamingTarget withHls(Path manifest) {
+        return new StreamingTarget(path, length, mimeType, externalRedirect, externalUrl,
+                tipo, resolucion, duracionMinutos, manifest);
+    }
+
     public boolean isExternalRedirect() { return externalRedirect; }
+
+    /** Versión del paquete HLS listo (nombre de su directorio), o null si no lo hay. */
+    public String hlsVersion() {
+        return hlsManifest != null ? hlsManifest.getParent().getFileName().toString() : null;
+    }
 }
@@ -0,0 +1,230 @@
+package com.EsiMediaG03.http;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import com.EsiMediaG03.services.ChunkSizePolicy;
+
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Reparto del ancho de banda de las descargas con cubos de tokens (1 token = 1 byte):
+ * uno por usuario ({@code X-User-Email}, con otro nivel para VIP) y uno global para todo el servicio.
+ * Además limita las descargas simultáneas de cada usuario, que es lo que abre un gestor de descargas.
+ * La espera se hace en el hilo que escribe, así que solo se aplica a las escrituras del pool multimedia.
+ */
+@Component
+public class BandwidthShaper {
+
+    private static final Logger log = LoggerFactory.getLogger(BandwidthShaper.class);
+
+    // Desactivado por defecto: las escrituras limitadas se copian en el pool y no usan sendfile
+    @Value("${contenidos.streaming.shaping.enabled:false}")
+    private boolean enabled = false;
+
+    // Por defecto el doble del bitrate más alto que supone ChunkSizePolicy (4K), para que el buffer se llene
+    @Value("${contenidos.streaming.shaping.user-bytes-per-second:8750000}")
+    private long userBytesPerSecond = 2 * ChunkSizePolicy.MAX_BYTES_PER_SECOND;
+
+    @Value("${contenidos.streaming.shaping.vip-bytes-per-second:17500000}")
+    private long vipBytesPerSecond = 4 * ChunkSizePolicy.MAX_BYTES_PER_SECOND;
+
+    // Las respuestas más pequeñas caben en la ráfaga: se sirven sin pasar por el pool ni ocupar una descarga
+    @Value("${contenidos.streaming.shaping.min-bytes:1048576}")
+    private long minBytes = 1024L * 1024L;
+
+    @Value("${contenidos.streaming.shaping.global-bytes-per-second:134217728}")
+    private long globalBytesPerSecond = 128L * 1024L * 1024L;
+
+    // Ráfaga permitida, en segundos de caudal: cubre el buffer inicial del reproductor
+    @Value("${contenidos.streaming.shaping.burst-seconds:2}")
+    private int burstSeconds = 2;
+
+    @Value("${contenidos.streaming.shaping.max-streams-per-user:4}")
+    private int maxStreamsPerUser = 4;
+
+    @Value("${contenidos.streaming.shaping.vip-max-streams-per-user:8}")
+    private int vipMaxStreamsPerUser = 8;
+
+    @Value("${contenidos.streaming.shaping.max-users:10000}")
+    private int maxUsers = 10000;
+
+    @Value("${contenidos.streaming.shaping.slice-bytes:65536}")
+    private int sliceBytes = 64 * 1024;
+
+    private Bucket global;
+    private final ConcurrentHashMap<String, Usuario> usuarios = new ConcurrentHashMap<>();
+
+    private final AtomicLong bytesServidos = new AtomicLong();
+    private final AtomicLong esperaUsuarioNanos = new AtomicLong();
+    private final AtomicLong esperaGlobalNanos = new AtomicLong();
+    private final AtomicLong escriturasFrenadas = new AtomicLong();
+    private final AtomicLong rechazadas = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        if (!enabled) return;
+        global = cubo(globalBytesPerSecond);
+        if (userBytesPerSecond < ChunkSizePolicy.MAX_BYTES_PER_SECOND) {
+            log.warn("El límite por usuario ({} B/s) no alcanza el bitrate de 4K ({} B/s): esas reproducciones se cortarán",
+                    userBytesPerSecond, ChunkSizePolicy.MAX_BYTES_PER_SECOND);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled && global != null;
+    }
+
+    /** Si una respuesta de {@code bytes} se limita; las que caben en la ráfaga se sirven directamente. */
+    public boolean aplica(long bytes) {
+        return isEnabled() && bytes >= minBytes;
+    }
+
+    /**
+     * Reserva una descarga para el usuario. Devuelve {@code null} si ya tiene abiertas las que le
+     * corresponden a su nivel; sin email solo se aplica el límite global.
+     */
+    public Cupo abrir(String email, Boolean vip) {
+        if (!StringUtils.hasText(email)) return new Cupo(null);
+        boolean esVip = Boolean.TRUE.equals(vip);
+        String clave = (esVip ? "vip:" : "") + email.trim().toLowerCase();
+        int max = esVip ? vipMaxStreamsPerUser : maxStreamsPerUser;
+
+        if (usuarios.size() >= maxUsers) purgarInactivos();
+        // La descarga se cuenta dentro de compute(): la purga no puede quitar al usuario entre medias y dejarla
+        // contada en un objeto que ya no está en el mapa
+        int[] abiertas = new int[1];
+        Usuario u = usuarios.compute(clave, (k, previo) -> {
+            Usuario r = previo != null ? previo : new Usuario(cubo(esVip ? vipBytesPerSecond : userBytesPerSecond));
+            abiertas[0] = r.descargas.incrementAndGet();
+            return r;
+        });
+        if (abiertas[0] > max) {
+            u.descargas.decrementAndGet();
+            rechazadas.incrementAndGet();
+            return null;
+        }
+        return new Cupo(u);
+    }
+
+    private Bucket cubo(long bytesPorSegundo) {
+        long capacidad = Math.max(sliceBytes, bytesPorSegundo * burstSeconds);
+        return Bucket.builder()
+                .addLimit(Bandwidth.builder().capacity(capacidad).refillGreedy(bytesPorSegundo, Duration.ofSeconds(1)).build())
+                .build();
+    }
+
+    // Por clave y con computeIfPresent, atómico respecto a abrir(): solo se va quien no tiene descargas
+    private void purgarInactivos() {
+        for (String clave : usuarios.keySet()) {
+            usuarios.computeIfPresent(clave, (k, u) -> u.descargas.get() == 0 ? null : u);
+        }
+    }
+
+    private static long consumir(Bucket bucket, long bytes, AtomicLong espera) throws InterruptedIOException {
+        if (bucket.tryConsume(bytes)) return 0;
+        long t0 = System.nanoTime();
+        try {
+            bucket.asBlocking().consume(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Descarga interrumpida mientras esperaba ancho de banda");
+        }
+        long esperado = System.nanoTime() - t0;
+        espera.addAndGet(esperado);
+        return esperado;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("enabled", enabled);
+        res.put("minBytes", minBytes);
+        res.put("userBytesPerSecond", userBytesPerSecond);
+        res.put("vipBytesPerSecond", vipBytesPerSecond);
+        res.put("globalBytesPerSecond", globalBytesPerSecond);
+        res.put("users", usuarios.size());
+        res.put("activeStreams", usuarios.values().stream().mapToInt(u -> u.descargas.get()).sum());
+        res.put("rejectedStreams", rechazadas.get());
+        res.put("bytesServed", bytesServidos.get());
+        res.put("throttledWrites", escriturasFrenadas.get());
+        res.put("throttledUserMillis", esperaUsuarioNanos.get() / 1_000_000);
+        res.put("throttledGlobalMillis", esperaGlobalNanos.get() / 1_000_000);
+        return res;
+    }
+
+    private static final class Usuario {
+        final Bucket bucket;
+        final AtomicInteger descargas = new AtomicInteger();
+
+        Usuario(Bucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    /** Descarga admitida: envuelve la salida con los límites y se cierra una sola vez al terminar. */
+    public final class Cupo {
+
+        private final Usuario usuario;
+        private final AtomicBoolean cerrado = new AtomicBoolean();
+
+        private Cupo(Usuario usuario) {
+            this.usuario = usuario;
+        }
+
+        public OutputStream envolver(OutputStream out) {
+            return new SalidaLimitada(out, usuario);
+        }
+
+        public void cerrar() {
+            if (cerrado.compareAndSet(false, true) && usuario != null) usuario.descargas.decrementAndGet();
+        }
+    }
+
+    private final class SalidaLimitada extends FilterOutputStream {
+
+        private final Usuario usuario;
+
+        SalidaLimitada(OutputStream out, Usuario usuario) {
+            super(out);
+            this.usuario = usuario;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int pos = off;
+            int restante = len;
+            while (restante > 0) {
+                int n = Math.min(restante, sliceBytes);
+                long espera = usuario != null ? consumir(usuario.bucket, n, esperaUsuarioNanos) : 0;
+                espera += consumir(global, n, esperaGlobalNanos);
+                if (espera > 0) escriturasFrenadas.incrementAndGet();
+                out.write(b, pos, n);
+                bytesServidos.addAndGet(n);
+                pos += n;
+                restante -= n;
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.EsiMediaG03.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import org.springframework.core.io.AbstractResource;
+
+/**
+ * Recurso respaldado por un ByteBuffer (normalmente un segmento mapeado en memoria);
+ * se escribe directamente sobre la respuesta sin volver a leer el fichero.
+ * Si el buffer es prestado, {@code alTerminar} lo devuelve una vez escrita la respuesta.
+ */
+public class ByteBufferResource extends AbstractResource {
+
+    private final ByteBuffer buffer;
+    private final String description;
+    private final Runnable alTerminar;
+
+    public ByteBufferResource(ByteBuffer buffer, String description) {
+        this(buffer, description, null);
+    }
+
+    public ByteBufferResource(ByteBuffer buffer, String description, Runnable alTerminar) {
+        this.buffer = buffer.asReadOnlyBuffer();
+        this.description = description;
+        this.alTerminar = alTerminar;
+    }
+
+    @Override
+    public long contentLength() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public String getDescription() {
+        return "ByteBuffer [" + description + "]";
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        ByteBuffer b = buffer.duplicate();
+        return new InputStream() {
+            @Override public int read() {
+                return b.hasRemaining() ? b.get() & 0xFF : -1;
+            }
+            @Override public int read(byte[] dst, int off, int len) {
+                if (!b.hasRemaining()) return -1;
+                int n = Math.min(len, b.remaining());
+                b.get(dst, off, n);
+                return n;
+            }
+        };
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        try {
+            ByteBuffer b = buffer.duplicate();
+            WritableByteChannel channel = Channels.newChannel(out);
+            while (b.hasRemaining()) {
+                channel.write(b);
+            }
+        } finally {
+            if (alTerminar != null) alTerminar.run();
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other || (other instanceof ByteBufferResource r && buffer.equals(r.buffer));
+    }
+
+    @Override
+    public int hashCode() {
+        return buffer.hashCode();
+    }
+}
@@ -0,0 +1,20 @@
+package com.EsiMediaG03.http;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.springframework.core.io.support.ResourceRegion;
+
+/**
+ * Regiones de un mismo fichero que se responden como multipart/byteranges.
+ * El tipo propio permite que el conversor de regiones lo reconozca aunque el
+ * controlador devuelva ResponseEntity&lt;Object&gt;.
+ */
+public class ByteRangeRegions extends ArrayList<ResourceRegion> {
+
+    private static final long serialVersionUID = 1L;
+
+    public ByteRangeRegions(Collection<ResourceRegion> regions) {
+        super(regions);
+    }
+}
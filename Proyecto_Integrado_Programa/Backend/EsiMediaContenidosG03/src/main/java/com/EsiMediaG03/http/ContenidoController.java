@@ -1,13 +1,27 @@
 package com.EsiMediaG03.http;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
@@ -24,23 +38,74 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import jakarta.servlet.http.HttpServletResponse;
+
+import com.EsiMediaG03.dto.FiltroCatalogo;
+import com.EsiMediaG03.dto.MediaFileMetadata;
 import com.EsiMediaG03.dto.ModificarContenidoRequest;
+import com.EsiMediaG03.dto.Mp4Index;
 import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.exceptions.ContenidoValidationException;
 import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.services.CatalogoService;
+import com.EsiMediaG03.services.ChunkSizePolicy;
 import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.ExternalMediaProxy;
+import com.EsiMediaG03.services.HlsPackager;
+import com.EsiMediaG03.services.HotSegmentCache;
+import com.EsiMediaG03.services.IndicesMongo;
+import com.EsiMediaG03.services.MediaFileMetadataCache;
+import com.EsiMediaG03.services.PlaybackSessionTracker;
+import com.EsiMediaG03.services.ReadAheadPrefetcher;
 
 @RestController
 @RequestMapping("Contenidos")
 @CrossOrigin(origins = "http://localhost:4200")
 public class ContenidoController {
 
-    private static final long DEFAULT_CHUNK_SIZE = 1024L * 1024L;
     private final ContenidoService contenidoService;
-
-    public ContenidoController(ContenidoService contenidoService) {
+    private final ChunkSizePolicy chunkSizePolicy;
+    private final MediaFileMetadataCache metadataCache;
+    private final HotSegmentCache hotSegmentCache;
+    private final MediaStreamExecutor mediaStreamExecutor;
+    private final PlaybackSessionTracker playbackSessions;
+    private final ExternalMediaProxy externalMediaProxy;
+    private final BandwidthShaper bandwidthShaper;
+    private final ReadAheadPrefetcher readAhead;
+    private final CatalogoService catalogoService;
+    private final IndicesMongo indicesMongo;
+
+    private static final MediaType HLS_MANIFEST = MediaType.parseMediaType("application/vnd.apple.mpegurl");
+    private static final MediaType HLS_SEGMENT = MediaType.parseMediaType("video/mp2t");
+    static final String EXPORT_WATERMARK = "X-Export-Watermark";
+
+    @Value("${contenidos.streaming.max-ranges:8}")
+    private int maxRanges = 8;
+
+    @Value("${contenidos.streaming.max-multipart-bytes:8388608}")
+    private long maxMultipartBytes = 8L * 1024L * 1024L;
+
+    public ContenidoController(ContenidoService contenidoService, ChunkSizePolicy chunkSizePolicy,
+                               MediaFileMetadataCache metadataCache, HotSegmentCache hotSegmentCache,
+                               MediaStreamExecutor mediaStreamExecutor, PlaybackSessionTracker playbackSessions,
+                               ExternalMediaProxy externalMediaProxy, BandwidthShaper bandwidthShaper,
+                               ReadAheadPrefetcher readAhead, CatalogoService catalogoService,
+                               IndicesMongo indicesMongo) {
         this.contenidoService = contenidoService;
+        this.chunkSizePolicy = chunkSizePolicy;
+        this.metadataCache = metadataCache;
+        this.hotSegmentCache = hotSegmentCache;
+        this.mediaStreamExecutor = mediaStreamExecutor;
+        this.playbackSessions = playbackSessions;
+        this.externalMediaProxy = externalMediaProxy;
+        this.bandwidthShaper = bandwidthShaper;
+        this.readAhead = readAhead;
+        this.catalogoService = catalogoService;
+        this.indicesMongo = indicesMongo;
     }
 
     @PostMapping("/AnadirContenido")
@@ -55,6 +120,53 @@ public class ContenidoController {
         return ResponseEntity.ok(lista);
     }
 
+    @GetMapping("/Catalogo")
+    public ResponseEntity<Object> catalogo(
+            @RequestParam(value = "tipo", required = false) Contenido.Tipo tipo,
+            @RequestParam(value = "vip", required = false) Boolean vip,
+            @RequestParam(value = "visible", required = false) Boolean visible,
+            @RequestParam(value = "tags", required = false) List<String> tags,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limite", required = false) Integer limite) {
+        try {
+            return ResponseEntity.ok(catalogoService.pagina(new FiltroCatalogo(tipo, vip, visible, tags), cursor, limite));
+        } catch (ContenidoValidationException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * Catálogo completo en NDJSON, o solo lo modificado desde {@code updatedSince}. La cabecera
+     * {@value #EXPORT_WATERMARK} trae la hora de inicio de la exportación, que sirve como
+     * {@code updatedSince} de la siguiente sincronización.
+     */
+    @GetMapping("/Catalogo/Exportar")
+    public ResponseEntity<Object> exportarCatalogo(
+            @RequestHeader(value = "X-User-Role", required = false) String userRole,
+            @RequestParam(value = "updatedSince", required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime updatedSince,
+            HttpServletResponse response) throws IOException {
+
+        if (!esAdminOGestor(userRole)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "No autorizado: solo Administradores y Gestores."));
+        }
+
+        HttpHeaders h = new HttpHeaders();
+        h.setContentType(MediaType.APPLICATION_NDJSON);
+        h.setCacheControl(CacheControl.noStore());
+        h.set(EXPORT_WATERMARK, LocalDateTime.now().toString());
+        StreamingResponseBody writer = out -> catalogoService.exportar(updatedSince, out);
+
+        if (!mediaStreamExecutor.isRunning()) {
+            // Sin pool multimedia se escribe en el hilo de la petición; la respuesta ya queda atendida
+            h.forEach((nombre, valores) -> valores.forEach(v -> response.addHeader(nombre, v)));
+            writer.writeTo(response.getOutputStream());
+            return null;
+        }
+        return asyncBody(mediaStreamExecutor.tryOpen(writer), h, HttpStatus.OK);
+    }
+
     @GetMapping("/ReproducirContenido/{id}")
     public ResponseEntity<Object> stream(
             @PathVariable String id,
@@ -64,32 +176,49 @@ public class ContenidoController {
             @RequestHeader(value="X-User-Vip", required=false) Boolean userVip,
             @RequestHeader(value="X-User-Birthdate", required=false) String userBirthdateIso,
             @RequestHeader(value="X-User-Age", required=false) Integer userAge,
-            @org.springframework.web.bind.annotation.RequestParam(value = "meta", required = false) Boolean meta // <— NUEVO
+            @org.springframework.web.bind.annotation.RequestParam(value = "meta", required = false) Boolean meta, // <— NUEVO
+            @org.springframework.web.bind.annotation.RequestParam(value = "sesion", required = false) String sesion
     ) throws Exception {
         Integer age = resolveAge(userBirthdateIso, userAge);
 
         StreamingTarget target = contenidoService.resolveStreamingTarget(id, userVip, age);
+        StreamingMetricsFilter.marcarTipo(target.tipo());
 
-        contenidoService.registrarReproduccionSiUsuario(id, userRole);
-        contenidoService.registrarReproductor(id, userEmail);
+        if (Boolean.TRUE.equals(meta) && !StringUtils.hasText(sesion)) {
+            sesion = playbackSessions.nuevaSesion();
+        }
+        // Una reproducción son muchas peticiones de rango; solo cuenta la primera de la sesión
+        if (playbackSessions.primeraReproduccion(sesion, userEmail, id, empiezaEnCero(headers))) {
+            contenidoService.registrarReproduccionSiUsuario(id, userRole);
+            contenidoService.registrarReproductor(id, userEmail);
+        }
 
         if (Boolean.TRUE.equals(meta)) {
             if (target.isExternalRedirect()) {
                 return ResponseEntity.ok(java.util.Map.of(
                         "kind", "external",
                         "url", target.externalUrl(),
-                        "mime", target.mimeType() != null ? target.mimeType() : "text/html"
+                        "mime", target.mimeType() != null ? target.mimeType() : "text/html",
+                        "sesion", sesion
                 ));
             } else {
-                return ResponseEntity.ok(java.util.Map.of(
-                        "kind", "local",
-                        "mime", target.mimeType(),
-                        "length", target.length()
-                ));
+                Map<String, Object> res = new java.util.LinkedHashMap<>();
+                res.put("kind", "local");
+                res.put("mime", target.mimeType());
+                res.put("length", metadataCache.get(target.path()).size());
+                res.put("sesion", sesion);
+                if (target.hlsManifest() != null) {
+                    res.put("hls", "/Contenidos/ReproducirContenido/" + id + "/hls/" + target.hlsVersion() + "/" + HlsPackager.MANIFEST);
+                }
+                return ResponseEntity.ok(res);
             }
         }
     
 
+        if (target.isExternalRedirect() && externalMediaProxy.isEnabled()) {
+            ResponseEntity<Object> proxied = proxied(target.externalUrl(), headers, userEmail, userVip);
+            if (proxied != null) return proxied;
+        }
         if (target.isExternalRedirect()) {
             return ResponseEntity.status(HttpStatus.FOUND)
                     .header(HttpHeaders.LOCATION, target.externalUrl())
@@ -97,64 +226,363 @@ public class ContenidoController {
         }
 
         Path file = target.path();
-        long fileSize = target.length();
+        // El tamaño del target puede llevar hasta un TTL en caché; el de los metadatos es el que validan ETag e If-Range
+        MediaFileMetadata md = metadataCache.get(file);
+        long fileSize = md.size();
         MediaType mediaType = resolveMediaType(target.mimeType(), file);
 
-        List<HttpRange> ranges = headers.getRange();
+        Resource media = new FileSystemResource(file);
+
+        if (isNotModified(headers, md)) {
+            return new ResponseEntity<>(validatorHeaders(new HttpHeaders(), md), HttpStatus.NOT_MODIFIED);
+        }
+
+        List<HttpRange> ranges = ifRangeMatches(headers, md) ? headers.getRange() : List.of();
         if (ranges.isEmpty()) {
-            HttpHeaders h = commonHeaders(mediaType);
+            HttpHeaders h = localHeaders(mediaType, md);
             h.setContentLength(fileSize);
-            InputStreamResource body = new InputStreamResource(Files.newInputStream(file));
-            return new ResponseEntity<>(body, h, HttpStatus.OK);
+            // Con un Range ignorado por If-Range, Spring lo volvería a aplicar a un Resource
+            Object completo = headers.containsKey(HttpHeaders.RANGE) ? new FicheroCompleto(media, fileSize) : media;
+            return localBody(completo, file, 0, fileSize, h, HttpStatus.OK, userEmail, userVip);
         }
 
-        HttpRange range = ranges.get(0);
-        long start = range.getRangeStart(fileSize);
-        long end = range.getRangeEnd(fileSize);
-
-        if (start >= fileSize || end >= fileSize || start > end) {
-            HttpHeaders h = commonHeaders(mediaType);
+        List<ResourceRegion> regions = toRegions(media, ranges, fileSize);
+        if (regions.isEmpty()) {
+            HttpHeaders h = localHeaders(mediaType, md);
             h.add(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize);
             return new ResponseEntity<>(null, h, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
         }
 
-        long rangeLength = end - start + 1;
-        long chunk = Math.min(rangeLength, DEFAULT_CHUNK_SIZE);
+        if (regions.size() > 1) {
+            return new ResponseEntity<>(new ByteRangeRegions(regions), localHeaders(mediaType, md), HttpStatus.PARTIAL_CONTENT);
+        }
 
-        try (InputStream is = Files.newInputStream(file)) {
-            long skipped = is.skip(start);
-            while (skipped < start) {
-                long remaining = start - skipped;
-                long additionalSkipped = is.skip(remaining);
-                if (additionalSkipped <= 0) {
-                    throw new java.io.IOException("Unable to skip to the desired position in the stream.");
-                }
-                skipped += additionalSkipped;
+        ResourceRegion region = regions.get(0);
+        long start = region.getPosition();
+        boolean openEnded = ranges.size() == 1 && isOpenEnded(ranges.get(0));
+        long chunk = chunkSizePolicy.chunkSize(target, region.getCount(), openEnded, userEmail);
+
+        ByteBufferResource memoria = null;
+        ReadAheadPrefetcher.Lectura pre = null;
+        ByteBuffer hot = hotSegmentCache.slice(md, start, chunk);
+        if (hot != null) {
+            memoria = new ByteBufferResource(hot, file.toString());
+        } else {
+            // Solo si el tramo leído cubre el chunk entero: acortarlo multiplicaría las peticiones y dejaría sin sendfile
+            pre = readAhead.acceder(clienteLectura(sesion, userEmail), md, start, chunk);
+            if (pre != null) {
+                memoria = new ByteBufferResource(pre.datos(), file.toString(), pre::liberar);
+            }
+        }
+        chunkSizePolicy.recordServed(userEmail, chunk);
+
+        HttpHeaders h = localHeaders(mediaType, md);
+        h.set(HttpHeaders.CONTENT_RANGE, String.format("bytes %d-%d/%d", start, start + chunk - 1, fileSize));
+        h.setContentLength(chunk);
+
+        if (memoria != null) {
+            ByteBufferResource slice = memoria;
+            if (shapingActivo(chunk)) {
+                ResponseEntity<Object> limitada = shapedBody(slice::writeTo, h, HttpStatus.PARTIAL_CONTENT, userEmail, userVip);
+                // 429 o 503: writeTo no llegará a ejecutarse y el buffer prestado no se liberaría
+                if (pre != null && limitada.getStatusCode().isError()) pre.noServida();
+                return limitada;
+            }
+            return new ResponseEntity<>(slice, h, HttpStatus.PARTIAL_CONTENT);
+        }
+        return localBody(new ResourceRegion(media, start, chunk), file, start, chunk, h, HttpStatus.PARTIAL_CONTENT,
+                userEmail, userVip);
+    }
+
+    /** Keyframe en o antes del segundo pedido y su offset en el fichero servido, según el índice MP4. */
+    @GetMapping("/ReproducirContenido/{id}/seek")
+    public ResponseEntity<Object> seek(
+            @PathVariable String id,
+            @org.springframework.web.bind.annotation.RequestParam("t") double seconds,
+            @RequestHeader(value="X-User-Vip", required=false) Boolean userVip,
+            @RequestHeader(value="X-User-Birthdate", required=false) String userBirthdateIso,
+            @RequestHeader(value="X-User-Age", required=false) Integer userAge
+    ) throws Exception {
+        Integer age = resolveAge(userBirthdateIso, userAge);
+        StreamingTarget target = contenidoService.resolveStreamingTarget(id, userVip, age);
+        Mp4Index idx = contenidoService.indiceMp4(id, target);
+        Mp4Index.Keyframe kf = idx != null ? idx.keyframeAt(seconds) : null;
+        if (kf == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(Map.of(
+                "time", kf.time(),
+                "offset", kf.offset(),
+                "duration", idx.durationSeconds(),
+                "bitrate", idx.bitrate()
+        ));
+    }
+
+    /**
+     * Manifiesto y segmentos del paquete HLS. La versión va en la ruta, así que todo lo que se
+     * sirve aquí es inmutable; si el paquete se ha regenerado el cliente recibe 404 y vuelve a pedir meta.
+     */
+    @GetMapping("/ReproducirContenido/{id}/hls/{version}/{fichero:.+}")
+    public ResponseEntity<Object> hls(
+            @PathVariable String id,
+            @PathVariable String version,
+            @PathVariable String fichero,
+            @RequestHeader(value="X-User-Role", required=false) String userRole,
+            @RequestHeader(value="X-User-Email", required=false) String userEmail,
+            @RequestHeader(value="X-User-Vip", required=false) Boolean userVip,
+            @RequestHeader(value="X-User-Birthdate", required=false) String userBirthdateIso,
+            @RequestHeader(value="X-User-Age", required=false) Integer userAge,
+            @org.springframework.web.bind.annotation.RequestParam(value = "sesion", required = false) String sesion
+    ) throws Exception {
+        Integer age = resolveAge(userBirthdateIso, userAge);
+        StreamingTarget target = contenidoService.resolveStreamingTarget(id, userVip, age);
+        StreamingMetricsFilter.marcarTipo(target.tipo());
+        if (target.hlsManifest() == null || !version.equals(target.hlsVersion())) {
+            return ResponseEntity.notFound().build();
+        }
+        Path dir = target.hlsManifest().getParent();
+        Path file = dir.resolve(fichero).normalize();
+        if (!file.startsWith(dir) || !metadataCache.consultar(file).readable()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        boolean manifest = HlsPackager.MANIFEST.equals(fichero);
+        if (manifest && playbackSessions.primeraReproduccion(sesion, userEmail, id, true)) {
+            contenidoService.registrarReproduccionSiUsuario(id, userRole);
+            contenidoService.registrarReproductor(id, userEmail);
+        }
+
+        MediaFileMetadata md = metadataCache.get(file);
+        HttpHeaders h = validatorHeaders(new HttpHeaders(), md);
+        // El acceso depende del usuario (VIP, edad): se puede cachear en el navegador pero no en proxies compartidos
+        h.setCacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate().immutable());
+        h.setContentType(manifest ? HLS_MANIFEST : fichero.endsWith(".ts") ? HLS_SEGMENT : MediaType.APPLICATION_OCTET_STREAM);
+        h.setContentLength(md.size());
+        return new ResponseEntity<>(new FileSystemResource(file), h, HttpStatus.OK);
+    }
+
+    /**
+     * Sirve un contenido externo a través de la caché de bloques en vez de redirigir al origen.
+     * Devuelve null si el origen no responde como se espera, y entonces se redirige como siempre.
+     */
+    private ResponseEntity<Object> proxied(String url, HttpHeaders headers, String userEmail, Boolean userVip) {
+        ExternalMediaProxy.Origen origen;
+        try {
+            origen = externalMediaProxy.describir(url);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        long total = origen.length();
+        HttpHeaders h = new HttpHeaders();
+        h.setContentType(resolveMediaType(origen.mimeType(), null));
+        h.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        List<HttpRange> ranges = headers.getRange();
+        long start = 0;
+        long count = total;
+        HttpStatus status = HttpStatus.OK;
+        // Con varios rangos solo se sirve el primero: un multipart/byteranges traería cada tramo del origen,
+        // y un 200 con Range hace que Spring intente trocear el flujo, que solo se puede leer una vez
+        if (!ranges.isEmpty()) {
+            HttpRange r = ranges.get(0);
+            start = r.getRangeStart(total);
+            if (start >= total) {
+                h.set(HttpHeaders.CONTENT_RANGE, "bytes */" + total);
+                return new ResponseEntity<>(null, h, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+            }
+            count = Math.min(r.getRangeEnd(total) - start + 1, externalMediaProxy.maxResponseBytes());
+            h.set(HttpHeaders.CONTENT_RANGE, String.format("bytes %d-%d/%d", start, start + count - 1, total));
+            status = HttpStatus.PARTIAL_CONTENT;
+        }
+        h.setContentLength(count);
+
+        long desde = start;
+        long bytes = count;
+        if (!mediaStreamExecutor.isRunning()) {
+            return new ResponseEntity<>(new InputStreamResource(externalMediaProxy.abrir(url, desde, bytes)), h, status);
+        }
+        StreamingResponseBody writer = out -> {
+            try (InputStream in = externalMediaProxy.abrir(url, desde, bytes)) {
+                in.transferTo(out);
+            }
+        };
+        if (shapingActivo(bytes)) return shapedBody(writer, h, status, userEmail, userVip);
+        return asyncBody(mediaStreamExecutor.tryOpen(writer), h, status);
+    }
+
+    // Las escrituras largas pasan al pool multimedia; si está lleno se pide al cliente que reintente
+    private ResponseEntity<Object> localBody(Object body, Path file, long position, long count,
+                                             HttpHeaders h, HttpStatus status, String userEmail, Boolean userVip) {
+        if (shapingActivo(count)) {
+            return shapedBody(out -> FileRegionWriter.transfer(file, position, count, out), h, status, userEmail, userVip);
+        }
+        if (!mediaStreamExecutor.shouldOffload(count)) {
+            return new ResponseEntity<>(body, h, status);
+        }
+        return asyncBody(mediaStreamExecutor.tryOpen(file, position, count), h, status);
+    }
+
+    private static String clienteLectura(String sesion, String userEmail) {
+        if (StringUtils.hasText(sesion)) return "s:" + sesion;
+        return StringUtils.hasText(userEmail) ? "u:" + userEmail.trim().toLowerCase() : null;
+    }
+
+    // El reparto de ancho de banda espera en el hilo que escribe, así que necesita el pool multimedia
+    private boolean shapingActivo(long count) {
+        return bandwidthShaper.aplica(count) && mediaStreamExecutor.isRunning();
+    }
+
+    /** Escritura limitada por los cubos del usuario y global; 429 si el usuario ya tiene todas sus descargas abiertas. */
+    private ResponseEntity<Object> shapedBody(StreamingResponseBody writer, HttpHeaders h, HttpStatus status,
+                                              String userEmail, Boolean userVip) {
+        BandwidthShaper.Cupo cupo = bandwidthShaper.abrir(userEmail, userVip);
+        if (cupo == null) {
+            return retryLater(HttpStatus.TOO_MANY_REQUESTS);
+        }
+        StreamingResponseBody async = mediaStreamExecutor.tryOpen(out -> writer.writeTo(cupo.envolver(out)), cupo::cerrar);
+        if (async == null) {
+            cupo.cerrar();
+        }
+        return asyncBody(async, h, status);
+    }
+
+    private ResponseEntity<Object> asyncBody(StreamingResponseBody async, HttpHeaders h, HttpStatus status) {
+        if (async == null) {
+            return retryLater(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return new ResponseEntity<>(async, h, status);
+    }
+
+    private ResponseEntity<Object> retryLater(HttpStatus status) {
+        HttpHeaders busy = new HttpHeaders();
+        busy.set(HttpHeaders.RETRY_AFTER, String.valueOf(mediaStreamExecutor.retryAfterSeconds()));
+        return new ResponseEntity<>(busy, status);
+    }
+
+    private HttpHeaders localHeaders(MediaType mediaType, MediaFileMetadata md) {
+        return validatorHeaders(commonHeaders(mediaType), md);
+    }
+
+    private static HttpHeaders validatorHeaders(HttpHeaders h, MediaFileMetadata md) {
+        h.setETag(md.etag());
+        h.setLastModified(md.lastModified());
+        return h;
+    }
+
+    // If-None-Match tiene prioridad sobre If-Modified-Since (RFC 9110, 13.2.2)
+    static boolean isNotModified(HttpHeaders request, MediaFileMetadata md) {
+        List<String> ifNoneMatch = request.getIfNoneMatch();
+        if (!ifNoneMatch.isEmpty()) {
+            for (String tag : ifNoneMatch) {
+                if ("*".equals(tag) || weakEquals(tag, md.etag())) return true;
             }
-            InputStreamResource body = new InputStreamResource(new LimitedInputStream(is, chunk));
+            return false;
+        }
+        long ifModifiedSince = request.getIfModifiedSince();
+        return ifModifiedSince >= 0 && md.lastModified() / 1000 <= ifModifiedSince / 1000;
+    }
 
-            HttpHeaders h = commonHeaders(mediaType);
-            h.set(HttpHeaders.CONTENT_RANGE, String.format("bytes %d-%d/%d", start, start + chunk - 1, fileSize));
-            h.setContentLength(chunk);
+    // Sin If-Range o con un validador que sigue vigente se atiende el Range; si no, se responde el fichero entero
+    static boolean ifRangeMatches(HttpHeaders request, MediaFileMetadata md) {
+        String ifRange = request.getFirst(HttpHeaders.IF_RANGE);
+        if (ifRange == null || ifRange.isBlank()) return true;
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(md.etag());
+        }
+        try {
+            long date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return md.lastModified() / 1000 == date / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
 
-            return new ResponseEntity<>(body, h, HttpStatus.PARTIAL_CONTENT);
+    private static boolean weakEquals(String a, String b) {
+        return stripWeak(a).equals(stripWeak(b));
+    }
+
+    private static String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private static boolean empiezaEnCero(HttpHeaders headers) {
+        try {
+            List<HttpRange> ranges = headers.getRange();
+            return ranges.isEmpty() || ranges.get(0).getRangeStart(Long.MAX_VALUE) == 0;
+        } catch (IllegalArgumentException e) {
+            return false;
         }
     }
 
+    // "bytes=N-" deja el tamaño en manos del servidor; "bytes=N-M" es un tamaño pedido explícitamente
+    private static boolean isOpenEnded(HttpRange range) {
+        return range.toString().endsWith("-");
+    }
+
+    /**
+     * Convierte los rangos pedidos en regiones ordenadas, fusionando las solapadas o contiguas.
+     * Devuelve una lista vacía si algún rango no es satisfacible o se piden demasiados; si el total
+     * supera maxMultipartBytes se recortan las últimas regiones.
+     */
+    List<ResourceRegion> toRegions(Resource media, List<HttpRange> ranges, long fileSize) {
+        if (ranges.size() > maxRanges) return List.of();
+
+        List<long[]> bounds = new ArrayList<>(ranges.size());
+        for (HttpRange r : ranges) {
+            long start = r.getRangeStart(fileSize);
+            long end = r.getRangeEnd(fileSize);
+            if (start >= fileSize || end >= fileSize || start > end) return List.of();
+            bounds.add(new long[] { start, end });
+        }
+        bounds.sort(Comparator.comparingLong(b -> b[0]));
+
+        List<long[]> merged = new ArrayList<>(bounds.size());
+        for (long[] b : bounds) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && b[0] <= last[1] + 1) {
+                last[1] = Math.max(last[1], b[1]);
+            } else {
+                merged.add(b);
+            }
+        }
+        if (merged.size() == 1) {
+            long[] only = merged.get(0);
+            return List.of(new ResourceRegion(media, only[0], only[1] - only[0] + 1));
+        }
+
+        List<ResourceRegion> regions = new ArrayList<>(merged.size());
+        long budget = maxMultipartBytes;
+        for (long[] b : merged) {
+            if (budget <= 0) break;
+            long count = Math.min(b[1] - b[0] + 1, budget);
+            regions.add(new ResourceRegion(media, b[0], count));
+            budget -= count;
+        }
+        return regions;
+    }
+
     @RequestMapping(value = "/ReproducirContenido/{id}", method = RequestMethod.HEAD)
     public ResponseEntity<Void> head(@PathVariable String id,
+                                 @RequestHeader HttpHeaders headers,
                                  @RequestHeader(value = "X-User-Vip", required = false) Boolean userVip,
                                  @RequestHeader(value = "X-User-Birthdate", required = false) String userBirthdateIso,
                                  @RequestHeader(value = "X-User-Age", required = false) Integer userAge) throws Exception {
         Integer age = resolveAge(userBirthdateIso, userAge);
         StreamingTarget target = contenidoService.resolveStreamingTarget(id, userVip, age);
+        StreamingMetricsFilter.marcarTipo(target.tipo());
         HttpHeaders h = new HttpHeaders();
         if (target.isExternalRedirect()) {
             h.setContentType(resolveMediaType(target.mimeType(), null));
             return new ResponseEntity<>(h, HttpStatus.OK);
         }
+        MediaFileMetadata md = metadataCache.get(target.path());
+        validatorHeaders(h, md);
+        if (isNotModified(headers, md)) {
+            return new ResponseEntity<>(h, HttpStatus.NOT_MODIFIED);
+        }
         h.setContentType(resolveMediaType(target.mimeType(), target.path()));
-        h.setContentLength(target.length());
+        h.setContentLength(md.size());
         h.set(HttpHeaders.ACCEPT_RANGES, "bytes");
         return new ResponseEntity<>(h, HttpStatus.OK);
     }
@@ -195,7 +623,7 @@ public class ContenidoController {
         try {
             if (StringUtils.hasText(mimeFromModel)) return MediaType.parseMediaType(mimeFromModel);
             if (file != null) {
-                String probe = Files.probeContentType(file);
+                String probe = metadataCache.consultar(file).mimeType();
                 if (probe != null) return MediaType.parseMediaType(probe);
             }
         } catch (Exception ignored) {
@@ -205,27 +633,6 @@ public class ContenidoController {
         return MediaType.APPLICATION_OCTET_STREAM;
     }
 
-    static class LimitedInputStream extends java.io.FilterInputStream {
-        private long remaining;
-        protected LimitedInputStream(InputStream in, long limit) {
-            super(in);
-            this.remaining = limit;
-        }
-        @Override public int read() throws java.io.IOException {
-            if (remaining <= 0) return -1;
-            int b = super.read();
-            if (b != -1) remaining--;
-            return b;
-        }
-        @Override public int read(byte[] b, int off, int len) throws java.io.IOException {
-            if (remaining <= 0) return -1;
-            len = (int)Math.min(len, remaining);
-            int read = super.read(b, off, len);
-            if (read > 0) remaining -= read;
-            return read;
-        }
-    }
-
     public Integer resolveAge(String birthIso, Integer ageDirect) {
         if (ageDirect != null && ageDirect > 0) return ageDirect;
         if (birthIso == null || birthIso.isBlank()) return null;
@@ -252,6 +659,11 @@ public class ContenidoController {
         return ResponseEntity.ok(res);
     }
 
+    @GetMapping("/RatingContenido/{id}/Distribucion")
+    public ResponseEntity<Map<String,Object>> distribucionValoraciones(@PathVariable String id) {
+        return ResponseEntity.ok(contenidoService.distribucionValoraciones(id));
+    }
+
     @PostMapping(path = "/{id}/favorito", consumes = MediaType.ALL_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Void> addFavorito(
             @PathVariable("id") String contenidoId,
@@ -298,9 +710,7 @@ public class ContenidoController {
     public ResponseEntity<Object> obtenerEstadisticasGlobales(
             @RequestHeader(value = "X-User-Role", required = false) String userRole) {
 
-        if (userRole == null ||
-            !(userRole.equalsIgnoreCase("ADMINISTRADOR") ||
-              userRole.equalsIgnoreCase("GESTOR_CONTENIDO"))) {
+        if (!esAdminOGestor(userRole)) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN)
                     .body(Map.of("error", "No autorizado: solo Administradores y Gestores."));
         }
@@ -308,4 +718,95 @@ public class ContenidoController {
         Map<String, Object> res = contenidoService.estadisticasGlobales();
         return ResponseEntity.ok(res);
     }
+
+    /** Mejor valorados por puntuación bayesiana, globales o de un tipo o una etiqueta. */
+    @GetMapping("/Estadisticas/Ranking")
+    public ResponseEntity<Object> rankingValoraciones(
+            @RequestHeader(value = "X-User-Role", required = false) String userRole,
+            @RequestParam(value = "tipo", required = false) Contenido.Tipo tipo,
+            @RequestParam(value = "tag", required = false) String tag,
+            @RequestParam(value = "limite", required = false) Integer limite) {
+
+        if (!esAdminOGestor(userRole)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "No autorizado: solo Administradores y Gestores."));
+        }
+        try {
+            return ResponseEntity.ok(contenidoService.rankingValoraciones(tipo, tag, limite));
+        } catch (ContenidoValidationException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/Estadisticas/CacheSegmentos")
+    public ResponseEntity<Object> estadisticasCacheSegmentos(
+            @RequestHeader(value = "X-User-Role", required = false) String userRole) {
+
+        if (!esAdminOGestor(userRole)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "No autorizado: solo Administradores y Gestores."));
+        }
+        return ResponseEntity.ok(hotSegmentCache.stats());
+    }
+
+    @GetMapping("/Estadisticas/ColaReproducciones")
+    public ResponseEntity<Object> estadisticasColaReproducciones(
+            @RequestHeader(value = "X-User-Role", required = false) String userRole) {
+
+        if (!esAdminOGestor(userRole)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "No autorizado: solo Administradores y Gestores."));
+        }
+        return ResponseEntity.ok(contenidoService.estadoColaReproducciones());
+    }
+
+    @GetMapping("/Estadisticas/ProxyExterno")
+    public ResponseEntity<Object> estadisticasProxyExterno(
+            @RequestHeader(value = "X-User-Role", required = false) String userRole) {
+
+        if (!esAdminOGestor(userRole)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "No autorizado: solo Administradores y Gestores."));
+        }
+        return ResponseEntity.ok(externalMediaProxy.stats());
+    }
+
+    @GetMapping("/Estadisticas/AnchoDeBanda")
+    public ResponseEntity<Object> estadisticasAnchoDeBanda(
+            @RequestHeader(value = "X-User-Role", required = false) String userRole) {
+
+        if (!esAdminOGestor(userRole)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "No autorizado: solo Administradores y Gestores."));
+        }
+        return ResponseEntity.ok(bandwidthShaper.stats());
+    }
+
+    @GetMapping("/Estadisticas/LecturaAnticipada")
+    public ResponseEntity<Object> estadisticasLecturaAnticipada(
+            @RequestHeader(value = "X-User-Role", required = false) String userRole) {
+
+        if (!esAdminOGestor(userRole)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "No autorizado: solo Administradores y Gestores."));
+        }
+        return ResponseEntity.ok(readAhead.stats());
+    }
+
+    @GetMapping("/Estadisticas/Indices")
+    public ResponseEntity<Object> estadisticasIndices(
+            @RequestHeader(value = "X-User-Role", required = false) String userRole) {
+
+        if (!esAdminOGestor(userRole)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "No autorizado: solo Administradores y Gestores."));
+        }
+        return ResponseEntity.ok(indicesMongo.informe());
+    }
+
+    private static boolean esAdminOGestor(String userRole) {
+        return userRole != null &&
+               (userRole.equalsIgnoreCase("ADMINISTRADOR") ||
+                userRole.equalsIgnoreCase("GESTOR_CONTENIDO"));
+    }
 }
\ No newline at end of file
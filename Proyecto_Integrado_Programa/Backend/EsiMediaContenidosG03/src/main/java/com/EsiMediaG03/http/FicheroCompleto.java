@@ -0,0 +1,16 @@
+package com.EsiMediaG03.http;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
+
+/**
+ * Fichero entero servido con 200 aunque la petición traiga Range (If-Range obsoleto). Spring vuelve a
+ * aplicar el Range a cualquier cuerpo Resource con estado 200; una región no es un Resource, así que
+ * se escribe tal cual y sin Content-Range.
+ */
+public class FicheroCompleto extends ResourceRegion {
+
+    public FicheroCompleto(Resource resource, long length) {
+        super(resource, 0, length);
+    }
+}
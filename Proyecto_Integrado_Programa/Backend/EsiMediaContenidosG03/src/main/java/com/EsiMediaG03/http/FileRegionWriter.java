@@ -0,0 +1,84 @@
+package com.EsiMediaG03.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Escribe una región de un fichero local sin pasar los bytes por el heap:
+ * delega en el sendfile de Tomcat cuando el conector lo soporta y, si no,
+ * usa {@link FileChannel#transferTo}.
+ */
+final class FileRegionWriter {
+
+    static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // Por debajo de este tamaño Tomcat tampoco usa sendfile (DefaultServlet.sendfileSize)
+    private static final long SENDFILE_MIN_SIZE = 48L * 1024L;
+
+    private FileRegionWriter() {
+    }
+
+    static void write(Path file, long position, long count, HttpOutputMessage outputMessage) throws IOException {
+        if (count <= 0) return;
+        if (trySendfile(file, position, count)) return;
+        transfer(file, position, count, outputMessage.getBody());
+    }
+
+    static void transfer(Path file, long position, long count, OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long pos = position;
+            long remaining = count;
+            while (remaining > 0) {
+                long sent = channel.transferTo(pos, remaining, target);
+                if (sent <= 0) {
+                    throw new EOFException("Fin de fichero inesperado en " + file + " (posición " + pos + ")");
+                }
+                pos += sent;
+                remaining -= sent;
+            }
+        }
+    }
+
+    /** Indica si la petición en curso puede delegar la escritura en el sendfile de Tomcat. */
+    static boolean sendfileAvailable() {
+        return sendfileRequest() != null;
+    }
+
+    private static HttpServletRequest sendfileRequest() {
+        RequestAttributes attrs = RequestContextHolder.getRequestAttributes();
+        if (!(attrs instanceof ServletRequestAttributes servletAttrs)) return null;
+
+        HttpServletRequest request = servletAttrs.getRequest();
+        if (request.isAsyncStarted() || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            return null;
+        }
+        return request;
+    }
+
+    private static boolean trySendfile(Path file, long position, long count) throws IOException {
+        if (count < SENDFILE_MIN_SIZE) return false;
+        HttpServletRequest request = sendfileRequest();
+        if (request == null) return false;
+        request.setAttribute(SENDFILE_FILENAME_ATTR, file.toRealPath().toString());
+        request.setAttribute(SENDFILE_START_ATTR, position);
+        request.setAttribute(SENDFILE_END_ATTR, position + count);
+        return true;
+    }
+}
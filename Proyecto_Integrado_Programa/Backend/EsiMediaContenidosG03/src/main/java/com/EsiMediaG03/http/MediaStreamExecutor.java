@@ -0,0 +1,151 @@
+package com.EsiMediaG03.http;
+
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Pool acotado para escribir descargas largas fuera de los hilos de Tomcat.
+ * El límite de descargas simultáneas es independiente del pool de peticiones,
+ * de modo que los clientes lentos no dejan sin hilos al resto del API.
+ */
+@Component
+public class MediaStreamExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(MediaStreamExecutor.class);
+
+    @Value("${contenidos.streaming.async.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${contenidos.streaming.async.max-concurrent:64}")
+    private int maxConcurrent = 64;
+
+    // Por debajo de este tamaño la respuesta se escribe antes de que compense pasar a otro hilo
+    @Value("${contenidos.streaming.async.min-bytes:1048576}")
+    private long minBytes = 1024L * 1024L;
+
+    @Value("${contenidos.streaming.async.timeout-ms:3600000}")
+    private long timeoutMs = 3_600_000L;
+
+    @Value("${contenidos.streaming.async.retry-after-seconds:2}")
+    private int retryAfterSeconds = 2;
+
+    private Semaphore permisos;
+    private ThreadPoolTaskExecutor executor;
+
+    private final AtomicLong aceptadas = new AtomicLong();
+    private final AtomicLong rechazadas = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        permisos = new Semaphore(maxConcurrent);
+        executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("media-");
+        executor.setCorePoolSize(maxConcurrent);
+        executor.setMaxPoolSize(maxConcurrent);
+        // Holgura para el instante entre que una descarga devuelve su permiso y su hilo queda libre
+        executor.setQueueCapacity(maxConcurrent);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.initialize();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executor != null) executor.shutdown();
+    }
+
+    /** Las escrituras grandes se sacan del hilo de la petición salvo que Tomcat pueda hacer sendfile. */
+    public boolean shouldOffload(long count) {
+        return isRunning() && count >= minBytes && !FileRegionWriter.sendfileAvailable();
+    }
+
+    public boolean isRunning() {
+        return enabled && executor != null;
+    }
+
+    /**
+     * Reserva un hueco en el pool multimedia para escribir la región indicada.
+     * Devuelve {@code null} si ya se ha alcanzado el límite de descargas simultáneas.
+     */
+    public StreamingResponseBody tryOpen(Path file, long position, long count) {
+        return tryOpen(out -> FileRegionWriter.transfer(file, position, count, out));
+    }
+
+    /** Igual que {@link #tryOpen(Path, long, long)} para cualquier escritura, p. ej. la del proxy de medios externos. */
+    public StreamingResponseBody tryOpen(StreamingResponseBody writer) {
+        return tryOpen(writer, null);
+    }
+
+    /** Como {@link #tryOpen(StreamingResponseBody)}; {@code alTerminar} se ejecuta una vez al devolver el permiso. */
+    public StreamingResponseBody tryOpen(StreamingResponseBody writer, Runnable alTerminar) {
+        if (!permisos.tryAcquire()) {
+            rechazadas.incrementAndGet();
+            log.debug("Pool multimedia saturado; se rechaza la descarga");
+            return null;
+        }
+        aceptadas.incrementAndGet();
+        return new MediaStreamBody(writer, alTerminar);
+    }
+
+    public int retryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    WebAsyncTask<Void> asyncTask(Callable<Void> callable) {
+        return new WebAsyncTask<>(timeoutMs, executor, callable);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("enabled", enabled);
+        res.put("maxConcurrent", maxConcurrent);
+        res.put("active", permisos == null ? 0 : maxConcurrent - permisos.availablePermits());
+        res.put("accepted", aceptadas.get());
+        res.put("rejected", rechazadas.get());
+        return res;
+    }
+
+    /** Cuerpo asíncrono que devuelve su permiso al terminar, falle o no la escritura. */
+    final class MediaStreamBody implements StreamingResponseBody {
+
+        private final StreamingResponseBody writer;
+        private final Runnable alTerminar;
+        private final AtomicBoolean liberado = new AtomicBoolean();
+
+        MediaStreamBody(StreamingResponseBody writer, Runnable alTerminar) {
+            this.writer = writer;
+            this.alTerminar = alTerminar;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws java.io.IOException {
+            try {
+                writer.writeTo(out);
+            } finally {
+                release();
+            }
+        }
+
+        void release() {
+            if (!liberado.compareAndSet(false, true)) return;
+            permisos.release();
+            if (alTerminar != null) alTerminar.run();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.EsiMediaG03.http;
+
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+import org.springframework.web.method.support.AsyncHandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Atiende los {@code ResponseEntity<Object>} cuyo cuerpo es una descarga del pool multimedia:
+ * copia estado y cabeceras y arranca el procesamiento asíncrono en {@link MediaStreamExecutor}.
+ * Al ser asíncrono se elige por el valor devuelto y no por el tipo declarado del método.
+ */
+public class MediaStreamReturnValueHandler implements AsyncHandlerMethodReturnValueHandler {
+
+    private final MediaStreamExecutor mediaStreamExecutor;
+
+    public MediaStreamReturnValueHandler(MediaStreamExecutor mediaStreamExecutor) {
+        this.mediaStreamExecutor = mediaStreamExecutor;
+    }
+
+    @Override
+    public boolean isAsyncReturnValue(Object returnValue, MethodParameter returnType) {
+        return returnValue instanceof ResponseEntity<?> entity
+                && entity.getBody() instanceof MediaStreamExecutor.MediaStreamBody;
+    }
+
+    @Override
+    public boolean supportsReturnType(MethodParameter returnType) {
+        return ResponseEntity.class.isAssignableFrom(returnType.getParameterType());
+    }
+
+    @Override
+    public void handleReturnValue(Object returnValue, MethodParameter returnType,
+                                  ModelAndViewContainer mavContainer, NativeWebRequest webRequest) throws Exception {
+        ResponseEntity<?> entity = (ResponseEntity<?>) returnValue;
+        MediaStreamExecutor.MediaStreamBody body = (MediaStreamExecutor.MediaStreamBody) entity.getBody();
+        try {
+            HttpServletResponse response = webRequest.getNativeResponse(HttpServletResponse.class);
+            ServletRequest request = webRequest.getNativeRequest(ServletRequest.class);
+            if (response == null || request == null) {
+                throw new IllegalStateException("Se necesita una petición servlet para la descarga asíncrona");
+            }
+            ServletServerHttpResponse outputMessage = new ServletServerHttpResponse(response);
+            response.setStatus(entity.getStatusCode().value());
+            outputMessage.getHeaders().putAll(entity.getHeaders());
+            ShallowEtagHeaderFilter.disableContentCaching(request);
+
+            OutputStream out = outputMessage.getBody();
+            Callable<Void> callable = () -> {
+                body.writeTo(out);
+                out.flush();
+                return null;
+            };
+            WebAsyncUtils.getAsyncManager(webRequest)
+                    .startCallableProcessing(mediaStreamExecutor.asyncTask(callable), mavContainer);
+        } catch (Exception e) {
+            // La escritura no llegó a arrancar: el permiso no se devolvería nunca
+            body.release();
+            throw e;
+        }
+    }
+}
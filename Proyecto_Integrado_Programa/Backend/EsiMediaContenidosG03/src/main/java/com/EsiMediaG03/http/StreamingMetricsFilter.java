@@ -0,0 +1,274 @@
+package com.EsiMediaG03.http;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.EsiMediaG03.model.Contenido;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Métricas de las respuestas de {@code /Contenidos/ReproducirContenido/**} (GET y HEAD): tiempo hasta el
+ * primer byte, bytes por respuesta, tamaño de los rangos servidos, respuestas por código, cortes del
+ * cliente y descargas activas por tipo de contenido. Se mide en un filtro porque el cuerpo se escribe
+ * después de que el controlador haya devuelto la respuesta (conversores, pool multimedia o sendfile).
+ */
+@Component
+public class StreamingMetricsFilter extends OncePerRequestFilter {
+
+    private static final String PREFIJO = "/Contenidos/ReproducirContenido/";
+    private static final String ATRIBUTO = StreamingMetricsFilter.class.getName() + ".medicion";
+    private static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final MeterRegistry registry;
+    private final Map<Contenido.Tipo, AtomicInteger> activas = new EnumMap<>(Contenido.Tipo.class);
+
+    public StreamingMetricsFilter(MeterRegistry registry) {
+        this.registry = registry;
+        for (Contenido.Tipo t : Contenido.Tipo.values()) {
+            AtomicInteger n = new AtomicInteger();
+            activas.put(t, n);
+            Gauge.builder("media.streams.active", n, AtomicInteger::get)
+                    .description("Descargas en curso")
+                    .tag("tipo", t.name())
+                    .register(registry);
+        }
+    }
+
+    /** Lo llama el controlador al resolver el contenido: desde aquí la descarga cuenta como activa para su tipo. */
+    public static void marcarTipo(Contenido.Tipo tipo) {
+        RequestAttributes attrs = RequestContextHolder.getRequestAttributes();
+        if (tipo == null || attrs == null) return;
+        if (attrs.getAttribute(ATRIBUTO, RequestAttributes.SCOPE_REQUEST) instanceof Medicion m) {
+            m.empezar(tipo);
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String uri = request.getRequestURI().substring(request.getContextPath().length());
+        String method = request.getMethod();
+        return !uri.startsWith(PREFIJO) || uri.endsWith("/seek")
+                || !("GET".equals(method) || "HEAD".equals(method));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Medicion m = new Medicion(endpoint(request));
+        request.setAttribute(ATRIBUTO, m);
+        Respuesta envuelta = new Respuesta(response, m);
+        try {
+            chain.doFilter(request, envuelta);
+        } catch (IOException | ServletException | RuntimeException e) {
+            m.terminar(request, envuelta);
+            throw e;
+        }
+        if (request.isAsyncStarted()) {
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override public void onComplete(AsyncEvent event) { m.terminar(request, envuelta); }
+                @Override public void onTimeout(AsyncEvent event) { m.abortado = true; }
+                @Override public void onError(AsyncEvent event) { m.abortado = true; }
+                @Override public void onStartAsync(AsyncEvent event) { }
+            });
+        } else {
+            m.terminar(request, envuelta);
+        }
+    }
+
+    private static String endpoint(HttpServletRequest request) {
+        if ("HEAD".equals(request.getMethod())) return "head";
+        return request.getRequestURI().contains("/hls/") ? "hls" : "stream";
+    }
+
+    private DistributionSummary bytesPorRespuesta(String endpoint) {
+        return DistributionSummary.builder("media.response.bytes")
+                .description("Bytes escritos por respuesta")
+                .baseUnit("bytes")
+                .tag("endpoint", endpoint)
+                .publishPercentiles(PERCENTILES)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private DistributionSummary tamanoDeRango(String endpoint) {
+        return DistributionSummary.builder("media.range.bytes")
+                .description("Tamaño de las respuestas 206")
+                .baseUnit("bytes")
+                .tag("endpoint", endpoint)
+                .publishPercentiles(PERCENTILES)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private Timer ttfb(String endpoint, int status) {
+        return Timer.builder("media.ttfb")
+                .description("Tiempo desde la llegada de la petición hasta el primer byte del cuerpo")
+                .tag("endpoint", endpoint)
+                .tag("status", String.valueOf(status))
+                .publishPercentiles(PERCENTILES)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private Counter respuestas(String endpoint, int status) {
+        return Counter.builder("media.responses")
+                .tag("endpoint", endpoint)
+                .tag("status", String.valueOf(status))
+                .register(registry);
+    }
+
+    private Counter cortes(String endpoint) {
+        return Counter.builder("media.client.aborts")
+                .description("Respuestas cortadas por el cliente a mitad de escritura")
+                .tag("endpoint", endpoint)
+                .register(registry);
+    }
+
+    private final class Medicion {
+
+        final String endpoint;
+        final long inicio = System.nanoTime();
+        volatile long primerByte;
+        volatile long bytes;
+        volatile boolean abortado;
+        private volatile Contenido.Tipo tipo;
+        private final AtomicBoolean terminada = new AtomicBoolean();
+
+        Medicion(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        void empezar(Contenido.Tipo t) {
+            if (tipo != null) return;
+            tipo = t;
+            activas.get(t).incrementAndGet();
+        }
+
+        void escrito(int n) {
+            if (primerByte == 0) primerByte = System.nanoTime();
+            bytes += n;
+        }
+
+        void terminar(HttpServletRequest request, HttpServletResponse response) {
+            if (!terminada.compareAndSet(false, true)) return;
+            if (tipo != null) activas.get(tipo).decrementAndGet();
+
+            long total = bytes + bytesSendfile(request);
+            int status = response.getStatus();
+            respuestas(endpoint, status).increment();
+            if (abortado) cortes(endpoint).increment();
+            bytesPorRespuesta(endpoint).record(total);
+            if (status == HttpStatus.PARTIAL_CONTENT.value()) tamanoDeRango(endpoint).record(total);
+            // Con sendfile (o sin cuerpo) el primer byte sale cuando la petición vuelve del controlador
+            long fin = primerByte != 0 ? primerByte : System.nanoTime();
+            ttfb(endpoint, status).record(fin - inicio, TimeUnit.NANOSECONDS);
+        }
+
+        private long bytesSendfile(HttpServletRequest request) {
+            if (request.getAttribute(FileRegionWriter.SENDFILE_START_ATTR) instanceof Long s
+                    && request.getAttribute(FileRegionWriter.SENDFILE_END_ATTR) instanceof Long e) {
+                return e - s;
+            }
+            return 0;
+        }
+    }
+
+    private static final class Respuesta extends HttpServletResponseWrapper {
+
+        private final Medicion medicion;
+        private ServletOutputStream salida;
+
+        Respuesta(HttpServletResponse response, Medicion medicion) {
+            super(response);
+            this.medicion = medicion;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (salida == null) salida = new Salida(super.getOutputStream(), medicion);
+            return salida;
+        }
+    }
+
+    private static final class Salida extends ServletOutputStream {
+
+        private final ServletOutputStream out;
+        private final Medicion medicion;
+
+        Salida(ServletOutputStream out, Medicion medicion) {
+            this.out = out;
+            this.medicion = medicion;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+            } catch (IOException e) {
+                medicion.abortado = true;
+                throw e;
+            }
+            medicion.escrito(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                medicion.abortado = true;
+                throw e;
+            }
+            medicion.escrito(len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                medicion.abortado = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return out.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            out.setWriteListener(writeListener);
+        }
+    }
+}
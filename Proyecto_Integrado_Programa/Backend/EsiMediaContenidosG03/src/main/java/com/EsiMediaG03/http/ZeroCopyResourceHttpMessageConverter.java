@@ -0,0 +1,25 @@
+package com.EsiMediaG03.http;
+
+import java.io.IOException;
+
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.ResourceHttpMessageConverter;
+
+public class ZeroCopyResourceHttpMessageConverter extends ResourceHttpMessageConverter {
+
+    @Override
+    protected void writeContent(Resource resource, HttpOutputMessage outputMessage) throws IOException {
+        if (resource instanceof ByteBufferResource segment) {
+            segment.writeTo(outputMessage.getBody());
+            outputMessage.getBody().flush();
+            return;
+        }
+        if (!resource.isFile()) {
+            super.writeContent(resource, outputMessage);
+            return;
+        }
+        FileRegionWriter.write(resource.getFile().toPath(), 0, resource.contentLength(), outputMessage);
+        outputMessage.getBody().flush();
+    }
+}
@@ -0,0 +1,104 @@
+package com.EsiMediaG03.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.ResourceRegionHttpMessageConverter;
+import org.springframework.util.MimeTypeUtils;
+
+public class ZeroCopyResourceRegionHttpMessageConverter extends ResourceRegionHttpMessageConverter {
+
+    // El controlador devuelve ResponseEntity<Object>: el tipo declarado no sirve, se decide por la clase del valor
+    @Override
+    public boolean canWrite(Type type, Class<?> clazz, MediaType mediaType) {
+        if (clazz != null && (ByteRangeRegions.class.isAssignableFrom(clazz) || ResourceRegion.class.isAssignableFrom(clazz))) {
+            return canWrite(mediaType);
+        }
+        return super.canWrite(type, clazz, mediaType);
+    }
+
+    @Override
+    protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage) throws IOException {
+        if (object instanceof Collection<?> regions && regions.size() > 1 && allFileRegions(regions)) {
+            @SuppressWarnings("unchecked")
+            Collection<ResourceRegion> fileRegions = (Collection<ResourceRegion>) regions;
+            writeMultipartByteRanges(fileRegions, outputMessage);
+            return;
+        }
+        super.writeInternal(object, type, outputMessage);
+    }
+
+    @Override
+    protected void writeResourceRegion(ResourceRegion region, HttpOutputMessage outputMessage) throws IOException {
+        Resource resource = region.getResource();
+        if (region instanceof FicheroCompleto) {
+            outputMessage.getHeaders().setContentLength(region.getCount());
+            if (resource.isFile()) {
+                FileRegionWriter.write(resource.getFile().toPath(), 0, region.getCount(), outputMessage);
+            } else {
+                try (InputStream in = resource.getInputStream()) {
+                    in.transferTo(outputMessage.getBody());
+                }
+            }
+            return;
+        }
+        if (!resource.isFile()) {
+            super.writeResourceRegion(region, outputMessage);
+            return;
+        }
+        long resourceLength = resource.contentLength();
+        long start = region.getPosition();
+        long end = Math.min(start + region.getCount() - 1, resourceLength - 1);
+        long rangeLength = end - start + 1;
+
+        HttpHeaders responseHeaders = outputMessage.getHeaders();
+        responseHeaders.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + '-' + end + '/' + resourceLength);
+        responseHeaders.setContentLength(rangeLength);
+
+        FileRegionWriter.write(resource.getFile().toPath(), start, rangeLength, outputMessage);
+    }
+
+    private void writeMultipartByteRanges(Collection<ResourceRegion> regions, HttpOutputMessage outputMessage)
+            throws IOException {
+        HttpHeaders responseHeaders = outputMessage.getHeaders();
+        MediaType contentType = responseHeaders.getContentType();
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        responseHeaders.set(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+
+        OutputStream out = outputMessage.getBody();
+        for (ResourceRegion region : regions) {
+            Resource resource = region.getResource();
+            long resourceLength = resource.contentLength();
+            long start = region.getPosition();
+            long end = Math.min(start + region.getCount() - 1, resourceLength - 1);
+
+            print(out, "\r\n--" + boundary + "\r\n");
+            if (contentType != null) {
+                print(out, "Content-Type: " + contentType + "\r\n");
+            }
+            print(out, "Content-Range: bytes " + start + '-' + end + '/' + resourceLength + "\r\n\r\n");
+            FileRegionWriter.transfer(resource.getFile().toPath(), start, end - start + 1, out);
+        }
+        print(out, "\r\n--" + boundary + "--");
+    }
+
+    private static boolean allFileRegions(Collection<?> regions) {
+        for (Object r : regions) {
+            if (!(r instanceof ResourceRegion region) || !region.getResource().isFile()) return false;
+        }
+        return true;
+    }
+
+    private static void print(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+}
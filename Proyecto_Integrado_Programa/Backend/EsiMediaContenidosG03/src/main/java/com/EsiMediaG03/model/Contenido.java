@@ -2,11 +2,8 @@ package com.EsiMediaG03.model;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
@@ -31,6 +28,8 @@ public class Contenido {
     private boolean vip;
     private boolean visible;
     private LocalDateTime fechaEstado = LocalDateTime.now();
+    // Último alta o modificación de los datos del catálogo; no cambia con reproducciones, valoraciones ni favoritos
+    private LocalDateTime fechaModificacion;
     private LocalDateTime disponibleHasta;
     private LocalDate disponibilidadContenido;
     private int restringidoEdad;
@@ -42,14 +41,15 @@ public class Contenido {
     @Field("reproducciones")               
     @JsonProperty("reproducciones") 
     private long numReproducciones;
-    private Set <String> favoritosDeUsuarios;
-    public Set<String> getFavoritosDeUsuarios() { return favoritosDeUsuarios; }
-    public void setFavoritosDeUsuarios(Set<String> favs) { this.favoritosDeUsuarios = favs; }
-
-    private Set<String> reproductores = new HashSet<>();
-    private Map<String, Double> ratings = new HashMap<>();
+    // Reproductores, valoraciones y favoritos viven en sus propias colecciones (ver InteraccionUsuario)
+    // ratingSum y ratingCount se incrementan juntos; ratingAvg es su cociente, guardado para poder ordenar
     private int ratingCount;
+    private double ratingSum;
     private double ratingAvg;
+    // Puntuación bayesiana (ver EstadisticasValoracion), indexada para el ranking
+    private double ratingBayes;
+    // Votos por media estrella, de "05" (0.5) a "50" (5.0); ver EstadisticasValoracion
+    private Map<String, Long> ratingHistograma;
 
     public String getId() {
         return id;
@@ -141,6 +141,9 @@ public class Contenido {
         return fechaEstado;
     }
 
+    public LocalDateTime getFechaModificacion() { return fechaModificacion; }
+    public void setFechaModificacion(LocalDateTime fechaModificacion) { this.fechaModificacion = fechaModificacion; }
+
     public LocalDateTime getDisponibleHasta() {
         return disponibleHasta;
     }
@@ -184,18 +187,21 @@ public class Contenido {
         this.numReproducciones = numReproducciones;
     }
 
-    public Set<String> getReproductores() { return reproductores; }
-    public void setReproductores(Set<String> reproductores) { this.reproductores = reproductores; }
-
-    public Map<String, Double> getRatings() { return ratings; }
-    public void setRatings(Map<String, Double> ratings) { this.ratings = ratings; }
-
     public int getRatingCount() { return ratingCount; }
     public void setRatingCount(int ratingCount) { this.ratingCount = ratingCount; }
 
+    public double getRatingSum() { return ratingSum; }
+    public void setRatingSum(double ratingSum) { this.ratingSum = ratingSum; }
+
     public double getRatingAvg() { return ratingAvg; }
     public void setRatingAvg(double ratingAvg) { this.ratingAvg = ratingAvg; }
 
+    public double getRatingBayes() { return ratingBayes; }
+    public void setRatingBayes(double ratingBayes) { this.ratingBayes = ratingBayes; }
+
+    public Map<String, Long> getRatingHistograma() { return ratingHistograma; }
+    public void setRatingHistograma(Map<String, Long> ratingHistograma) { this.ratingHistograma = ratingHistograma; }
+
     public LocalDate getDisponibilidadContenido() {
         return disponibilidadContenido;
     }
@@ -0,0 +1,25 @@
+package com.EsiMediaG03.model;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/** Un contenido marcado como favorito por un usuario. */
+@Document(collection = "favoritos")
+public class Favorito extends InteraccionUsuario {
+
+    public static final String COLLECTION = "favoritos";
+
+    private LocalDateTime fecha;
+
+    public Favorito() {
+        super();
+    }
+
+    public Favorito(String contenidoId, String userEmail, LocalDateTime fecha) {
+        super(contenidoId, userEmail);
+        this.fecha = fecha;
+    }
+
+    public LocalDateTime getFecha() { return fecha; }
+}
@@ -0,0 +1,40 @@
+package com.EsiMediaG03.model;
+
+import java.util.Locale;
+
+import org.springframework.data.annotation.Id;
+
+/**
+ * Base de lo que un usuario hace sobre un contenido y se guarda fuera de él (reproducciones,
+ * valoraciones, favoritos). El _id es contenidoId:email, así que hay como mucho uno por usuario y contenido.
+ */
+public abstract class InteraccionUsuario {
+
+    public static final String FIELD_CONTENIDO_ID = "contenidoId";
+    public static final String FIELD_USER_EMAIL = "userEmail";
+
+    @Id
+    private String id;
+    private String contenidoId;
+    private String userEmail;
+
+    protected InteraccionUsuario() {}
+
+    protected InteraccionUsuario(String contenidoId, String userEmail) {
+        this.id = clave(contenidoId, userEmail);
+        this.contenidoId = contenidoId;
+        this.userEmail = normalizarEmail(userEmail);
+    }
+
+    public static String clave(String contenidoId, String userEmail) {
+        return contenidoId + ":" + normalizarEmail(userEmail);
+    }
+
+    public static String normalizarEmail(String email) {
+        return email == null ? null : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public String getId() { return id; }
+    public String getContenidoId() { return contenidoId; }
+    public String getUserEmail() { return userEmail; }
+}
@@ -0,0 +1,25 @@
+package com.EsiMediaG03.model;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/** Un usuario que ha reproducido un contenido. */
+@Document(collection = "reproductores")
+public class Reproductor extends InteraccionUsuario {
+
+    public static final String COLLECTION = "reproductores";
+
+    private LocalDateTime fecha;
+
+    public Reproductor() {
+        super();
+    }
+
+    public Reproductor(String contenidoId, String userEmail, LocalDateTime fecha) {
+        super(contenidoId, userEmail);
+        this.fecha = fecha;
+    }
+
+    public LocalDateTime getFecha() { return fecha; }
+}
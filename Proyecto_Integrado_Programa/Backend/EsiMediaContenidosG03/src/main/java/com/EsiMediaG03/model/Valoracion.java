@@ -0,0 +1,28 @@
+package com.EsiMediaG03.model;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/** La valoración de un usuario a un contenido; es definitiva. */
+@Document(collection = "valoraciones")
+public class Valoracion extends InteraccionUsuario {
+
+    public static final String COLLECTION = "valoraciones";
+
+    private double score;
+    private LocalDateTime fecha;
+
+    public Valoracion() {
+        super();
+    }
+
+    public Valoracion(String contenidoId, String userEmail, double score) {
+        super(contenidoId, userEmail);
+        this.score = score;
+        this.fecha = LocalDateTime.now();
+    }
+
+    public double getScore() { return score; }
+    public LocalDateTime getFecha() { return fecha; }
+}
@@ -0,0 +1,191 @@
+package com.EsiMediaG03.services;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import com.EsiMediaG03.dto.ContenidoResumen;
+import com.EsiMediaG03.dto.FiltroCatalogo;
+import com.EsiMediaG03.dto.PaginaCatalogo;
+import com.EsiMediaG03.exceptions.ContenidoValidationException;
+import com.EsiMediaG03.model.Contenido;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Listado del catálogo por páginas, del más reciente al más antiguo (fechaEstado y después _id).
+ * La página se pide con un cursor opaco que apunta al último contenido devuelto, así que Mongo no
+ * tiene que saltarse las anteriores; los filtros y la proyección del resumen también se resuelven allí.
+ * La exportación recorre el catálogo entero con un cursor de Mongo y lo escribe como NDJSON según llega.
+ */
+@Service
+public class CatalogoService {
+
+    static final String FIELD_FECHA = "fechaEstado";
+    static final String FIELD_ID = "_id";
+    static final String FIELD_MODIFICACION = "fechaModificacion";
+
+    private static final String[] CAMPOS_RESUMEN = {
+            "userEmail", "titulo", "descripcion", "tipo", "tags", "duracionMinutos", "resolucion", "vip",
+            "visible", "restringidoEdad", "imagen", FIELD_FECHA, FIELD_MODIFICACION, "disponibleHasta",
+            "reproducciones", "ratingAvg", "ratingCount"
+    };
+
+    // Reproducciones y valoraciones cambian sin tocar fechaModificacion, así que un updatedSince no las
+    // traería al día: la exportación no las lleva y quien las necesite las pide al catálogo
+    private static final Set<String> CONTADORES = Set.of("reproducciones", "ratingAvg", "ratingCount");
+    private static final String[] CAMPOS_EXPORTACION = Arrays.stream(CAMPOS_RESUMEN)
+            .filter(c -> !CONTADORES.contains(c))
+            .toArray(String[]::new);
+
+    private static final String SEPARADOR = "|";
+    private static final String SIN_FECHA = "-";
+
+    private static final byte[] FIN_DE_LINEA = {'\n'};
+    private static final int BUFFER_EXPORTACION = 64 * 1024;
+
+    private final MongoTemplate mongoTemplate;
+    private final ObjectWriter escritorExportacion;
+
+    @Value("${contenidos.catalogo.page-size:24}")
+    private int pageSize = 24;
+
+    @Value("${contenidos.catalogo.max-page-size:100}")
+    private int maxPageSize = 100;
+
+    // Documentos por lote del cursor y líneas entre flush: acota lo que hay en memoria durante la exportación
+    @Value("${contenidos.catalogo.export.batch-size:500}")
+    private int exportBatchSize = 500;
+
+    public CatalogoService(MongoTemplate mongoTemplate, ObjectMapper objectMapper) {
+        this.mongoTemplate = mongoTemplate;
+        this.escritorExportacion = objectMapper.copy()
+                .addMixIn(ContenidoResumen.class, SinContadores.class)
+                .writerFor(ContenidoResumen.class)
+                .without(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    }
+
+    public PaginaCatalogo pagina(FiltroCatalogo filtro, String cursor, Integer limite) {
+        int n = limite == null ? pageSize : Math.max(1, Math.min(limite, maxPageSize));
+
+        List<Criteria> condiciones = filtros(filtro != null ? filtro : FiltroCatalogo.sinFiltros());
+        if (cursor != null && !cursor.isBlank()) condiciones.add(despuesDe(Cursor.decode(cursor)));
+
+        Query q = new Query();
+        if (!condiciones.isEmpty()) q.addCriteria(new Criteria().andOperator(condiciones));
+        q.with(Sort.by(Sort.Direction.DESC, FIELD_FECHA, FIELD_ID)).limit(n + 1);
+        q.fields().include(CAMPOS_RESUMEN);
+
+        List<Contenido> encontrados = mongoTemplate.find(q, Contenido.class);
+        boolean hayMas = encontrados.size() > n;
+        List<ContenidoResumen> contenidos = encontrados.stream().limit(n).map(ContenidoResumen::of).toList();
+
+        String siguiente = null;
+        if (hayMas) {
+            ContenidoResumen ultimo = contenidos.get(contenidos.size() - 1);
+            siguiente = new Cursor(ultimo.fechaEstado(), ultimo.id()).encode();
+        }
+        return new PaginaCatalogo(contenidos, siguiente);
+    }
+
+    /**
+     * Escribe en {@code out} un resumen por línea de los contenidos dados de alta o modificados desde
+     * {@code modificadosDesde} (todos si es null), en orden de _id. El cursor solo pide el siguiente lote
+     * cuando se ha escrito el anterior, así que un cliente lento frena la lectura en vez de llenar el heap.
+     * No incluye reproducciones ni valoraciones, que no mueven fechaModificacion.
+     * Devuelve cuántos contenidos se han escrito.
+     */
+    public long exportar(LocalDateTime modificadosDesde, OutputStream out) throws IOException {
+        Query q = new Query();
+        if (modificadosDesde != null) q.addCriteria(modificadosDesde(modificadosDesde));
+        q.with(Sort.by(Sort.Direction.ASC, FIELD_ID)).cursorBatchSize(exportBatchSize);
+        q.fields().include(CAMPOS_EXPORTACION);
+
+        BufferedOutputStream buffer = new BufferedOutputStream(out, BUFFER_EXPORTACION);
+        long escritos = 0;
+        try (Stream<Contenido> documentos = mongoTemplate.stream(q, Contenido.class)) {
+            Iterator<Contenido> it = documentos.iterator();
+            while (it.hasNext()) {
+                buffer.write(escritorExportacion.writeValueAsBytes(ContenidoResumen.of(it.next())));
+                buffer.write(FIN_DE_LINEA);
+                if (++escritos % exportBatchSize == 0) buffer.flush();
+            }
+        }
+        buffer.flush();
+        return escritos;
+    }
+
+    // Los contenidos anteriores a fechaModificacion no la tienen; para ellos vale el último cambio de estado
+    private static Criteria modificadosDesde(LocalDateTime desde) {
+        return new Criteria().orOperator(
+                where(FIELD_MODIFICACION).gte(desde),
+                new Criteria().andOperator(where(FIELD_MODIFICACION).exists(false), where(FIELD_FECHA).gte(desde)));
+    }
+
+    private static List<Criteria> filtros(FiltroCatalogo f) {
+        List<Criteria> c = new ArrayList<>();
+        if (f.tipo() != null) c.add(where("tipo").is(f.tipo()));
+        if (f.vip() != null) c.add(where("vip").is(f.vip()));
+        if (f.visible() != null) c.add(where("visible").is(f.visible()));
+        if (f.tags() != null) {
+            List<String> tags = f.tags().stream().filter(t -> t != null && !t.isBlank()).map(String::trim).toList();
+            if (!tags.isEmpty()) c.add(where("tags").all(tags));
+        }
+        return c;
+    }
+
+    // En orden descendente los documentos sin fechaEstado van al final, y $lt no los devuelve nunca
+    private static Criteria despuesDe(Cursor cursor) {
+        if (cursor.fechaEstado() == null) {
+            return new Criteria().andOperator(where(FIELD_FECHA).is(null), where(FIELD_ID).lt(cursor.id()));
+        }
+        return new Criteria().orOperator(
+                where(FIELD_FECHA).lt(cursor.fechaEstado()),
+                new Criteria().andOperator(where(FIELD_FECHA).is(cursor.fechaEstado()), where(FIELD_ID).lt(cursor.id())),
+                where(FIELD_FECHA).is(null));
+    }
+
+    @JsonIgnoreProperties({"reproducciones", "ratingAvg", "ratingCount"})
+    private interface SinContadores {}
+
+    record Cursor(LocalDateTime fechaEstado, String id) {
+
+        String encode() {
+            String fecha = fechaEstado != null ? fechaEstado.toString() : SIN_FECHA;
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString((fecha + SEPARADOR + id).getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String valor) {
+            try {
+                String s = new String(Base64.getUrlDecoder().decode(valor.trim()), StandardCharsets.UTF_8);
+                int sep = s.indexOf(SEPARADOR);
+                if (sep <= 0 || sep == s.length() - 1) throw new IllegalArgumentException(s);
+                String fecha = s.substring(0, sep);
+                return new Cursor(SIN_FECHA.equals(fecha) ? null : LocalDateTime.parse(fecha), s.substring(sep + 1));
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                throw new ContenidoValidationException("Cursor de catálogo no válido");
+            }
+        }
+    }
+}
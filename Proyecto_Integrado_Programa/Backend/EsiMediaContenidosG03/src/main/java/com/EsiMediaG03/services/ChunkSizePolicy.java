@@ -0,0 +1,126 @@
+package com.EsiMediaG03.services;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.model.Contenido;
+
+/**
+ * Decide cuántos bytes se sirven en cada respuesta parcial a partir del bitrate
+ * del contenido, del tamaño pedido por el cliente y del ritmo al que ese cliente viene pidiendo.
+ * <p>
+ * El ritmo es lo servido en una respuesta dividido por el tiempo hasta la siguiente petición del
+ * mismo cliente: mide cuánto consume el reproductor, no el caudal del enlace (el envío por sendfile
+ * termina después de devolver el controlador y aquí no se sabe cuánto tardó). Sirve de tope para no
+ * adelantar a un reproductor que pide despacio mucho más de lo que va a reproducir antes de saltar.
+ */
+@Service
+public class ChunkSizePolicy {
+
+    /** Bitrate supuesto para 4K, el más alto de los que se estiman. */
+    public static final long MAX_BYTES_PER_SECOND = 35_000_000L / 8;
+
+    private static final long VENTANA_RITMO_NANOS = 30_000_000_000L;
+    private static final double PESO_EWMA = 0.3;
+
+    @Value("${contenidos.streaming.chunk.audio.min-bytes:262144}")
+    private long audioMin = 256L * 1024L;
+    @Value("${contenidos.streaming.chunk.audio.max-bytes:4194304}")
+    private long audioMax = 4L * 1024L * 1024L;
+    @Value("${contenidos.streaming.chunk.audio.target-seconds:15}")
+    private int audioTargetSeconds = 15;
+
+    @Value("${contenidos.streaming.chunk.video.min-bytes:1048576}")
+    private long videoMin = 1024L * 1024L;
+    @Value("${contenidos.streaming.chunk.video.max-bytes:33554432}")
+    private long videoMax = 32L * 1024L * 1024L;
+    @Value("${contenidos.streaming.chunk.video.target-seconds:30}")
+    private int videoTargetSeconds = 30;
+
+    // Una respuesta no debería adelantar más que estos segundos al ritmo con el que pide el cliente,
+    // para que los saltos no tiren lo ya enviado
+    @Value("${contenidos.streaming.chunk.max-response-seconds:4}")
+    private int maxResponseSeconds = 4;
+
+    @Value("${contenidos.streaming.chunk.max-clients:10000}")
+    private int maxClientes = 10_000;
+
+    // En orden de acceso: al llenarse se expulsan los inactivos y, si no basta, los menos recientes
+    private final LinkedHashMap<String, Ritmo> ritmos = new LinkedHashMap<>(16, 0.75f, true);
+
+    public long chunkSize(StreamingTarget target, long requestedLength, boolean openEnded, String clientKey) {
+        boolean audio = target.tipo() == Contenido.Tipo.AUDIO;
+        long min = audio ? audioMin : videoMin;
+        long max = audio ? audioMax : videoMax;
+
+        if (!openEnded) {
+            return Math.min(requestedLength, max);
+        }
+
+        long size = estimateBytesPerSecond(target) * (audio ? audioTargetSeconds : videoTargetSeconds);
+        Ritmo ritmo = null;
+        if (clientKey != null) {
+            synchronized (ritmos) {
+                ritmo = ritmos.get(clientKey);
+            }
+        }
+        if (ritmo != null && ritmo.bytesPorSegundo > 0) {
+            size = Math.min(size, (long) (ritmo.bytesPorSegundo * maxResponseSeconds));
+        }
+        size = Math.max(min, Math.min(max, size));
+        return Math.min(requestedLength, size);
+    }
+
+    public void recordServed(String clientKey, long bytes) {
+        if (clientKey == null || bytes <= 0) return;
+        long now = System.nanoTime();
+        synchronized (ritmos) {
+            Ritmo previo = ritmos.get(clientKey);
+            if (previo == null && ritmos.size() >= maxClientes) {
+                expulsar(now);
+            }
+            if (previo == null || now - previo.ultimaPeticion > VENTANA_RITMO_NANOS) {
+                ritmos.put(clientKey, new Ritmo(now, bytes, 0));
+                return;
+            }
+            // Bytes de la respuesta anterior repartidos hasta esta petición: el ritmo de consumo del reproductor
+            double segundos = Math.max((now - previo.ultimaPeticion) / 1e9, 0.001);
+            double muestra = previo.ultimosBytes / segundos;
+            double ewma = previo.bytesPorSegundo <= 0
+                    ? muestra
+                    : PESO_EWMA * muestra + (1 - PESO_EWMA) * previo.bytesPorSegundo;
+            ritmos.put(clientKey, new Ritmo(now, bytes, ewma));
+        }
+    }
+
+    long estimateBytesPerSecond(StreamingTarget target) {
+        if (target.duracionMinutos() > 0 && target.length() > 0) {
+            return Math.max(1L, target.length() / (target.duracionMinutos() * 60L));
+        }
+        if (target.tipo() == Contenido.Tipo.AUDIO) {
+            return 320_000L / 8;
+        }
+        String reso = target.resolucion() != null ? target.resolucion().toLowerCase() : "";
+        return switch (reso) {
+            case "4k" -> MAX_BYTES_PER_SECOND;
+            case "1080p" -> 8_000_000L / 8;
+            default -> 5_000_000L / 8;
+        };
+    }
+
+    // Llamar con el monitor de ritmos tomado
+    private void expulsar(long now) {
+        ritmos.values().removeIf(r -> now - r.ultimaPeticion > VENTANA_RITMO_NANOS);
+        Iterator<Ritmo> lru = ritmos.values().iterator();
+        while (ritmos.size() >= maxClientes && lru.hasNext()) {
+            lru.next();
+            lru.remove();
+        }
+    }
+
+    private record Ritmo(long ultimaPeticion, long ultimosBytes, double bytesPorSegundo) {}
+}
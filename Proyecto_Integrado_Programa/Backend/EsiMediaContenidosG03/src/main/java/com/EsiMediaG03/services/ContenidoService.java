@@ -1,19 +1,19 @@
 package com.EsiMediaG03.services;
 
-import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.Period;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.bson.Document;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import static org.springframework.data.mongodb.core.query.Criteria.where;
@@ -27,7 +27,11 @@ import org.springframework.stereotype.Service;
 
 import com.EsiMediaG03.dao.ContenidoDAO;
 import com.EsiMediaG03.dao.ListaPublicaDAO;
+import com.EsiMediaG03.dto.EntradaRanking;
+import com.EsiMediaG03.dto.MediaFileMetadata;
 import com.EsiMediaG03.dto.ModificarContenidoRequest;
+import com.EsiMediaG03.dto.Mp4Index;
+import com.EsiMediaG03.dto.ReglasAcceso;
 import com.EsiMediaG03.dto.StreamingTarget;
 import com.EsiMediaG03.exceptions.ContenidoAddException;
 import com.EsiMediaG03.exceptions.ContenidoException;
@@ -43,12 +47,20 @@ public class ContenidoService {
     private final ContenidoDAO contenidoDAO;
     private final MongoTemplate mongoTemplate;
     private final ListaPublicaDAO listaPublicaDAO;
+    private final StreamingTargetCache streamingTargetCache;
+    private final PlayCounterBuffer playCounterBuffer;
+    private final HlsPackager hlsPackager;
+    private final Mp4IndexService mp4IndexService;
+    private final MediaFileMetadataCache mediaFileMetadataCache;
+    private final InteraccionesService interacciones;
+    private final MigracionInteracciones migracionInteracciones;
+    private final EstadisticasValoracion estadisticasValoracion;
+    private final RankingValoraciones ranking;
 
     private static final String VIDEO_MP4 = "video/mp4";
     private static final String CONTENIDO_NO_ENCONTRADO = "Contenido no encontrado: ";
     private static final String USUARIO_NO_AUTENTICADO = "Usuario no autenticado";
     private static final String ROLE_USUARIO = "USUARIO";
-    public static final String FAVORITOS_DE_USUARIOS = "favoritosDeUsuarios";
 
     private static final String FIELD_EMAIL = "email";
     private static final String FIELD_ESPECIALIDAD = "especialidad";
@@ -58,14 +70,31 @@ public class ContenidoService {
     private static final String SIN_ESPECIALIDAD = "Sin especialidad";
     private static final String FIELD_AVG   = "avg";
     private static final String FIELD_COUNT = "count";
+    private static final String FIELD_RATING_SUM = "ratingSum";
+    private static final String FIELD_RATING_AVG = "ratingAvg";
+    private static final String FIELD_RATING_COUNT = "ratingCount";
     private static final String MSG_YA_VALORADO = "Ya has valorado este contenido. La primera valoración es definitiva.";
     private static final String MSG_ERROR_ANADIR = "Error al añadir contenido: ";
 
 
-    public ContenidoService(ContenidoDAO contenidoDAO, MongoTemplate mongoTemplate, ListaPublicaDAO listaPublicaDAO) {
+    public ContenidoService(ContenidoDAO contenidoDAO, MongoTemplate mongoTemplate, ListaPublicaDAO listaPublicaDAO,
+                            StreamingTargetCache streamingTargetCache, PlayCounterBuffer playCounterBuffer,
+                            HlsPackager hlsPackager, Mp4IndexService mp4IndexService,
+                            MediaFileMetadataCache mediaFileMetadataCache, InteraccionesService interacciones,
+                            MigracionInteracciones migracionInteracciones,
+                            EstadisticasValoracion estadisticasValoracion, RankingValoraciones ranking) {
         this.contenidoDAO = contenidoDAO;
         this.mongoTemplate = mongoTemplate;
         this.listaPublicaDAO = listaPublicaDAO;
+        this.streamingTargetCache = streamingTargetCache;
+        this.playCounterBuffer = playCounterBuffer;
+        this.hlsPackager = hlsPackager;
+        this.mp4IndexService = mp4IndexService;
+        this.mediaFileMetadataCache = mediaFileMetadataCache;
+        this.interacciones = interacciones;
+        this.migracionInteracciones = migracionInteracciones;
+        this.estadisticasValoracion = estadisticasValoracion;
+        this.ranking = ranking;
     }
 
     public Contenido anadirContenido(Contenido contenido) throws ContenidoAddException {
@@ -74,7 +103,11 @@ public class ContenidoService {
     } catch (ContenidoValidationException | IllegalArgumentException ex) {
         throw new ContenidoAddException(MSG_ERROR_ANADIR + ex.getMessage());
     }
-    return contenidoDAO.save(contenido);
+    contenido.setFechaModificacion(LocalDateTime.now());
+    Contenido guardado = contenidoDAO.save(contenido);
+    mp4IndexService.programar(guardado);
+    hlsPackager.programar(guardado);
+    return guardado;
 }
 
 
@@ -85,6 +118,8 @@ public class ContenidoService {
     public Contenido modificarContenido(String id,
                                         ModificarContenidoRequest cambios,
                                         Contenido.Tipo requesterTipo) throws ContenidoModificationException {
+        // Los contenidos anteriores a ratingSum o al histograma se migran también al editarlos, igual que al valorar
+        migracionInteracciones.migrarContenido(id);
         Contenido actual = contenidoDAO.findById(id)
                 .orElseThrow(() -> new ContenidoModificationException(CONTENIDO_NO_ENCONTRADO + " " + id));
 
@@ -94,7 +129,20 @@ public class ContenidoService {
         opsFor(actual.getTipo()).patch(actual, cambios);
 
         validarcontenido(actual);
-        return contenidoDAO.save(actual);
+        actual.setFechaModificacion(LocalDateTime.now());
+        // Solo los campos editables: los contadores y el histograma se actualizan con $inc (valoraciones,
+        // reproducciones) y reescribirlos con lo leído perdería los incrementos que entren entre la lectura y esta
+        // escritura; la media y la bayesiana las recalcula rateContenido a partir de ellos
+        Contenido guardado = mongoTemplate.findAndModify(Query.query(where("_id").is(id)), camposEditables(actual),
+                FindAndModifyOptions.options().returnNew(true), Contenido.class);
+        if (guardado == null) {
+            throw new ContenidoModificationException(CONTENIDO_NO_ENCONTRADO + " " + id);
+        }
+        streamingTargetCache.invalidate(id);
+        ranking.actualizar(EntradaRanking.of(guardado));
+        mp4IndexService.programar(guardado);
+        hlsPackager.programar(guardado);
+        return guardado;
     }
 
     public void eliminarContenido(String id, Contenido.Tipo requesterTipo) {
@@ -103,6 +151,34 @@ public class ContenidoService {
 
         checkPermisosPorTipo(actual, requesterTipo, "eliminar");
         contenidoDAO.deleteById(id);
+        interacciones.eliminarDeContenido(id);
+        ranking.quitar(id);
+        streamingTargetCache.invalidate(id);
+    }
+
+    private static Update camposEditables(Contenido c) {
+        Update u = new Update()
+                .set("titulo", c.getTitulo())
+                .set("descripcion", c.getDescripcion())
+                .set("tags", c.getTags())
+                .set("duracionMinutos", c.getDuracionMinutos())
+                .set("vip", c.isVip())
+                .set("visible", c.isVisible())
+                // setVisible mueve fechaEstado, que ordena el catálogo por keyset y los favoritos
+                .set(CatalogoService.FIELD_FECHA, c.getFechaEstado())
+                .set("restringidoEdad", c.getRestringidoEdad())
+                .set(CatalogoService.FIELD_MODIFICACION, c.getFechaModificacion());
+        setIfNotNull(u, "disponibleHasta", c.getDisponibleHasta());
+        setIfNotNull(u, "imagen", c.getImagen());
+        setIfNotNull(u, "urlAudio", c.getUrlAudio());
+        setIfNotNull(u, "ficheroAudio", c.getFicheroAudio());
+        setIfNotNull(u, "urlVideo", c.getUrlVideo());
+        setIfNotNull(u, "resolucion", c.getResolucion());
+        return u;
+    }
+
+    private static void setIfNotNull(Update u, String campo, Object valor) {
+        if (valor != null) u.set(campo, valor);
     }
 
     private void applyCommonPatch(Contenido actual, ModificarContenidoRequest c) {
@@ -122,11 +198,31 @@ public class ContenidoService {
 
     public StreamingTarget resolveStreamingTarget(String id, Boolean isVip, Integer ageYears)
             throws StreamingTargetResolutionException, StreamingTargetException {
+        StreamingTargetCache.Resuelto cached = streamingTargetCache.get(id);
+        if (cached != null) {
+            validarAccesoAContenido(cached.reglas(), isVip, ageYears, LocalDateTime.now());
+            return cached.target();
+        }
+
         Contenido c = contenidoDAO.findById(id)
                 .orElseThrow(() -> new StreamingTargetResolutionException(CONTENIDO_NO_ENCONTRADO + " " + id));
 
-        validarAccesoAContenido(c, isVip, ageYears, LocalDateTime.now());
-        return opsFor(c.getTipo()).buildTarget(c);
+        ReglasAcceso reglas = ReglasAcceso.of(c);
+        validarAccesoAContenido(reglas, isVip, ageYears, LocalDateTime.now());
+        StreamingTarget target = opsFor(c.getTipo()).buildTarget(c).withProfile(c);
+        if (c.getTipo() == Contenido.Tipo.VIDEO && !target.isExternalRedirect()) {
+            Path origen = target.path();
+            target = mp4IndexService.preferirFaststart(id, target)
+                    .withHls(hlsPackager.manifestSiListo(id, origen));
+        }
+        streamingTargetCache.put(id, target, reglas);
+        return target;
+    }
+
+    /** Índice MP4 válido para el fichero que se sirve en {@code target}, o null si no lo hay. */
+    public Mp4Index indiceMp4(String id, StreamingTarget target) {
+        if (target == null || target.isExternalRedirect()) return null;
+        return mp4IndexService.indiceDe(id, target.path());
     }
 
     private interface TipoOps {
@@ -170,15 +266,8 @@ public class ContenidoService {
 
         
             java.nio.file.Path path = java.nio.file.Path.of(source);
-            ensureReadableFile(path, "Fichero de audio no accesible");
-            long length;
-            try {
-                length = java.nio.file.Files.size(path);
-            } catch (java.io.IOException e) {
-                throw new StreamingTargetException("Error al obtener el tamaño del archivo: " + e.getMessage());
-            }
-            String mime = guessMimeFromExt(source, AUDIO_DEFAULT);
-            return StreamingTarget.local(path, length, mime);
+            MediaFileMetadata md = ensureReadableFile(path, "Fichero de audio no accesible");
+            return StreamingTarget.local(path, md.size(), md.mimeType() != null ? md.mimeType() : AUDIO_DEFAULT);
         }
     };
 
@@ -200,15 +289,8 @@ public class ContenidoService {
                 return StreamingTarget.external(urlOrPath, VIDEO_MP4);
             }
             Path path = Path.of(urlOrPath);
-            ensureReadableFile(path, "Fichero de vídeo no accesible");
-            long length;
-            try {
-                length = Files.size(path);
-            } catch (IOException e) {
-                throw new StreamingTargetException("Error al obtener el tamaño del archivo: " + e.getMessage());
-            }
-            String mime = guessMimeFromExt(urlOrPath, VIDEO_MP4);
-            return StreamingTarget.local(path, length, mime);
+            MediaFileMetadata md = ensureReadableFile(path, "Fichero de vídeo no accesible");
+            return StreamingTarget.local(path, md.size(), md.mimeType() != null ? md.mimeType() : VIDEO_MP4);
         }
     };
 
@@ -217,10 +299,18 @@ public class ContenidoService {
         return (t == Contenido.Tipo.AUDIO) ? audioOps : videoOps;
     }
 
-    private void ensureReadableFile(Path path, String msgPrefix) {
-        if (!Files.exists(path) || !Files.isReadable(path)) {
+    // Tamaño, tipo y legibilidad salen de la caché de metadatos en vez de un stat por petición
+    private MediaFileMetadata ensureReadableFile(Path path, String msgPrefix) {
+        MediaFileMetadata md;
+        try {
+            md = mediaFileMetadataCache.consultar(path);
+        } catch (java.io.UncheckedIOException e) {
+            throw new IllegalStateException(msgPrefix + ": " + path, e);
+        }
+        if (!md.readable()) {
             throw new IllegalStateException(msgPrefix + ": " + path);
         }
+        return md;
     }
 
     private void setIfText(java.util.function.Consumer<String> setter, String value) {
@@ -233,30 +323,18 @@ public class ContenidoService {
 
     private boolean isBlank(String s) { return s == null || s.isBlank(); }
 
-    private String guessMimeFromExt(String path, String fallback) {
-        String l = path.toLowerCase();
-        if (l.endsWith(".mp3")) return AUDIO_DEFAULT;
-        if (l.endsWith(".wav")) return "audio/wav";
-        if (l.endsWith(".m4a")) return "audio/mp4";
-        if (l.endsWith(".flac")) return "audio/flac";
-        if (l.endsWith(".mp4")) return VIDEO_MP4;
-        if (l.endsWith(".webm")) return "video/webm";
-        if (l.endsWith(".mkv")) return "video/x-matroska";
-        return fallback;
-    }
-
-    private void validarAccesoAContenido(Contenido c, Boolean isVip, Integer ageYears, LocalDateTime now) {
-        if (!c.isVisible()) {
+    private void validarAccesoAContenido(ReglasAcceso c, Boolean isVip, Integer ageYears, LocalDateTime now) {
+        if (!c.visible()) {
             throw new ContenidoException("Este contenido no está disponible en este momento.");
         }
-        if (c.getDisponibleHasta() != null && !c.getDisponibleHasta().isAfter(now)) {
+        if (c.disponibleHasta() != null && !c.disponibleHasta().isAfter(now)) {
             throw new ContenidoException("Este contenido ha dejado de estar disponible.");
         }
 
-        if (c.isVip() && !Boolean.TRUE.equals(isVip)) {
+        if (c.vip() && !Boolean.TRUE.equals(isVip)) {
             throw new ContenidoException("Contenido VIP — necesitas una suscripción VIP para reproducirlo.");
         }
-        int minAge = c.getRestringidoEdad();
+        int minAge = c.restringidoEdad();
         if (minAge > 0) {
             if (ageYears == null) {
                 throw new ContenidoException("Contenido restringido — no se pudo verificar tu edad.");
@@ -267,6 +345,22 @@ public class ContenidoService {
         }
     }
 
+    public List<Path> rutasLocalesMasReproducidas(int limit) {
+        Query q = new Query().with(Sort.by(Sort.Direction.DESC, FIELD_REPRODUCCIONES)).limit(limit);
+        q.fields().include("tipo").include("urlVideo").include("urlAudio").include("ficheroAudio");
+        return mongoTemplate.find(q, Contenido.class).stream()
+                .map(this::rutaLocal)
+                .filter(java.util.Objects::nonNull)
+                .toList();
+    }
+
+    private Path rutaLocal(Contenido c) {
+        String source = (c.getTipo() == Contenido.Tipo.AUDIO)
+                ? (hasText(c.getUrlAudio()) ? c.getUrlAudio() : c.getFicheroAudio())
+                : c.getUrlVideo();
+        return (isBlank(source) || isHttp(source)) ? null : Path.of(source);
+    }
+
     public static Integer calcularEdad(LocalDate birthdate) {
         if (birthdate == null) return null;
         return Period.between(birthdate, LocalDate.now()).getYears();
@@ -274,9 +368,7 @@ public class ContenidoService {
 
     public void registrarReproduccionSiUsuario(String contenidoId, String userRole) {
         if (userRole == null || !userRole.equalsIgnoreCase(ROLE_USUARIO)) return;
-        Query q = new Query(where("_id").is(contenidoId));
-        Update u = new Update().inc(FIELD_REPRODUCCIONES, 1L);
-        mongoTemplate.updateFirst(q, u, Contenido.class);
+        playCounterBuffer.registrarReproduccion(contenidoId);
     }
 
     private void validarcontenido(Contenido contenido) throws ContenidoValidationException {
@@ -346,16 +438,15 @@ public class ContenidoService {
 
     public void registrarReproductor(String contenidoId, String userEmail) {
         if (userEmail == null || userEmail.isBlank()) return;
-        var q = new Query(Criteria.where("_id").is(contenidoId));
-        var u = new Update().addToSet("reproductores", userEmail);
-        mongoTemplate.updateFirst(q, u, Contenido.class);
+        playCounterBuffer.registrarReproductor(contenidoId, userEmail);
+    }
+
+    public Map<String, Object> estadoColaReproducciones() {
+        return playCounterBuffer.stats();
     }
 
-    private String mapKeyForEmail(String email) {
-        if (email == null) return null;
-        return email.toLowerCase()
-                .replace(".", "%2E")
-                .replace("$", "%24");
+    public List<EntradaRanking> rankingValoraciones(Contenido.Tipo tipo, String tag, Integer limite) {
+        return ranking.top(tipo, tag, limite);
     }
 
     public Map<String,Object> rateContenido(String id, String userEmail, double score) {
@@ -368,35 +459,44 @@ public class ContenidoService {
     if (Math.abs(twoX - Math.rint(twoX)) > 1e-9)
         throw new ContenidoValidationException("La puntuación debe ser entera o media estrella (incrementos de 0.5).");
 
-    Contenido c = contenidoDAO.findById(id)
-        .orElseThrow(() -> new ContenidoException(CONTENIDO_NO_ENCONTRADO + " " + id));
-
-    Set<String> repr = c.getReproductores();
-    if (repr == null || !repr.contains(userEmail)) {
+    // El reproductor se vuelca a Mongo por lotes: justo tras empezar a reproducir puede estar aún en el buffer
+    if (!playCounterBuffer.reproductorPendiente(id, userEmail) && !interacciones.haReproducido(id, userEmail)) {
         throw new ContenidoException("Solo puedes valorar tras reproducir el contenido.");
     }
-
-    Map<String, Double> ratings = c.getRatings();
-    if (ratings == null) {
-        ratings = new HashMap<>();
-        c.setRatings(ratings);
-    }
-
-    String key = mapKeyForEmail(userEmail);
-    if (ratings.containsKey(key)) {
+    // Los contenidos valorados antes de existir ratingSum o el histograma los reciben aquí, antes de contar este
+    // voto: el histograma se rellena desde la colección de valoraciones y no debe incluirlo todavía
+    migracionInteracciones.migrarContenido(id);
+    // La clave única de valoraciones frena el segundo voto; el contenido se actualiza en una sola operación
+    if (!interacciones.registrarValoracion(id, userEmail, score)) {
         throw new ContenidoException(MSG_YA_VALORADO);
     }
 
-    double total = c.getRatingAvg() * c.getRatingCount();
-    total += score;
-    c.setRatingCount(c.getRatingCount() + 1);
-    c.setRatingAvg(total / c.getRatingCount());
-    ratings.put(key, score);
-
-    contenidoDAO.save(c);
+    Query q = Query.query(where("_id").is(id));
+    q.fields().include(FIELD_RATING_SUM, FIELD_RATING_COUNT, "titulo", "tipo", "tags");
+    Contenido c;
+    try {
+        c = mongoTemplate.findAndModify(q, new Update().inc(FIELD_RATING_SUM, score).inc(FIELD_RATING_COUNT, 1)
+                        .inc(EstadisticasValoracion.campoCubeta(score), 1),
+                FindAndModifyOptions.options().returnNew(true), Contenido.class);
+    } catch (RuntimeException e) {
+        interacciones.anularValoracion(id, userEmail);
+        throw e;
+    }
+    if (c == null) {
+        interacciones.anularValoracion(id, userEmail);
+        throw new ContenidoException(CONTENIDO_NO_ENCONTRADO + " " + id);
+    }
+
+    double avg = c.getRatingSum() / c.getRatingCount();
+    c.setRatingAvg(avg);
+    c.setRatingBayes(estadisticasValoracion.bayesiana(c.getRatingSum(), c.getRatingCount()));
+    // La media y la bayesiana guardadas sirven para ordenar; si ya ha entrado otra valoración, las suyas son más recientes
+    mongoTemplate.updateFirst(Query.query(where("_id").is(id).and(FIELD_RATING_COUNT).is(c.getRatingCount())),
+            new Update().set(FIELD_RATING_AVG, avg).set(RankingValoraciones.FIELD_BAYES, c.getRatingBayes()), Contenido.class);
+    ranking.actualizar(EntradaRanking.of(c));
 
     Map<String,Object> res = new HashMap<>();
-    res.put(FIELD_AVG, c.getRatingAvg());
+    res.put(FIELD_AVG, avg);
     res.put(FIELD_COUNT, c.getRatingCount());
     return res;
 }
@@ -412,6 +512,21 @@ public class ContenidoService {
 }
 
 
+    /** Histograma por medias estrellas, media y puntuación bayesiana, leyendo solo los contadores del contenido. */
+    public Map<String,Object> distribucionValoraciones(String id) {
+        Query q = Query.query(where("_id").is(id));
+        q.fields().include(FIELD_RATING_SUM, FIELD_RATING_COUNT, EstadisticasValoracion.FIELD_HISTOGRAMA);
+        Contenido c = mongoTemplate.findOne(q, Contenido.class);
+        if (c == null) throw new ContenidoException(CONTENIDO_NO_ENCONTRADO + " " + id);
+
+        Map<String,Object> res = new LinkedHashMap<>();
+        res.put(FIELD_AVG, c.getRatingCount() > 0 ? c.getRatingSum() / c.getRatingCount() : 0.0);
+        res.put(FIELD_COUNT, c.getRatingCount());
+        res.put("histogram", EstadisticasValoracion.histograma(c.getRatingHistograma()));
+        res.put("bayesianScore", estadisticasValoracion.bayesiana(c.getRatingSum(), c.getRatingCount()));
+        return res;
+    }
+
     public void addFavorito(String contenidoId, String userEmail, String roleHeader) {
         String email = (userEmail != null && !userEmail.isBlank()) ? userEmail : currentUserEmailOrNull();
         if (email == null) throw new AccessDeniedException(USUARIO_NO_AUTENTICADO);
@@ -422,26 +537,27 @@ public class ContenidoService {
             throw new AccessDeniedException("No se permite marcar como favorito");
         }
 
-        Query q = Query.query(Criteria.where("_id").is(contenidoId));
-        Update u = new Update().addToSet(FAVORITOS_DE_USUARIOS, email);
-        mongoTemplate.updateFirst(q, u, Contenido.class);
+        interacciones.addFavorito(contenidoId, email);
     }
 
     public void removeFavorito(String contenidoId, String userEmail) {
         String email = (userEmail != null && !userEmail.isBlank()) ? userEmail : currentUserEmailOrNull();
         if (email == null) throw new AccessDeniedException(USUARIO_NO_AUTENTICADO);
 
-        Query q = Query.query(Criteria.where("_id").is(contenidoId));
-        Update u = new Update().pull(FAVORITOS_DE_USUARIOS, email);
-        mongoTemplate.updateFirst(q, u, Contenido.class);
+        interacciones.removeFavorito(contenidoId, email);
     }
 
     public List<String> listFavoritosIds(String userEmail) {
         String email = (userEmail != null && !userEmail.isBlank()) ? userEmail : currentUserEmailOrNull();
         if (email == null) throw new AccessDeniedException(USUARIO_NO_AUTENTICADO);
 
-        Query q = Query.query(Criteria.where(FAVORITOS_DE_USUARIOS).is(email))
+        List<String> ids = interacciones.contenidosFavoritos(email);
+        if (ids.isEmpty()) return List.of();
+
+        // Se ordenan como siempre, por fechaEstado del contenido, y de paso se descartan los ya borrados
+        Query q = Query.query(Criteria.where("_id").in(ids))
                 .with(Sort.by(Sort.Direction.DESC, "fechaEstado"));
+        q.fields().include("_id");
         return mongoTemplate.find(q, Contenido.class)
                 .stream().map(Contenido::getId).toList();
     }
@@ -497,18 +613,14 @@ public class ContenidoService {
     }
 
     private List<Map<String, Object>> top5PorValoraciones() {
-        Query q = new Query(Criteria.where("ratingCount").gt(0))
-                .with(Sort.by(Sort.Direction.DESC, "ratingAvg")
-                        .and(Sort.by(Sort.Direction.DESC, "ratingCount")))
-                .limit(5);
-        List<Contenido> top = mongoTemplate.find(q, Contenido.class);
-        return top.stream().map(c -> {
+        return ranking.top(null, null, 5).stream().map(e -> {
             Map<String, Object> m = new HashMap<>();
-            m.put("id", c.getId());
-            m.put("titulo", c.getTitulo());
-            m.put("tipo", c.getTipo() != null ? c.getTipo().name() : null);
-            m.put("avg", c.getRatingAvg());
-            m.put(FIELD_COUNT, c.getRatingCount()); 
+            m.put("id", e.id());
+            m.put("titulo", e.titulo());
+            m.put("tipo", e.tipo() != null ? e.tipo().name() : null);
+            m.put("avg", e.ratingAvg());
+            m.put(FIELD_COUNT, e.ratingCount());
+            m.put("bayesianScore", e.ratingBayes());
             return m;
         }).toList();
     }
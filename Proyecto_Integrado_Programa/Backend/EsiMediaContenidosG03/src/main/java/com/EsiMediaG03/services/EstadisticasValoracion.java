@@ -0,0 +1,54 @@
+package com.EsiMediaG03.services;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Histograma por medias estrellas y puntuación bayesiana de las valoraciones de un contenido. El histograma
+ * se guarda en el propio contenido con un contador por cubeta que se incrementa junto a la suma y el recuento;
+ * la puntuación bayesiana acerca a la media previa los contenidos con pocos votos, para que un único 5.0 no
+ * pese lo mismo que cientos de votos.
+ */
+@Service
+public class EstadisticasValoracion {
+
+    public static final String FIELD_HISTOGRAMA = "ratingHistograma";
+
+    static final int CUBETAS = 10;
+
+    @Value("${contenidos.valoraciones.bayes.media-previa:3.0}")
+    private double mediaPrevia = 3.0;
+
+    // Votos ficticios con la media previa que se suman a los reales
+    @Value("${contenidos.valoraciones.bayes.votos-previos:10}")
+    private int votosPrevios = 10;
+
+    /** Clave de la cubeta en el histograma guardado: medias estrellas con dos cifras, de "05" a "50". */
+    public static String cubeta(double score) {
+        return String.format(Locale.ROOT, "%02d", Math.round(score * 2) * 5);
+    }
+
+    /** Path del contador de la cubeta dentro del contenido, para usarlo en un $inc. */
+    public static String campoCubeta(double score) {
+        return FIELD_HISTOGRAMA + "." + cubeta(score);
+    }
+
+    /** Histograma guardado pasado a "0.5" ... "5.0", con todas las cubetas aunque estén a cero. */
+    public static Map<String, Long> histograma(Map<String, ? extends Number> guardado) {
+        Map<String, Long> res = new LinkedHashMap<>();
+        for (int i = 1; i <= CUBETAS; i++) {
+            double score = i / 2.0;
+            Number n = guardado != null ? guardado.get(cubeta(score)) : null;
+            res.put(String.valueOf(score), n != null ? n.longValue() : 0L);
+        }
+        return res;
+    }
+
+    public double bayesiana(double ratingSum, long ratingCount) {
+        return (votosPrevios * mediaPrevia + ratingSum) / (votosPrevios + ratingCount);
+    }
+}
@@ -0,0 +1,373 @@
+package com.EsiMediaG03.services;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Modo proxy (opcional) para los contenidos con URL externa: en lugar de redirigir al origen,
+ * se descarga a bloques de tamaño fijo con un HttpClient compartido y se reenvía al cliente.
+ * Los bloques descargados se guardan en disco con expulsión LRU dentro de un presupuesto de bytes,
+ * y las descargas simultáneas del mismo bloque se agrupan en una sola petición al origen.
+ */
+@Service
+public class ExternalMediaProxy {
+
+    private static final Logger log = LoggerFactory.getLogger(ExternalMediaProxy.class);
+
+    // Nombre de los bloques que escribe este servicio (ver clave()) y de sus temporales
+    private static final Pattern FICHERO_BLOQUE = Pattern.compile("[0-9a-f]{32}-\\d+(\\.tmp)?");
+
+    @Value("${contenidos.proxy.enabled:false}")
+    private boolean enabled;
+
+    @Value("${contenidos.proxy.cache-dir:media/proxy-cache}")
+    private String cacheDir = "media/proxy-cache";
+
+    @Value("${contenidos.proxy.budget-bytes:1073741824}")
+    private long budgetBytes = 1024L * 1024L * 1024L;
+
+    @Value("${contenidos.proxy.block-bytes:1048576}")
+    private int blockBytes = 1024 * 1024;
+
+    @Value("${contenidos.proxy.max-response-bytes:8388608}")
+    private long maxResponseBytes = 8L * 1024L * 1024L;
+
+    @Value("${contenidos.proxy.connect-timeout-ms:5000}")
+    private long connectTimeoutMs = 5000;
+
+    @Value("${contenidos.proxy.request-timeout-ms:30000}")
+    private long requestTimeoutMs = 30000;
+
+    @Value("${contenidos.proxy.origins.max-entries:4096}")
+    private int maxOrigenes = 4096;
+
+    @Value("${contenidos.proxy.origins.ttl-ms:600000}")
+    private long origenesTtlMs = 600_000;
+
+    private HttpClient http;
+    private Path dir;
+
+    // Orden de acceso: el primero es el bloque menos usado recientemente
+    private final LinkedHashMap<String, Integer> bloques = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytesEnDisco;
+
+    // Tamaño y tipo por URL, también en orden de acceso; caducan para ver los cambios del origen
+    private final LinkedHashMap<String, Descrito> origenes = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, CompletableFuture<byte[]>> enVuelo = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesOrigen = new AtomicLong();
+    private final AtomicLong bytesServidos = new AtomicLong();
+    private final AtomicLong expulsiones = new AtomicLong();
+
+    public record Origen(long length, String mimeType) {}
+
+    private record Descrito(Origen origen, long cargadoEn) {}
+
+    @PostConstruct
+    void init() throws IOException {
+        if (!enabled) return;
+        http = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        dir = Path.of(cacheDir);
+        // El índice LRU vive en memoria: los bloques de una ejecución anterior no se pueden contabilizar.
+        // Solo se borran ficheros con nombre de bloque; el resto del directorio no es de este servicio
+        if (Files.isDirectory(dir)) {
+            try (Stream<Path> viejos = Files.list(dir)) {
+                for (Path p : (Iterable<Path>) viejos::iterator) {
+                    if (Files.isRegularFile(p) && FICHERO_BLOQUE.matcher(p.getFileName().toString()).matches()) {
+                        Files.deleteIfExists(p);
+                    }
+                }
+            }
+        }
+        Files.createDirectories(dir);
+    }
+
+    public boolean isEnabled() {
+        return enabled && http != null;
+    }
+
+    public long maxResponseBytes() {
+        return maxResponseBytes;
+    }
+
+    /** Tamaño y tipo del recurso externo; la primera vez se obtienen descargando su primer bloque. */
+    public Origen describir(String url) throws IOException {
+        Origen o = origen(url);
+        if (o != null) return o;
+        try {
+            bloque(url, 0);
+            o = origen(url);
+            if (o == null) {
+                // El primer bloque seguía en disco pero su descripción había caducado: se vuelve a pedir al origen
+                olvidar(clave(url, 0));
+                bloque(url, 0);
+                o = origen(url);
+            }
+        } catch (IOException e) {
+            log.warn("Origen externo {} no disponible: {}", url, e.getMessage());
+            throw e;
+        }
+        if (o == null) throw new IOException("El origen no ha indicado el tamaño de " + url);
+        return o;
+    }
+
+    private Origen origen(String url) {
+        synchronized (origenes) {
+            Descrito d = origenes.get(url);
+            if (d == null) return null;
+            if (System.currentTimeMillis() - d.cargadoEn() >= origenesTtlMs) {
+                origenes.remove(url);
+                return null;
+            }
+            return d.origen();
+        }
+    }
+
+    private void recordar(String url, Origen o) {
+        long now = System.currentTimeMillis();
+        synchronized (origenes) {
+            if (origenes.size() >= maxOrigenes && !origenes.containsKey(url)) {
+                origenes.values().removeIf(d -> now - d.cargadoEn() >= origenesTtlMs);
+                Iterator<Descrito> lru = origenes.values().iterator();
+                while (origenes.size() >= maxOrigenes && lru.hasNext()) {
+                    lru.next();
+                    lru.remove();
+                }
+            }
+            origenes.put(url, new Descrito(o, now));
+        }
+    }
+
+    /** Flujo con los bytes [start, start + count) del recurso, leídos bloque a bloque según se consumen. */
+    public InputStream abrir(String url, long start, long count) {
+        return new BloquesInputStream(url, start, start + count);
+    }
+
+    byte[] bloque(String url, long indice) throws IOException {
+        String clave = clave(url, indice);
+        Path fichero = dir.resolve(clave);
+        boolean enCache;
+        synchronized (this) {
+            enCache = bloques.get(clave) != null;
+        }
+        if (enCache) {
+            try {
+                byte[] datos = Files.readAllBytes(fichero);
+                hits.incrementAndGet();
+                return datos;
+            } catch (NoSuchFileException e) {
+                olvidar(clave);
+            }
+        }
+
+        CompletableFuture<byte[]> nuevo = new CompletableFuture<>();
+        CompletableFuture<byte[]> actual = enVuelo.putIfAbsent(clave, nuevo);
+        if (actual != null) return esperar(actual);
+        try {
+            misses.incrementAndGet();
+            byte[] datos = descargar(url, indice);
+            guardar(clave, fichero, datos);
+            nuevo.complete(datos);
+            return datos;
+        } catch (IOException | RuntimeException e) {
+            nuevo.completeExceptionally(e);
+            throw e;
+        } finally {
+            enVuelo.remove(clave, nuevo);
+        }
+    }
+
+    private synchronized void olvidar(String clave) {
+        Integer size = bloques.remove(clave);
+        if (size != null) bytesEnDisco -= size;
+    }
+
+    private byte[] descargar(String url, long indice) throws IOException {
+        long desde = indice * blockBytes;
+        long hasta = desde + blockBytes - 1;
+        HttpRequest req = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofMillis(requestTimeoutMs))
+                .header("Range", "bytes=" + desde + "-" + hasta)
+                .GET()
+                .build();
+        HttpResponse<InputStream> res;
+        try {
+            res = http.send(req, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Descarga interrumpida de " + url, e);
+        }
+
+        long total;
+        try (InputStream body = res.body()) {
+            String mime = res.headers().firstValue("Content-Type").orElse(null);
+            if (res.statusCode() == 206) {
+                total = totalDeContentRange(res.headers().firstValue("Content-Range").orElse(null));
+            } else if (res.statusCode() == 200 && indice == 0) {
+                // Origen sin rangos: vale para el primer bloque, leyendo solo su parte
+                total = res.headers().firstValueAsLong("Content-Length").orElse(-1L);
+            } else if (res.statusCode() == 200) {
+                throw new IOException("El origen no admite peticiones por rango: " + url);
+            } else {
+                throw new IOException("El origen respondió " + res.statusCode() + " para " + url);
+            }
+            if (total < 0) throw new IOException("El origen no ha indicado el tamaño de " + url);
+            recordar(url, new Origen(total, mime));
+
+            int esperado = (int) Math.max(0, Math.min(blockBytes, total - desde));
+            byte[] datos = body.readNBytes(esperado);
+            if (datos.length < esperado) throw new EOFException("Bloque incompleto de " + url);
+            bytesOrigen.addAndGet(datos.length);
+            return datos;
+        }
+    }
+
+    private void guardar(String clave, Path fichero, byte[] datos) {
+        try {
+            Path tmp = fichero.resolveSibling(clave + ".tmp");
+            Files.write(tmp, datos);
+            Files.move(tmp, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.debug("No se ha podido cachear el bloque {}: {}", clave, e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            Integer anterior = bloques.put(clave, datos.length);
+            bytesEnDisco += datos.length - (anterior != null ? anterior : 0);
+            Iterator<Map.Entry<String, Integer>> lru = bloques.entrySet().iterator();
+            while (bytesEnDisco > budgetBytes && lru.hasNext()) {
+                Map.Entry<String, Integer> e = lru.next();
+                if (e.getKey().equals(clave)) continue;
+                lru.remove();
+                bytesEnDisco -= e.getValue();
+                expulsiones.incrementAndGet();
+                try {
+                    Files.deleteIfExists(dir.resolve(e.getKey()));
+                } catch (IOException ex) {
+                    log.debug("No se ha podido borrar el bloque {}", e.getKey());
+                }
+            }
+        }
+    }
+
+    private static byte[] esperar(CompletableFuture<byte[]> f) throws IOException {
+        try {
+            return f.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw e;
+        }
+    }
+
+    // "bytes 0-1048575/123456789"
+    private static long totalDeContentRange(String contentRange) {
+        if (contentRange == null) return -1;
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0) return -1;
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String clave(String url, long indice) {
+        try {
+            byte[] h = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(h, 0, 16) + "-" + indice;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("enabled", enabled);
+        res.put("blocks", bloques.size());
+        synchronized (origenes) {
+            res.put("origins", origenes.size());
+        }
+        res.put("bytesCached", bytesEnDisco);
+        res.put("budgetBytes", budgetBytes);
+        res.put("hits", hits.get());
+        res.put("misses", misses.get());
+        res.put("evictions", expulsiones.get());
+        res.put("originBytes", bytesOrigen.get());
+        res.put("servedBytes", bytesServidos.get());
+        return res;
+    }
+
+    private final class BloquesInputStream extends InputStream {
+
+        private final String url;
+        private final long fin;
+        private long pos;
+        private byte[] actual;
+        private long inicioActual = -1;
+
+        BloquesInputStream(String url, long inicio, long fin) {
+            this.url = url;
+            this.pos = inicio;
+            this.fin = fin;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] uno = new byte[1];
+            return read(uno, 0, 1) < 0 ? -1 : uno[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (pos >= fin) return -1;
+            if (len == 0) return 0;
+            long indice = pos / blockBytes;
+            if (actual == null || inicioActual != indice * blockBytes) {
+                actual = bloque(url, indice);
+                inicioActual = indice * blockBytes;
+            }
+            int desde = (int) (pos - inicioActual);
+            if (desde >= actual.length) throw new EOFException("El recurso externo es más corto de lo esperado: " + url);
+            int n = (int) Math.min(Math.min(len, actual.length - desde), fin - pos);
+            System.arraycopy(actual, desde, b, off, n);
+            pos += n;
+            bytesServidos.addAndGet(n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import com.EsiMediaG03.model.Contenido;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Empaqueta los vídeos locales como HLS (segmentos .ts de duración fija más un index.m3u8)
+ * en un pool acotado, fuera de la petición que da de alta o modifica el contenido.
+ * Cada paquete vive en {@code <root>/<id>/<versión>/}, donde la versión sale del tamaño y
+ * la fecha del fichero de origen, así que sus ficheros no cambian nunca y se pueden cachear.
+ * Para segmentar se usa el binario de ffmpeg; si no está instalado los vídeos se siguen
+ * sirviendo como MP4 progresivo.
+ */
+@Service
+public class HlsPackager {
+
+    private static final Logger log = LoggerFactory.getLogger(HlsPackager.class);
+
+    public static final String MANIFEST = "index.m3u8";
+
+    private final StreamingTargetCache streamingTargetCache;
+
+    @Value("${contenidos.hls.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${contenidos.hls.ffmpeg:ffmpeg}")
+    private String ffmpeg = "ffmpeg";
+
+    @Value("${contenidos.hls.root:media/hls}")
+    private String root = "media/hls";
+
+    @Value("${contenidos.hls.segment-seconds:6}")
+    private int segmentSeconds = 6;
+
+    @Value("${contenidos.hls.workers:2}")
+    private int workers = 2;
+
+    @Value("${contenidos.hls.queue-capacity:16}")
+    private int queueCapacity = 16;
+
+    @Value("${contenidos.hls.timeout-minutes:30}")
+    private long timeoutMinutes = 30;
+
+    private volatile boolean ffmpegDisponible;
+    private ThreadPoolTaskExecutor executor;
+    private final Set<String> enCurso = ConcurrentHashMap.newKeySet();
+
+    public HlsPackager(StreamingTargetCache streamingTargetCache) {
+        this.streamingTargetCache = streamingTargetCache;
+    }
+
+    @PostConstruct
+    void init() {
+        if (!enabled) return;
+        ffmpegDisponible = probarFfmpeg();
+        if (!ffmpegDisponible) {
+            log.info("ffmpeg no disponible en '{}': los vídeos locales se servirán solo como MP4 progresivo", ffmpeg);
+            return;
+        }
+        executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("hls-");
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(queueCapacity);
+        executor.initialize();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executor != null) executor.shutdown();
+    }
+
+    /** Encola el empaquetado si el contenido es un vídeo local y no tiene ya un paquete de esa versión. */
+    public void programar(Contenido c) {
+        if (executor == null || c == null || c.getId() == null || c.getTipo() != Contenido.Tipo.VIDEO) return;
+        Path source = rutaLocal(c.getUrlVideo());
+        if (source == null || !Files.isRegularFile(source)) return;
+
+        String version;
+        try {
+            version = version(source);
+        } catch (IOException e) {
+            log.warn("No se puede empaquetar {}: {}", source, e.getMessage());
+            return;
+        }
+        Path destino = directorio(c.getId(), version);
+        String clave = c.getId() + "/" + version;
+        if (Files.exists(destino.resolve(MANIFEST)) || !enCurso.add(clave)) return;
+
+        try {
+            executor.execute(() -> {
+                try {
+                    empaquetar(c.getId(), source, destino);
+                } finally {
+                    enCurso.remove(clave);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            enCurso.remove(clave);
+            log.warn("Cola de empaquetado HLS llena; {} se seguirá sirviendo como MP4", c.getId());
+        }
+    }
+
+    /** Manifiesto del paquete correspondiente a la versión actual del fichero, o null si aún no está listo. */
+    public Path manifestSiListo(String contenidoId, Path source) {
+        if (!enabled || contenidoId == null || source == null) return null;
+        try {
+            Path manifest = directorio(contenidoId, version(source)).resolve(MANIFEST);
+            return Files.isRegularFile(manifest) ? manifest : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    void empaquetar(String contenidoId, Path source, Path destino) {
+        Path tmp = destino.resolveSibling(destino.getFileName() + ".tmp");
+        try {
+            borrar(tmp);
+            Files.createDirectories(tmp);
+            Process p = new ProcessBuilder(List.of(
+                    ffmpeg, "-nostdin", "-y", "-loglevel", "error",
+                    "-i", source.toString(),
+                    "-c", "copy",
+                    "-f", "hls",
+                    "-hls_time", String.valueOf(segmentSeconds),
+                    "-hls_playlist_type", "vod",
+                    "-hls_segment_filename", tmp.resolve("seg_%05d.ts").toString(),
+                    tmp.resolve(MANIFEST).toString()))
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (!p.waitFor(timeoutMinutes, TimeUnit.MINUTES)) {
+                p.destroyForcibly();
+                throw new IOException("ffmpeg no terminó en " + timeoutMinutes + " min");
+            }
+            if (p.exitValue() != 0 || !Files.isRegularFile(tmp.resolve(MANIFEST))) {
+                throw new IOException("ffmpeg terminó con código " + p.exitValue());
+            }
+            Files.move(tmp, destino, StandardCopyOption.ATOMIC_MOVE);
+            borrarVersionesAnteriores(destino);
+            streamingTargetCache.invalidate(contenidoId);
+            log.info("Paquete HLS listo para {} en {}", contenidoId, destino);
+        } catch (IOException e) {
+            log.warn("Fallo al empaquetar {} como HLS: {}", contenidoId, e.getMessage());
+            borrar(tmp);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            borrar(tmp);
+        }
+    }
+
+    private boolean probarFfmpeg() {
+        try {
+            Process p = new ProcessBuilder(ffmpeg, "-version")
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            return p.waitFor(10, TimeUnit.SECONDS) && p.exitValue() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private Path directorio(String contenidoId, String version) {
+        return Path.of(root).resolve(contenidoId).resolve(version);
+    }
+
+    // Tamaño y fecha del fichero de origen: cambia si el creador lo sustituye
+    static String version(Path source) throws IOException {
+        return Long.toHexString(Files.size(source)) + "-"
+                + Long.toHexString(Files.getLastModifiedTime(source).toMillis());
+    }
+
+    private static Path rutaLocal(String urlVideo) {
+        if (urlVideo == null || urlVideo.isBlank()) return null;
+        String l = urlVideo.toLowerCase();
+        return (l.startsWith("http://") || l.startsWith("https://")) ? null : Path.of(urlVideo);
+    }
+
+    private void borrarVersionesAnteriores(Path actual) {
+        try (Stream<Path> hermanos = Files.list(actual.getParent())) {
+            hermanos.filter(p -> !p.equals(actual)).forEach(HlsPackager::borrar);
+        } catch (IOException e) {
+            log.debug("No se han podido limpiar paquetes antiguos junto a {}", actual);
+        }
+    }
+
+    private static void borrar(Path dir) {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.deleteIfExists(p);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            log.debug("No se ha podido borrar {}", dir);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.EsiMediaG03.dto.MediaFileMetadata;
+
+/**
+ * Primeros megabytes (moov, primeros GOP) de los ficheros locales más reproducidos,
+ * mapeados en memoria fuera del heap. El ranking sale del contador de reproducciones
+ * y el conjunto se mantiene dentro de un presupuesto de bytes con expulsión LRU.
+ */
+@Service
+public class HotSegmentCache {
+
+    private static final Logger log = LoggerFactory.getLogger(HotSegmentCache.class);
+
+    private final ContenidoService contenidoService;
+
+    @Value("${contenidos.media.hot-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${contenidos.media.hot-cache.top-n:20}")
+    private int topN = 20;
+
+    @Value("${contenidos.media.hot-cache.segment-bytes:8388608}")
+    private long segmentBytes = 8L * 1024L * 1024L;
+
+    @Value("${contenidos.media.hot-cache.budget-bytes:268435456}")
+    private long budgetBytes = 256L * 1024L * 1024L;
+
+    // Orden de acceso: el primero es el menos usado recientemente
+    private final LinkedHashMap<Path, Segmento> segmentos = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytesMapeados;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesServidos = new AtomicLong();
+    private final AtomicLong expulsiones = new AtomicLong();
+
+    public HotSegmentCache(ContenidoService contenidoService) {
+        this.contenidoService = contenidoService;
+    }
+
+    /**
+     * Devuelve una vista de solo lectura de [position, position + count) si cae dentro
+     * del segmento cacheado de ese fichero y el fichero no ha cambiado desde que se mapeó.
+     */
+    public ByteBuffer slice(MediaFileMetadata md, long position, long count) {
+        if (!enabled) return null;
+        // Misma clave que admit(): la ruta del contenido puede venir relativa o sin normalizar
+        Path key = md.path().toAbsolutePath().normalize();
+        Segmento s;
+        synchronized (this) {
+            s = segmentos.get(key);
+            if (s != null && (s.size != md.size() || s.lastModified != md.lastModified())) {
+                remove(key);
+                s = null;
+            }
+        }
+        if (s == null || position < 0 || count <= 0 || position + count > s.buffer.capacity()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        bytesServidos.addAndGet(count);
+        return s.buffer.slice((int) position, (int) count).asReadOnlyBuffer();
+    }
+
+    @Scheduled(initialDelayString = "${contenidos.media.hot-cache.initial-delay-ms:30000}",
+               fixedDelayString = "${contenidos.media.hot-cache.refresh-ms:300000}")
+    public void refresh() {
+        if (!enabled) return;
+        List<Path> ranking = contenidoService.rutasLocalesMasReproducidas(topN);
+        Set<Path> deseados = new HashSet<>();
+        for (Path p : ranking) deseados.add(p.toAbsolutePath().normalize());
+
+        synchronized (this) {
+            Iterator<Map.Entry<Path, Segmento>> it = segmentos.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Path, Segmento> e = it.next();
+                if (!deseados.contains(e.getKey())) {
+                    bytesMapeados -= e.getValue().buffer.capacity();
+                    expulsiones.incrementAndGet();
+                    it.remove();
+                }
+            }
+        }
+        for (Path p : ranking) {
+            admit(p);
+        }
+    }
+
+    void admit(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        synchronized (this) {
+            if (segmentos.containsKey(key)) return;
+        }
+        try (FileChannel ch = FileChannel.open(key, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long len = Math.min(Math.min(segmentBytes, size), Integer.MAX_VALUE);
+            if (len <= 0 || len > budgetBytes) return;
+            MappedByteBuffer buffer = ch.map(FileChannel.MapMode.READ_ONLY, 0, len);
+            long mtime = Files.getLastModifiedTime(key).toMillis();
+            synchronized (this) {
+                Iterator<Segmento> lru = segmentos.values().iterator();
+                while (bytesMapeados + len > budgetBytes && lru.hasNext()) {
+                    bytesMapeados -= lru.next().buffer.capacity();
+                    expulsiones.incrementAndGet();
+                    lru.remove();
+                }
+                segmentos.put(key, new Segmento(buffer, size, mtime));
+                bytesMapeados += len;
+            }
+        } catch (IOException e) {
+            log.warn("No se pudo mapear {} en la caché de segmentos: {}", key, e.toString());
+        }
+    }
+
+    private void remove(Path path) {
+        Segmento s = segmentos.remove(path);
+        if (s != null) bytesMapeados -= s.buffer.capacity();
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("enabled", enabled);
+        m.put("hits", hits.get());
+        m.put("misses", misses.get());
+        m.put("servedBytes", bytesServidos.get());
+        m.put("evictions", expulsiones.get());
+        m.put("segments", segmentos.size());
+        m.put("bytesMapped", bytesMapeados);
+        m.put("budgetBytes", budgetBytes);
+        return m;
+    }
+
+    private record Segmento(MappedByteBuffer buffer, long size, long lastModified) {}
+}
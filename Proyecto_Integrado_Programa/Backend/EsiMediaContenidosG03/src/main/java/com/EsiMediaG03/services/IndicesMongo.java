@@ -0,0 +1,299 @@
+package com.EsiMediaG03.services;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Service;
+
+import com.EsiMediaG03.model.InteraccionUsuario;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Índices que necesitan las consultas del servicio, declarados en un solo sitio junto a la consulta a la que
+ * sirven. Se crean al arrancar en un hilo aparte (createIndex no hace nada si ya existen) y {@link #informe()}
+ * compara lo declarado con lo que hay en Mongo: índices que faltan, índices sin uso según {@code $indexStats}
+ * y el plan que elige Mongo para cada consulta, para ver si alguna acaba en un COLLSCAN.
+ */
+@Service
+public class IndicesMongo {
+
+    private static final Logger log = LoggerFactory.getLogger(IndicesMongo.class);
+
+    static final String CONTENIDOS = "contenidos";
+    static final String LISTAS = "listas";
+    static final String REPRODUCTORES = "reproductores";
+    static final String VALORACIONES = "valoraciones";
+    static final String FAVORITOS = "favoritos";
+
+    static final String COLLSCAN = "COLLSCAN";
+    static final String IXSCAN = "IXSCAN";
+
+    private static final String FIELD_ID = "_id";
+    private static final String FIELD_FECHA_ESTADO = "fechaEstado";
+    private static final String FIELD_BAYES = RankingValoraciones.FIELD_BAYES;
+    private static final String FIELD_COUNT = RankingValoraciones.FIELD_COUNT;
+    private static final String FIELD_NAME = "name";
+    private static final String FIELD_KEY = "key";
+    private static final String INDICE_ID = "_id_1";
+
+    /** Un índice de una colección y la forma de la consulta que lo usa, para comprobar su plan con explain. */
+    public record Declarado(String coleccion, Index index, Document filtro, Document orden) {
+
+        public Document claves() {
+            return index.getIndexKeys();
+        }
+
+        /** Nombre que le pone Mongo por defecto: campo_dirección separados por "_". */
+        public String nombre() {
+            return nombre(claves());
+        }
+
+        static String nombre(Document claves) {
+            StringBuilder sb = new StringBuilder();
+            claves.forEach((campo, dir) -> {
+                if (!sb.isEmpty()) sb.append('_');
+                sb.append(campo).append('_').append(dir instanceof Number n ? n.intValue() : dir);
+            });
+            return sb.toString();
+        }
+    }
+
+    static final List<Declarado> DECLARADOS = List.of(
+            // Catálogo paginado por (fechaEstado, _id), sin filtro, por tipo y por etiquetas; favoritos por fechaEstado
+            new Declarado(CONTENIDOS, new Index().on(FIELD_FECHA_ESTADO, Sort.Direction.DESC).on(FIELD_ID, Sort.Direction.DESC),
+                    new Document(), new Document(FIELD_FECHA_ESTADO, -1).append(FIELD_ID, -1)),
+            new Declarado(CONTENIDOS, new Index().on("tipo", Sort.Direction.ASC)
+                    .on(FIELD_FECHA_ESTADO, Sort.Direction.DESC).on(FIELD_ID, Sort.Direction.DESC),
+                    new Document("tipo", "VIDEO"), new Document(FIELD_FECHA_ESTADO, -1).append(FIELD_ID, -1)),
+            new Declarado(CONTENIDOS, new Index().on("tags", Sort.Direction.ASC)
+                    .on(FIELD_FECHA_ESTADO, Sort.Direction.DESC).on(FIELD_ID, Sort.Direction.DESC),
+                    new Document("tags", new Document("$all", List.of("tag"))),
+                    new Document(FIELD_FECHA_ESTADO, -1).append(FIELD_ID, -1)),
+            // Exportación con updatedSince; los anteriores a fechaModificacion tiran del índice de fechaEstado
+            new Declarado(CONTENIDOS, new Index().on(CatalogoService.FIELD_MODIFICACION, Sort.Direction.ASC),
+                    new Document(CatalogoService.FIELD_MODIFICACION, new Document("$gte", new Date(0))), null),
+            // Más vistos
+            new Declarado(CONTENIDOS, new Index().on("reproducciones", Sort.Direction.DESC),
+                    new Document(), new Document("reproducciones", -1)),
+            // Ranking por puntuación bayesiana: global, por tipo y por etiqueta
+            new Declarado(CONTENIDOS, new Index().on(FIELD_BAYES, Sort.Direction.DESC).on(FIELD_COUNT, Sort.Direction.DESC),
+                    new Document(FIELD_COUNT, new Document("$gt", 0)), new Document(FIELD_BAYES, -1).append(FIELD_COUNT, -1)),
+            new Declarado(CONTENIDOS, new Index().on("tipo", Sort.Direction.ASC)
+                    .on(FIELD_BAYES, Sort.Direction.DESC).on(FIELD_COUNT, Sort.Direction.DESC),
+                    new Document(FIELD_COUNT, new Document("$gt", 0)).append("tipo", "VIDEO"),
+                    new Document(FIELD_BAYES, -1).append(FIELD_COUNT, -1)),
+            new Declarado(CONTENIDOS, new Index().on("tags", Sort.Direction.ASC)
+                    .on(FIELD_BAYES, Sort.Direction.DESC).on(FIELD_COUNT, Sort.Direction.DESC),
+                    new Document(FIELD_COUNT, new Document("$gt", 0)).append("tags", "tag"),
+                    new Document(FIELD_BAYES, -1).append(FIELD_COUNT, -1)),
+            // Listas: las que contienen un contenido (multikey), las de un usuario y las públicas
+            new Declarado(LISTAS, new Index().on("contenidosIds", Sort.Direction.ASC),
+                    new Document("contenidosIds", "id"), null),
+            new Declarado(LISTAS, new Index().on(InteraccionUsuario.FIELD_USER_EMAIL, Sort.Direction.ASC),
+                    new Document(InteraccionUsuario.FIELD_USER_EMAIL, "email"), null),
+            new Declarado(LISTAS, new Index().on("publica", Sort.Direction.ASC),
+                    new Document("publica", true), null),
+            // Reproductores, valoraciones y favoritos: el _id ya cubre usuario y contenido; estos son borrar por
+            // contenido, agrupar valoraciones por contenido y listar los favoritos de un usuario
+            porContenido(REPRODUCTORES),
+            porContenido(VALORACIONES),
+            porContenido(FAVORITOS),
+            new Declarado(FAVORITOS, new Index().on(InteraccionUsuario.FIELD_USER_EMAIL, Sort.Direction.ASC)
+                    .on(InteraccionesService.FIELD_FECHA, Sort.Direction.DESC),
+                    new Document(InteraccionUsuario.FIELD_USER_EMAIL, "email"), null));
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${contenidos.mongo.indices.enabled:true}")
+    private boolean enabled = true;
+
+    private volatile boolean creados;
+    private ExecutorService executor;
+
+    public IndicesMongo(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public static List<Declarado> declarados() {
+        return DECLARADOS;
+    }
+
+    @PostConstruct
+    void init() {
+        if (!enabled) return;
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "indices-mongo");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.execute(this::crearIndices);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    /** Crea los declarados que falten; uno que falle no impide crear los demás. */
+    public void crearIndices() {
+        int fallidos = 0;
+        for (Declarado d : DECLARADOS) {
+            try {
+                mongoTemplate.indexOps(d.coleccion()).createIndex(d.index());
+            } catch (RuntimeException e) {
+                fallidos++;
+                log.warn("No se ha podido crear el índice {} en {}: {}", d.nombre(), d.coleccion(), e.getMessage());
+            }
+        }
+        creados = fallidos == 0;
+    }
+
+    /**
+     * Por colección: los índices declarados que no existen, los existentes que no se han usado desde que arrancó
+     * Mongo (sin contar _id) y los que existen sin estar declarados; y por consulta, el plan ganador.
+     */
+    public Map<String, Object> informe() {
+        Map<String, Object> colecciones = new LinkedHashMap<>();
+        for (String coleccion : colecciones()) {
+            Map<String, Object> res = new LinkedHashMap<>();
+            Set<String> declarados = new LinkedHashSet<>();
+            for (Declarado d : DECLARADOS) if (d.coleccion().equals(coleccion)) declarados.add(d.nombre());
+
+            Set<String> existentes = existentes(coleccion);
+            List<String> faltan = new ArrayList<>();
+            for (String n : declarados) if (!existentes.contains(n)) faltan.add(n);
+            List<String> noDeclarados = new ArrayList<>();
+            for (String n : existentes) if (!n.equals(INDICE_ID) && !declarados.contains(n)) noDeclarados.add(n);
+
+            res.put("declarados", List.copyOf(declarados));
+            res.put("faltan", faltan);
+            res.put("noDeclarados", noDeclarados);
+            res.put("sinUso", sinUso(coleccion));
+            colecciones.put(coleccion, res);
+        }
+
+        List<Map<String, Object>> planes = new ArrayList<>();
+        for (Declarado d : DECLARADOS) {
+            Map<String, Object> p = new LinkedHashMap<>();
+            p.put("coleccion", d.coleccion());
+            p.put("indice", d.nombre());
+            p.put("plan", plan(d));
+            planes.add(p);
+        }
+
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("enabled", enabled);
+        res.put("creados", creados);
+        res.put("colecciones", colecciones);
+        res.put("planes", planes);
+        return res;
+    }
+
+    /**
+     * Etapa de acceso del plan ganador de una consulta: "IXSCAN &lt;índice&gt;", "COLLSCAN" u otra, o null si el
+     * servidor no admite explain.
+     */
+    public String explicar(String coleccion, Document filtro, Document orden) {
+        Document find = new Document("find", coleccion).append("filter", filtro != null ? filtro : new Document());
+        if (orden != null) find.append("sort", orden);
+        try {
+            Document r = mongoTemplate.executeCommand(new Document("explain", find).append("verbosity", "queryPlanner"));
+            Document planner = r.get("queryPlanner", Document.class);
+            return planner != null ? etapa(planner.get("winningPlan", Document.class)) : null;
+        } catch (RuntimeException e) {
+            log.debug("explain no disponible en {}: {}", coleccion, e.getMessage());
+            return null;
+        }
+    }
+
+    private String plan(Declarado d) {
+        return explicar(d.coleccion(), d.filtro(), d.orden());
+    }
+
+    /** Baja por inputStage/inputStages (y queryPlan en los planes de SBE) hasta la etapa que lee la colección. */
+    static String etapa(Document plan) {
+        if (plan == null) return null;
+        Document interno = plan.get("queryPlan", Document.class);
+        if (interno != null) return etapa(interno);
+
+        String stage = plan.getString("stage");
+        if (stage != null && stage.endsWith(IXSCAN)) return IXSCAN + " " + plan.getString("indexName");
+        if (COLLSCAN.equals(stage)) return COLLSCAN;
+
+        Document input = plan.get("inputStage", Document.class);
+        if (input != null) return etapa(input);
+        List<?> inputs = plan.get("inputStages", List.class);
+        if (inputs != null) {
+            // Un OR sin índice en alguna de sus ramas es un COLLSCAN aunque otras sí lo usen
+            List<String> etapas = new ArrayList<>();
+            for (Object o : inputs) if (o instanceof Document doc) etapas.add(etapa(doc));
+            return etapas.contains(COLLSCAN) ? COLLSCAN : String.join(", ", etapas.stream().distinct().toList());
+        }
+        return stage;
+    }
+
+    private Set<String> existentes(String coleccion) {
+        Set<String> res = new LinkedHashSet<>();
+        try {
+            for (Document d : mongoTemplate.getCollection(coleccion).listIndexes()) {
+                Document claves = d.get(FIELD_KEY, Document.class);
+                res.add(claves != null ? Declarado.nombre(claves) : d.getString(FIELD_NAME));
+            }
+        } catch (RuntimeException e) {
+            log.debug("No se han podido listar los índices de {}: {}", coleccion, e.getMessage());
+        }
+        return res;
+    }
+
+    /** Índices con cero accesos según $indexStats, o null si el servidor no lo admite. */
+    private List<String> sinUso(String coleccion) {
+        try {
+            List<String> res = new ArrayList<>();
+            Map<String, Long> accesos = new HashMap<>();
+            for (Document d : mongoTemplate.getCollection(coleccion)
+                    .aggregate(List.of(new Document("$indexStats", new Document())))) {
+                Document accesses = d.get("accesses", Document.class);
+                Document claves = d.get(FIELD_KEY, Document.class);
+                String nombre = claves != null ? Declarado.nombre(claves) : d.getString(FIELD_NAME);
+                Object ops = accesses != null ? accesses.get("ops") : null;
+                accesos.merge(nombre, ops instanceof Number n ? n.longValue() : 0L, Long::sum);
+            }
+            accesos.forEach((nombre, ops) -> {
+                if (ops == 0 && !nombre.equals(INDICE_ID)) res.add(nombre);
+            });
+            res.sort(null);
+            return res;
+        } catch (RuntimeException e) {
+            log.debug("$indexStats no disponible en {}: {}", coleccion, e.getMessage());
+            return null;
+        }
+    }
+
+    private static Set<String> colecciones() {
+        Set<String> res = new LinkedHashSet<>();
+        for (Declarado d : DECLARADOS) res.add(d.coleccion());
+        return res;
+    }
+
+    private static Declarado porContenido(String coleccion) {
+        return new Declarado(coleccion, new Index().on(InteraccionUsuario.FIELD_CONTENIDO_ID, Sort.Direction.ASC),
+                new Document(InteraccionUsuario.FIELD_CONTENIDO_ID, "id"), null);
+    }
+}
@@ -0,0 +1,86 @@
+package com.EsiMediaG03.services;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import com.EsiMediaG03.model.Favorito;
+import com.EsiMediaG03.model.InteraccionUsuario;
+import com.EsiMediaG03.model.Reproductor;
+import com.EsiMediaG03.model.Valoracion;
+
+/**
+ * Reproductores, valoraciones y favoritos, cada uno en su colección y con un documento por usuario y
+ * contenido. Así el documento del contenido no crece con la audiencia y las comprobaciones por usuario
+ * son búsquedas por _id en lugar de cargar conjuntos enteros.
+ */
+@Service
+public class InteraccionesService {
+
+    static final String FIELD_FECHA = "fecha";
+
+    private final MongoTemplate mongoTemplate;
+
+    public InteraccionesService(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public boolean haReproducido(String contenidoId, String userEmail) {
+        return mongoTemplate.exists(porClave(contenidoId, userEmail), Reproductor.class);
+    }
+
+    /** Guarda la valoración; devuelve false si el usuario ya había valorado ese contenido. */
+    public boolean registrarValoracion(String contenidoId, String userEmail, double score) {
+        try {
+            mongoTemplate.insert(new Valoracion(contenidoId, userEmail, score));
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    /** Deshace una valoración que no ha llegado a sumarse al contenido. */
+    public void anularValoracion(String contenidoId, String userEmail) {
+        mongoTemplate.remove(porClave(contenidoId, userEmail), Valoracion.class);
+    }
+
+    public void addFavorito(String contenidoId, String userEmail) {
+        mongoTemplate.upsert(porClave(contenidoId, userEmail), alta(contenidoId, userEmail), Favorito.class);
+    }
+
+    public void removeFavorito(String contenidoId, String userEmail) {
+        mongoTemplate.remove(porClave(contenidoId, userEmail), Favorito.class);
+    }
+
+    /** Ids de los contenidos favoritos del usuario, sin orden definido. */
+    public List<String> contenidosFavoritos(String userEmail) {
+        Query q = new Query(where(InteraccionUsuario.FIELD_USER_EMAIL).is(InteraccionUsuario.normalizarEmail(userEmail)));
+        q.fields().include(InteraccionUsuario.FIELD_CONTENIDO_ID);
+        return mongoTemplate.find(q, Favorito.class).stream().map(Favorito::getContenidoId).toList();
+    }
+
+    public void eliminarDeContenido(String contenidoId) {
+        Query q = new Query(where(InteraccionUsuario.FIELD_CONTENIDO_ID).is(contenidoId));
+        mongoTemplate.remove(q, Reproductor.class);
+        mongoTemplate.remove(q, Valoracion.class);
+        mongoTemplate.remove(q, Favorito.class);
+    }
+
+    /** Upsert idempotente: si ya existía no se toca, así que repetirlo no cambia la fecha original. */
+    static Update alta(String contenidoId, String userEmail) {
+        return new Update()
+                .setOnInsert(InteraccionUsuario.FIELD_CONTENIDO_ID, contenidoId)
+                .setOnInsert(InteraccionUsuario.FIELD_USER_EMAIL, InteraccionUsuario.normalizarEmail(userEmail))
+                .setOnInsert(FIELD_FECHA, LocalDateTime.now());
+    }
+
+    static Query porClave(String contenidoId, String userEmail) {
+        return new Query(where("_id").is(InteraccionUsuario.clave(contenidoId, userEmail)));
+    }
+}
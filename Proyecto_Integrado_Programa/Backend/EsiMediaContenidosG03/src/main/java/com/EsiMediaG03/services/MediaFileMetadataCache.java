@@ -0,0 +1,258 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.EsiMediaG03.dto.MediaFileMetadata;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Tamaño, fecha de modificación, ETag, tipo MIME y legibilidad de los ficheros multimedia locales.
+ * Con el vigilante activo las entradas se invalidan por los eventos del WatchService de su directorio;
+ * como en volúmenes de red no llegan los cambios hechos desde otras máquinas, siguen caducando al cabo
+ * de {@code watch-max-age-ms}. Sin vigilante se cachean durante unos segundos.
+ */
+@Service
+public class MediaFileMetadataCache {
+
+    private static final Logger log = LoggerFactory.getLogger(MediaFileMetadataCache.class);
+
+    private static final Map<String, String> MIME_POR_EXTENSION = Map.of(
+            "mp3", "audio/mpeg",
+            "wav", "audio/wav",
+            "m4a", "audio/mp4",
+            "flac", "audio/flac",
+            "mp4", "video/mp4",
+            "webm", "video/webm",
+            "mkv", "video/x-matroska");
+
+    @Value("${contenidos.media.metadata.max-entries:1024}")
+    private int maxEntries = 1024;
+
+    @Value("${contenidos.media.metadata.ttl-ms:5000}")
+    private long ttlMs = 5000;
+
+    @Value("${contenidos.media.metadata.watch.enabled:true}")
+    private boolean watchEnabled = true;
+
+    @Value("${contenidos.media.metadata.watch.roots:}")
+    private List<String> roots = List.of();
+
+    @Value("${contenidos.media.metadata.watch.max-dirs:256}")
+    private int maxDirs = 256;
+
+    @Value("${contenidos.media.metadata.watch.max-age-ms:300000}")
+    private long watchMaxAgeMs = 300000;
+
+    // En orden de acceso: al llenarse se expulsan las caducadas y, si no basta, las menos usadas
+    private final LinkedHashMap<Path, Entrada> entradas = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Path, WatchKey> vigilados = new ConcurrentHashMap<>();
+    private volatile WatchService watcher;
+    private Thread hilo;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidaciones = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        if (!watchEnabled) return;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            log.info("WatchService no disponible ({}); los metadatos caducarán a los {} ms", e.getMessage(), ttlMs);
+            return;
+        }
+        for (String r : roots) {
+            if (r != null && !r.isBlank()) vigilar(Path.of(r.trim()).toAbsolutePath().normalize());
+        }
+        hilo = new Thread(this::atenderEventos, "media-metadata-watch");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        WatchService w = watcher;
+        watcher = null;
+        if (w == null) return;
+        try {
+            w.close();
+        } catch (IOException e) {
+            log.debug("Error al cerrar el WatchService: {}", e.getMessage());
+        }
+    }
+
+    /** Metadatos de un fichero legible; lanza UncheckedIOException si no existe o no se puede leer. */
+    public MediaFileMetadata get(Path path) {
+        MediaFileMetadata md = consultar(path);
+        if (!md.readable()) {
+            throw new UncheckedIOException(new NoSuchFileException(path.toString(), null, "No se pudieron leer los metadatos"));
+        }
+        return md;
+    }
+
+    /** Como {@link #get(Path)} pero devuelve una entrada no legible en vez de lanzar; también se cachea. */
+    public MediaFileMetadata consultar(Path path) {
+        Path clave = path.toAbsolutePath().normalize();
+        long now = System.currentTimeMillis();
+        Entrada e;
+        synchronized (entradas) {
+            e = entradas.get(clave);
+        }
+        if (e != null && vigente(e, clave, now)) {
+            hits.incrementAndGet();
+            return e.metadata;
+        }
+        misses.incrementAndGet();
+        Path dir = clave.getParent();
+        if (dir != null) vigilar(dir);
+        MediaFileMetadata md = read(path);
+        synchronized (entradas) {
+            if (entradas.size() >= maxEntries && !entradas.containsKey(clave)) {
+                entradas.entrySet().removeIf(x -> !vigente(x.getValue(), x.getKey(), now));
+                Iterator<Entrada> lru = entradas.values().iterator();
+                while (entradas.size() >= maxEntries && lru.hasNext()) {
+                    lru.next();
+                    lru.remove();
+                }
+            }
+            entradas.put(clave, new Entrada(md, now));
+        }
+        return md;
+    }
+
+    public void invalidate(Path path) {
+        Entrada e;
+        synchronized (entradas) {
+            e = entradas.remove(path.toAbsolutePath().normalize());
+        }
+        if (e != null) invalidaciones.incrementAndGet();
+    }
+
+    private boolean vigente(Entrada e, Path clave, long now) {
+        Path dir = clave.getParent();
+        boolean vigilado = watcher != null && dir != null && vigilados.containsKey(dir);
+        return now - e.leidoEn < (vigilado ? watchMaxAgeMs : ttlMs);
+    }
+
+    private void vigilar(Path dir) {
+        WatchService w = watcher;
+        if (w == null || vigilados.containsKey(dir) || vigilados.size() >= maxDirs) return;
+        vigilados.computeIfAbsent(dir, d -> {
+            try {
+                return d.register(w, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (IOException | ClosedWatchServiceException e) {
+                log.debug("No se puede vigilar {}: {}", d, e.getMessage());
+                return null;
+            }
+        });
+    }
+
+    private void atenderEventos() {
+        while (true) {
+            WatchService w = watcher;
+            if (w == null) return;
+            WatchKey key;
+            try {
+                key = w.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> ev : key.pollEvents()) {
+                if (ev.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    invalidarDirectorio(dir);
+                } else if (ev.context() instanceof Path nombre) {
+                    invalidate(dir.resolve(nombre));
+                }
+            }
+            if (!key.reset()) {
+                vigilados.remove(dir);
+                invalidarDirectorio(dir);
+            }
+        }
+    }
+
+    private void invalidarDirectorio(Path dir) {
+        synchronized (entradas) {
+            entradas.keySet().removeIf(p -> dir.equals(p.getParent()));
+        }
+        invalidaciones.incrementAndGet();
+    }
+
+    static MediaFileMetadata read(Path path) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attrs.isRegularFile() || !Files.isReadable(path)) return MediaFileMetadata.noLegible(path);
+            long size = attrs.size();
+            long mtime = attrs.lastModifiedTime().toMillis();
+            return new MediaFileMetadata(path, size, mtime, etagFor(path, size, mtime), mimeFor(path), true);
+        } catch (NoSuchFileException e) {
+            return MediaFileMetadata.noLegible(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudieron leer los metadatos de " + path, e);
+        }
+    }
+
+    /** Tipo por extensión para los formatos conocidos; para el resto se pregunta al sistema una sola vez. */
+    static String mimeFor(Path path) {
+        String nombre = path.getFileName() == null ? "" : path.getFileName().toString().toLowerCase(Locale.ROOT);
+        int punto = nombre.lastIndexOf('.');
+        String mime = punto >= 0 ? MIME_POR_EXTENSION.get(nombre.substring(punto + 1)) : null;
+        if (mime != null) return mime;
+        try {
+            return Files.probeContentType(path);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static String etagFor(Path path, long size, long mtime) {
+        return "\"" + Integer.toHexString(path.toAbsolutePath().normalize().toString().hashCode())
+                + "-" + Long.toHexString(size) + "-" + Long.toHexString(mtime) + "\"";
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("watching", watcher != null);
+        synchronized (entradas) {
+            m.put("entries", entradas.size());
+        }
+        m.put("watchedDirs", vigilados.size());
+        m.put("hits", hits.get());
+        m.put("misses", misses.get());
+        m.put("invalidations", invalidaciones.get());
+        return m;
+    }
+
+    private record Entrada(MediaFileMetadata metadata, long leidoEn) {}
+}
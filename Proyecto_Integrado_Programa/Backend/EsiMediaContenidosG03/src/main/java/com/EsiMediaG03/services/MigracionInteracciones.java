@@ -0,0 +1,266 @@
+package com.EsiMediaG03.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import com.EsiMediaG03.model.Favorito;
+import com.EsiMediaG03.model.InteraccionUsuario;
+import com.EsiMediaG03.model.Reproductor;
+import com.EsiMediaG03.model.Valoracion;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Saca de los documentos de contenidos los reproductores, valoraciones y favoritos que antes iban
+ * embebidos y los pasa a sus colecciones, por lotes y en segundo plano al arrancar. Las altas son
+ * upserts que no pisan lo ya existente, así que se puede interrumpir y volver a lanzar sin duplicar nada.
+ * De paso rellena ratingSum, el histograma y la puntuación bayesiana en los contenidos valorados antes de que existieran.
+ */
+@Service
+public class MigracionInteracciones {
+
+    private static final Logger log = LoggerFactory.getLogger(MigracionInteracciones.class);
+
+    static final String COLLECTION_CONTENIDOS = "contenidos";
+    static final String LEGACY_REPRODUCTORES = "reproductores";
+    static final String LEGACY_RATINGS = "ratings";
+    static final String LEGACY_FAVORITOS = "favoritosDeUsuarios";
+    static final String FIELD_RATING_SUM = "ratingSum";
+    static final String FIELD_RATING_AVG = "ratingAvg";
+    static final String FIELD_RATING_COUNT = "ratingCount";
+    static final String FIELD_SCORE = "score";
+    private static final String[] CAMPOS = {
+            LEGACY_REPRODUCTORES, LEGACY_RATINGS, LEGACY_FAVORITOS, FIELD_RATING_SUM, FIELD_RATING_AVG, FIELD_RATING_COUNT,
+            EstadisticasValoracion.FIELD_HISTOGRAMA, RankingValoraciones.FIELD_BAYES
+    };
+
+    private final MongoTemplate mongoTemplate;
+    private final EstadisticasValoracion estadisticasValoracion;
+    private final RankingValoraciones ranking;
+
+    @Value("${contenidos.migracion.interacciones.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${contenidos.migracion.interacciones.batch-size:200}")
+    private int batchSize = 200;
+
+    private volatile boolean completada;
+    private final AtomicLong contenidosMigrados = new AtomicLong();
+    private ExecutorService executor;
+
+    public MigracionInteracciones(MongoTemplate mongoTemplate, EstadisticasValoracion estadisticasValoracion,
+                                  RankingValoraciones ranking) {
+        this.mongoTemplate = mongoTemplate;
+        this.estadisticasValoracion = estadisticasValoracion;
+        this.ranking = ranking;
+    }
+
+    @PostConstruct
+    void init() {
+        if (!enabled) return;
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "migracion-interacciones");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.execute(() -> {
+            try {
+                migrarTodo();
+            } catch (RuntimeException e) {
+                log.warn("La migración de reproductores, valoraciones y favoritos no ha terminado: {}", e.getMessage());
+            }
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    /** Recorre los contenidos que aún tienen datos embebidos y los migra en lotes de {@code batchSize}. */
+    public long migrarTodo() {
+        Query q = new Query(pendientes()).cursorBatchSize(batchSize);
+        q.fields().include(CAMPOS);
+
+        List<Document> lote = new ArrayList<>(batchSize);
+        long antes = contenidosMigrados.get();
+        try (Stream<Document> documentos = mongoTemplate.stream(q, Document.class, COLLECTION_CONTENIDOS)) {
+            Iterator<Document> it = documentos.iterator();
+            while (it.hasNext() && !Thread.currentThread().isInterrupted()) {
+                lote.add(it.next());
+                if (lote.size() >= batchSize) {
+                    migrarLote(lote);
+                    lote.clear();
+                }
+            }
+        }
+        if (!lote.isEmpty()) migrarLote(lote);
+        if (Thread.currentThread().isInterrupted()) return contenidosMigrados.get() - antes;
+
+        completada = true;
+        long migrados = contenidosMigrados.get() - antes;
+        if (migrados > 0) {
+            // Los rankings que se hayan cargado mientras tanto no veían las puntuaciones recién rellenadas
+            ranking.invalidar();
+            log.info("Migrados los reproductores, valoraciones y favoritos de {} contenidos", migrados);
+        }
+        return migrados;
+    }
+
+    /**
+     * Migra un único contenido si todavía le quedan datos embebidos o le faltan ratingSum, el histograma o la
+     * puntuación bayesiana. Hay que llamarlo antes
+     * de guardar el documento entero o de sumarle una valoración mientras la migración no haya terminado.
+     */
+    public void migrarContenido(String contenidoId) {
+        if (completada || contenidoId == null) return;
+        Query q = new Query(new Criteria().andOperator(where("_id").is(idMongo(contenidoId)), pendientes()));
+        q.fields().include(CAMPOS);
+        Document d = mongoTemplate.findOne(q, Document.class, COLLECTION_CONTENIDOS);
+        if (d != null) migrarLote(List.of(d));
+    }
+
+    public boolean isCompletada() {
+        return completada;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("enabled", enabled);
+        res.put("completed", completada);
+        res.put("migratedContents", contenidosMigrados.get());
+        return res;
+    }
+
+    void migrarLote(List<Document> lote) {
+        BulkOperations reproductores = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Reproductor.class);
+        BulkOperations valoraciones = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Valoracion.class);
+        BulkOperations favoritos = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Favorito.class);
+        BulkOperations limpieza = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, COLLECTION_CONTENIDOS);
+        int nReproductores = 0;
+        int nValoraciones = 0;
+        int nFavoritos = 0;
+
+        for (Document d : lote) {
+            String id = d.get("_id").toString();
+            for (String email : emails(d.get(LEGACY_REPRODUCTORES))) {
+                reproductores.upsert(InteraccionesService.porClave(id, email), InteraccionesService.alta(id, email));
+                nReproductores++;
+            }
+            if (d.get(LEGACY_RATINGS) instanceof Map<?, ?> ratings) {
+                for (Map.Entry<?, ?> r : ratings.entrySet()) {
+                    if (!(r.getValue() instanceof Number score)) continue;
+                    String email = emailDeClave(r.getKey().toString());
+                    valoraciones.upsert(InteraccionesService.porClave(id, email),
+                            InteraccionesService.alta(id, email).setOnInsert(FIELD_SCORE, score.doubleValue()));
+                    nValoraciones++;
+                }
+            }
+            for (String email : emails(d.get(LEGACY_FAVORITOS))) {
+                favoritos.upsert(InteraccionesService.porClave(id, email), InteraccionesService.alta(id, email));
+                nFavoritos++;
+            }
+            limpieza.updateOne(new Query(where("_id").is(d.get("_id"))),
+                    new Update().unset(LEGACY_REPRODUCTORES).unset(LEGACY_RATINGS).unset(LEGACY_FAVORITOS));
+            double count = numero(d.get(FIELD_RATING_COUNT));
+            double suma = d.containsKey(FIELD_RATING_SUM)
+                    ? numero(d.get(FIELD_RATING_SUM)) : numero(d.get(FIELD_RATING_AVG)) * count;
+            if (!d.containsKey(FIELD_RATING_SUM) && count > 0) {
+                // Condicionado a que siga sin ratingSum: si ya ha entrado una valoración nueva no se pisa
+                limpieza.updateOne(new Query(where("_id").is(d.get("_id")).and(FIELD_RATING_SUM).exists(false)),
+                        new Update().set(FIELD_RATING_SUM, suma));
+            }
+            if (!d.containsKey(RankingValoraciones.FIELD_BAYES) && count > 0) {
+                limpieza.updateOne(new Query(where("_id").is(d.get("_id")).and(RankingValoraciones.FIELD_BAYES).exists(false)),
+                        new Update().set(RankingValoraciones.FIELD_BAYES, estadisticasValoracion.bayesiana(suma, (long) count)));
+            }
+        }
+
+        // Primero las colecciones nuevas: si algo falla, el contenido conserva sus datos para el siguiente intento
+        if (nReproductores > 0) reproductores.execute();
+        if (nValoraciones > 0) valoraciones.execute();
+        if (nFavoritos > 0) favoritos.execute();
+
+        // El histograma sale de la colección de valoraciones, ya con las que acaban de migrarse
+        List<String> sinHistograma = lote.stream()
+                .filter(d -> !d.containsKey(EstadisticasValoracion.FIELD_HISTOGRAMA) && numero(d.get(FIELD_RATING_COUNT)) > 0)
+                .map(d -> d.get("_id").toString()).toList();
+        Map<String, Document> histogramas = histogramas(sinHistograma);
+        for (Document d : lote) {
+            Document h = histogramas.get(d.get("_id").toString());
+            if (h == null) continue;
+            limpieza.updateOne(new Query(where("_id").is(d.get("_id")).and(EstadisticasValoracion.FIELD_HISTOGRAMA).exists(false)),
+                    new Update().set(EstadisticasValoracion.FIELD_HISTOGRAMA, h));
+        }
+        limpieza.execute();
+        contenidosMigrados.addAndGet(lote.size());
+    }
+
+    private static Criteria pendientes() {
+        return new Criteria().orOperator(
+                where(LEGACY_REPRODUCTORES).exists(true),
+                where(LEGACY_RATINGS).exists(true),
+                where(LEGACY_FAVORITOS).exists(true),
+                where(FIELD_RATING_SUM).exists(false).and(FIELD_RATING_COUNT).gt(0),
+                where(EstadisticasValoracion.FIELD_HISTOGRAMA).exists(false).and(FIELD_RATING_COUNT).gt(0),
+                where(RankingValoraciones.FIELD_BAYES).exists(false).and(FIELD_RATING_COUNT).gt(0));
+    }
+
+    // Un $group por contenido y puntuación para todo el lote
+    private Map<String, Document> histogramas(List<String> contenidoIds) {
+        Map<String, Document> res = new HashMap<>();
+        if (contenidoIds.isEmpty()) return res;
+        Aggregation agg = Aggregation.newAggregation(
+                Aggregation.match(where(InteraccionUsuario.FIELD_CONTENIDO_ID).in(contenidoIds)),
+                Aggregation.group(InteraccionUsuario.FIELD_CONTENIDO_ID, FIELD_SCORE).count().as("n"));
+        for (Document g : mongoTemplate.aggregate(agg, Valoracion.class, Document.class).getMappedResults()) {
+            Document clave = (Document) g.get("_id");
+            if (!(clave.get(FIELD_SCORE) instanceof Number score)) continue;
+            res.computeIfAbsent(clave.getString(InteraccionUsuario.FIELD_CONTENIDO_ID), k -> new Document())
+                    .append(EstadisticasValoracion.cubeta(score.doubleValue()), ((Number) g.get("n")).longValue());
+        }
+        return res;
+    }
+
+    private static double numero(Object valor) {
+        return valor instanceof Number n ? n.doubleValue() : 0.0;
+    }
+
+    private static List<String> emails(Object valor) {
+        if (!(valor instanceof Collection<?> c)) return List.of();
+        return c.stream().filter(e -> e != null && !e.toString().isBlank()).map(Object::toString).toList();
+    }
+
+    // Las claves del mapa de ratings se guardaban escapadas para que Mongo aceptara '.' y '$'
+    private static String emailDeClave(String clave) {
+        return clave.replace("%2E", ".").replace("%24", "$");
+    }
+
+    private static Object idMongo(String id) {
+        return ObjectId.isValid(id) ? new ObjectId(id) : id;
+    }
+}
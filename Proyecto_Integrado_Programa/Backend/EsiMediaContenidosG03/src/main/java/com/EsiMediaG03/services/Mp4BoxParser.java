@@ -0,0 +1,282 @@
+package com.EsiMediaG03.services;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import com.EsiMediaG03.dto.Mp4Index;
+
+/**
+ * Lectura mínima de la estructura de cajas de un MP4 (ISO BMFF): cajas de primer nivel,
+ * duración, tabla de keyframes de la pista de vídeo y corrección de los offsets de chunk
+ * (stco/co64) cuando el moov cambia de sitio. No interpreta nada más del fichero.
+ */
+final class Mp4BoxParser {
+
+    private static final Set<String> CONTENEDORES = Set.of("moov", "trak", "mdia", "minf", "stbl", "edts", "dinf");
+
+    // Sin stss todas las muestras son keyframe; se guarda como mucho una por segundo
+    private static final double SEPARACION_MINIMA_SIN_STSS = 1.0;
+
+    static final long MAX_MOOV_BYTES = 64L * 1024L * 1024L;
+
+    record Box(String type, long offset, long size, int header) {
+        long end() { return offset + size; }
+        long bodyOffset() { return offset + header; }
+    }
+
+    record Analisis(double durationSeconds, List<Mp4Index.Keyframe> keyframes) {}
+
+    private Mp4BoxParser() {
+    }
+
+    static List<Box> topLevel(FileChannel ch) throws IOException {
+        long fileSize = ch.size();
+        List<Box> boxes = new ArrayList<>();
+        ByteBuffer hdr = ByteBuffer.allocate(8);
+        long pos = 0;
+        while (pos + 8 <= fileSize) {
+            readFully(ch, hdr.clear(), pos);
+            long size = Integer.toUnsignedLong(hdr.getInt(0));
+            String type = fourcc(hdr, 4);
+            int header = 8;
+            if (size == 1) {
+                readFully(ch, hdr.clear(), pos + 8);
+                size = hdr.getLong(0);
+                header = 16;
+            } else if (size == 0) {
+                size = fileSize - pos;
+            }
+            if (size < header || pos + size > fileSize) {
+                throw new IOException("Caja MP4 corrupta '" + type + "' en la posición " + pos);
+            }
+            boxes.add(new Box(type, pos, size, header));
+            pos += size;
+        }
+        return boxes;
+    }
+
+    static Box first(List<Box> boxes, String type) {
+        for (Box b : boxes) {
+            if (b.type().equals(type)) return b;
+        }
+        return null;
+    }
+
+    /** Lee el moov completo; sus cajas hijas se recorren luego con offsets relativos al buffer. */
+    static ByteBuffer readBox(FileChannel ch, Box box) throws IOException {
+        if (box.size() > MAX_MOOV_BYTES) {
+            throw new IOException("moov demasiado grande (" + box.size() + " bytes)");
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) box.size());
+        readFully(ch, buf, box.offset());
+        return buf;
+    }
+
+    static List<Box> children(ByteBuffer buf, Box parent) throws IOException {
+        List<Box> res = new ArrayList<>();
+        long pos = parent.bodyOffset();
+        while (pos + 8 <= parent.end()) {
+            int p = (int) pos;
+            long size = Integer.toUnsignedLong(buf.getInt(p));
+            String type = fourcc(buf, p + 4);
+            int header = 8;
+            if (size == 1) {
+                size = buf.getLong(p + 8);
+                header = 16;
+            } else if (size == 0) {
+                size = parent.end() - pos;
+            }
+            if (size < header || pos + size > parent.end()) {
+                throw new IOException("Caja MP4 corrupta '" + type + "' dentro de '" + parent.type() + "'");
+            }
+            res.add(new Box(type, pos, size, header));
+            pos += size;
+        }
+        return res;
+    }
+
+    /** Duración según mvhd y keyframes de la primera pista de vídeo, con sus offsets en el fichero. */
+    static Analisis analizar(ByteBuffer moov) throws IOException {
+        Box raiz = new Box("moov", 0, moov.capacity(), 8);
+        List<Box> hijos = children(moov, raiz);
+
+        double duracion = 0;
+        Box mvhd = first(hijos, "mvhd");
+        if (mvhd != null) {
+            long[] td = timescaleYDuracion(moov, mvhd);
+            if (td[0] > 0) duracion = (double) td[1] / td[0];
+        }
+
+        for (Box trak : hijos) {
+            if (!trak.type().equals("trak")) continue;
+            Box mdia = first(children(moov, trak), "mdia");
+            if (mdia == null) continue;
+            List<Box> mdiaHijos = children(moov, mdia);
+            Box hdlr = first(mdiaHijos, "hdlr");
+            if (hdlr == null || !"vide".equals(fourcc(moov, (int) hdlr.bodyOffset() + 8))) continue;
+            Box mdhd = first(mdiaHijos, "mdhd");
+            Box minf = first(mdiaHijos, "minf");
+            Box stbl = minf == null ? null : first(children(moov, minf), "stbl");
+            if (mdhd == null || stbl == null) continue;
+            long timescale = timescaleYDuracion(moov, mdhd)[0];
+            return new Analisis(duracion, keyframes(moov, children(moov, stbl), timescale));
+        }
+        return new Analisis(duracion, List.of());
+    }
+
+    /**
+     * Suma {@code delta} a los offsets de chunk en [desde, hasta) de todas las pistas.
+     * Devuelve false si algún offset deja de caber en un stco de 32 bits.
+     */
+    static boolean desplazarChunks(ByteBuffer moov, long desde, long hasta, long delta) throws IOException {
+        List<Box> tablas = new ArrayList<>();
+        recoger(moov, new Box("moov", 0, moov.capacity(), 8), tablas);
+        for (Box t : tablas) {
+            int p = (int) t.bodyOffset() + 4;
+            int n = moov.getInt(p);
+            p += 4;
+            boolean co64 = t.type().equals("co64");
+            for (int i = 0; i < n; i++) {
+                long o = co64 ? moov.getLong(p) : Integer.toUnsignedLong(moov.getInt(p));
+                if (o >= desde && o < hasta) {
+                    long nuevo = o + delta;
+                    if (co64) {
+                        moov.putLong(p, nuevo);
+                    } else if (nuevo > 0xFFFF_FFFFL) {
+                        return false;
+                    } else {
+                        moov.putInt(p, (int) nuevo);
+                    }
+                }
+                p += co64 ? 8 : 4;
+            }
+        }
+        return true;
+    }
+
+    private static void recoger(ByteBuffer moov, Box parent, List<Box> tablas) throws IOException {
+        for (Box b : children(moov, parent)) {
+            if (b.type().equals("stco") || b.type().equals("co64")) {
+                tablas.add(b);
+            } else if (CONTENEDORES.contains(b.type())) {
+                recoger(moov, b, tablas);
+            }
+        }
+    }
+
+    private static List<Mp4Index.Keyframe> keyframes(ByteBuffer b, List<Box> stbl, long timescale) {
+        Box stts = first(stbl, "stts");
+        Box stsc = first(stbl, "stsc");
+        Box stsz = first(stbl, "stsz");
+        Box stss = first(stbl, "stss");
+        Box stco = first(stbl, "stco");
+        Box co64 = first(stbl, "co64");
+        if (stts == null || stsc == null || stsz == null || (stco == null && co64 == null) || timescale <= 0) {
+            return List.of();
+        }
+
+        // stco / co64
+        boolean largos = stco == null;
+        int chunksPos = (int) (largos ? co64 : stco).bodyOffset() + 8;
+        int numChunks = b.getInt(chunksPos - 4);
+
+        // stsc: (primer chunk, muestras por chunk)
+        int stscPos = (int) stsc.bodyOffset() + 8;
+        int stscN = b.getInt(stscPos - 4);
+
+        // stsz: tamaño fijo o tabla
+        int stszPos = (int) stsz.bodyOffset() + 4;
+        int tamFijo = b.getInt(stszPos);
+        int numMuestras = b.getInt(stszPos + 4);
+        int tablaTam = stszPos + 8;
+
+        // stts: (número de muestras, duración de cada una)
+        int sttsPos = (int) stts.bodyOffset() + 8;
+        int sttsN = b.getInt(sttsPos - 4);
+
+        int stssPos = stss == null ? 0 : (int) stss.bodyOffset() + 8;
+        int stssN = stss == null ? 0 : b.getInt(stssPos - 4);
+
+        if (numChunks == 0 || stscN == 0 || sttsN == 0) return List.of();
+
+        List<Mp4Index.Keyframe> res = new ArrayList<>();
+        int stscIdx = 0;
+        int porChunk = b.getInt(stscPos + 4);
+        int chunk = 1;
+        int enChunk = 0;
+        long offset = chunkOffset(b, chunksPos, 0, largos);
+        int sttsIdx = 0;
+        long restantesStts = Integer.toUnsignedLong(b.getInt(sttsPos));
+        long delta = Integer.toUnsignedLong(b.getInt(sttsPos + 4));
+        long dts = 0;
+        int stssIdx = 0;
+        double ultimo = -Double.MAX_VALUE;
+
+        for (int s = 1; s <= numMuestras; s++) {
+            boolean key;
+            if (stss == null) {
+                key = true;
+            } else {
+                key = stssIdx < stssN && b.getInt(stssPos + 4 * stssIdx) == s;
+                if (key) stssIdx++;
+            }
+            double t = (double) dts / timescale;
+            if (key && (stss != null || t - ultimo >= SEPARACION_MINIMA_SIN_STSS)) {
+                res.add(new Mp4Index.Keyframe(t, offset));
+                ultimo = t;
+            }
+
+            offset += tamFijo != 0 ? tamFijo : Integer.toUnsignedLong(b.getInt(tablaTam + 4 * (s - 1)));
+            dts += delta;
+            if (--restantesStts == 0 && ++sttsIdx < sttsN) {
+                restantesStts = Integer.toUnsignedLong(b.getInt(sttsPos + 8 * sttsIdx));
+                delta = Integer.toUnsignedLong(b.getInt(sttsPos + 8 * sttsIdx + 4));
+            }
+            if (++enChunk == porChunk) {
+                enChunk = 0;
+                if (++chunk > numChunks) break;
+                offset = chunkOffset(b, chunksPos, chunk - 1, largos);
+                if (stscIdx + 1 < stscN && chunk >= b.getInt(stscPos + 12 * (stscIdx + 1))) {
+                    stscIdx++;
+                    porChunk = b.getInt(stscPos + 12 * stscIdx + 4);
+                }
+            }
+        }
+        return res;
+    }
+
+    private static long chunkOffset(ByteBuffer b, int pos, int i, boolean largos) {
+        return largos ? b.getLong(pos + 8 * i) : Integer.toUnsignedLong(b.getInt(pos + 4 * i));
+    }
+
+    // mvhd y mdhd comparten cabecera: versión 1 con tiempos de 64 bits, versión 0 de 32
+    private static long[] timescaleYDuracion(ByteBuffer b, Box box) {
+        int p = (int) box.bodyOffset();
+        int version = b.get(p) & 0xFF;
+        if (version == 1) {
+            return new long[] { Integer.toUnsignedLong(b.getInt(p + 20)), b.getLong(p + 24) };
+        }
+        return new long[] { Integer.toUnsignedLong(b.getInt(p + 12)), Integer.toUnsignedLong(b.getInt(p + 16)) };
+    }
+
+    private static String fourcc(ByteBuffer b, int pos) {
+        byte[] t = new byte[4];
+        for (int i = 0; i < 4; i++) t[i] = b.get(pos + i);
+        return new String(t, StandardCharsets.ISO_8859_1);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        long pos = position;
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) throw new EOFException("Fin de fichero inesperado en la posición " + pos);
+            pos += n;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import com.EsiMediaG03.dto.Mp4Index;
+import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.model.Contenido;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Inspecciona los MP4 locales al darlos de alta o modificarlos: guarda en un índice aparte
+ * ({@code <root>/<id>/index.json}) la posición del moov, la duración, el bitrate y los keyframes,
+ * y si el moov está al final escribe una copia faststart con el moov delante del mdat.
+ * El streaming usa esa copia cuando existe y el índice permite saltar a un tiempo sin sondear.
+ */
+@Service
+public class Mp4IndexService {
+
+    private static final Logger log = LoggerFactory.getLogger(Mp4IndexService.class);
+
+    private static final String INDICE = "index.json";
+
+    private final StreamingTargetCache streamingTargetCache;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Value("${contenidos.mp4.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${contenidos.mp4.root:media/mp4}")
+    private String root = "media/mp4";
+
+    @Value("${contenidos.mp4.faststart:true}")
+    private boolean faststart = true;
+
+    @Value("${contenidos.mp4.queue-capacity:32}")
+    private int queueCapacity = 32;
+
+    private ThreadPoolTaskExecutor executor;
+    private final ConcurrentHashMap<String, Mp4Index> indices = new ConcurrentHashMap<>();
+    private final Set<String> enCurso = ConcurrentHashMap.newKeySet();
+
+    public Mp4IndexService(StreamingTargetCache streamingTargetCache) {
+        this.streamingTargetCache = streamingTargetCache;
+    }
+
+    @PostConstruct
+    void init() {
+        if (!enabled) return;
+        executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("mp4-index-");
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(queueCapacity);
+        executor.initialize();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executor != null) executor.shutdown();
+    }
+
+    /** Encola la inspección si es un MP4 local cuyo índice no corresponde ya a la versión actual. */
+    public void programar(Contenido c) {
+        if (executor == null || c == null || c.getId() == null || c.getTipo() != Contenido.Tipo.VIDEO) return;
+        Path source = rutaMp4Local(c.getUrlVideo());
+        if (source == null || !Files.isRegularFile(source)) return;
+        String id = c.getId();
+        if (indiceVigente(id, source) != null || !enCurso.add(id)) return;
+        try {
+            executor.execute(() -> {
+                try {
+                    indexar(id, source);
+                } finally {
+                    enCurso.remove(id);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            enCurso.remove(id);
+            log.warn("Cola de inspección MP4 llena; {} queda sin índice", id);
+        }
+    }
+
+    /** Sustituye el fichero original por su copia faststart si el índice vigente tiene una. */
+    public StreamingTarget preferirFaststart(String contenidoId, StreamingTarget target) {
+        Mp4Index idx = indiceVigente(contenidoId, target.path());
+        if (idx == null || target.path().toString().equals(idx.servedPath())) return target;
+        Path copia = Path.of(idx.servedPath());
+        try {
+            return new StreamingTarget(copia, Files.size(copia), target.mimeType(), false, null,
+                    target.tipo(), target.resolucion(), target.duracionMinutos(), target.hlsManifest());
+        } catch (IOException e) {
+            return target;
+        }
+    }
+
+    /** Índice cuyos offsets valen para el fichero que se está sirviendo, o null. */
+    public Mp4Index indiceDe(String contenidoId, Path servido) {
+        Mp4Index idx = cargar(contenidoId);
+        return idx != null && servido != null && servido.toString().equals(idx.servedPath()) ? idx : null;
+    }
+
+    Mp4Index indiceVigente(String contenidoId, Path source) {
+        if (!enabled || contenidoId == null || source == null) return null;
+        Mp4Index idx = cargar(contenidoId);
+        try {
+            return idx != null && idx.version().equals(HlsPackager.version(source))
+                    && Files.isRegularFile(Path.of(idx.servedPath())) ? idx : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    void indexar(String contenidoId, Path source) {
+        Path dir = Path.of(root).resolve(contenidoId);
+        try {
+            String version = HlsPackager.version(source);
+            Mp4Index idx;
+            try (FileChannel ch = FileChannel.open(source, StandardOpenOption.READ)) {
+                List<Mp4BoxParser.Box> boxes = Mp4BoxParser.topLevel(ch);
+                Mp4BoxParser.Box moov = Mp4BoxParser.first(boxes, "moov");
+                Mp4BoxParser.Box mdat = Mp4BoxParser.first(boxes, "mdat");
+                if (moov == null || mdat == null) {
+                    log.info("{} no es un MP4 progresivo (sin moov o mdat); no se indexa", source);
+                    return;
+                }
+                ByteBuffer moovBytes = Mp4BoxParser.readBox(ch, moov);
+                boolean yaFaststart = moov.offset() < mdat.offset();
+                Files.createDirectories(dir);
+
+                Path servido = source;
+                if (!yaFaststart && faststart) {
+                    Path copia = dir.resolve(version + ".mp4");
+                    ByteBuffer movido = escribirFaststart(ch, boxes, moov, moovBytes, copia);
+                    if (movido != null) {
+                        servido = copia;
+                        moovBytes = movido;
+                    }
+                }
+                // Con copia faststart los keyframes se calculan sobre el moov corregido
+                Mp4BoxParser.Analisis a = Mp4BoxParser.analizar(moovBytes);
+                long size = ch.size();
+                long bitrate = a.durationSeconds() > 0 ? Math.round(size * 8 / a.durationSeconds()) : 0;
+                idx = new Mp4Index(version, size, moov.offset(), moov.size(), mdat.offset(), yaFaststart,
+                        a.durationSeconds(), bitrate, servido.toString(), a.keyframes());
+            }
+            Path tmp = dir.resolve(INDICE + ".tmp");
+            mapper.writeValue(tmp.toFile(), idx);
+            Files.move(tmp, dir.resolve(INDICE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            borrarCopiasAnteriores(dir, idx.servedPath());
+            indices.put(contenidoId, idx);
+            streamingTargetCache.invalidate(contenidoId);
+            log.info("Índice MP4 de {}: moov en {}, {} keyframes, sirviendo {}", contenidoId, idx.moovOffset(),
+                    idx.keyframes().size(), idx.servedPath());
+        } catch (IOException | RuntimeException e) {
+            log.warn("No se ha podido indexar el MP4 de {}: {}", contenidoId, e.getMessage());
+        }
+    }
+
+    /**
+     * Copia el fichero con el moov justo detrás del ftyp. Los datos que quedaban entre el ftyp
+     * y el moov original se desplazan el tamaño del moov, así que sus offsets de chunk se corrigen.
+     * Devuelve el moov corregido, o null si no se ha podido escribir la copia.
+     */
+    private ByteBuffer escribirFaststart(FileChannel ch, List<Mp4BoxParser.Box> boxes, Mp4BoxParser.Box moov,
+                                      ByteBuffer moovBytes, Path copia) throws IOException {
+        Mp4BoxParser.Box ftyp = Mp4BoxParser.first(boxes, "ftyp");
+        long insercion = (ftyp != null && ftyp.offset() == 0) ? ftyp.end() : 0;
+        ByteBuffer patched = ByteBuffer.allocate(moovBytes.capacity());
+        patched.put(moovBytes.duplicate().clear()).flip();
+        if (!Mp4BoxParser.desplazarChunks(patched, insercion, moov.offset(), moov.size())) {
+            log.info("Los offsets de {} no caben en stco tras mover el moov; se sirve el original", copia);
+            return null;
+        }
+
+        Path tmp = copia.resolveSibling(copia.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            copiar(ch, 0, insercion, out);
+            ByteBuffer escritura = patched.duplicate();
+            while (escritura.hasRemaining()) out.write(escritura);
+            for (Mp4BoxParser.Box b : boxes) {
+                if (b.offset() >= insercion && b != moov) copiar(ch, b.offset(), b.size(), out);
+            }
+        }
+        Files.move(tmp, copia, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return patched;
+    }
+
+    private static void copiar(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        long pos = position;
+        long restante = count;
+        while (restante > 0) {
+            long n = in.transferTo(pos, restante, out);
+            if (n <= 0) throw new IOException("Copia faststart incompleta en la posición " + pos);
+            pos += n;
+            restante -= n;
+        }
+    }
+
+    private Mp4Index cargar(String contenidoId) {
+        Mp4Index idx = indices.get(contenidoId);
+        if (idx != null) return idx;
+        Path fichero = Path.of(root).resolve(contenidoId).resolve(INDICE);
+        if (!Files.isRegularFile(fichero)) return null;
+        try {
+            idx = mapper.readValue(fichero.toFile(), Mp4Index.class);
+            indices.put(contenidoId, idx);
+            return idx;
+        } catch (IOException e) {
+            log.warn("Índice MP4 ilegible en {}: {}", fichero, e.getMessage());
+            return null;
+        }
+    }
+
+    private static void borrarCopiasAnteriores(Path dir, String servido) {
+        try (var ficheros = Files.list(dir)) {
+            ficheros.filter(p -> p.getFileName().toString().endsWith(".mp4") && !p.toString().equals(servido))
+                    .forEach(p -> {
+                        try {
+                            Files.deleteIfExists(p);
+                        } catch (IOException e) {
+                            log.debug("No se ha podido borrar {}", p);
+                        }
+                    });
+        } catch (IOException e) {
+            log.debug("No se han podido limpiar copias antiguas en {}", dir);
+        }
+    }
+
+    private static Path rutaMp4Local(String urlVideo) {
+        if (urlVideo == null || urlVideo.isBlank()) return null;
+        String l = urlVideo.toLowerCase();
+        if (l.startsWith("http://") || l.startsWith("https://")) return null;
+        return (l.endsWith(".mp4") || l.endsWith(".m4v") || l.endsWith(".mov")) ? Path.of(urlVideo) : null;
+    }
+}
@@ -0,0 +1,242 @@
+package com.EsiMediaG03.services;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.InteraccionUsuario;
+import com.EsiMediaG03.model.Reproductor;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Agrega en memoria los incrementos de reproducciones y los reproductores nuevos por contenido
+ * y los vuelca a Mongo en un bulkWrite por colección (contadores en contenidos, reproductores en la
+ * suya), por intervalo o al superar un umbral de contenidos pendientes. Así el streaming no hace
+ * escrituras en Mongo en cada petición de rango.
+ */
+@Service
+public class PlayCounterBuffer {
+
+    private static final Logger log = LoggerFactory.getLogger(PlayCounterBuffer.class);
+
+    private static final String FIELD_REPRODUCCIONES = "reproducciones";
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${contenidos.reproducciones.max-pending:500}")
+    private int maxPending = 500;
+
+    private final ConcurrentHashMap<String, Pendiente> pendientes = new ConcurrentHashMap<>();
+    // Lote que se está volcando: sus reproductores ya no están en pendientes y aún no están en Mongo
+    private volatile Map<String, Pendiente> volcando = Map.of();
+    private final ReentrantLock volcado = new ReentrantLock();
+    private final AtomicBoolean volcadoSolicitado = new AtomicBoolean();
+    private final ExecutorService volcador = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "reproducciones-flush");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicLong volcados = new AtomicLong();
+    private final AtomicLong operacionesVolcadas = new AtomicLong();
+    private final AtomicLong fallos = new AtomicLong();
+
+    public PlayCounterBuffer(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public void registrarReproduccion(String contenidoId) {
+        pendientes.compute(contenidoId, (id, p) -> {
+            Pendiente r = p != null ? p : new Pendiente();
+            r.reproducciones++;
+            return r;
+        });
+        comprobarUmbral();
+    }
+
+    public void registrarReproductor(String contenidoId, String email) {
+        pendientes.compute(contenidoId, (id, p) -> {
+            Pendiente r = p != null ? p : new Pendiente();
+            synchronized (r) {
+                r.reproductores.add(InteraccionUsuario.normalizarEmail(email));
+            }
+            return r;
+        });
+        comprobarUmbral();
+    }
+
+    /**
+     * Si el reproductor está aún sin volcar, en cola o en el lote en curso. Quien lo consulte antes que Mongo
+     * no lo pierde de vista: el lote solo deja de verse después de escribirse o de volver a la cola.
+     */
+    public boolean reproductorPendiente(String contenidoId, String email) {
+        Pendiente p = pendientes.get(contenidoId);
+        if (p != null && contiene(p, email)) return true;
+        Pendiente v = volcando.get(contenidoId);
+        return v != null && contiene(v, email);
+    }
+
+    private static boolean contiene(Pendiente p, String email) {
+        synchronized (p) {
+            return p.reproductores.contains(InteraccionUsuario.normalizarEmail(email));
+        }
+    }
+
+    // El volcado por umbral se hace en su propio hilo para no bloquear la petición
+    private void comprobarUmbral() {
+        if (pendientes.size() >= maxPending && volcadoSolicitado.compareAndSet(false, true)) {
+            volcador.execute(() -> {
+                volcadoSolicitado.set(false);
+                flush();
+            });
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${contenidos.reproducciones.flush-ms:1000}")
+    public void flush() {
+        volcado.lock();
+        try {
+            Map<String, Pendiente> lote = drenar();
+            if (lote.isEmpty()) return;
+
+            boolean contadores = volcarReproducciones(lote);
+            boolean reproductores = volcarReproductores(lote);
+            if (contadores && reproductores) volcados.incrementAndGet();
+        } finally {
+            volcando = Map.of();
+            volcado.unlock();
+        }
+    }
+
+    // Cada colección se reencola por separado: repetir un $inc ya aplicado contaría dos veces
+    private boolean volcarReproducciones(Map<String, Pendiente> lote) {
+        List<String> ids = lote.entrySet().stream()
+                .filter(e -> e.getValue().reproducciones > 0).map(Map.Entry::getKey).toList();
+        if (ids.isEmpty()) return true;
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class);
+        for (String id : ids) {
+            bulk.updateOne(new Query(where("_id").is(id)),
+                    new Update().inc(FIELD_REPRODUCCIONES, lote.get(id).reproducciones));
+        }
+        try {
+            bulk.execute();
+            operacionesVolcadas.addAndGet(ids.size());
+            return true;
+        } catch (RuntimeException ex) {
+            fallo("contadores de reproducción", ids.size(), ex);
+            ids.forEach(id -> pendientes.merge(id, lote.get(id).soloReproducciones(), Pendiente::sumar));
+            return false;
+        }
+    }
+
+    private boolean volcarReproductores(Map<String, Pendiente> lote) {
+        List<String> ids = lote.entrySet().stream()
+                .filter(e -> !e.getValue().reproductores.isEmpty()).map(Map.Entry::getKey).toList();
+        if (ids.isEmpty()) return true;
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Reproductor.class);
+        int n = 0;
+        for (String id : ids) {
+            for (String email : lote.get(id).reproductores) {
+                bulk.upsert(InteraccionesService.porClave(id, email), InteraccionesService.alta(id, email));
+                n++;
+            }
+        }
+        try {
+            bulk.execute();
+            operacionesVolcadas.addAndGet(n);
+            return true;
+        } catch (RuntimeException ex) {
+            fallo("reproductores", n, ex);
+            ids.forEach(id -> pendientes.merge(id, lote.get(id).soloReproductores(), Pendiente::sumar));
+            return false;
+        }
+    }
+
+    private void fallo(String que, int n, RuntimeException ex) {
+        fallos.incrementAndGet();
+        log.warn("No se han podido volcar {} {}; se reintentará: {}", n, que, ex.getMessage());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        volcador.shutdown();
+        flush();
+    }
+
+    // compute() se bloquea por clave: cada incremento cae en este lote o en el siguiente, y cada entrada
+    // pasa al lote visible antes de salir de pendientes
+    private Map<String, Pendiente> drenar() {
+        Map<String, Pendiente> lote = new ConcurrentHashMap<>();
+        volcando = lote;
+        List<String> ids = new ArrayList<>(pendientes.keySet());
+        for (String id : ids) {
+            pendientes.compute(id, (k, p) -> {
+                if (p != null) lote.put(k, p);
+                return null;
+            });
+        }
+        return lote;
+    }
+
+    public Map<String, Object> stats() {
+        long reproducciones = 0;
+        long reproductores = 0;
+        for (Pendiente p : pendientes.values()) {
+            reproducciones += p.reproducciones;
+            reproductores += p.reproductores.size();
+        }
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("queueDepth", pendientes.size());
+        res.put("pendingReproducciones", reproducciones);
+        res.put("pendingReproductores", reproductores);
+        res.put("flushes", volcados.get());
+        res.put("flushedOperations", operacionesVolcadas.get());
+        res.put("failures", fallos.get());
+        return res;
+    }
+
+    private static final class Pendiente {
+        private long reproducciones;
+        private final Set<String> reproductores = new HashSet<>();
+
+        Pendiente soloReproducciones() {
+            Pendiente p = new Pendiente();
+            p.reproducciones = reproducciones;
+            return p;
+        }
+
+        Pendiente soloReproductores() {
+            Pendiente p = new Pendiente();
+            p.reproductores.addAll(reproductores);
+            return p;
+        }
+
+        synchronized Pendiente sumar(Pendiente otro) {
+            reproducciones += otro.reproducciones;
+            reproductores.addAll(otro.reproductores);
+            return this;
+        }
+    }
+}
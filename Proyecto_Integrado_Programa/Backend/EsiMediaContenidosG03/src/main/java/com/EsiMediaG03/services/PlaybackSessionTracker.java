@@ -0,0 +1,73 @@
+package com.EsiMediaG03.services;
+
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Decide si una petición de streaming es el comienzo de una reproducción o un rango más
+ * de una reproducción ya contada. Recuerda las claves usuario/sesión + contenido en dos
+ * generaciones que rotan cada ventana, así cada clave se recuerda entre una y dos ventanas
+ * sin tener que caducar entradas una a una.
+ */
+@Service
+public class PlaybackSessionTracker {
+
+    @Value("${contenidos.reproducciones.session-window-ms:1800000}")
+    private long windowMs = 30L * 60L * 1000L;
+
+    @Value("${contenidos.reproducciones.session-max-keys:200000}")
+    private int maxKeys = 200_000;
+
+    private volatile ConcurrentHashMap<String, Boolean> actual = new ConcurrentHashMap<>();
+    private volatile ConcurrentHashMap<String, Boolean> anterior = new ConcurrentHashMap<>();
+    private volatile long inicioGeneracion = System.currentTimeMillis();
+
+    public String nuevaSesion() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * El email del usuario tiene prioridad sobre la sesión para que cambiar de sesión no infle
+     * el contador. Sin ninguno de los dos solo cuenta la petición que empieza en el byte 0.
+     */
+    public boolean primeraReproduccion(String sesion, String email, String contenidoId, boolean inicioDeFichero) {
+        String clave;
+        if (email != null && !email.isBlank()) {
+            clave = "u:" + email.trim().toLowerCase(Locale.ROOT);
+        } else if (sesion != null && !sesion.isBlank()) {
+            clave = "s:" + sesion.trim();
+        } else {
+            return inicioDeFichero;
+        }
+        return marcar(clave + "|" + contenidoId);
+    }
+
+    private boolean marcar(String clave) {
+        rotarSiToca();
+        ConcurrentHashMap<String, Boolean> gen = actual;
+        if (anterior.containsKey(clave)) {
+            gen.putIfAbsent(clave, Boolean.TRUE);
+            return false;
+        }
+        return gen.putIfAbsent(clave, Boolean.TRUE) == null;
+    }
+
+    private void rotarSiToca() {
+        long now = System.currentTimeMillis();
+        if (now - inicioGeneracion < windowMs && actual.size() < maxKeys) return;
+        synchronized (this) {
+            if (now - inicioGeneracion < windowMs && actual.size() < maxKeys) return;
+            anterior = actual;
+            actual = new ConcurrentHashMap<>();
+            inicioGeneracion = now;
+        }
+    }
+
+    public int clavesRecordadas() {
+        return actual.size() + anterior.size();
+    }
+}
@@ -0,0 +1,220 @@
+package com.EsiMediaG03.services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import com.EsiMediaG03.dto.EntradaRanking;
+import com.EsiMediaG03.exceptions.ContenidoValidationException;
+import com.EsiMediaG03.model.Contenido;
+
+/**
+ * Ranking de contenidos por puntuación bayesiana: uno global, uno por tipo y uno por etiqueta. Cada ranking se
+ * carga la primera vez que se pide con una consulta que recorre el índice {@code (tipo|tags, ratingBayes,
+ * ratingCount)} de {@link IndicesMongo} hasta el límite, y a partir de ahí se mantiene en memoria con cada
+ * valoración o cambio del contenido. Se guardan el doble de posiciones de las que se sirven para que un contenido que baja no obligue
+ * a volver a Mongo; solo se recarga cuando quedan menos de las pedidas y se sabe que hay más fuera.
+ */
+@Service
+public class RankingValoraciones {
+
+    public static final String FIELD_BAYES = "ratingBayes";
+    static final String FIELD_COUNT = "ratingCount";
+    static final String GLOBAL = "global";
+
+    private static final String[] CAMPOS = { "titulo", "tipo", "tags", FIELD_BAYES, "ratingAvg", FIELD_COUNT };
+
+    static final Comparator<EntradaRanking> ORDEN = Comparator
+            .comparingDouble(EntradaRanking::ratingBayes).reversed()
+            .thenComparing(Comparator.comparingInt(EntradaRanking::ratingCount).reversed())
+            .thenComparing(EntradaRanking::id);
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${contenidos.valoraciones.ranking.top-k:20}")
+    private int topK = 20;
+
+    // Rankings por etiqueta que se mantienen en memoria; el resto se consulta a Mongo cada vez
+    @Value("${contenidos.valoraciones.ranking.max-rankings:512}")
+    private int maxRankings = 512;
+
+    private final Map<String, Top> rankings = new ConcurrentHashMap<>();
+    // Última versión vista de cada contenido, para saber de qué rankings sacarlo si cambian su tipo o sus etiquetas
+    private final Map<String, EntradaRanking> ultimas = new ConcurrentHashMap<>();
+
+    public RankingValoraciones(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /** Los {@code limite} mejores, globales o de un tipo o etiqueta (no ambos). */
+    public List<EntradaRanking> top(Contenido.Tipo tipo, String tag, Integer limite) {
+        if (tipo != null && tag != null && !tag.isBlank()) {
+            throw new ContenidoValidationException("El ranking es por tipo o por etiqueta, no por ambos.");
+        }
+        int k = limite == null ? topK : Math.max(1, Math.min(limite, topK));
+        String clave = tipo != null ? clave(tipo) : (tag != null && !tag.isBlank() ? clave(tag.trim()) : GLOBAL);
+
+        Top t = rankings.get(clave);
+        if (t == null) {
+            if (rankings.size() >= maxRankings) return consultar(clave, k);
+            t = rankings.computeIfAbsent(clave, c -> new Top());
+        }
+        synchronized (t) {
+            if (!t.cargado || t.necesitaRecarga(k)) t.cargar(consultar(clave, capacidad()), capacidad());
+            return List.copyOf(t.lista.subList(0, Math.min(k, t.lista.size())));
+        }
+    }
+
+    /** Aplica la puntuación nueva de un contenido a los rankings ya cargados en los que entra o de los que sale. */
+    public void actualizar(EntradaRanking e) {
+        if (e == null || e.id() == null) return;
+        if (e.ratingCount() <= 0) {
+            quitar(e.id());
+            return;
+        }
+        EntradaRanking[] previa = new EntradaRanking[1];
+        EntradaRanking vigente = ultimas.compute(e.id(), (id, vieja) -> {
+            previa[0] = vieja;
+            return vieja == null || e.ratingCount() >= vieja.ratingCount() ? e : vieja;
+        });
+        if (vigente != e) return; // ya se había aplicado una valoración posterior
+
+        Set<String> claves = claves(e);
+        Set<String> afectadas = new LinkedHashSet<>(claves);
+        if (previa[0] != null) afectadas.addAll(claves(previa[0]));
+        for (String clave : afectadas) {
+            Top t = rankings.get(clave);
+            if (t == null) continue;
+            synchronized (t) {
+                if (claves.contains(clave)) t.poner(e, capacidad());
+                else t.quitar(e.id());
+            }
+        }
+    }
+
+    public void quitar(String contenidoId) {
+        if (contenidoId == null) return;
+        ultimas.remove(contenidoId);
+        for (Top t : rankings.values()) {
+            synchronized (t) {
+                t.quitar(contenidoId);
+            }
+        }
+    }
+
+    /** Descarta lo que hay en memoria; cada ranking se vuelve a cargar de Mongo la próxima vez que se pida. */
+    public void invalidar() {
+        rankings.clear();
+        ultimas.clear();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("topK", topK);
+        res.put("rankings", rankings.size());
+        res.put("maxRankings", maxRankings);
+        return res;
+    }
+
+    private List<EntradaRanking> consultar(String clave, int n) {
+        Criteria c = where(FIELD_COUNT).gt(0);
+        if (clave.startsWith("tipo:")) c = c.and("tipo").is(Contenido.Tipo.valueOf(clave.substring(5)));
+        else if (clave.startsWith("tag:")) c = c.and("tags").is(clave.substring(4));
+        Query q = new Query(c).with(Sort.by(Sort.Direction.DESC, FIELD_BAYES, FIELD_COUNT)).limit(n);
+        q.fields().include(CAMPOS);
+
+        List<EntradaRanking> res = new ArrayList<>();
+        for (Contenido contenido : mongoTemplate.find(q, Contenido.class)) {
+            EntradaRanking e = EntradaRanking.of(contenido);
+            ultimas.putIfAbsent(e.id(), e);
+            res.add(e);
+        }
+        res.sort(ORDEN);
+        return res;
+    }
+
+    private int capacidad() {
+        return topK * 2;
+    }
+
+    private static Set<String> claves(EntradaRanking e) {
+        Set<String> claves = new LinkedHashSet<>();
+        claves.add(GLOBAL);
+        if (e.tipo() != null) claves.add(clave(e.tipo()));
+        for (String tag : e.tags()) if (!tag.isBlank()) claves.add(clave(tag.trim()));
+        return claves;
+    }
+
+    private static String clave(Contenido.Tipo tipo) {
+        return "tipo:" + tipo.name();
+    }
+
+    private static String clave(String tag) {
+        return "tag:" + tag;
+    }
+
+    /**
+     * Las primeras posiciones de un ranking, en orden. Si {@code truncado}, hay contenidos del ranking que no
+     * están en la lista, pero todos puntúan por debajo del último de ella.
+     */
+    static final class Top {
+        final List<EntradaRanking> lista = new ArrayList<>();
+        boolean truncado;
+        boolean cargado;
+
+        void cargar(List<EntradaRanking> entradas, int capacidad) {
+            lista.clear();
+            lista.addAll(entradas);
+            truncado = entradas.size() >= capacidad;
+            cargado = true;
+        }
+
+        boolean necesitaRecarga(int k) {
+            return truncado && lista.size() < k;
+        }
+
+        void poner(EntradaRanking e, int capacidad) {
+            if (!cargado) return;
+            int i = indice(e.id());
+            if (i >= 0) {
+                if (lista.get(i).ratingCount() > e.ratingCount()) return;
+                lista.remove(i);
+            }
+            // Por debajo del último conocido puede haber otros que no están en la lista: no se sabe su sitio
+            if (truncado && (lista.isEmpty() || ORDEN.compare(e, lista.get(lista.size() - 1)) > 0)) return;
+
+            int pos = 0;
+            while (pos < lista.size() && ORDEN.compare(lista.get(pos), e) < 0) pos++;
+            lista.add(pos, e);
+            if (lista.size() > capacidad) {
+                lista.remove(lista.size() - 1);
+                truncado = true;
+            }
+        }
+
+        void quitar(String id) {
+            int i = indice(id);
+            if (i >= 0) lista.remove(i);
+        }
+
+        private int indice(String id) {
+            for (int i = 0; i < lista.size(); i++) {
+                if (lista.get(i).id().equals(id)) return i;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.EsiMediaG03.services;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import com.EsiMediaG03.dto.MediaFileMetadata;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Lectura anticipada para reproducciones secuenciales: cuando un cliente (sesión o email) pide
+ * el rango que sigue al anterior, se lee ya el siguiente tramo del fichero en un buffer directo
+ * de un pool acotado, en un pool de E/S pequeño. Si la petición siguiente cae en ese tramo se
+ * sirve desde memoria. Los tramos que nadie pide caducan en pocos segundos y vuelven al pool.
+ */
+@Service
+public class ReadAheadPrefetcher {
+
+    private static final Logger log = LoggerFactory.getLogger(ReadAheadPrefetcher.class);
+
+    @Value("${contenidos.streaming.read-ahead.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${contenidos.streaming.read-ahead.buffer-bytes:4194304}")
+    private int bufferBytes = 4 * 1024 * 1024;
+
+    @Value("${contenidos.streaming.read-ahead.max-buffers:16}")
+    private int maxBuffers = 16;
+
+    @Value("${contenidos.streaming.read-ahead.workers:2}")
+    private int workers = 2;
+
+    @Value("${contenidos.streaming.read-ahead.queue-capacity:32}")
+    private int queueCapacity = 32;
+
+    @Value("${contenidos.streaming.read-ahead.ttl-ms:5000}")
+    private long ttlMs = 5000;
+
+    // Un buffer prestado que no se devuelve en este tiempo se da por perdido y deja sitio a otro
+    @Value("${contenidos.streaming.read-ahead.lease-timeout-ms:60000}")
+    private long leaseTimeoutMs = 60000;
+
+    @Value("${contenidos.streaming.read-ahead.max-clients:4096}")
+    private int maxClients = 4096;
+
+    private ThreadPoolTaskExecutor executor;
+
+    // Todo el estado se protege con el monitor de la instancia: las operaciones son de coste constante
+    private final ArrayDeque<ByteBuffer> libres = new ArrayDeque<>();
+    private int asignados;
+    private final LinkedHashMap<String, Cliente> clientes = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Lectura, Long> prestados = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong lecturas = new AtomicLong();
+    private final AtomicLong descartadas = new AtomicLong();
+    private final AtomicLong perdidos = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        if (!enabled) return;
+        executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("read-ahead-");
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(queueCapacity);
+        executor.initialize();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executor != null) executor.shutdown();
+    }
+
+    /**
+     * Registra la petición [start, start + count) del cliente y devuelve el tramo ya leído si la cubre entera.
+     * Nunca se acorta la respuesta al tramo: las que no caben en un buffer se sirven desde el fichero, con
+     * sendfile, y para ellas no se lee nada por adelantado.
+     * Quien recibe una lectura debe llamar a {@link Lectura#liberar()} cuando la haya escrito, o a
+     * {@link Lectura#noServida()} si la respuesta se rechaza antes de escribirla.
+     */
+    public Lectura acceder(String cliente, MediaFileMetadata md, long start, long count) {
+        if (executor == null || cliente == null || md == null || count <= 0) return null;
+        String clave = cliente + "|" + md.path();
+        Lectura lectura = null;
+        long fin;
+        synchronized (this) {
+            Cliente c = clientes.get(clave);
+            boolean secuencial = start == 0 || (c != null && c.siguiente == start);
+            if (c == null) {
+                if (clientes.size() >= maxClients) purgarClientes();
+                c = new Cliente();
+                clientes.put(clave, c);
+            }
+            Tramo t = c.tramo;
+            if (t != null && t.listo && t.vale(md) && start >= t.inicio && start + count <= t.fin()) {
+                ByteBuffer vista = t.buffer.duplicate();
+                vista.position((int) (start - t.inicio)).limit((int) (start - t.inicio + count));
+                lectura = new Lectura(vista.slice().asReadOnlyBuffer(), t.buffer, clave, start);
+                prestados.put(lectura, System.currentTimeMillis());
+                c.tramo = null;
+                secuencial = true;
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+            }
+            fin = start + count;
+            c.siguiente = fin;
+            // Si esta petición no cabía en un buffer, la siguiente (del mismo tamaño) tampoco cabrá
+            if (secuencial && fin < md.size() && count <= bufferBytes) {
+                programar(c, md, fin);
+            }
+        }
+        return lectura;
+    }
+
+    // Llamado con el monitor tomado
+    private void programar(Cliente c, MediaFileMetadata md, long inicio) {
+        if (c.tramo != null && c.tramo.inicio == inicio && c.tramo.vale(md)) return;
+        descartar(c);
+        ByteBuffer buffer = tomarBuffer();
+        if (buffer == null) return;
+        int len = (int) Math.min(buffer.capacity(), md.size() - inicio);
+        Tramo t = new Tramo(md, inicio, len, buffer);
+        c.tramo = t;
+        try {
+            executor.execute(() -> leer(c, t));
+        } catch (TaskRejectedException e) {
+            c.tramo = null;
+            devolverBuffer(buffer);
+        }
+    }
+
+    private void leer(Cliente c, Tramo t) {
+        boolean ok = false;
+        try (FileChannel ch = FileChannel.open(t.md.path(), StandardOpenOption.READ)) {
+            ByteBuffer destino = t.buffer.duplicate();
+            destino.clear().limit(t.len);
+            long pos = t.inicio;
+            while (destino.hasRemaining()) {
+                int n = ch.read(destino, pos);
+                if (n < 0) throw new EOFException("Fin de fichero inesperado en " + t.md.path());
+                pos += n;
+            }
+            ok = true;
+        } catch (IOException e) {
+            log.debug("Lectura anticipada fallida en {}: {}", t.md.path(), e.getMessage());
+        }
+        synchronized (this) {
+            if (ok && c.tramo == t) {
+                t.listo = true;
+                lecturas.incrementAndGet();
+            } else {
+                if (c.tramo == t) c.tramo = null;
+                devolverBuffer(t.buffer);
+                descartadas.incrementAndGet();
+            }
+        }
+    }
+
+    /** Devuelve al pool los tramos que nadie ha pedido a tiempo y da por perdidos los préstamos olvidados. */
+    @Scheduled(fixedDelayString = "${contenidos.streaming.read-ahead.sweep-ms:1000}")
+    public synchronized void barrer() {
+        long ahora = System.currentTimeMillis();
+        for (Cliente c : clientes.values()) {
+            if (c.tramo != null && c.tramo.listo && ahora - c.tramo.creadoEn >= ttlMs) descartar(c);
+        }
+        Iterator<Map.Entry<Lectura, Long>> it = prestados.entrySet().iterator();
+        while (it.hasNext()) {
+            if (ahora - it.next().getValue() >= leaseTimeoutMs) {
+                it.remove();
+                asignados--;
+                perdidos.incrementAndGet();
+            }
+        }
+    }
+
+    // Llamado con el monitor tomado; si el tramo aún se está leyendo, leer() devolverá su buffer
+    private void descartar(Cliente c) {
+        Tramo t = c.tramo;
+        c.tramo = null;
+        if (t != null && t.listo) {
+            devolverBuffer(t.buffer);
+            descartadas.incrementAndGet();
+        }
+    }
+
+    private void purgarClientes() {
+        Iterator<Cliente> it = clientes.values().iterator();
+        while (clientes.size() >= maxClients && it.hasNext()) {
+            Cliente c = it.next();
+            descartar(c);
+            it.remove();
+        }
+    }
+
+    private ByteBuffer tomarBuffer() {
+        ByteBuffer b = libres.poll();
+        if (b != null) return b;
+        if (asignados >= maxBuffers) return null;
+        asignados++;
+        return ByteBuffer.allocateDirect(bufferBytes);
+    }
+
+    private void devolverBuffer(ByteBuffer b) {
+        b.clear();
+        libres.push(b);
+    }
+
+    private synchronized void devolver(Lectura lectura) {
+        if (prestados.remove(lectura) != null) devolverBuffer(lectura.origen);
+    }
+
+    // El cliente volverá a pedir el mismo rango: se le deja en el punto anterior para que siga siendo secuencial
+    private synchronized void deshacer(Lectura lectura) {
+        devolver(lectura);
+        Cliente c = clientes.get(lectura.clave);
+        if (c != null && c.siguiente == lectura.inicio + lectura.count()) c.siguiente = lectura.inicio;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        m.put("hits", hits.get());
+        m.put("misses", misses.get());
+        m.put("prefetches", lecturas.get());
+        m.put("discarded", descartadas.get());
+        m.put("lostLeases", perdidos.get());
+        m.put("clients", clientes.size());
+        m.put("buffersAllocated", asignados);
+        m.put("buffersFree", libres.size());
+        m.put("buffersLeased", prestados.size());
+        m.put("bufferBytes", bufferBytes);
+        return m;
+    }
+
+    /** Tramo servido desde memoria; su buffer vuelve al pool al liberarlo. */
+    public final class Lectura {
+
+        private final ByteBuffer datos;
+        private final ByteBuffer origen;
+        private final String clave;
+        private final long inicio;
+
+        private Lectura(ByteBuffer datos, ByteBuffer origen, String clave, long inicio) {
+            this.datos = datos;
+            this.origen = origen;
+            this.clave = clave;
+            this.inicio = inicio;
+        }
+
+        public ByteBuffer datos() {
+            return datos;
+        }
+
+        public long count() {
+            return datos.remaining();
+        }
+
+        public void liberar() {
+            devolver(this);
+        }
+
+        /** La respuesta se rechazó sin escribirse: devuelve el buffer y deshace el avance del cliente. */
+        public void noServida() {
+            deshacer(this);
+        }
+    }
+
+    private static final class Cliente {
+        long siguiente = -1;
+        Tramo tramo;
+    }
+
+    private static final class Tramo {
+        final MediaFileMetadata md;
+        final long inicio;
+        final int len;
+        final ByteBuffer buffer;
+        final long creadoEn = System.currentTimeMillis();
+        boolean listo;
+
+        Tramo(MediaFileMetadata md, long inicio, int len, ByteBuffer buffer) {
+            this.md = md;
+            this.inicio = inicio;
+            this.len = len;
+            this.buffer = buffer;
+        }
+
+        long fin() {
+            return inicio + len;
+        }
+
+        boolean vale(MediaFileMetadata actual) {
+            return md.path().equals(actual.path()) && md.size() == actual.size() && md.lastModified() == actual.lastModified();
+        }
+    }
+}
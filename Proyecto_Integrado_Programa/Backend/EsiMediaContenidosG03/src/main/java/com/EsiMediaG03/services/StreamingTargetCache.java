@@ -0,0 +1,64 @@
+package com.EsiMediaG03.services;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.EsiMediaG03.dto.ReglasAcceso;
+import com.EsiMediaG03.dto.StreamingTarget;
+
+/**
+ * Destinos de reproducción ya resueltos y sus reglas de acceso, por id de contenido.
+ * Así las peticiones de rango de una misma reproducción no vuelven a consultar Mongo
+ * ni el sistema de ficheros; el control de acceso se sigue haciendo por usuario con las reglas cacheadas.
+ */
+@Service
+public class StreamingTargetCache {
+
+    @Value("${contenidos.streaming.target-cache.max-entries:2048}")
+    private int maxEntries = 2048;
+
+    @Value("${contenidos.streaming.target-cache.ttl-ms:60000}")
+    private long ttlMs = 60_000;
+
+    // En orden de acceso: al llenarse se expulsan las caducadas y, si no basta, las menos usadas
+    private final LinkedHashMap<String, Resuelto> entradas = new LinkedHashMap<>(16, 0.75f, true);
+
+    public Resuelto get(String contenidoId) {
+        synchronized (entradas) {
+            Resuelto r = entradas.get(contenidoId);
+            if (r == null) return null;
+            if (System.currentTimeMillis() - r.cargadoEn() >= ttlMs) {
+                entradas.remove(contenidoId);
+                return null;
+            }
+            return r;
+        }
+    }
+
+    public void put(String contenidoId, StreamingTarget target, ReglasAcceso reglas) {
+        long now = System.currentTimeMillis();
+        synchronized (entradas) {
+            if (entradas.size() >= maxEntries && !entradas.containsKey(contenidoId)) {
+                entradas.values().removeIf(x -> now - x.cargadoEn() >= ttlMs);
+                Iterator<Resuelto> it = entradas.values().iterator();
+                while (entradas.size() >= maxEntries && it.hasNext()) {
+                    it.next();
+                    it.remove();
+                }
+            }
+            entradas.put(contenidoId, new Resuelto(target, reglas, now));
+        }
+    }
+
+    public void invalidate(String contenidoId) {
+        if (contenidoId == null) return;
+        synchronized (entradas) {
+            entradas.remove(contenidoId);
+        }
+    }
+
+    public record Resuelto(StreamingTarget target, ReglasAcceso reglas, long cargadoEn) {}
+}
@@ -0,0 +1,112 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.EsiMediaG03.http.BandwidthShaper;
+
+class BandwidthShaperTest {
+
+    private BandwidthShaper shaper;
+
+    @BeforeEach
+    void setUp() {
+        shaper = new BandwidthShaper();
+        ReflectionTestUtils.setField(shaper, "enabled", true);
+        ReflectionTestUtils.setField(shaper, "userBytesPerSecond", 20_000L);
+        ReflectionTestUtils.setField(shaper, "vipBytesPerSecond", 1_000_000L);
+        ReflectionTestUtils.setField(shaper, "globalBytesPerSecond", 10_000_000L);
+        ReflectionTestUtils.setField(shaper, "burstSeconds", 1);
+        ReflectionTestUtils.setField(shaper, "sliceBytes", 4096);
+        ReflectionTestUtils.setField(shaper, "maxStreamsPerUser", 2);
+        ReflectionTestUtils.invokeMethod(shaper, "init");
+    }
+
+    @Test
+    @DisplayName("Pasada la ráfaga, la escritura espera al ritmo del cubo del usuario")
+    void usuario_seFrenaAlAgotarLaRafaga() throws Exception {
+        BandwidthShaper.Cupo cupo = shaper.abrir("u@x.com", false);
+        ByteArrayOutputStream destino = new ByteArrayOutputStream();
+        OutputStream out = cupo.envolver(destino);
+
+        long t0 = System.nanoTime();
+        out.write(new byte[30_000]);
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+        cupo.cerrar();
+
+        assertEquals(30_000, destino.size());
+        // 20 000 de ráfaga y 10 000 más a 20 000 B/s
+        assertTrue(ms >= 400, "ha tardado " + ms + " ms");
+        assertTrue((Long) shaper.stats().get("throttledUserMillis") >= 400);
+        assertTrue((Long) shaper.stats().get("throttledWrites") > 0);
+        assertEquals(30_000L, shaper.stats().get("bytesServed"));
+    }
+
+    @Test
+    @DisplayName("Desactivado por defecto, y activado solo limita las respuestas que no caben en la ráfaga")
+    void porDefectoDesactivado_yLasPequenasNoSeLimitan() {
+        BandwidthShaper porDefecto = new BandwidthShaper();
+        ReflectionTestUtils.invokeMethod(porDefecto, "init");
+        assertFalse(porDefecto.aplica(64L * 1024L * 1024L));
+
+        assertFalse(shaper.aplica(64L * 1024L));
+        assertTrue(shaper.aplica(2L * 1024L * 1024L));
+    }
+
+    @Test
+    @DisplayName("El nivel VIP tiene su propio cubo, más generoso")
+    void vip_noSeFrena() throws Exception {
+        BandwidthShaper.Cupo cupo = shaper.abrir("u@x.com", true);
+        cupo.envolver(new ByteArrayOutputStream()).write(new byte[30_000]);
+        cupo.cerrar();
+        assertEquals(0L, shaper.stats().get("throttledWrites"));
+    }
+
+    @Test
+    @DisplayName("La purga por tope de usuarios solo quita a los inactivos y no reinicia el límite de los demás")
+    void purga_conservaALosQueTienenDescargas() {
+        ReflectionTestUtils.setField(shaper, "maxUsers", 2);
+        BandwidthShaper.Cupo a1 = shaper.abrir("a@x.com", false);
+        BandwidthShaper.Cupo a2 = shaper.abrir("a@x.com", false);
+        shaper.abrir("b@x.com", false).cerrar();
+
+        BandwidthShaper.Cupo c = shaper.abrir("c@x.com", false);
+
+        assertNotNull(a1);
+        assertNotNull(a2);
+        assertNotNull(c);
+        assertEquals(2, shaper.stats().get("users"));
+        assertNull(shaper.abrir("a@x.com", false));
+        assertEquals(3, shaper.stats().get("activeStreams"));
+    }
+
+    @Test
+    @DisplayName("Cada usuario tiene un máximo de descargas simultáneas")
+    void limiteDeDescargasPorUsuario() {
+        BandwidthShaper.Cupo a = shaper.abrir("u@x.com", false);
+        BandwidthShaper.Cupo b = shaper.abrir("U@x.com ", false);
+        assertNotNull(a);
+        assertNotNull(b);
+        assertNull(shaper.abrir("u@x.com", false));
+        assertNotNull(shaper.abrir("otro@x.com", false));
+
+        a.cerrar();
+        a.cerrar();
+        assertNotNull(shaper.abrir("u@x.com", false));
+        assertNull(shaper.abrir("u@x.com", false));
+        assertEquals(2L, shaper.stats().get("rejectedStreams"));
+        // Sin email no hay límite por usuario
+        for (int i = 0; i < 5; i++) assertNotNull(shaper.abrir(null, false));
+    }
+}
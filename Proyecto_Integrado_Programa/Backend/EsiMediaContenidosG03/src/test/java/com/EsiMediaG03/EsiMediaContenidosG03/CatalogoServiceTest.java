@@ -0,0 +1,184 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.EsiMediaG03.dto.FiltroCatalogo;
+import com.EsiMediaG03.dto.PaginaCatalogo;
+import com.EsiMediaG03.exceptions.ContenidoValidationException;
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.services.CatalogoService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class CatalogoServiceTest {
+
+    private static final LocalDateTime BASE = LocalDateTime.of(2025, 3, 1, 12, 0, 0, 123_000_000);
+
+    private MongoTemplate mongoTemplate;
+    private CatalogoService service;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        service = new CatalogoService(mongoTemplate, new ObjectMapper().findAndRegisterModules());
+    }
+
+    @Test
+    @DisplayName("Los filtros, el orden, el límite y la proyección se mandan a Mongo")
+    void consultaEmpujadaAMongo() {
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of());
+
+        service.pagina(new FiltroCatalogo(Contenido.Tipo.VIDEO, true, null, List.of("rock", " ", "live ")), null, 10);
+
+        Query q = consulta();
+        Document filtro = q.getQueryObject();
+        List<?> condiciones = (List<?>) filtro.get("$and");
+        assertEquals(3, condiciones.size());
+        assertEquals(new Document("tipo", Contenido.Tipo.VIDEO), condiciones.get(0));
+        assertEquals(new Document("vip", true), condiciones.get(1));
+        assertEquals(new Document("tags", new Document("$all", List.of("rock", "live"))), condiciones.get(2));
+        assertEquals(new Document("fechaEstado", -1).append("_id", -1), q.getSortObject());
+        assertEquals(11, q.getLimit());
+
+        Document campos = q.getFieldsObject();
+        assertTrue(campos.containsKey("titulo"));
+        assertTrue(campos.containsKey("reproducciones"));
+        assertFalse(campos.containsKey("reproductores"));
+        assertFalse(campos.containsKey("ratings"));
+        assertFalse(campos.containsKey("favoritosDeUsuarios"));
+    }
+
+    @Test
+    @DisplayName("Si hay más resultados que el límite se devuelve un cursor y la siguiente página parte de él")
+    void paginaConCursor() {
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(contenidos(3));
+
+        PaginaCatalogo primera = service.pagina(FiltroCatalogo.sinFiltros(), null, 2);
+        assertEquals(2, primera.contenidos().size());
+        assertEquals("c1", primera.contenidos().get(1).id());
+        assertNotNull(primera.siguienteCursor());
+
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(contenidos(1));
+        PaginaCatalogo segunda = service.pagina(FiltroCatalogo.sinFiltros(), primera.siguienteCursor(), 2);
+        assertNull(segunda.siguienteCursor());
+
+        ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).find(captor.capture(), eq(Contenido.class));
+        Document filtro = captor.getAllValues().get(1).getQueryObject();
+        List<?> or = (List<?>) ((Document) ((List<?>) filtro.get("$and")).get(0)).get("$or");
+        assertEquals(new Document("fechaEstado", new Document("$lt", BASE.minusMinutes(1))), or.get(0));
+        assertEquals(new Document("$and", List.of(new Document("fechaEstado", BASE.minusMinutes(1)),
+                new Document("_id", new Document("$lt", "c1")))), or.get(1));
+        assertEquals(new Document("fechaEstado", null), or.get(2));
+    }
+
+    @Test
+    @DisplayName("El límite se acota al máximo configurado")
+    void limiteAcotado() {
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of());
+
+        service.pagina(null, null, 5000);
+        assertEquals(101, consulta().getLimit());
+    }
+
+    @Test
+    @DisplayName("Un cursor corrupto es un error de validación y no llega a consultar")
+    void cursorInvalido() {
+        assertThrows(ContenidoValidationException.class,
+                () -> service.pagina(FiltroCatalogo.sinFiltros(), "no-es-un-cursor!", null));
+        assertThrows(ContenidoValidationException.class,
+                () -> service.pagina(FiltroCatalogo.sinFiltros(), "eHh4fGFiYw", null));
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    @DisplayName("La exportación escribe una línea JSON por contenido desde el cursor y lo cierra al terminar")
+    void exportarNdjson() throws Exception {
+        AtomicBoolean cerrado = new AtomicBoolean();
+        when(mongoTemplate.stream(any(Query.class), eq(Contenido.class)))
+                .thenReturn(contenidos(3).stream().onClose(() -> cerrado.set(true)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long escritos = service.exportar(null, out);
+
+        assertEquals(3, escritos);
+        assertTrue(cerrado.get());
+        String[] lineas = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, lineas.length);
+        assertTrue(lineas[0].startsWith("{\"id\":\"c0\""));
+        assertTrue(lineas[0].contains("\"fechaEstado\":\"2025-03-01T12:00:00.123\""));
+        assertFalse(lineas[0].contains("reproductores"));
+        assertFalse(lineas[0].contains("reproducciones"));
+        assertFalse(lineas[0].contains("ratingAvg"));
+
+        ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).stream(captor.capture(), eq(Contenido.class));
+        Query q = captor.getValue();
+        assertTrue(q.getQueryObject().isEmpty());
+        assertEquals(new Document("_id", 1), q.getSortObject());
+        assertFalse(q.getFieldsObject().containsKey("ratings"));
+        assertFalse(q.getFieldsObject().containsKey("ratingCount"));
+        assertFalse(q.getFieldsObject().containsKey("reproducciones"));
+    }
+
+    @Test
+    @DisplayName("Con updatedSince solo se exporta lo modificado, o sin fechaModificacion lo cambiado de estado, desde entonces")
+    void exportarIncremental() throws Exception {
+        when(mongoTemplate.stream(any(Query.class), eq(Contenido.class))).thenReturn(Stream.empty());
+
+        service.exportar(BASE, new ByteArrayOutputStream());
+
+        ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).stream(captor.capture(), eq(Contenido.class));
+        List<?> or = (List<?>) captor.getValue().getQueryObject().get("$or");
+        assertEquals(new Document("fechaModificacion", new Document("$gte", BASE)), or.get(0));
+        assertEquals(new Document("$and", List.of(new Document("fechaModificacion", new Document("$exists", false)),
+                new Document("fechaEstado", new Document("$gte", BASE)))), or.get(1));
+    }
+
+    private Query consulta() {
+        ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(captor.capture(), eq(Contenido.class));
+        return captor.getValue();
+    }
+
+    private static List<Contenido> contenidos(int n) {
+        List<Contenido> l = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Contenido c = new Contenido();
+            c.setId("c" + i);
+            c.setTitulo("Contenido " + i);
+            ReflectionTestUtils.setField(c, "fechaEstado", BASE.minusMinutes(i));
+            l.add(c);
+        }
+        return l;
+    }
+}
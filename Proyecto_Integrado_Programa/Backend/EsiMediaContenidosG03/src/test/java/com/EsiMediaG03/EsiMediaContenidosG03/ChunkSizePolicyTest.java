@@ -0,0 +1,85 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.services.ChunkSizePolicy;
+
+class ChunkSizePolicyTest {
+
+    private static final long MIB = 1024L * 1024L;
+
+    private final ChunkSizePolicy policy = new ChunkSizePolicy();
+
+    private static StreamingTarget target(Contenido.Tipo tipo, long length, String reso, int minutos) {
+        return new StreamingTarget(Path.of("/media/x"), length, "video/mp4", false, null, tipo, reso, minutos);
+    }
+
+    @Test
+    @DisplayName("Rango explícito pequeño -> se respeta el tamaño pedido")
+    void rangoExplicito_seRespeta() {
+        StreamingTarget t = target(Contenido.Tipo.VIDEO, 4000 * MIB, "4k", 100);
+        assertEquals(1, policy.chunkSize(t, 1, false, null));
+    }
+
+    @Test
+    @DisplayName("Vídeo 4K abierto -> bloques muy superiores a 1 MiB, acotados al máximo de VIDEO")
+    void video4k_bloquesGrandes() {
+        StreamingTarget t = target(Contenido.Tipo.VIDEO, 20_000 * MIB, "4k", 100);
+        long chunk = policy.chunkSize(t, 20_000 * MIB, true, null);
+        assertEquals(32 * MIB, chunk);
+    }
+
+    @Test
+    @DisplayName("Audio abierto -> bloque acotado al rango de AUDIO")
+    void audio_bloquesPequenos() {
+        StreamingTarget t = target(Contenido.Tipo.AUDIO, 8 * MIB, null, 4);
+        long chunk = policy.chunkSize(t, 8 * MIB, true, null);
+        assertTrue(chunk >= 256 * 1024 && chunk <= 4 * MIB);
+    }
+
+    @Test
+    @DisplayName("Sin duración -> bitrate nominal según resolución")
+    void bitrateNominalPorResolucion() {
+        StreamingTarget t1080 = target(Contenido.Tipo.VIDEO, 100 * MIB, "1080p", 0);
+        StreamingTarget t720 = target(Contenido.Tipo.VIDEO, 100 * MIB, "720p", 0);
+        assertTrue(policy.chunkSize(t1080, 100 * MIB, true, null) > policy.chunkSize(t720, 100 * MIB, true, null));
+    }
+
+    @Test
+    @DisplayName("Cliente que pide despacio -> su ritmo reduce el bloque, nunca por debajo del mínimo")
+    void clienteLento_reduceBloque() throws Exception {
+        StreamingTarget t = target(Contenido.Tipo.VIDEO, 20_000 * MIB, "4k", 100);
+        policy.recordServed("lento@esi.com", 1024);
+        Thread.sleep(50);
+        policy.recordServed("lento@esi.com", 1024);
+
+        assertEquals(MIB, policy.chunkSize(t, 20_000 * MIB, true, "lento@esi.com"));
+    }
+
+    @Test
+    @DisplayName("Lleno de clientes -> se olvida al menos reciente, no a todos")
+    void lleno_expulsaAlMenosReciente() throws Exception {
+        ReflectionTestUtils.setField(policy, "maxClientes", 2);
+        StreamingTarget t = target(Contenido.Tipo.VIDEO, 20_000 * MIB, "4k", 100);
+        for (String c : new String[] {"a@esi.com", "b@esi.com"}) {
+            policy.recordServed(c, 1024);
+            Thread.sleep(20);
+            policy.recordServed(c, 1024);
+        }
+        // a vuelve a pedir después que b, así que el menos reciente es b
+        policy.chunkSize(t, 20_000 * MIB, true, "a@esi.com");
+        policy.recordServed("c@esi.com", 1024);
+
+        assertEquals(MIB, policy.chunkSize(t, 20_000 * MIB, true, "a@esi.com"));
+        assertEquals(32 * MIB, policy.chunkSize(t, 20_000 * MIB, true, "b@esi.com"));
+    }
+}
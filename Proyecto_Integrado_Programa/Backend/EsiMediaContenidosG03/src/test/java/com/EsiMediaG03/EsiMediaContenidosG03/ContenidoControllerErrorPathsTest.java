@@ -54,7 +54,7 @@ class ContenidoControllerErrorPathsTest {
                 .thenThrow(new StreamingTargetResolutionException("no se puede resolver"));
 
         assertThrows(StreamingTargetResolutionException.class, () ->
-                controller.stream("id-x", new HttpHeaders(), null, null,null, null, null, true));
+                controller.stream("id-x", new HttpHeaders(), null, null,null, null, null, true, null));
 
         verify(contenidoService, never()).registrarReproduccionSiUsuario(anyString(), any());
     }
@@ -66,7 +66,7 @@ class ContenidoControllerErrorPathsTest {
                 .thenThrow(new StreamingTargetResolutionException("no se puede resolver"));
 
         assertThrows(StreamingTargetResolutionException.class, () ->
-                controller.head("id-x", null, null, null));
+                controller.head("id-x", new HttpHeaders(), null, null, null));
     }
 
 
@@ -1,31 +1,71 @@
 package com.EsiMediaG03.EsiMediaContenidosG03;
 
+import com.EsiMediaG03.dto.ContenidoResumen;
+import com.EsiMediaG03.dto.EntradaRanking;
+import com.EsiMediaG03.dto.FiltroCatalogo;
 import com.EsiMediaG03.dto.ModificarContenidoRequest;
+import com.EsiMediaG03.dto.Mp4Index;
+import com.EsiMediaG03.dto.PaginaCatalogo;
 import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.exceptions.ContenidoValidationException;
+import com.EsiMediaG03.http.BandwidthShaper;
+import com.EsiMediaG03.http.ByteBufferResource;
 import com.EsiMediaG03.http.ContenidoController;
+import com.EsiMediaG03.http.MediaStreamExecutor;
+import com.EsiMediaG03.http.MediaStreamReturnValueHandler;
+import com.EsiMediaG03.http.ZeroCopyResourceHttpMessageConverter;
+import com.EsiMediaG03.http.ZeroCopyResourceRegionHttpMessageConverter;
 import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.services.CatalogoService;
+import com.EsiMediaG03.services.ChunkSizePolicy;
 import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.ExternalMediaProxy;
+import com.EsiMediaG03.services.HlsPackager;
+import com.EsiMediaG03.services.HotSegmentCache;
+import com.EsiMediaG03.services.MediaFileMetadataCache;
+import com.EsiMediaG03.services.PlaybackSessionTracker;
+import com.EsiMediaG03.services.IndicesMongo;
+import com.EsiMediaG03.services.ReadAheadPrefetcher;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.*;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-
+import org.springframework.mock.http.MockHttpOutputMessage;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(MockitoExtension.class)
 @MockitoSettings(strictness = Strictness.LENIENT) 
@@ -34,6 +74,37 @@ class ContenidoControllerTest {
     @Mock
     ContenidoService contenidoService;
 
+    @Spy
+    ChunkSizePolicy chunkSizePolicy = new ChunkSizePolicy();
+
+    @Spy
+    MediaFileMetadataCache metadataCache = new MediaFileMetadataCache();
+
+    @Mock
+    HotSegmentCache hotSegmentCache;
+
+    // Sin init() el pool no existe y las descargas se escriben en el hilo de la petición
+    @Spy
+    MediaStreamExecutor mediaStreamExecutor = new MediaStreamExecutor();
+
+    @Spy
+    PlaybackSessionTracker playbackSessions = new PlaybackSessionTracker();
+
+    @Spy
+    ExternalMediaProxy externalMediaProxy = new ExternalMediaProxy();
+
+    @Spy
+    BandwidthShaper bandwidthShaper = new BandwidthShaper();
+
+    @Spy
+    ReadAheadPrefetcher readAhead = new ReadAheadPrefetcher();
+
+    @Mock
+    CatalogoService catalogoService;
+
+    @Mock
+    IndicesMongo indicesMongo;
+
     @InjectMocks
     ContenidoController controller;
 
@@ -49,6 +120,8 @@ class ContenidoControllerTest {
 
     @AfterEach
     void tearDown() throws Exception {
+        ReflectionTestUtils.invokeMethod(mediaStreamExecutor, "shutdown");
+        ReflectionTestUtils.invokeMethod(readAhead, "shutdown");
         Files.deleteIfExists(tempFile);
     }
 
@@ -84,6 +157,85 @@ class ContenidoControllerTest {
         verify(contenidoService).modificarContenido("c1", cambios, Contenido.Tipo.VIDEO);
     }
 
+    @Test
+    @DisplayName("GET /Catalogo -> pasa los filtros al servicio y devuelve la página con su cursor")
+    void catalogo_filtrosYCursor() throws Exception {
+        Contenido c = new Contenido();
+        c.setId("c1");
+        c.setTitulo("Uno");
+        when(catalogoService.pagina(any(), eq("abc"), eq(5)))
+                .thenReturn(new PaginaCatalogo(List.of(ContenidoResumen.of(c)), "sig"));
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+        String body = mvc.perform(get("/Contenidos/Catalogo")
+                        .param("tipo", "AUDIO").param("vip", "false").param("tags", "rock", "pop")
+                        .param("cursor", "abc").param("limite", "5"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        assertTrue(body.contains("\"siguienteCursor\":\"sig\""));
+        assertFalse(body.contains("reproductores"));
+        verify(catalogoService).pagina(new FiltroCatalogo(Contenido.Tipo.AUDIO, false, null, List.of("rock", "pop")), "abc", 5);
+    }
+
+    @Test
+    @DisplayName("GET /Catalogo con un cursor no válido -> 400")
+    void catalogo_cursorInvalido() {
+        when(catalogoService.pagina(any(), eq("x"), any()))
+                .thenThrow(new ContenidoValidationException("Cursor de catálogo no válido"));
+
+        ResponseEntity<Object> resp = controller.catalogo(null, null, null, null, "x", null);
+        assertEquals(HttpStatus.BAD_REQUEST, resp.getStatusCode());
+    }
+
+    @Test
+    @DisplayName("GET /Catalogo/Exportar -> 403 sin rol de administrador o gestor")
+    void exportarCatalogo_sinRol() throws Exception {
+        ResponseEntity<Object> resp = controller.exportarCatalogo("USUARIO", null, new MockHttpServletResponse());
+
+        assertEquals(HttpStatus.FORBIDDEN, resp.getStatusCode());
+        verifyNoInteractions(catalogoService);
+    }
+
+    @Test
+    @DisplayName("GET /Catalogo/Exportar -> NDJSON asíncrono desde el pool multimedia con la marca para la siguiente sincronización")
+    void exportarCatalogo_asincrono() throws Exception {
+        arrancarPoolMultimedia(2);
+        doAnswer(inv -> {
+            inv.getArgument(1, OutputStream.class).write("{\"id\":\"c1\"}\n".getBytes());
+            return 1L;
+        }).when(catalogoService).exportar(any(), any());
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(controller)
+                .setCustomReturnValueHandlers(new MediaStreamReturnValueHandler(mediaStreamExecutor))
+                .build();
+
+        MvcResult res = mvc.perform(get("/Contenidos/Catalogo/Exportar")
+                        .header("X-User-Role", "ADMINISTRADOR")
+                        .param("updatedSince", "2025-03-01T10:15:30"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(res))
+                .andExpect(status().isOk())
+                .andExpect(content().string("{\"id\":\"c1\"}\n"));
+
+        assertEquals(MediaType.APPLICATION_NDJSON_VALUE, res.getResponse().getContentType());
+        assertNotNull(res.getResponse().getHeader("X-Export-Watermark"));
+        verify(catalogoService).exportar(eq(LocalDateTime.of(2025, 3, 1, 10, 15, 30)), any());
+    }
+
+    @Test
+    @DisplayName("GET /Catalogo/Exportar sin pool multimedia -> se escribe en el hilo de la petición")
+    void exportarCatalogo_sinPool() throws Exception {
+        when(catalogoService.exportar(isNull(), any())).thenReturn(0L);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        ResponseEntity<Object> resp = controller.exportarCatalogo("GESTOR_CONTENIDO", null, response);
+
+        assertNull(resp);
+        assertEquals(MediaType.APPLICATION_NDJSON_VALUE, response.getContentType());
+        verify(catalogoService).exportar(isNull(), any());
+    }
+
     @Test
     @DisplayName("DELETE /EliminarContenido/{id} -> 204 No Content y llamada al servicio")
     void eliminarContenido_noContent() {
@@ -162,11 +314,546 @@ class ContenidoControllerTest {
         when(target.externalUrl()).thenReturn("https://cdn.example.com/video.mp4");
         when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
 
-        ResponseEntity<Object> resp = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null);
+        ResponseEntity<Object> resp = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null, null);
         assertEquals(302, resp.getStatusCodeValue());
         assertEquals("https://cdn.example.com/video.mp4", resp.getHeaders().getLocation().toString());
     }
 
+    @Test
+    @DisplayName("El tamaño sale de los metadatos, no del target cacheado: tras crecer el fichero no se corta")
+    void testStream_usaElTamanoDeLosMetadatos() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(target.length()).thenReturn(10L);
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        ResponseEntity<Object> completo = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null, null);
+        assertEquals(26, completo.getHeaders().getContentLength());
+
+        HttpHeaders req = new HttpHeaders();
+        req.set(HttpHeaders.RANGE, "bytes=20-25");
+        ResponseEntity<Object> resp = controller.stream("id", req, null, null, null, null, null, null, null);
+        assertEquals(206, resp.getStatusCodeValue());
+        assertEquals("bytes 20-25/26", resp.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void testStreamExterno_modoProxy_sirveElRangoDesdeLaCache() throws Exception {
+        String url = "https://cdn.example.com/video.mp4";
+        when(contenidoService.resolveStreamingTarget(any(), any(), any()))
+                .thenReturn(StreamingTarget.external(url, "video/mp4"));
+        doReturn(true).when(externalMediaProxy).isEnabled();
+        doReturn(new ExternalMediaProxy.Origen(26, "video/mp4")).when(externalMediaProxy).describir(url);
+        doReturn(new ByteArrayInputStream(data, 4, 6)).when(externalMediaProxy).abrir(url, 4, 6);
+
+        HttpHeaders req = new HttpHeaders();
+        req.set(HttpHeaders.RANGE, "bytes=4-9");
+        ResponseEntity<Object> resp = controller.stream("id", req, null, null, null, null, null, null, null);
+
+        assertEquals(206, resp.getStatusCodeValue());
+        assertEquals("bytes 4-9/26", resp.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals(6, resp.getHeaders().getContentLength());
+        Resource body = assertInstanceOf(Resource.class, resp.getBody());
+        try (InputStream in = body.getInputStream()) {
+            assertArrayEquals("efghij".getBytes(), in.readAllBytes());
+        }
+
+        req.set(HttpHeaders.RANGE, "bytes=30-");
+        assertEquals(416, controller.stream("id", req, null, null, null, null, null, null, null).getStatusCodeValue());
+    }
+
+    @Test
+    void testStreamExterno_modoProxy_variosRangos_sirveSoloElPrimeroAcotado() throws Exception {
+        String url = "https://cdn.example.com/video.mp4";
+        when(contenidoService.resolveStreamingTarget(any(), any(), any()))
+                .thenReturn(StreamingTarget.external(url, "video/mp4"));
+        doReturn(true).when(externalMediaProxy).isEnabled();
+        doReturn(4L).when(externalMediaProxy).maxResponseBytes();
+        doReturn(new ExternalMediaProxy.Origen(26, "video/mp4")).when(externalMediaProxy).describir(url);
+        doReturn(new ByteArrayInputStream(data, 2, 4)).when(externalMediaProxy).abrir(url, 2, 4);
+
+        HttpHeaders req = new HttpHeaders();
+        req.set(HttpHeaders.RANGE, "bytes=2-9, 20-25");
+        ResponseEntity<Object> resp = controller.stream("id", req, null, null, null, null, null, null, null);
+
+        assertEquals(206, resp.getStatusCodeValue());
+        assertEquals("bytes 2-5/26", resp.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals(4, resp.getHeaders().getContentLength());
+        Resource body = assertInstanceOf(Resource.class, resp.getBody());
+        try (InputStream in = body.getInputStream()) {
+            assertArrayEquals("cdef".getBytes(), in.readAllBytes());
+        }
+        verify(externalMediaProxy, never()).abrir(url, 0, 26);
+    }
+
+    @Test
+    void testStreamExterno_modoProxy_origenCaido_redirige() throws Exception {
+        String url = "https://cdn.example.com/video.mp4";
+        when(contenidoService.resolveStreamingTarget(any(), any(), any()))
+                .thenReturn(StreamingTarget.external(url, "video/mp4"));
+        doReturn(true).when(externalMediaProxy).isEnabled();
+        doThrow(new IOException("caído")).when(externalMediaProxy).describir(url);
+
+        ResponseEntity<Object> resp = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null, null);
+        assertEquals(302, resp.getStatusCodeValue());
+        assertEquals(url, resp.getHeaders().getLocation().toString());
+    }
+
+    @Test
+    void testStream_muchosRangosDeUnaReproduccion_cuentanUnaVez() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        for (int start = 0; start < 26; start += 2) {
+            HttpHeaders req = new HttpHeaders();
+            req.set(HttpHeaders.RANGE, "bytes=" + start + "-" + (start + 1));
+            controller.stream("id", req, "USUARIO", "u@x.com", null, null, null, null, null);
+        }
+
+        verify(contenidoService, times(1)).registrarReproduccionSiUsuario("id", "USUARIO");
+        verify(contenidoService, times(1)).registrarReproductor("id", "u@x.com");
+    }
+
+    @Test
+    void testStream_metaEmiteSesion_yLosRangosDeEsaSesionNoVuelvenAContar() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        ResponseEntity<Object> meta = controller.stream("id", new HttpHeaders(), "USUARIO", null, null, null, null, true, null);
+        String sesion = (String) ((Map<?, ?>) meta.getBody()).get("sesion");
+        assertNotNull(sesion);
+
+        HttpHeaders req = new HttpHeaders();
+        req.set(HttpHeaders.RANGE, "bytes=0-9");
+        controller.stream("id", req, "USUARIO", null, null, null, null, null, sesion);
+        controller.stream("id", req, "USUARIO", null, null, null, null, null, sesion);
+        verify(contenidoService, times(1)).registrarReproduccionSiUsuario("id", "USUARIO");
+
+        // Sin sesión ni email solo cuenta la petición que empieza en el byte 0
+        HttpHeaders resto = new HttpHeaders();
+        resto.set(HttpHeaders.RANGE, "bytes=10-19");
+        controller.stream("id", resto, "USUARIO", null, null, null, null, null, null);
+        verify(contenidoService, times(1)).registrarReproduccionSiUsuario("id", "USUARIO");
+        controller.stream("id", req, "USUARIO", null, null, null, null, null, null);
+        verify(contenidoService, times(2)).registrarReproduccionSiUsuario("id", "USUARIO");
+    }
+
+    @Test
+    void testStreamRange_devuelveRegionDeFichero() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        HttpHeaders req = new HttpHeaders();
+        req.set(HttpHeaders.RANGE, "bytes=2-5");
+
+        ResponseEntity<Object> resp = controller.stream("id", req, null, null, null, null, null, null, null);
+
+        assertEquals(206, resp.getStatusCodeValue());
+        assertEquals("bytes 2-5/26", resp.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        ResourceRegion region = assertInstanceOf(ResourceRegion.class, resp.getBody());
+        assertEquals(2, region.getPosition());
+        assertEquals(4, region.getCount());
+
+        MockHttpOutputMessage out = new MockHttpOutputMessage();
+        new ZeroCopyResourceRegionHttpMessageConverter().write(region, MediaType.APPLICATION_OCTET_STREAM, out);
+        assertEquals("cdef", out.getBodyAsString());
+        assertEquals("bytes 2-5/26", out.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void testStreamCompleto_devuelveFicheroSinCopiarEnHeap() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        ResponseEntity<Object> resp = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null, null);
+
+        assertEquals(200, resp.getStatusCodeValue());
+        Resource body = assertInstanceOf(Resource.class, resp.getBody());
+        MockHttpOutputMessage out = new MockHttpOutputMessage();
+        new ZeroCopyResourceHttpMessageConverter().write(body, MediaType.APPLICATION_OCTET_STREAM, out);
+        assertArrayEquals(data, out.getBodyAsBytes());
+    }
+
+    @Test
+    void testStreamCompleto_poolMultimedia_escribeFueraDelHiloDePeticion() throws Exception {
+        arrancarPoolMultimedia(4);
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        ResponseEntity<Object> resp = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null, null);
+
+        assertEquals(200, resp.getStatusCodeValue());
+        assertEquals(26, resp.getHeaders().getContentLength());
+        StreamingResponseBody body = assertInstanceOf(StreamingResponseBody.class, resp.getBody());
+        assertEquals(1, mediaStreamExecutor.stats().get("active"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        assertArrayEquals(data, out.toByteArray());
+        assertEquals(0, mediaStreamExecutor.stats().get("active"));
+    }
+
+    @Test
+    void testStream_poolMultimediaLleno_devuelve503ConRetryAfter() throws Exception {
+        arrancarPoolMultimedia(1);
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        ResponseEntity<Object> primera = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null, null);
+        ResponseEntity<Object> segunda = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null, null);
+
+        assertInstanceOf(StreamingResponseBody.class, primera.getBody());
+        assertEquals(503, segunda.getStatusCodeValue());
+        assertEquals("2", segunda.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals(1L, mediaStreamExecutor.stats().get("rejected"));
+    }
+
+    @Test
+    void testStreamRange_poolMultimedia_procesamientoAsincrono() throws Exception {
+        arrancarPoolMultimedia(4);
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(controller)
+                .setCustomReturnValueHandlers(new MediaStreamReturnValueHandler(mediaStreamExecutor))
+                .build();
+
+        MvcResult res = mvc.perform(get("/Contenidos/ReproducirContenido/id").header(HttpHeaders.RANGE, "bytes=2-5"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mvc.perform(asyncDispatch(res))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string("cdef"));
+        assertEquals("bytes 2-5/26", res.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void testStream_repartoDeAnchoDeBanda_limitaDescargasPorUsuario() throws Exception {
+        arrancarPoolMultimedia(8);
+        ReflectionTestUtils.setField(bandwidthShaper, "enabled", true);
+        ReflectionTestUtils.setField(bandwidthShaper, "minBytes", 1L);
+        ReflectionTestUtils.setField(bandwidthShaper, "maxStreamsPerUser", 1);
+        ReflectionTestUtils.invokeMethod(bandwidthShaper, "init");
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        HttpHeaders req = new HttpHeaders();
+        req.set(HttpHeaders.RANGE, "bytes=0-9");
+        ResponseEntity<Object> primera = controller.stream("id", req, null, "u@x.com", null, null, null, null, null);
+        assertEquals(206, primera.getStatusCodeValue());
+        StreamingResponseBody body = assertInstanceOf(StreamingResponseBody.class, primera.getBody());
+
+        ResponseEntity<Object> segunda = controller.stream("id", req, null, "u@x.com", null, null, null, null, null);
+        assertEquals(429, segunda.getStatusCodeValue());
+        assertEquals("2", segunda.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        assertArrayEquals("abcdefghij".getBytes(), out.toByteArray());
+        assertEquals(10L, bandwidthShaper.stats().get("bytesServed"));
+        assertEquals(206, controller.stream("id", req, null, "u@x.com", null, null, null, null, null).getStatusCodeValue());
+    }
+
+    @Test
+    void testStream_rangosSecuenciales_seSirvenDesdeLaLecturaAnticipada() throws Exception {
+        ReflectionTestUtils.invokeMethod(readAhead, "init");
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        HttpHeaders req = new HttpHeaders();
+        req.set(HttpHeaders.RANGE, "bytes=0-9");
+        controller.stream("id", req, null, null, null, null, null, null, "ses-1");
+        long limite = System.currentTimeMillis() + 5000;
+        while ((Long) readAhead.stats().get("prefetches") < 1 && System.currentTimeMillis() < limite) {
+            Thread.sleep(5);
+        }
+
+        req.set(HttpHeaders.RANGE, "bytes=10-19");
+        ResponseEntity<Object> resp = controller.stream("id", req, null, null, null, null, null, null, "ses-1");
+
+        assertEquals(206, resp.getStatusCodeValue());
+        assertEquals("bytes 10-19/26", resp.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        ByteBufferResource body = assertInstanceOf(ByteBufferResource.class, resp.getBody());
+        MockHttpOutputMessage out = new MockHttpOutputMessage();
+        new ZeroCopyResourceHttpMessageConverter().write(body, MediaType.APPLICATION_OCTET_STREAM, out);
+        assertArrayEquals("klmnopqrst".getBytes(), out.getBodyAsBytes());
+        assertEquals(1L, readAhead.stats().get("hits"));
+        assertEquals(0, readAhead.stats().get("buffersLeased"));
+    }
+
+    @Test
+    @DisplayName("Respuestas abiertas secuenciales mayores que el buffer de lectura anticipada conservan el chunk entero")
+    void testStream_abiertasSecuenciales_noSeAcortanAlBuffer() throws Exception {
+        ReflectionTestUtils.setField(readAhead, "bufferBytes", 4);
+        ReflectionTestUtils.invokeMethod(readAhead, "init");
+        ReflectionTestUtils.setField(chunkSizePolicy, "videoMin", 1L);
+        ReflectionTestUtils.setField(chunkSizePolicy, "videoMax", 10L);
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        HttpHeaders req = new HttpHeaders();
+        req.set(HttpHeaders.RANGE, "bytes=0-");
+        assertEquals("bytes 0-9/26", controller.stream("id", req, null, null, null, null, null, null, "ses-3")
+                .getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        Thread.sleep(50);
+
+        req.set(HttpHeaders.RANGE, "bytes=10-");
+        ResponseEntity<Object> segunda = controller.stream("id", req, null, null, null, null, null, null, "ses-3");
+
+        assertEquals(206, segunda.getStatusCodeValue());
+        assertEquals("bytes 10-19/26", segunda.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals(10, segunda.getHeaders().getContentLength());
+        // Desde el fichero (sendfile), no copiada de un buffer
+        assertInstanceOf(ResourceRegion.class, segunda.getBody());
+        assertEquals(0L, readAhead.stats().get("prefetches"));
+    }
+
+    @Test
+    @DisplayName("Un 429 del reparto de ancho de banda devuelve al momento el buffer de la lectura anticipada")
+    void testStream_rechazoPorCupo_liberaLaLecturaAnticipada() throws Exception {
+        arrancarPoolMultimedia(8);
+        ReflectionTestUtils.setField(bandwidthShaper, "enabled", true);
+        ReflectionTestUtils.setField(bandwidthShaper, "minBytes", 1L);
+        ReflectionTestUtils.setField(bandwidthShaper, "maxStreamsPerUser", 1);
+        ReflectionTestUtils.invokeMethod(bandwidthShaper, "init");
+        ReflectionTestUtils.invokeMethod(readAhead, "init");
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        HttpHeaders req = new HttpHeaders();
+        req.set(HttpHeaders.RANGE, "bytes=0-9");
+        ResponseEntity<Object> abierta = controller.stream("id", req, null, "u@x.com", null, null, null, null, "ses-2");
+        long limite = System.currentTimeMillis() + 5000;
+        while ((Long) readAhead.stats().get("prefetches") < 1 && System.currentTimeMillis() < limite) {
+            Thread.sleep(5);
+        }
+
+        req.set(HttpHeaders.RANGE, "bytes=10-19");
+        ResponseEntity<Object> rechazada = controller.stream("id", req, null, "u@x.com", null, null, null, null, "ses-2");
+        assertEquals(429, rechazada.getStatusCodeValue());
+        assertEquals(1L, readAhead.stats().get("hits"));
+        assertEquals(0, readAhead.stats().get("buffersLeased"));
+
+        ((StreamingResponseBody) abierta.getBody()).writeTo(new ByteArrayOutputStream());
+        ResponseEntity<Object> reintento = controller.stream("id", req, null, "u@x.com", null, null, null, null, "ses-2");
+        assertEquals(206, reintento.getStatusCodeValue());
+        assertEquals("bytes 10-19/26", reintento.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    }
+
+    private void arrancarPoolMultimedia(int maxConcurrent) {
+        ReflectionTestUtils.setField(mediaStreamExecutor, "maxConcurrent", maxConcurrent);
+        ReflectionTestUtils.setField(mediaStreamExecutor, "minBytes", 1L);
+        ReflectionTestUtils.invokeMethod(mediaStreamExecutor, "init");
+    }
+
+    @Test
+    void testStreamMultiRange_respondeMultipartByteranges() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        MockMvc mvc = conversoresReales();
+
+        MvcResult res = mvc.perform(get("/Contenidos/ReproducirContenido/id").header(HttpHeaders.RANGE, "bytes=0-1,24-25"))
+                .andExpect(status().isPartialContent())
+                .andReturn();
+
+        String contentType = res.getResponse().getContentType();
+        assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+        String body = res.getResponse().getContentAsString();
+        assertTrue(body.contains("Content-Range: bytes 0-1/26\r\n\r\nab"));
+        assertTrue(body.contains("Content-Range: bytes 24-25/26\r\n\r\nyz"));
+    }
+
+    @Test
+    @DisplayName("Un rango y un rango abierto pasan por los conversores reales como región de fichero")
+    void testStreamRangoUnico_porLosConversoresReales() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        MockMvc mvc = conversoresReales();
+
+        MvcResult cerrado = mvc.perform(get("/Contenidos/ReproducirContenido/id").header(HttpHeaders.RANGE, "bytes=2-5"))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string("cdef"))
+                .andReturn();
+        assertEquals("bytes 2-5/26", cerrado.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+
+        MvcResult abierto = mvc.perform(get("/Contenidos/ReproducirContenido/id").header(HttpHeaders.RANGE, "bytes=20-"))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string("uvwxyz"))
+                .andReturn();
+        assertEquals("bytes 20-25/26", abierto.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+    }
+
+    private MockMvc conversoresReales() {
+        return MockMvcBuilders.standaloneSetup(controller)
+                .setMessageConverters(new ZeroCopyResourceRegionHttpMessageConverter(),
+                        new ZeroCopyResourceHttpMessageConverter())
+                .build();
+    }
+
+    @Test
+    void testStreamMultiRange_fusionaSolapadosYLimitaNumero() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        HttpHeaders solapados = new HttpHeaders();
+        solapados.set(HttpHeaders.RANGE, "bytes=0-4,3-9");
+        ResponseEntity<Object> fusion = controller.stream("id", solapados, null, null, null, null, null, null, null);
+        assertEquals(206, fusion.getStatusCodeValue());
+        assertEquals("bytes 0-9/26", fusion.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+
+        HttpHeaders demasiados = new HttpHeaders();
+        demasiados.set(HttpHeaders.RANGE, "bytes=0-0,2-2,4-4,6-6,8-8,10-10,12-12,14-14,16-16");
+        ResponseEntity<Object> rechazo = controller.stream("id", demasiados, null, null, null, null, null, null, null);
+        assertEquals(416, rechazo.getStatusCodeValue());
+    }
+
+    @Test
+    void testStream_ifNoneMatchCoincide_devuelve304() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        ResponseEntity<Object> primera = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null, null);
+        String etag = primera.getHeaders().getETag();
+        assertNotNull(etag);
+        assertTrue(primera.getHeaders().getLastModified() > 0);
+
+        HttpHeaders req = new HttpHeaders();
+        req.setIfNoneMatch(etag);
+        ResponseEntity<Object> resp = controller.stream("id", req, null, null, null, null, null, null, null);
+        assertEquals(304, resp.getStatusCodeValue());
+        assertNull(resp.getBody());
+        assertEquals(etag, resp.getHeaders().getETag());
+
+        HttpHeaders head = new HttpHeaders();
+        head.setIfModifiedSince(primera.getHeaders().getLastModified());
+        assertEquals(304, controller.head("id", head, null, null, null).getStatusCodeValue());
+    }
+
+    @Test
+    void testStream_ifRangeObsoleto_devuelveFicheroCompleto() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        HttpHeaders obsoleto = new HttpHeaders();
+        obsoleto.set(HttpHeaders.RANGE, "bytes=2-5");
+        obsoleto.set(HttpHeaders.IF_RANGE, "\"otro-etag\"");
+        assertEquals(200, controller.stream("id", obsoleto, null, null, null, null, null, null, null).getStatusCodeValue());
+
+        String etag = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null, null).getHeaders().getETag();
+        HttpHeaders vigente = new HttpHeaders();
+        vigente.set(HttpHeaders.RANGE, "bytes=2-5");
+        vigente.set(HttpHeaders.IF_RANGE, etag);
+        assertEquals(206, controller.stream("id", vigente, null, null, null, null, null, null, null).getStatusCodeValue());
+    }
+
+    @Test
+    @DisplayName("If-Range obsoleto por los conversores reales: 200 con el fichero entero y sin Content-Range")
+    void testStream_ifRangeObsoleto_noSeVuelveARecortar() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        MockMvc mvc = conversoresReales();
+
+        MvcResult res = mvc.perform(get("/Contenidos/ReproducirContenido/id")
+                        .header(HttpHeaders.RANGE, "bytes=2-5")
+                        .header(HttpHeaders.IF_RANGE, "\"otro-etag\""))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(data))
+                .andReturn();
+        assertNull(res.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(String.valueOf(data.length), res.getResponse().getHeader(HttpHeaders.CONTENT_LENGTH));
+    }
+
+    @Test
+    void testStreamRange_servidoDesdeCacheDeSegmentos() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        when(hotSegmentCache.slice(any(), eq(0L), eq(3L))).thenReturn(ByteBuffer.wrap(data, 0, 3).slice());
+        HttpHeaders req = new HttpHeaders();
+        req.set(HttpHeaders.RANGE, "bytes=0-2");
+
+        ResponseEntity<Object> resp = controller.stream("id", req, null, null, null, null, null, null, null);
+
+        assertEquals(206, resp.getStatusCodeValue());
+        assertEquals("bytes 0-2/26", resp.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        ByteBufferResource body = assertInstanceOf(ByteBufferResource.class, resp.getBody());
+        MockHttpOutputMessage out = new MockHttpOutputMessage();
+        new ZeroCopyResourceHttpMessageConverter().write(body, MediaType.APPLICATION_OCTET_STREAM, out);
+        assertEquals("abc", out.getBodyAsString());
+    }
+
+    @Test
+    void testEstadisticasCacheSegmentos_soloAdminOGestor() {
+        when(hotSegmentCache.stats()).thenReturn(Map.of("hits", 3L));
+        assertEquals(403, controller.estadisticasCacheSegmentos("USUARIO").getStatusCodeValue());
+        assertEquals(Map.of("hits", 3L), controller.estadisticasCacheSegmentos("ADMINISTRADOR").getBody());
+    }
+
+    @Test
+    @DisplayName("GET /Estadisticas/Ranking -> solo administradores y gestores; tipo y etiqueta a la vez -> 400")
+    void rankingValoraciones() {
+        List<EntradaRanking> top = List.of(new EntradaRanking("c1", "Uno", Contenido.Tipo.AUDIO, List.of("rock"), 3.6, 4.5, 8));
+        when(contenidoService.rankingValoraciones(null, "rock", 5)).thenReturn(top);
+        when(contenidoService.rankingValoraciones(Contenido.Tipo.AUDIO, "rock", null))
+                .thenThrow(new ContenidoValidationException("El ranking es por tipo o por etiqueta, no por ambos."));
+
+        assertEquals(HttpStatus.FORBIDDEN, controller.rankingValoraciones("USUARIO", null, "rock", 5).getStatusCode());
+        assertEquals(top, controller.rankingValoraciones("GESTOR_CONTENIDO", null, "rock", 5).getBody());
+        assertEquals(HttpStatus.BAD_REQUEST,
+                controller.rankingValoraciones("ADMINISTRADOR", Contenido.Tipo.AUDIO, "rock", null).getStatusCode());
+    }
+
+    @Test
+    @DisplayName("GET /Estadisticas/Indices -> solo administradores y gestores")
+    void estadisticasIndices() {
+        Map<String, Object> informe = Map.of("creados", true);
+        when(indicesMongo.informe()).thenReturn(informe);
+
+        assertEquals(HttpStatus.FORBIDDEN, controller.estadisticasIndices("USUARIO").getStatusCode());
+        assertEquals(informe, controller.estadisticasIndices("ADMINISTRADOR").getBody());
+    }
+
+    @Test
+    void testHls_sirveSegmentoInmutable_yRechazaRutasFueraDelPaquete() throws Exception {
+        Path paquete = Files.createTempDirectory("hls-test-").resolve("1a-2b");
+        Files.createDirectories(paquete);
+        Files.writeString(paquete.resolve(HlsPackager.MANIFEST), "#EXTM3U\n");
+        Files.write(paquete.resolve("seg_00000.ts"), data);
+        StreamingTarget target = StreamingTarget.local(tempFile, data.length, "video/mp4")
+                .withHls(paquete.resolve(HlsPackager.MANIFEST));
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        ResponseEntity<Object> seg = controller.hls("id", "1a-2b", "seg_00000.ts", null, null, null, null, null, null);
+        assertEquals(200, seg.getStatusCodeValue());
+        assertEquals("video/mp2t", seg.getHeaders().getContentType().toString());
+        assertTrue(seg.getHeaders().getCacheControl().contains("immutable"));
+        assertArrayEquals(data, readAll(((Resource) seg.getBody()).getInputStream()));
+
+        ResponseEntity<Object> manifest = controller.hls("id", "1a-2b", HlsPackager.MANIFEST, "USUARIO", "u@x.com", null, null, null, null);
+        assertEquals("application/vnd.apple.mpegurl", manifest.getHeaders().getContentType().toString());
+        verify(contenidoService).registrarReproduccionSiUsuario("id", "USUARIO");
+
+        assertEquals(404, controller.hls("id", "1a-2b", "../1a-2b/../../x", null, null, null, null, null, null).getStatusCodeValue());
+        assertEquals(404, controller.hls("id", "version-vieja", "seg_00000.ts", null, null, null, null, null, null).getStatusCodeValue());
+
+        ResponseEntity<Object> meta = controller.stream("id", new HttpHeaders(), null, null, null, null, null, true, null);
+        assertEquals("/Contenidos/ReproducirContenido/id/hls/1a-2b/index.m3u8", ((Map<?, ?>) meta.getBody()).get("hls"));
+    }
+
+    @Test
+    void testSeek_respondeKeyframeDelIndice() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        Mp4Index idx = new Mp4Index("v", 26, 18, 8, 0, false, 4.0, 52, tempFile.toString(),
+                List.of(new Mp4Index.Keyframe(0, 40), new Mp4Index.Keyframe(2.0, 900)));
+        when(contenidoService.indiceMp4("id", target)).thenReturn(idx);
+
+        ResponseEntity<Object> resp = controller.seek("id", 3.5, null, null, null);
+
+        assertEquals(200, resp.getStatusCodeValue());
+        assertEquals(900L, ((Map<?, ?>) resp.getBody()).get("offset"));
+        assertEquals(2.0, ((Map<?, ?>) resp.getBody()).get("time"));
+
+        when(contenidoService.indiceMp4("id", target)).thenReturn(null);
+        assertEquals(404, controller.seek("id", 3.5, null, null, null).getStatusCodeValue());
+    }
+
     @Test
     void testHeadLocal() throws Exception {
         StreamingTarget target = mock(StreamingTarget.class);
@@ -176,7 +863,7 @@ class ContenidoControllerTest {
         when(target.mimeType()).thenReturn("video/mp4");
         when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
 
-        ResponseEntity<Void> resp = controller.head("id", null, null, null);
+        ResponseEntity<Void> resp = controller.head("id", new HttpHeaders(), null, null, null);
         assertEquals(200, resp.getStatusCodeValue());
         assertEquals("bytes", resp.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES));
     }
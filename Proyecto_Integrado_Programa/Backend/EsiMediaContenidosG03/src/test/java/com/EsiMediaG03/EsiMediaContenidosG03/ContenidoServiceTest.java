@@ -1,9 +1,14 @@
 package com.EsiMediaG03.EsiMediaContenidosG03;
 
 import com.EsiMediaG03.dao.ContenidoDAO;
+import com.EsiMediaG03.dto.EntradaRanking;
 import com.EsiMediaG03.exceptions.ContenidoAddException;
 import com.EsiMediaG03.model.Contenido;
 import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.HlsPackager;
+import com.EsiMediaG03.services.MediaFileMetadataCache;
+import com.EsiMediaG03.services.Mp4IndexService;
+import com.EsiMediaG03.services.RankingValoraciones;
 import org.bson.Document;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -31,6 +36,19 @@ class ContenidoServiceTest {
     @Mock
     MongoTemplate mongoTemplate;
 
+    @Mock
+    HlsPackager hlsPackager;
+
+    // Sin init() no indexa nada y sin índice en disco deja el target tal cual
+    @Spy
+    Mp4IndexService mp4IndexService = new Mp4IndexService(null);
+
+    @Spy
+    MediaFileMetadataCache mediaFileMetadataCache = new MediaFileMetadataCache();
+
+    @Mock
+    RankingValoraciones ranking;
+
     @InjectMocks
     ContenidoService service;
 
@@ -132,15 +150,9 @@ class ContenidoServiceTest {
 
 
     @Test
-    void top5PorValoraciones_filtra_ratingCount() {
-        Contenido c1 = new Contenido();
-        c1.setId("v1");
-        c1.setTitulo("V1");
-        c1.setTipo(Contenido.Tipo.VIDEO);
-        c1.setRatingCount(2);
-        c1.setRatingAvg(4.0);
-
-        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of(c1));
+    void top5PorValoraciones_desdeRanking() {
+        when(ranking.top(null, null, 5)).thenReturn(List.of(
+                new EntradaRanking("v1", "V1", Contenido.Tipo.VIDEO, List.of(), 3.4, 4.0, 2)));
 
         Map<String, Object> res = service.estadisticasGlobales();
         List<Map<String, Object>> top = (List<Map<String, Object>>) res.get("topValoraciones");
@@ -148,6 +160,9 @@ class ContenidoServiceTest {
         assertEquals(1, top.size());
         assertEquals("v1", top.get(0).get("id"));
         assertEquals(4.0, top.get(0).get("avg"));
+        assertEquals(3.4, top.get(0).get("bayesianScore"));
+        // El ranking ya viene ordenado: estadisticasGlobales no ordena valoraciones en Mongo
+        verify(mongoTemplate, never()).find(argThat(q -> q.getSortObject().containsKey("ratingAvg")), eq(Contenido.class));
     }
 
 @Test
@@ -4,7 +4,13 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+
+import org.bson.Document;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Nested;
@@ -12,20 +18,36 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import com.EsiMediaG03.dao.ContenidoDAO;
+import com.EsiMediaG03.dto.ModificarContenidoRequest;
 import com.EsiMediaG03.dto.StreamingTarget;
 import com.EsiMediaG03.exceptions.ContenidoException;
 import com.EsiMediaG03.model.Contenido;
 import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.HlsPackager;
+import com.EsiMediaG03.services.InteraccionesService;
+import com.EsiMediaG03.services.MediaFileMetadataCache;
+import com.EsiMediaG03.services.MigracionInteracciones;
+import com.EsiMediaG03.services.RankingValoraciones;
+import com.EsiMediaG03.services.Mp4IndexService;
+import com.EsiMediaG03.services.PlayCounterBuffer;
+import com.EsiMediaG03.services.StreamingTargetCache;
 
 /**
  * Pruebas integrales (controller con MockMvc) y unitarias (service con Mockito)
@@ -43,13 +65,39 @@ import com.EsiMediaG03.services.ContenidoService;
         @Mock
         MongoTemplate mongoTemplate;
 
+        @Spy
+        StreamingTargetCache streamingTargetCache = new StreamingTargetCache();
+
+        @Mock
+        PlayCounterBuffer playCounterBuffer;
+
+        @Mock
+        HlsPackager hlsPackager;
+
+        // Sin init() no indexa nada y sin índice en disco deja el target tal cual
+        @Spy
+        Mp4IndexService mp4IndexService = new Mp4IndexService(null);
+
+        @Spy
+        MediaFileMetadataCache mediaFileMetadataCache = new MediaFileMetadataCache();
+
+        @Mock
+        InteraccionesService interacciones;
+
+        @Mock
+        MigracionInteracciones migracionInteracciones;
+
+        @Mock
+        RankingValoraciones ranking;
+
         @InjectMocks
         ContenidoService service;
 
         @Test
         void registrarReproduccion_siUsuario_incrementa_unaVez() {
             service.registrarReproduccionSiUsuario("IDX", "USUARIO");
-            verify(mongoTemplate, times(1))
+            verify(playCounterBuffer, times(1)).registrarReproduccion("IDX");
+            verify(mongoTemplate, never())
                     .updateFirst(any(), any(), eq(Contenido.class));
         }
 
@@ -57,8 +105,7 @@ import com.EsiMediaG03.services.ContenidoService;
         void registrarReproduccion_noIncrementa_paraNoUsuario() {
             service.registrarReproduccionSiUsuario("IDX", "ADMIN");
             service.registrarReproduccionSiUsuario("IDX", null);
-            verify(mongoTemplate, never())
-                    .updateFirst(any(), any(), eq(Contenido.class));
+            verify(playCounterBuffer, never()).registrarReproduccion(any());
         }
 
         @Test
@@ -115,6 +162,138 @@ import com.EsiMediaG03.services.ContenidoService;
             Assertions.assertTrue(t.mimeType().startsWith("video/"));
         }
 
+        @Test
+        void resolveStreamingTarget_cacheado_noConsultaMongo_peroValidaAccesoPorUsuario() throws Exception {
+            Contenido c = new ContenidoBuilder()
+                    .visible(true).vip(true).restringidoEdad(0)
+                    .tipo(Contenido.Tipo.VIDEO).urlVideo("https://youtu.be/xyz").build();
+            when(contenidoDAO.findById("IDC")).thenReturn(Optional.of(c));
+
+            service.resolveStreamingTarget("IDC", true, 30);
+            service.resolveStreamingTarget("IDC", true, 30);
+            Assertions.assertThrows(ContenidoException.class, () ->
+                    service.resolveStreamingTarget("IDC", false, 30));
+
+            verify(contenidoDAO, times(1)).findById("IDC");
+        }
+
+        @Test
+        void eliminarContenido_invalidaCache() throws Exception {
+            Contenido c = new ContenidoBuilder()
+                    .visible(true).vip(false).restringidoEdad(0)
+                    .tipo(Contenido.Tipo.VIDEO).urlVideo("https://youtu.be/xyz").build();
+            when(contenidoDAO.findById("IDE")).thenReturn(Optional.of(c));
+
+            service.resolveStreamingTarget("IDE", false, 30);
+            service.eliminarContenido("IDE", Contenido.Tipo.VIDEO);
+
+            Assertions.assertNull(streamingTargetCache.get("IDE"));
+            verify(interacciones).eliminarDeContenido("IDE");
+            verify(ranking).quitar("IDE");
+        }
+
+        @Test
+        void modificarContenido_migraInteraccionesAntesDeLeerYGuardar() throws Exception {
+            Contenido c = new ContenidoBuilder()
+                    .visible(true).vip(false).restringidoEdad(0)
+                    .tipo(Contenido.Tipo.VIDEO).urlVideo("https://youtu.be/xyz").build();
+            c.setTitulo("Título");
+            c.setTags(List.of("tag"));
+            c.setDuracionMinutos(3);
+            when(contenidoDAO.findById("IDM")).thenReturn(Optional.of(c));
+            when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                    eq(Contenido.class))).thenReturn(c);
+
+            service.modificarContenido("IDM", new ModificarContenidoRequest(), Contenido.Tipo.VIDEO);
+
+            InOrder orden = inOrder(migracionInteracciones, contenidoDAO, mongoTemplate, ranking);
+            orden.verify(migracionInteracciones).migrarContenido("IDM");
+            orden.verify(contenidoDAO).findById("IDM");
+            orden.verify(mongoTemplate).findAndModify(any(Query.class), any(Update.class),
+                    any(FindAndModifyOptions.class), eq(Contenido.class));
+            orden.verify(ranking).actualizar(any());
+        }
+
+        @Test
+        void modificarContenido_noReescribeLosContadores() throws Exception {
+            Contenido c = new ContenidoBuilder()
+                    .visible(true).vip(false).restringidoEdad(0)
+                    .tipo(Contenido.Tipo.VIDEO).urlVideo("https://youtu.be/xyz").build();
+            c.setTitulo("Título");
+            c.setTags(List.of("tag"));
+            c.setDuracionMinutos(3);
+            c.setRatingSum(9.0);
+            c.setRatingCount(2);
+            c.setNumReproducciones(40);
+            when(contenidoDAO.findById("IDM")).thenReturn(Optional.of(c));
+            ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+            when(mongoTemplate.findAndModify(any(Query.class), update.capture(), any(FindAndModifyOptions.class),
+                    eq(Contenido.class))).thenReturn(c);
+            ModificarContenidoRequest cambios = new ModificarContenidoRequest();
+            cambios.titulo = "Nuevo";
+
+            service.modificarContenido("IDM", cambios, Contenido.Tipo.VIDEO);
+
+            verify(contenidoDAO, never()).save(any());
+            Document set = update.getValue().getUpdateObject().get("$set", Document.class);
+            Assertions.assertEquals("Nuevo", set.get("titulo"));
+            Assertions.assertEquals(Set.of("$set"), update.getValue().getUpdateObject().keySet());
+            for (String contador : List.of("ratingSum", "ratingCount", "ratingAvg", "reproducciones")) {
+                Assertions.assertFalse(set.containsKey(contador), contador);
+            }
+        }
+
+        @Test
+        void modificarContenido_cambiarVisibilidadMueveFechaEstado() throws Exception {
+            Contenido c = new ContenidoBuilder()
+                    .visible(true).vip(false).restringidoEdad(0)
+                    .tipo(Contenido.Tipo.VIDEO).urlVideo("https://youtu.be/xyz").build();
+            c.setTitulo("Título");
+            c.setTags(List.of("tag"));
+            c.setDuracionMinutos(3);
+            LocalDateTime antes = c.getFechaEstado();
+            when(contenidoDAO.findById("IDV")).thenReturn(Optional.of(c));
+            ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+            when(mongoTemplate.findAndModify(any(Query.class), update.capture(), any(FindAndModifyOptions.class),
+                    eq(Contenido.class))).thenReturn(c);
+            ModificarContenidoRequest cambios = new ModificarContenidoRequest();
+            cambios.visible = false;
+
+            Thread.sleep(2);
+            service.modificarContenido("IDV", cambios, Contenido.Tipo.VIDEO);
+
+            Document set = update.getValue().getUpdateObject().get("$set", Document.class);
+            Assertions.assertEquals(false, set.get("visible"));
+            LocalDateTime fechaEstado = (LocalDateTime) set.get("fechaEstado");
+            Assertions.assertNotNull(fechaEstado);
+            Assertions.assertTrue(fechaEstado.isAfter(antes));
+        }
+
+        @Test
+        void modificarContenido_noReescribeElHistogramaNiLaBayesiana() throws Exception {
+            Contenido c = new ContenidoBuilder()
+                    .visible(true).vip(false).restringidoEdad(0)
+                    .tipo(Contenido.Tipo.VIDEO).urlVideo("https://youtu.be/xyz").build();
+            c.setTitulo("Título");
+            c.setTags(List.of("tag"));
+            c.setDuracionMinutos(3);
+            c.setRatingHistograma(new HashMap<>(Map.of("8", 3L)));
+            c.setRatingBayes(3.9);
+            when(contenidoDAO.findById("IDH")).thenReturn(Optional.of(c));
+            ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+            when(mongoTemplate.findAndModify(any(Query.class), update.capture(), any(FindAndModifyOptions.class),
+                    eq(Contenido.class))).thenReturn(c);
+            ModificarContenidoRequest cambios = new ModificarContenidoRequest();
+            cambios.descripcion = "Otra";
+
+            service.modificarContenido("IDH", cambios, Contenido.Tipo.VIDEO);
+
+            Document set = update.getValue().getUpdateObject().get("$set", Document.class);
+            Assertions.assertEquals("Otra", set.get("descripcion"));
+            Assertions.assertTrue(set.keySet().stream().noneMatch(k -> k.startsWith("ratingHistograma")));
+            Assertions.assertFalse(set.containsKey("ratingBayes"));
+        }
+
         private void callResolveWith(Contenido contenido, boolean vip, Integer age, boolean shouldPass) throws Exception {
             when(contenidoDAO.findById("IDZ")).thenReturn(Optional.of(contenido));
             if (shouldPass) {
@@ -132,7 +311,7 @@ import com.EsiMediaG03.services.ContenidoService;
             ContenidoBuilder disponibleHasta(LocalDateTime dt) { setObj(c, "disponibleHasta", dt); return this; }
             ContenidoBuilder tipo(Contenido.Tipo t) { setObj(c, "tipo", t); return this; }
             ContenidoBuilder urlVideo(String u) { setObj(c, "urlVideo", u); return this; }
-            Contenido build() { setObj(c, "titulo", "t"); setObj(c, "tags", java.util.List.of("x")); setInt(c, "duracionMinutos", 1); return c; }
+            Contenido build() { setObj(c, "titulo", "t"); setObj(c, "tags", List.of("x")); setInt(c, "duracionMinutos", 1); return c; }
 
             private void setBoolean(Object obj, String field, boolean v) { try { var f=obj.getClass().getDeclaredField(field); f.setAccessible(true); f.setBoolean(obj, v); } catch (Exception ignored) {} }
             private void setInt(Object obj, String field, int v) { try { var f=obj.getClass().getDeclaredField(field); f.setAccessible(true); f.setInt(obj, v); } catch (Exception ignored) {} }
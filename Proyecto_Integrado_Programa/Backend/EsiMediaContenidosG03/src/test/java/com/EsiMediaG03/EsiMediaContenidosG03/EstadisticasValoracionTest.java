@@ -0,0 +1,42 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.EsiMediaG03.services.EstadisticasValoracion;
+
+class EstadisticasValoracionTest {
+
+    @Test
+    @DisplayName("Cada media estrella tiene su cubeta, de 05 a 50")
+    void cubetas() {
+        assertEquals("05", EstadisticasValoracion.cubeta(0.5));
+        assertEquals("35", EstadisticasValoracion.cubeta(3.5));
+        assertEquals("50", EstadisticasValoracion.cubeta(5.0));
+        assertEquals("ratingHistograma.40", EstadisticasValoracion.campoCubeta(4.0));
+    }
+
+    @Test
+    @DisplayName("El histograma se devuelve completo y en orden aunque no haya votos")
+    void histogramaVacio() {
+        Map<String, Long> h = EstadisticasValoracion.histograma(null);
+
+        assertEquals(List.of("0.5", "1.0", "1.5", "2.0", "2.5", "3.0", "3.5", "4.0", "4.5", "5.0"), List.copyOf(h.keySet()));
+        assertTrue(h.values().stream().allMatch(n -> n == 0L));
+    }
+
+    @Test
+    @DisplayName("Un único 5.0 queda por debajo de muchos 4.5")
+    void bayesianaPenalizaPocosVotos() {
+        EstadisticasValoracion e = new EstadisticasValoracion();
+
+        assertEquals(3.0, e.bayesiana(0, 0), 1e-9);
+        assertTrue(e.bayesiana(5.0, 1) < e.bayesiana(4.5 * 200, 200));
+    }
+}
@@ -0,0 +1,171 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.EsiMediaG03.services.ExternalMediaProxy;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+class ExternalMediaProxyTest {
+
+    private static final Pattern RANGO = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    @TempDir
+    Path dir;
+
+    private HttpServer origen;
+    private final AtomicInteger peticiones = new AtomicInteger();
+    private byte[] datos;
+    private ExternalMediaProxy proxy;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        datos = new byte[100];
+        for (int i = 0; i < datos.length; i++) datos[i] = (byte) i;
+
+        origen = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origen.createContext("/video.mp4", ex -> responder(ex, true));
+        origen.createContext("/sin-rangos.mp4", ex -> responder(ex, false));
+        origen.start();
+
+        proxy = new ExternalMediaProxy();
+        ReflectionTestUtils.setField(proxy, "enabled", true);
+        ReflectionTestUtils.setField(proxy, "cacheDir", dir.resolve("cache").toString());
+        ReflectionTestUtils.setField(proxy, "blockBytes", 16);
+        ReflectionTestUtils.invokeMethod(proxy, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        origen.stop(0);
+    }
+
+    @Test
+    @DisplayName("Los bloques ya descargados se sirven sin volver al origen")
+    void segundaLectura_noVaAlOrigen() throws Exception {
+        String url = url("/video.mp4");
+        assertEquals(100, proxy.describir(url).length());
+        assertEquals("video/mp4", proxy.describir(url).mimeType());
+
+        assertArrayEquals(Arrays.copyOfRange(datos, 10, 50), leer(url, 10, 40));
+        int trasPrimera = peticiones.get();
+        assertEquals(4, trasPrimera);
+
+        assertArrayEquals(Arrays.copyOfRange(datos, 12, 40), leer(url, 12, 28));
+        assertEquals(trasPrimera, peticiones.get());
+        assertEquals(64L, proxy.stats().get("originBytes"));
+        assertEquals(4L, proxy.stats().get("hits"));
+    }
+
+    @Test
+    @DisplayName("Al superar el presupuesto se expulsan los bloques menos usados")
+    void presupuesto_expulsaLru() throws Exception {
+        ReflectionTestUtils.setField(proxy, "budgetBytes", 32L);
+        String url = url("/video.mp4");
+
+        leer(url, 0, 48);
+        assertEquals(1L, proxy.stats().get("evictions"));
+        assertEquals(32L, proxy.stats().get("bytesCached"));
+        try (var ficheros = Files.list(dir.resolve("cache"))) {
+            assertEquals(2, ficheros.count());
+        }
+
+        int antes = peticiones.get();
+        leer(url, 0, 16);
+        assertEquals(antes + 1, peticiones.get());
+    }
+
+    @Test
+    @DisplayName("Un origen sin rangos solo sirve para el primer bloque")
+    void origenSinRangos() throws Exception {
+        String url = url("/sin-rangos.mp4");
+        assertEquals(100, proxy.describir(url).length());
+        assertArrayEquals(Arrays.copyOfRange(datos, 0, 16), leer(url, 0, 16));
+        assertThrows(IOException.class, () -> leer(url, 20, 4));
+    }
+
+    @Test
+    @DisplayName("Al arrancar borra solo los bloques de la ejecución anterior, no el resto del directorio")
+    void init_borraSoloBloques() throws Exception {
+        Path cache = dir.resolve("cache");
+        Path bloque = Files.write(cache.resolve("0123456789abcdef0123456789abcdef-3"), new byte[4]);
+        Path tmp = Files.write(cache.resolve("0123456789abcdef0123456789abcdef-0.tmp"), new byte[4]);
+        Path ajeno = Files.writeString(cache.resolve("notas.txt"), "no es del proxy");
+        Path subdir = Files.createDirectories(cache.resolve("otra"));
+
+        ReflectionTestUtils.invokeMethod(proxy, "init");
+
+        assertFalse(Files.exists(bloque));
+        assertFalse(Files.exists(tmp));
+        assertTrue(Files.exists(ajeno));
+        assertTrue(Files.isDirectory(subdir));
+    }
+
+    @Test
+    @DisplayName("Las descripciones de origen tienen tope y caducan")
+    void origenes_acotadosYConCaducidad() throws Exception {
+        ReflectionTestUtils.setField(proxy, "maxOrigenes", 2);
+        proxy.describir(url("/video.mp4"));
+        proxy.describir(url("/video.mp4?b"));
+        proxy.describir(url("/video.mp4?c"));
+        assertEquals(2, proxy.stats().get("origins"));
+
+        // Caducada, se vuelve a preguntar al origen aunque el primer bloque siga en disco
+        ReflectionTestUtils.setField(proxy, "origenesTtlMs", 200L);
+        Thread.sleep(300);
+        int antes = peticiones.get();
+        assertEquals(100, proxy.describir(url("/video.mp4?c")).length());
+        assertEquals(antes + 1, peticiones.get());
+    }
+
+    private byte[] leer(String url, long start, long count) throws IOException {
+        try (InputStream in = proxy.abrir(url, start, count)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + origen.getAddress().getPort() + path;
+    }
+
+    private void responder(HttpExchange ex, boolean admiteRangos) throws IOException {
+        peticiones.incrementAndGet();
+        ex.getResponseHeaders().set("Content-Type", "video/mp4");
+        String range = ex.getRequestHeaders().getFirst("Range");
+        Matcher m = range != null ? RANGO.matcher(range) : null;
+        try (OutputStream out = ex.getResponseBody()) {
+            if (admiteRangos && m != null && m.matches()) {
+                int desde = Integer.parseInt(m.group(1));
+                int hasta = Math.min(Integer.parseInt(m.group(2)), datos.length - 1);
+                ex.getResponseHeaders().set("Content-Range", "bytes " + desde + "-" + hasta + "/" + datos.length);
+                ex.sendResponseHeaders(206, hasta - desde + 1);
+                out.write(datos, desde, hasta - desde + 1);
+            } else {
+                ex.sendResponseHeaders(200, datos.length);
+                out.write(datos);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.services.HlsPackager;
+import com.EsiMediaG03.services.StreamingTargetCache;
+
+@ExtendWith(MockitoExtension.class)
+class HlsPackagerTest {
+
+    @Mock
+    StreamingTargetCache streamingTargetCache;
+
+    @TempDir
+    Path dir;
+
+    private HlsPackager packager;
+
+    @AfterEach
+    void tearDown() {
+        if (packager != null) ReflectionTestUtils.invokeMethod(packager, "shutdown");
+    }
+
+    private HlsPackager packager(String ffmpeg) {
+        packager = new HlsPackager(streamingTargetCache);
+        ReflectionTestUtils.setField(packager, "ffmpeg", ffmpeg);
+        ReflectionTestUtils.setField(packager, "root", dir.resolve("hls").toString());
+        ReflectionTestUtils.invokeMethod(packager, "init");
+        return packager;
+    }
+
+    private Contenido video(Path source) {
+        Contenido c = new Contenido();
+        c.setId("V1");
+        c.setTipo(Contenido.Tipo.VIDEO);
+        c.setUrlVideo(source.toString());
+        return c;
+    }
+
+    @Test
+    @DisplayName("Empaqueta en segundo plano y el manifiesto queda listo para la versión actual del fichero")
+    void programar_empaquetaConFfmpeg() throws Exception {
+        assumeTrue(!System.getProperty("os.name").toLowerCase().contains("win"));
+        // Sustituto de ffmpeg: escribe el manifiesto (último argumento) y un segmento a su lado
+        Path fake = dir.resolve("ffmpeg");
+        Files.writeString(fake, """
+                #!/bin/sh
+                [ "$1" = "-version" ] && exit 0
+                for a in "$@"; do last="$a"; done
+                printf '#EXTM3U\\n#EXTINF:6.0,\\nseg_00000.ts\\n#EXT-X-ENDLIST\\n' > "$last"
+                printf 'ts' > "$(dirname "$last")/seg_00000.ts"
+                """);
+        Files.setPosixFilePermissions(fake, PosixFilePermissions.fromString("rwx------"));
+        Path source = Files.write(dir.resolve("v.mp4"), new byte[] { 1, 2, 3 });
+
+        HlsPackager p = packager(fake.toString());
+        assertNull(p.manifestSiListo("V1", source));
+        p.programar(video(source));
+
+        verify(streamingTargetCache, timeout(5000)).invalidate("V1");
+        Path manifest = p.manifestSiListo("V1", source);
+        assertNotNull(manifest);
+        assertTrue(Files.readString(manifest).startsWith("#EXTM3U"));
+        assertTrue(Files.exists(manifest.resolveSibling("seg_00000.ts")));
+
+        // Un fichero distinto es otra versión: el paquete anterior ya no vale
+        Files.write(source, new byte[] { 1, 2, 3, 4 });
+        assertNull(p.manifestSiListo("V1", source));
+    }
+
+    @Test
+    @DisplayName("Sin ffmpeg no se empaqueta nada")
+    void sinFfmpeg_noHaceNada() throws Exception {
+        Path source = Files.write(dir.resolve("v.mp4"), new byte[] { 1 });
+        HlsPackager p = packager(dir.resolve("no-existe").toString());
+
+        p.programar(video(source));
+
+        assertNull(p.manifestSiListo("V1", source));
+        assertEquals(false, Files.exists(dir.resolve("hls")));
+    }
+}
@@ -0,0 +1,113 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.EsiMediaG03.dto.MediaFileMetadata;
+import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.HotSegmentCache;
+import com.EsiMediaG03.services.MediaFileMetadataCache;
+
+@ExtendWith(MockitoExtension.class)
+class HotSegmentCacheTest {
+
+    @Mock
+    ContenidoService contenidoService;
+
+    @TempDir
+    Path dir;
+
+    private HotSegmentCache cache;
+    private final MediaFileMetadataCache metadata = new MediaFileMetadataCache();
+
+    @BeforeEach
+    void setUp() {
+        cache = new HotSegmentCache(contenidoService);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "segmentBytes", 8L);
+        ReflectionTestUtils.setField(cache, "budgetBytes", 16L);
+    }
+
+    private Path fichero(String nombre, String contenido) throws Exception {
+        Path p = dir.resolve(nombre);
+        Files.writeString(p, contenido);
+        return p;
+    }
+
+    @Test
+    @DisplayName("Rango dentro del segmento mapeado -> hit; fuera -> miss")
+    void hitDentroDelSegmento_missFuera() throws Exception {
+        Path a = fichero("a.mp4", "0123456789abcdef");
+        when(contenidoService.rutasLocalesMasReproducidas(20)).thenReturn(List.of(a));
+        cache.refresh();
+        MediaFileMetadata md = metadata.get(a.toAbsolutePath().normalize());
+
+        ByteBuffer b = cache.slice(md, 2, 4);
+        assertNotNull(b);
+        byte[] leido = new byte[4];
+        b.get(leido);
+        assertEquals("2345", new String(leido));
+        assertNull(cache.slice(md, 6, 4));
+
+        assertEquals(1L, cache.stats().get("hits"));
+        assertEquals(1L, cache.stats().get("misses"));
+    }
+
+    @Test
+    @DisplayName("La ruta sin normalizar de los metadatos encuentra el segmento mapeado con la normalizada")
+    void rutaSinNormalizar_hit() throws Exception {
+        Path a = fichero("a.mp4", "0123456789abcdef");
+        when(contenidoService.rutasLocalesMasReproducidas(20)).thenReturn(List.of(a));
+        cache.refresh();
+        Files.createDirectories(dir.resolve("sub"));
+        MediaFileMetadata md = metadata.get(dir.resolve("sub").resolve("..").resolve("a.mp4"));
+
+        assertNotNull(cache.slice(md, 0, 4));
+        assertEquals(4L, cache.stats().get("servedBytes"));
+    }
+
+    @Test
+    @DisplayName("Presupuesto agotado -> se expulsa el segmento menos usado recientemente")
+    void expulsionLru() throws Exception {
+        Path a = fichero("a.mp4", "aaaaaaaaaa");
+        Path b = fichero("b.mp4", "bbbbbbbbbb");
+        Path c = fichero("c.mp4", "cccccccccc");
+        when(contenidoService.rutasLocalesMasReproducidas(20)).thenReturn(List.of(a, b, c));
+
+        cache.refresh();
+
+        assertEquals(2, cache.stats().get("segments"));
+        assertEquals(16L, cache.stats().get("bytesMapped"));
+        assertNull(cache.slice(metadata.get(a.toAbsolutePath().normalize()), 0, 1));
+        assertNotNull(cache.slice(metadata.get(c.toAbsolutePath().normalize()), 0, 1));
+    }
+
+    @Test
+    @DisplayName("Fichero que sale del top-N -> se libera su segmento")
+    void salirDelRanking_libera() throws Exception {
+        Path a = fichero("a.mp4", "aaaaaaaaaa");
+        when(contenidoService.rutasLocalesMasReproducidas(20)).thenReturn(List.of(a)).thenReturn(List.of());
+
+        cache.refresh();
+        cache.refresh();
+
+        assertEquals(0, cache.stats().get("segments"));
+        assertEquals(0L, cache.stats().get("bytesMapped"));
+    }
+}
@@ -0,0 +1,200 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+
+import com.EsiMediaG03.services.IndicesMongo;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.ListIndexesIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class IndicesMongoTest {
+
+    @Mock MongoTemplate mongoTemplate;
+    @Mock IndexOperations indexOps;
+    @Mock MongoCollection<Document> listas;
+    @Mock MongoCollection<Document> otras;
+
+    private IndicesMongo indices;
+
+    @BeforeEach
+    void setUp() {
+        indices = new IndicesMongo(mongoTemplate);
+        when(mongoTemplate.indexOps(anyString())).thenReturn(indexOps);
+        when(mongoTemplate.getCollection(anyString())).thenReturn(otras);
+        when(mongoTemplate.getCollection("listas")).thenReturn(listas);
+        listIndexes(otras);
+        indexStats(otras);
+    }
+
+    @Test
+    @DisplayName("Crea todos los declarados en su colección aunque alguno falle")
+    void creaTodos() {
+        doThrow(new RuntimeException("conflicto")).when(indexOps).createIndex(IndicesMongo.declarados().get(0).index());
+
+        indices.crearIndices();
+
+        int n = IndicesMongo.declarados().size();
+        verify(indexOps, times(n)).createIndex(any(Index.class));
+        verify(mongoTemplate, times(n)).indexOps(anyString());
+        verify(mongoTemplate, times(3)).indexOps("listas");
+        assertEquals(false, indices.informe().get("creados"));
+    }
+
+    @Test
+    @DisplayName("Cada consulta declarada filtra y ordena solo por campos de su índice")
+    void consultasCubiertasPorSuIndice() {
+        for (IndicesMongo.Declarado d : IndicesMongo.declarados()) {
+            List<String> claves = new ArrayList<>(d.claves().keySet());
+            for (String campo : d.filtro().keySet()) {
+                assertTrue(claves.contains(campo), d.nombre() + " no cubre el filtro por " + campo);
+            }
+            if (d.orden() != null) {
+                // El orden tiene que ser un tramo seguido del índice, en el mismo sentido o en el contrario
+                List<String> orden = new ArrayList<>(d.orden().keySet());
+                int desde = claves.indexOf(orden.get(0));
+                assertTrue(desde >= 0, d.nombre() + " no cubre el orden");
+                assertEquals(orden, claves.subList(desde, Math.min(claves.size(), desde + orden.size())), d.nombre());
+                int signo = Integer.signum(d.orden().getInteger(orden.get(0)) * d.claves().getInteger(orden.get(0)));
+                for (String campo : orden) {
+                    assertEquals(signo, Integer.signum(d.orden().getInteger(campo) * d.claves().getInteger(campo)), d.nombre());
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("El informe separa los que faltan, los no declarados y los que no se usan")
+    @SuppressWarnings("unchecked")
+    void informe() {
+        listIndexes(listas,
+                indice("_id_", new Document("_id", 1)),
+                indice("contenidosIds_1", new Document("contenidosIds", 1)),
+                indice("nombre_1", new Document("nombre", 1)));
+        indexStats(listas,
+                stats("_id_", new Document("_id", 1), 3),
+                stats("contenidosIds_1", new Document("contenidosIds", 1), 12),
+                stats("nombre_1", new Document("nombre", 1), 0));
+        when(mongoTemplate.executeCommand(any(Document.class))).thenReturn(explain(new Document("stage", "COLLSCAN")));
+
+        Map<String, Object> informe = indices.informe();
+
+        Map<String, Object> l = (Map<String, Object>) ((Map<String, Object>) informe.get("colecciones")).get("listas");
+        assertEquals(List.of("contenidosIds_1", "userEmail_1", "publica_1"), l.get("declarados"));
+        assertEquals(List.of("userEmail_1", "publica_1"), l.get("faltan"));
+        assertEquals(List.of("nombre_1"), l.get("noDeclarados"));
+        assertEquals(List.of("nombre_1"), l.get("sinUso"));
+
+        List<Map<String, Object>> planes = (List<Map<String, Object>>) informe.get("planes");
+        assertEquals(IndicesMongo.declarados().size(), planes.size());
+        assertEquals("COLLSCAN", planes.get(0).get("plan"));
+    }
+
+    @Test
+    @DisplayName("explain: la etapa que lee la colección, también dentro de un plan de SBE o de un OR")
+    void explicar() {
+        ArgumentCaptor<Document> cmd = ArgumentCaptor.forClass(Document.class);
+        when(mongoTemplate.executeCommand(cmd.capture())).thenReturn(
+                explain(new Document("queryPlan", new Document("stage", "LIMIT").append("inputStage",
+                        new Document("stage", "FETCH").append("inputStage",
+                                new Document("stage", "IXSCAN").append("indexName", "reproducciones_-1"))))),
+                explain(new Document("stage", "SUBPLAN").append("inputStage", new Document("stage", "OR")
+                        .append("inputStages", List.of(
+                                new Document("stage", "IXSCAN").append("indexName", "fechaModificacion_1"),
+                                new Document("stage", "COLLSCAN"))))));
+
+        assertEquals("IXSCAN reproducciones_-1",
+                indices.explicar("contenidos", new Document(), new Document("reproducciones", -1)));
+        assertEquals("COLLSCAN", indices.explicar("contenidos", new Document("x", 1), null));
+
+        Document primero = cmd.getAllValues().get(0);
+        assertEquals("queryPlanner", primero.getString("verbosity"));
+        Document find = primero.get("explain", Document.class);
+        assertEquals("contenidos", find.getString("find"));
+        assertEquals(new Document("reproducciones", -1), find.get("sort"));
+        assertFalse(cmd.getAllValues().get(1).get("explain", Document.class).containsKey("sort"));
+    }
+
+    @Test
+    @DisplayName("Sin explain ni $indexStats en el servidor el informe sale igual, sin esos datos")
+    @SuppressWarnings("unchecked")
+    void servidorSinExplainNiIndexStats() {
+        listIndexes(listas);
+        when(listas.aggregate(anyList())).thenThrow(new RuntimeException("Unrecognized pipeline stage name: '$indexStats'"));
+        when(mongoTemplate.executeCommand(any(Document.class))).thenThrow(new RuntimeException("no such command: 'explain'"));
+
+        assertNull(indices.explicar("listas", new Document("publica", true), null));
+        Map<String, Object> informe = indices.informe();
+        Map<String, Object> l = (Map<String, Object>) ((Map<String, Object>) informe.get("colecciones")).get("listas");
+        assertNull(l.get("sinUso"));
+        assertEquals(List.of("contenidosIds_1", "userEmail_1", "publica_1"), l.get("faltan"));
+    }
+
+    private static Document explain(Document winningPlan) {
+        return new Document("queryPlanner", new Document("winningPlan", winningPlan));
+    }
+
+    private static Document indice(String nombre, Document claves) {
+        return new Document("v", 2).append("key", claves).append("name", nombre);
+    }
+
+    private static Document stats(String nombre, Document claves, long ops) {
+        return new Document("name", nombre).append("key", claves)
+                .append("accesses", new Document("ops", ops));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void listIndexes(MongoCollection<Document> coleccion, Document... docs) {
+        ListIndexesIterable<Document> it = mock(ListIndexesIterable.class);
+        when(it.iterator()).thenAnswer(i -> cursor(List.of(docs)));
+        when(coleccion.listIndexes()).thenReturn(it);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void indexStats(MongoCollection<Document> coleccion, Document... docs) {
+        AggregateIterable<Document> it = mock(AggregateIterable.class);
+        when(it.iterator()).thenAnswer(i -> cursor(List.of(docs)));
+        when(coleccion.aggregate(anyList())).thenReturn(it);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MongoCursor<Document> cursor(List<Document> docs) {
+        Iterator<Document> it = docs.iterator();
+        MongoCursor<Document> c = mock(MongoCursor.class);
+        when(c.hasNext()).thenAnswer(i -> it.hasNext());
+        when(c.next()).thenAnswer(i -> it.next());
+        return c;
+    }
+}
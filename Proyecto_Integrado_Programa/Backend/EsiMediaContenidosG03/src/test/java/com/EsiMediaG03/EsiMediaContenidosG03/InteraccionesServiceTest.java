@@ -0,0 +1,75 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.EsiMediaG03.model.Favorito;
+import com.EsiMediaG03.model.Reproductor;
+import com.EsiMediaG03.model.Valoracion;
+import com.EsiMediaG03.services.InteraccionesService;
+
+@ExtendWith(MockitoExtension.class)
+class InteraccionesServiceTest {
+
+    @Mock MongoTemplate mongoTemplate;
+
+    private InteraccionesService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new InteraccionesService(mongoTemplate);
+    }
+
+    @Test
+    @DisplayName("La clave es contenidoId:email con el email normalizado")
+    void haReproducido_porClave() {
+        when(mongoTemplate.exists(any(Query.class), eq(Reproductor.class))).thenReturn(true);
+
+        assertTrue(service.haReproducido("C1", " Ana@X.com "));
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).exists(q.capture(), eq(Reproductor.class));
+        assertEquals(new Document("_id", "C1:ana@x.com"), q.getValue().getQueryObject());
+    }
+
+    @Test
+    @DisplayName("Una segunda valoración choca con la clave única y se rechaza")
+    void valoracionDuplicada() {
+        when(mongoTemplate.insert(any(Valoracion.class))).thenAnswer(inv -> inv.getArgument(0))
+                .thenThrow(new DuplicateKeyException("E11000"));
+
+        assertTrue(service.registrarValoracion("C1", "ana@x.com", 4.0));
+        assertFalse(service.registrarValoracion("C1", "ANA@x.com", 5.0));
+    }
+
+    @Test
+    @DisplayName("Marcar favorito es un upsert que no pisa la fecha original")
+    void addFavorito_upsert() {
+        service.addFavorito("C1", "ana@x.com");
+
+        ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).upsert(any(Query.class), u.capture(), eq(Favorito.class));
+        Document alta = (Document) u.getValue().getUpdateObject().get("$setOnInsert");
+        assertEquals(List.of("contenidoId", "userEmail", "fecha"), List.copyOf(alta.keySet()));
+    }
+}
@@ -0,0 +1,111 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.EsiMediaG03.dto.MediaFileMetadata;
+import com.EsiMediaG03.services.MediaFileMetadataCache;
+
+class MediaFileMetadataCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private MediaFileMetadataCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new MediaFileMetadataCache();
+        // Sin caducidad por tiempo: solo los eventos del vigilante invalidan
+        ReflectionTestUtils.setField(cache, "watchMaxAgeMs", Long.MAX_VALUE);
+        ReflectionTestUtils.invokeMethod(cache, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(cache, "shutdown");
+    }
+
+    @Test
+    @DisplayName("Guarda tamaño y tipo, y no vuelve al disco mientras el fichero no cambia")
+    void cacheaHastaQueCambia() throws Exception {
+        Path f = Files.write(dir.resolve("a.mkv"), new byte[10]);
+
+        MediaFileMetadata md = cache.get(f);
+        assertEquals(10, md.size());
+        assertEquals("video/x-matroska", md.mimeType());
+        assertTrue(md.readable());
+        assertSame(md, cache.get(f));
+        assertEquals(1L, cache.stats().get("hits"));
+
+        Files.write(f, new byte[25]);
+        esperarHasta(() -> cache.get(f).size() == 25);
+    }
+
+    @Test
+    @DisplayName("Los ficheros que faltan también se cachean hasta que aparecen")
+    void ficheroAusente() throws Exception {
+        Path f = dir.resolve("b.mp3");
+        assertFalse(cache.consultar(f).readable());
+        assertThrows(UncheckedIOException.class, () -> cache.get(f));
+
+        Files.write(f, new byte[3]);
+        esperarHasta(() -> cache.consultar(f).readable());
+        assertEquals("audio/mpeg", cache.get(f).mimeType());
+    }
+
+    @Test
+    @DisplayName("Sin vigilante las entradas caducan por tiempo")
+    void sinVigilante_caducaPorTiempo() throws Exception {
+        MediaFileMetadataCache ttl = new MediaFileMetadataCache();
+        ReflectionTestUtils.setField(ttl, "ttlMs", 0L);
+        Path f = Files.write(dir.resolve("c.mp4"), new byte[4]);
+        assertEquals(4, ttl.get(f).size());
+        Files.write(f, new byte[8]);
+        assertEquals(8, ttl.get(f).size());
+        assertEquals(false, ttl.stats().get("watching"));
+    }
+
+    @Test
+    @DisplayName("Llena, expulsa solo la entrada menos usada en vez de vaciarse entera")
+    void llena_expulsaLaMenosUsada() throws Exception {
+        ReflectionTestUtils.setField(cache, "maxEntries", 2);
+        Path a = Files.write(dir.resolve("a.mp4"), new byte[1]);
+        Path b = Files.write(dir.resolve("b.mp4"), new byte[2]);
+        Path c = Files.write(dir.resolve("c.mp4"), new byte[3]);
+        cache.get(a);
+        cache.get(b);
+        cache.get(a);
+        cache.get(c);
+        assertEquals(2, cache.stats().get("entries"));
+        assertEquals(3L, cache.stats().get("misses"));
+
+        cache.get(a);
+        cache.get(c);
+        assertEquals(3L, cache.stats().get("misses"));
+        cache.get(b);
+        assertEquals(4L, cache.stats().get("misses"));
+    }
+
+    private static void esperarHasta(java.util.function.BooleanSupplier condicion) throws InterruptedException {
+        long limite = System.currentTimeMillis() + 10_000;
+        while (!condicion.getAsBoolean()) {
+            if (System.currentTimeMillis() > limite) throw new AssertionError("No se ha recibido el evento del vigilante");
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.EsiMediaG03.model.Favorito;
+import com.EsiMediaG03.model.Reproductor;
+import com.EsiMediaG03.model.Valoracion;
+import com.EsiMediaG03.services.EstadisticasValoracion;
+import com.EsiMediaG03.services.MigracionInteracciones;
+import com.EsiMediaG03.services.RankingValoraciones;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class MigracionInteraccionesTest {
+
+    @Mock MongoTemplate mongoTemplate;
+    @Mock BulkOperations reproductores;
+    @Mock BulkOperations valoraciones;
+    @Mock BulkOperations favoritos;
+    @Mock BulkOperations contenidos;
+    @Mock RankingValoraciones ranking;
+
+    private MigracionInteracciones migracion;
+
+    @BeforeEach
+    void setUp() {
+        migracion = new MigracionInteracciones(mongoTemplate, new EstadisticasValoracion(), ranking);
+        ReflectionTestUtils.setField(migracion, "batchSize", 2);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Reproductor.class)).thenReturn(reproductores);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Valoracion.class)).thenReturn(valoraciones);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Favorito.class)).thenReturn(favoritos);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, "contenidos")).thenReturn(contenidos);
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Valoracion.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(), new Document()));
+    }
+
+    @Test
+    @DisplayName("Pasa cada dato embebido a su colección por lotes y después lo quita del contenido")
+    void migraPorLotes() {
+        ObjectId a = new ObjectId();
+        ObjectId b = new ObjectId();
+        ObjectId c = new ObjectId();
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("contenidos"))).thenReturn(Stream.of(
+                new Document("_id", a).append("reproductores", List.of("Ana@x.com", "luis@x.com"))
+                        .append("ratings", new Document("ana@x%2Ecom", 4.5)),
+                new Document("_id", b).append("favoritosDeUsuarios", List.of("luis@x.com")),
+                new Document("_id", c).append("reproductores", List.of())));
+
+        long migrados = migracion.migrarTodo();
+
+        assertEquals(3, migrados);
+        assertTrue(migracion.isCompletada());
+        ArgumentCaptor<Query> claves = ArgumentCaptor.forClass(Query.class);
+        verify(reproductores, times(2)).upsert(claves.capture(), any(Update.class));
+        assertEquals(a.toHexString() + ":ana@x.com", claves.getAllValues().get(0).getQueryObject().get("_id"));
+
+        ArgumentCaptor<Update> valoracion = ArgumentCaptor.forClass(Update.class);
+        verify(valoraciones).upsert(claves.capture(), valoracion.capture());
+        assertEquals(a.toHexString() + ":ana@x.com", claves.getValue().getQueryObject().get("_id"));
+        assertEquals(4.5, ((Document) valoracion.getValue().getUpdateObject().get("$setOnInsert")).get("score"));
+
+        verify(favoritos).upsert(any(Query.class), any(Update.class));
+        verify(contenidos, times(3)).updateOne(any(Query.class), any(Update.class));
+        // Lote de 2 y lote de 1; en el segundo no hay nada que pasar a reproductores ni valoraciones
+        verify(contenidos, times(2)).execute();
+        verify(reproductores, times(1)).execute();
+        verify(valoraciones, times(1)).execute();
+
+        InOrder orden = inOrder(reproductores, contenidos);
+        orden.verify(reproductores).execute();
+        orden.verify(contenidos).execute();
+        verify(ranking).invalidar();
+    }
+
+    @Test
+    @DisplayName("Rellena ratingSum como avg * count y la bayesiana a partir de él, solo si siguen sin estar")
+    void rellenaRatingSum() {
+        ObjectId id = new ObjectId();
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("contenidos"))).thenReturn(Stream.of(
+                new Document("_id", id).append("ratingAvg", 3.5).append("ratingCount", 4)));
+
+        migracion.migrarTodo();
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+        verify(contenidos, times(3)).updateOne(q.capture(), u.capture());
+        assertEquals(new Document("_id", id).append("ratingSum", new Document("$exists", false)),
+                q.getAllValues().get(1).getQueryObject());
+        assertEquals(new Document("ratingSum", 14.0), u.getAllValues().get(1).getUpdateObject().get("$set"));
+        assertEquals(new Document("_id", id).append("ratingBayes", new Document("$exists", false)),
+                q.getAllValues().get(2).getQueryObject());
+        // (10 votos previos * 3.0 + 14) / (10 + 4)
+        assertEquals(new Document("ratingBayes", 44.0 / 14), u.getAllValues().get(2).getUpdateObject().get("$set"));
+        verify(reproductores, never()).execute();
+    }
+
+    @Test
+    @DisplayName("Rellena el histograma agrupando las valoraciones del lote por contenido y puntuación")
+    void rellenaHistograma() {
+        ObjectId id = new ObjectId();
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("contenidos"))).thenReturn(Stream.of(
+                new Document("_id", id).append("ratingSum", 12.5).append("ratingCount", 3)));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Valoracion.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(
+                        new Document("_id", new Document("contenidoId", id.toHexString()).append("score", 4.5)).append("n", 2),
+                        new Document("_id", new Document("contenidoId", id.toHexString()).append("score", 3.5)).append("n", 1)),
+                        new Document()));
+
+        migracion.migrarTodo();
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+        verify(contenidos, times(3)).updateOne(q.capture(), u.capture());
+        assertEquals(new Document("_id", id).append("ratingHistograma", new Document("$exists", false)),
+                q.getAllValues().get(2).getQueryObject());
+        assertEquals(new Document("ratingHistograma", new Document("45", 2L).append("35", 1L)),
+                u.getAllValues().get(2).getUpdateObject().get("$set"));
+    }
+
+    @Test
+    @DisplayName("Si falla la escritura en las colecciones nuevas el contenido conserva sus datos")
+    void falloNoLimpia() {
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("contenidos"))).thenReturn(Stream.of(
+                new Document("_id", new ObjectId()).append("reproductores", List.of("ana@x.com"))));
+        when(reproductores.execute()).thenThrow(new IllegalStateException("mongo caído"));
+
+        assertThrows(IllegalStateException.class, migracion::migrarTodo);
+
+        verify(contenidos, never()).execute();
+        assertFalse(migracion.isCompletada());
+    }
+
+    @Test
+    @DisplayName("Antes de guardar un contenido entero se migra si le quedan datos embebidos")
+    void migrarContenidoSuelto() {
+        ObjectId id = new ObjectId();
+        when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("contenidos")))
+                .thenReturn(new Document("_id", id).append("favoritosDeUsuarios", List.of("ana@x.com")));
+
+        migracion.migrarContenido(id.toHexString());
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).findOne(q.capture(), eq(Document.class), eq("contenidos"));
+        assertEquals(Map.of("_id", id), ((List<?>) q.getValue().getQueryObject().get("$and")).get(0));
+        verify(favoritos).execute();
+        verify(contenidos).execute();
+    }
+
+    @Test
+    @DisplayName("Terminada la migración, guardar un contenido ya no consulta nada")
+    void migrarContenidoTrasCompletar() {
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("contenidos"))).thenReturn(Stream.empty());
+        migracion.migrarTodo();
+
+        migracion.migrarContenido(new ObjectId().toHexString());
+
+        verify(mongoTemplate, never()).findOne(any(Query.class), eq(Document.class), anyString());
+    }
+}
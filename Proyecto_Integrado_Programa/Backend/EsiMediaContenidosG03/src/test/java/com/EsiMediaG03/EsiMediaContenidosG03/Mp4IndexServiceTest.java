@@ -0,0 +1,174 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.EsiMediaG03.dto.Mp4Index;
+import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.services.Mp4IndexService;
+import com.EsiMediaG03.services.StreamingTargetCache;
+
+@ExtendWith(MockitoExtension.class)
+class Mp4IndexServiceTest {
+
+    // Cuatro muestras de 10, 20, 30 y 40 bytes en dos chunks; keyframes en la 1 y la 3
+    private static final int[] TAMANOS = { 10, 20, 30, 40 };
+    private static final int FTYP = 16;
+    private static final int PRIMER_CHUNK = FTYP + 8;
+    private static final int SEGUNDO_CHUNK = PRIMER_CHUNK + 30;
+
+    @Mock
+    StreamingTargetCache streamingTargetCache;
+
+    @TempDir
+    Path dir;
+
+    private Mp4IndexService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new Mp4IndexService(streamingTargetCache);
+        ReflectionTestUtils.setField(service, "root", dir.resolve("idx").toString());
+    }
+
+    @Test
+    @DisplayName("moov al final: escribe copia faststart con los offsets corregidos y la prefiere al servir")
+    void moovAlFinal_generaCopiaFaststart() throws Exception {
+        byte[] moov = moov(PRIMER_CHUNK, SEGUNDO_CHUNK);
+        Path source = Files.write(dir.resolve("v.mp4"), concat(ftyp(), mdat(), moov));
+
+        ReflectionTestUtils.invokeMethod(service, "indexar", "V1", source);
+
+        StreamingTarget original = StreamingTarget.local(source, Files.size(source), "video/mp4");
+        StreamingTarget servido = service.preferirFaststart("V1", original);
+        assertNotEquals(source, servido.path());
+        assertEquals(Files.size(source), servido.length());
+        verify(streamingTargetCache).invalidate("V1");
+
+        byte[] copia = Files.readAllBytes(servido.path());
+        assertEquals("moov", new String(copia, FTYP + 4, 4, StandardCharsets.ISO_8859_1));
+
+        Mp4Index idx = service.indiceDe("V1", servido.path());
+        assertNotNull(idx);
+        assertTrue(!idx.faststart());
+        assertEquals(4.0, idx.durationSeconds(), 1e-9);
+        assertEquals(2, idx.keyframes().size());
+        Mp4Index.Keyframe k = idx.keyframeAt(2.5);
+        assertEquals(2.0, k.time(), 1e-9);
+        assertEquals(SEGUNDO_CHUNK + moov.length, k.offset());
+        // El offset corregido apunta a la muestra 3 dentro de la copia
+        assertEquals(3, copia[(int) k.offset()]);
+        assertEquals(1, copia[(int) idx.keyframeAt(0).offset()]);
+        assertEquals(Files.size(source) * 8 / 4, idx.bitrate());
+
+        assertNull(service.indiceDe("V1", source));
+    }
+
+    @Test
+    @DisplayName("moov delante: no hace copia y los keyframes apuntan al original")
+    void moovDelante_sirveOriginal() throws Exception {
+        int moovLen = moov(0, 0).length;
+        byte[] moov = moov(FTYP + moovLen + 8, FTYP + moovLen + 8 + 30);
+        Path source = Files.write(dir.resolve("f.mp4"), concat(ftyp(), moov, mdat()));
+
+        ReflectionTestUtils.invokeMethod(service, "indexar", "V2", source);
+
+        StreamingTarget original = StreamingTarget.local(source, Files.size(source), "video/mp4");
+        assertSame(original, service.preferirFaststart("V2", original));
+        Mp4Index idx = service.indiceDe("V2", source);
+        assertTrue(idx.faststart());
+        assertEquals(FTYP, idx.moovOffset());
+        assertEquals(3, Files.readAllBytes(source)[(int) idx.keyframeAt(10).offset()]);
+    }
+
+    @Test
+    @DisplayName("Si el fichero cambia el índice deja de ser vigente")
+    void ficheroModificado_invalidaIndice() throws Exception {
+        Path source = Files.write(dir.resolve("v.mp4"), concat(ftyp(), mdat(), moov(PRIMER_CHUNK, SEGUNDO_CHUNK)));
+        ReflectionTestUtils.invokeMethod(service, "indexar", "V3", source);
+
+        Files.write(source, concat(ftyp(), mdat(), moov(PRIMER_CHUNK, SEGUNDO_CHUNK), new byte[8]));
+        StreamingTarget original = StreamingTarget.local(source, Files.size(source), "video/mp4");
+        assertSame(original, service.preferirFaststart("V3", original));
+    }
+
+    // ===== Construcción de un MP4 mínimo =====
+
+    private static byte[] ftyp() {
+        return box("ftyp", ascii("isom"), new byte[4]);
+    }
+
+    private static byte[] mdat() {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        for (int i = 0; i < TAMANOS.length; i++) {
+            byte[] muestra = new byte[TAMANOS[i]];
+            java.util.Arrays.fill(muestra, (byte) (i + 1));
+            payload.writeBytes(muestra);
+        }
+        return box("mdat", payload.toByteArray());
+    }
+
+    private static byte[] moov(int chunk1, int chunk2) {
+        byte[] mvhd = fullBox("mvhd", ints(0, 0, 1000, 4000), new byte[80]);
+        byte[] mdhd = fullBox("mdhd", ints(0, 0, 1000, 4000), new byte[4]);
+        byte[] hdlr = fullBox("hdlr", ints(0), ascii("vide"), new byte[13]);
+        byte[] stts = fullBox("stts", ints(1, 4, 1000));
+        byte[] stss = fullBox("stss", ints(2, 1, 3));
+        byte[] stsc = fullBox("stsc", ints(1, 1, 2, 1));
+        byte[] stsz = fullBox("stsz", ints(0, 4, TAMANOS[0], TAMANOS[1], TAMANOS[2], TAMANOS[3]));
+        byte[] stco = fullBox("stco", ints(2, chunk1, chunk2));
+        byte[] stbl = box("stbl", stts, stss, stsc, stsz, stco);
+        byte[] minf = box("minf", stbl);
+        byte[] mdia = box("mdia", mdhd, hdlr, minf);
+        byte[] trak = box("trak", mdia);
+        return box("moov", mvhd, trak);
+    }
+
+    private static byte[] fullBox(String type, byte[]... parts) {
+        byte[][] conVersion = new byte[parts.length + 1][];
+        conVersion[0] = new byte[4];
+        System.arraycopy(parts, 0, conVersion, 1, parts.length);
+        return box(type, conVersion);
+    }
+
+    private static byte[] box(String type, byte[]... parts) {
+        byte[] body = concat(parts);
+        return ByteBuffer.allocate(8 + body.length).putInt(8 + body.length).put(ascii(type)).put(body).array();
+    }
+
+    private static byte[] ints(int... values) {
+        ByteBuffer b = ByteBuffer.allocate(4 * values.length);
+        for (int v : values) b.putInt(v);
+        return b.array();
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] p : parts) out.writeBytes(p);
+        return out.toByteArray();
+    }
+}
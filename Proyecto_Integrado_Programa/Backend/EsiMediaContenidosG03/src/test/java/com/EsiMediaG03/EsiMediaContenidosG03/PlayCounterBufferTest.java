@@ -0,0 +1,139 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.Reproductor;
+import com.EsiMediaG03.services.PlayCounterBuffer;
+
+@ExtendWith(MockitoExtension.class)
+class PlayCounterBufferTest {
+
+    @Mock
+    MongoTemplate mongoTemplate;
+
+    @Mock
+    BulkOperations bulk;
+
+    @Mock
+    BulkOperations bulkReproductores;
+
+    private PlayCounterBuffer buffer;
+
+    @BeforeEach
+    void setUp() {
+        buffer = new PlayCounterBuffer(mongoTemplate);
+    }
+
+    @Test
+    @DisplayName("Agrega por contenido y vuelca contadores y reproductores en un bulkWrite por colección")
+    void flush_agregaPorContenido() {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class)).thenReturn(bulk);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Reproductor.class)).thenReturn(bulkReproductores);
+        buffer.registrarReproduccion("A");
+        buffer.registrarReproduccion("A");
+        buffer.registrarReproductor("A", "u1@x.com");
+        buffer.registrarReproductor("A", "u1@x.com");
+        buffer.registrarReproduccion("B");
+        assertEquals(2, buffer.stats().get("queueDepth"));
+
+        buffer.flush();
+
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(bulk, times(2)).updateOne(any(Query.class), updates.capture());
+        verify(bulk, times(1)).execute();
+        Document a = updates.getAllValues().get(0).getUpdateObject();
+        assertEquals(2L, ((Document) a.get("$inc")).get("reproducciones"));
+        assertNull(a.get("$addToSet"));
+
+        ArgumentCaptor<Query> claves = ArgumentCaptor.forClass(Query.class);
+        verify(bulkReproductores, times(1)).upsert(claves.capture(), any(Update.class));
+        verify(bulkReproductores, times(1)).execute();
+        assertEquals("A:u1@x.com", claves.getValue().getQueryObject().get("_id"));
+        assertEquals(0, buffer.stats().get("queueDepth"));
+        assertEquals(1L, buffer.stats().get("flushes"));
+    }
+
+    @Test
+    @DisplayName("El reproductor se ve como pendiente en cola y mientras se vuelca, hasta que está en Mongo")
+    void reproductorPendiente_hastaQueSeVuelca() {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Reproductor.class)).thenReturn(bulkReproductores);
+        buffer.registrarReproductor("A", " U1@x.com ");
+        assertTrue(buffer.reproductorPendiente("A", "u1@x.com"));
+        assertFalse(buffer.reproductorPendiente("A", "u2@x.com"));
+        assertFalse(buffer.reproductorPendiente("B", "u1@x.com"));
+
+        AtomicBoolean visibleAlVolcar = new AtomicBoolean();
+        when(bulkReproductores.execute()).thenAnswer(i -> {
+            visibleAlVolcar.set(buffer.reproductorPendiente("A", "u1@x.com"));
+            return null;
+        });
+        buffer.flush();
+
+        assertTrue(visibleAlVolcar.get());
+        assertFalse(buffer.reproductorPendiente("A", "u1@x.com"));
+    }
+
+    @Test
+    @DisplayName("Sin pendientes no se toca Mongo")
+    void flush_sinPendientes_noEscribe() {
+        buffer.flush();
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(Contenido.class));
+    }
+
+    @Test
+    @DisplayName("Si el bulkWrite de reproductores falla solo ellos vuelven a la cola; los contadores no se repiten")
+    void flush_falloReproductores_noRepiteContadores() {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class)).thenReturn(bulk);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Reproductor.class)).thenReturn(bulkReproductores);
+        when(bulkReproductores.execute()).thenThrow(new IllegalStateException("mongo caído"));
+        buffer.registrarReproduccion("A");
+        buffer.registrarReproductor("A", "u1@x.com");
+
+        buffer.flush();
+
+        assertEquals(1, buffer.stats().get("queueDepth"));
+        assertEquals(0L, buffer.stats().get("pendingReproducciones"));
+        assertEquals(1L, buffer.stats().get("pendingReproductores"));
+        assertEquals(1L, buffer.stats().get("failures"));
+    }
+
+    @Test
+    @DisplayName("Si el bulkWrite falla los contadores vuelven a la cola")
+    void flush_fallo_reencola() {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class)).thenReturn(bulk);
+        when(bulk.execute()).thenThrow(new IllegalStateException("mongo caído"));
+        buffer.registrarReproduccion("A");
+        buffer.flush();
+        buffer.registrarReproduccion("A");
+
+        assertEquals(1, buffer.stats().get("queueDepth"));
+        assertEquals(2L, buffer.stats().get("pendingReproducciones"));
+        assertEquals(1L, buffer.stats().get("failures"));
+        assertTrue(((Long) buffer.stats().get("flushes")) == 0L);
+    }
+}
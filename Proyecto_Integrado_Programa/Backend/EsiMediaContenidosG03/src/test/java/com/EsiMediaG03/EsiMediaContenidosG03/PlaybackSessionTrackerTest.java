@@ -0,0 +1,61 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.EsiMediaG03.services.PlaybackSessionTracker;
+
+class PlaybackSessionTrackerTest {
+
+    private final PlaybackSessionTracker tracker = new PlaybackSessionTracker();
+
+    @Test
+    @DisplayName("El email tiene prioridad sobre la sesión y no distingue mayúsculas")
+    void emailTienePrioridad() {
+        assertTrue(tracker.primeraReproduccion("s1", "U@x.com", "c1", true));
+        assertFalse(tracker.primeraReproduccion("s2", "u@x.com", "c1", true));
+        assertTrue(tracker.primeraReproduccion("s2", "u@x.com", "c2", false));
+    }
+
+    @Test
+    @DisplayName("Sesiones distintas de usuarios anónimos cuentan por separado")
+    void sesionesAnonimas() {
+        String s1 = tracker.nuevaSesion();
+        String s2 = tracker.nuevaSesion();
+        assertNotEquals(s1, s2);
+        assertTrue(tracker.primeraReproduccion(s1, null, "c1", false));
+        assertFalse(tracker.primeraReproduccion(s1, null, "c1", true));
+        assertTrue(tracker.primeraReproduccion(s2, null, "c1", false));
+    }
+
+    @Test
+    @DisplayName("Una clave se olvida tras dos rotaciones de la ventana")
+    void rotacionDeGeneraciones() throws Exception {
+        ReflectionTestUtils.setField(tracker, "windowMs", 20L);
+        assertTrue(tracker.primeraReproduccion("s", null, "c", true));
+
+        Thread.sleep(30);
+        assertFalse(tracker.primeraReproduccion("s", null, "c", true));
+
+        Thread.sleep(30);
+        tracker.primeraReproduccion("otra", null, "c", true);
+        Thread.sleep(30);
+        assertTrue(tracker.primeraReproduccion("s", null, "c", true));
+    }
+
+    @Test
+    @DisplayName("Al llegar al máximo de claves se rota antes de tiempo")
+    void rotacionPorTamano() {
+        ReflectionTestUtils.setField(tracker, "maxKeys", 2);
+        tracker.primeraReproduccion("a", null, "c", true);
+        tracker.primeraReproduccion("b", null, "c", true);
+        tracker.primeraReproduccion("c", null, "c", true);
+        assertEquals(3, tracker.clavesRecordadas());
+    }
+}
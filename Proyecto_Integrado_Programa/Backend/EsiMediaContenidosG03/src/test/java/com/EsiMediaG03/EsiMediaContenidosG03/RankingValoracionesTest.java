@@ -0,0 +1,143 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.EsiMediaG03.dto.EntradaRanking;
+import com.EsiMediaG03.exceptions.ContenidoValidationException;
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.services.RankingValoraciones;
+
+@ExtendWith(MockitoExtension.class)
+class RankingValoracionesTest {
+
+    @Mock MongoTemplate mongoTemplate;
+
+    private RankingValoraciones ranking;
+
+    @BeforeEach
+    void setUp() {
+        ranking = new RankingValoraciones(mongoTemplate);
+        // Se sirven 2 y se guardan 4
+        ReflectionTestUtils.setField(ranking, "topK", 2);
+    }
+
+    @Test
+    @DisplayName("Se carga una vez recorriendo el índice por bayesiana y después se sirve de memoria")
+    void cargaUnaVez() {
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class)))
+                .thenReturn(List.of(contenido("A", 4.1, 30), contenido("B", 3.9, 12)));
+
+        assertEquals(List.of("A", "B"), ids(ranking.top(null, null, null)));
+        assertEquals(List.of("A"), ids(ranking.top(null, null, 1)));
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(1)).find(q.capture(), eq(Contenido.class));
+        assertEquals(new Document("ratingBayes", -1).append("ratingCount", -1), q.getValue().getSortObject());
+        assertEquals(4, q.getValue().getLimit());
+        assertEquals(new Document("ratingCount", new Document("$gt", 0)), q.getValue().getQueryObject());
+    }
+
+    @Test
+    @DisplayName("Una valoración nueva reordena el ranking cargado sin volver a Mongo")
+    void actualizarReordena() {
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class)))
+                .thenReturn(List.of(contenido("A", 4.1, 30), contenido("B", 3.9, 12)));
+        ranking.top(Contenido.Tipo.VIDEO, null, null);
+
+        ranking.actualizar(entrada("C", 4.5, 50, "rock"));
+        ranking.actualizar(entrada("A", 3.0, 31));
+
+        assertEquals(List.of("C", "B"), ids(ranking.top(Contenido.Tipo.VIDEO, null, null)));
+        verify(mongoTemplate, times(1)).find(any(Query.class), eq(Contenido.class));
+    }
+
+    @Test
+    @DisplayName("Si cambian sus etiquetas sale del ranking de la etiqueta que ya no tiene")
+    void cambioDeEtiqueta() {
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class)))
+                .thenReturn(new ArrayList<>(List.of(contenido("A", 4.1, 30, "rock"))));
+        assertEquals(List.of("A"), ids(ranking.top(null, "rock", null)));
+
+        ranking.actualizar(entrada("A", 4.1, 30, "jazz"));
+
+        assertTrue(ranking.top(null, "rock", null).isEmpty());
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(1)).find(q.capture(), eq(Contenido.class));
+        assertEquals("rock", q.getValue().getQueryObject().get("tags"));
+    }
+
+    @Test
+    @DisplayName("Con más contenidos fuera, el que baja del último se quita y solo se recarga al quedar corto")
+    void truncadoRecargaAlQuedarCorto() {
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of(
+                contenido("A", 4.4, 40), contenido("B", 4.3, 40), contenido("C", 4.2, 40), contenido("D", 4.1, 40)));
+        ranking.top(null, null, null);
+
+        ranking.actualizar(entrada("A", 2.0, 41));
+        ranking.actualizar(entrada("B", 2.0, 41));
+        assertEquals(List.of("C", "D"), ids(ranking.top(null, null, null)));
+        verify(mongoTemplate, times(1)).find(any(Query.class), eq(Contenido.class));
+
+        ranking.actualizar(entrada("C", 2.0, 41));
+        ranking.top(null, null, null);
+        verify(mongoTemplate, times(2)).find(any(Query.class), eq(Contenido.class));
+    }
+
+    @Test
+    @DisplayName("Una escritura con menos votos que la ya aplicada llega tarde y se ignora")
+    void escrituraViejaIgnorada() {
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of(contenido("A", 4.0, 10)));
+        ranking.top(null, null, null);
+
+        ranking.actualizar(entrada("A", 4.2, 12));
+        ranking.actualizar(entrada("A", 4.1, 11));
+
+        assertEquals(12, ranking.top(null, null, null).get(0).ratingCount());
+    }
+
+    @Test
+    @DisplayName("Tipo y etiqueta a la vez no es un ranking que se mantenga")
+    void tipoYEtiqueta() {
+        assertThrows(ContenidoValidationException.class, () -> ranking.top(Contenido.Tipo.AUDIO, "rock", null));
+    }
+
+    private static Contenido contenido(String id, double bayes, int count, String... tags) {
+        Contenido c = new Contenido();
+        c.setId(id);
+        c.setTipo(Contenido.Tipo.VIDEO);
+        c.setTags(List.of(tags));
+        c.setRatingBayes(bayes);
+        c.setRatingCount(count);
+        return c;
+    }
+
+    private static EntradaRanking entrada(String id, double bayes, int count, String... tags) {
+        return EntradaRanking.of(contenido(id, bayes, count, tags));
+    }
+
+    private static List<String> ids(List<EntradaRanking> entradas) {
+        return entradas.stream().map(EntradaRanking::id).toList();
+    }
+}
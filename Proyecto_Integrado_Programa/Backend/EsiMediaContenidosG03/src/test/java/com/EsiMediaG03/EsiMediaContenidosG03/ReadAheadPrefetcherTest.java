@@ -0,0 +1,131 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.EsiMediaG03.dto.MediaFileMetadata;
+import com.EsiMediaG03.services.ReadAheadPrefetcher;
+
+class ReadAheadPrefetcherTest {
+
+    @TempDir
+    Path dir;
+
+    private ReadAheadPrefetcher prefetcher;
+    private MediaFileMetadata md;
+    private byte[] datos;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        datos = new byte[100];
+        for (int i = 0; i < datos.length; i++) datos[i] = (byte) i;
+        Path file = Files.write(dir.resolve("v.mp4"), datos);
+        md = new MediaFileMetadata(file, datos.length, Files.getLastModifiedTime(file).toMillis(), "\"e\"");
+
+        prefetcher = new ReadAheadPrefetcher();
+        ReflectionTestUtils.setField(prefetcher, "bufferBytes", 30);
+        ReflectionTestUtils.setField(prefetcher, "maxBuffers", 2);
+        ReflectionTestUtils.invokeMethod(prefetcher, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(prefetcher, "shutdown");
+    }
+
+    @Test
+    @DisplayName("Una lectura secuencial se sirve desde el tramo leído por adelantado")
+    void secuencial_sirveDesdeMemoria() throws Exception {
+        assertNull(prefetcher.acceder("s:1", md, 0, 20));
+        esperarLecturas(1);
+
+        ReadAheadPrefetcher.Lectura l = prefetcher.acceder("s:1", md, 20, 20);
+        assertNotNull(l);
+        assertArrayEquals(java.util.Arrays.copyOfRange(datos, 20, 40), bytes(l.datos()));
+        assertEquals(1, prefetcher.stats().get("buffersLeased"));
+        l.liberar();
+        l.liberar();
+        assertEquals(0, prefetcher.stats().get("buffersLeased"));
+
+        // Un tramo más corto que lo pedido no se usa ni se acorta la respuesta; y lo que no cabe no se anticipa
+        esperarLecturas(2);
+        assertNull(prefetcher.acceder("s:1", md, 40, 50));
+        assertEquals(1L, prefetcher.stats().get("hits"));
+        Thread.sleep(50);
+        assertEquals(2L, prefetcher.stats().get("prefetches"));
+    }
+
+    @Test
+    @DisplayName("Una lectura rechazada antes de escribirse devuelve el buffer y el reintento sigue siendo secuencial")
+    void noServida_devuelveYDeshaceElAvance() throws Exception {
+        prefetcher.acceder("s:1", md, 0, 20);
+        esperarLecturas(1);
+        ReadAheadPrefetcher.Lectura l = prefetcher.acceder("s:1", md, 20, 20);
+        assertNotNull(l);
+
+        l.noServida();
+        assertEquals(0, prefetcher.stats().get("buffersLeased"));
+
+        // El reintento del mismo rango va a disco, pero mantiene la lectura ya programada del tramo siguiente
+        esperarLecturas(2);
+        assertNull(prefetcher.acceder("s:1", md, 20, 20));
+        ReadAheadPrefetcher.Lectura siguiente = prefetcher.acceder("s:1", md, 40, 20);
+        assertNotNull(siguiente);
+        siguiente.liberar();
+        assertEquals(2L, prefetcher.stats().get("hits"));
+    }
+
+    @Test
+    @DisplayName("Un salto no usa el tramo y sin cliente no se lee por adelantado")
+    void salto_yClienteDesconocido() throws Exception {
+        prefetcher.acceder("s:1", md, 0, 20);
+        esperarLecturas(1);
+        assertNull(prefetcher.acceder("s:1", md, 70, 10));
+        assertNull(prefetcher.acceder(null, md, 0, 20));
+        assertEquals(0L, prefetcher.stats().get("hits"));
+    }
+
+    @Test
+    @DisplayName("Los tramos que nadie pide vuelven al pool al caducar")
+    void caducados_vuelvenAlPool() throws Exception {
+        ReflectionTestUtils.setField(prefetcher, "ttlMs", 0L);
+        prefetcher.acceder("s:1", md, 0, 20);
+        prefetcher.acceder("s:2", md, 0, 20);
+        esperarLecturas(2);
+        // Pool agotado: un tercer cliente no consigue buffer
+        prefetcher.acceder("s:3", md, 0, 20);
+        assertEquals(2, prefetcher.stats().get("buffersAllocated"));
+        assertEquals(0, prefetcher.stats().get("buffersFree"));
+
+        prefetcher.barrer();
+        assertEquals(2, prefetcher.stats().get("buffersFree"));
+        assertNull(prefetcher.acceder("s:1", md, 20, 10));
+    }
+
+    private void esperarLecturas(long n) throws InterruptedException {
+        long limite = System.currentTimeMillis() + 5000;
+        while ((Long) prefetcher.stats().get("prefetches") < n && System.currentTimeMillis() < limite) {
+            Thread.sleep(5);
+        }
+        assertEquals(n, prefetcher.stats().get("prefetches"));
+    }
+
+    private static byte[] bytes(ByteBuffer b) {
+        byte[] out = new byte[b.remaining()];
+        b.duplicate().get(out);
+        return out;
+    }
+}
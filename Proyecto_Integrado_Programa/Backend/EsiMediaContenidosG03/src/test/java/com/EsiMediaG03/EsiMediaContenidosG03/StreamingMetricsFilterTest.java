@@ -0,0 +1,120 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import com.EsiMediaG03.http.StreamingMetricsFilter;
+import com.EsiMediaG03.model.Contenido;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+
+class StreamingMetricsFilterTest {
+
+    private SimpleMeterRegistry registry;
+    private StreamingMetricsFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        filter = new StreamingMetricsFilter(registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    @DisplayName("Una respuesta 206 registra bytes, rango, TTFB y código")
+    void respuestaParcial() throws Exception {
+        MockHttpServletRequest req = new MockHttpServletRequest("GET", "/Contenidos/ReproducirContenido/abc");
+        MockHttpServletResponse res = new MockHttpServletResponse();
+
+        filter.doFilter(req, res, controlador(Contenido.Tipo.VIDEO, 206, 1000));
+
+        assertEquals(1.0, registry.get("media.responses").tag("status", "206").counter().count());
+        assertEquals(1000.0, registry.get("media.response.bytes").tag("endpoint", "stream").summary().totalAmount());
+        assertEquals(1000.0, registry.get("media.range.bytes").summary().max());
+        assertEquals(1, registry.get("media.ttfb").tag("status", "206").timer().count());
+        assertEquals(0.0, registry.get("media.streams.active").tag("tipo", "VIDEO").gauge().value());
+        assertEquals(1000, res.getContentAsByteArray().length);
+    }
+
+    @Test
+    @DisplayName("Con respuesta asíncrona la descarga sigue activa hasta que termina")
+    void respuestaAsincrona() throws Exception {
+        MockHttpServletRequest req = new MockHttpServletRequest("GET", "/Contenidos/ReproducirContenido/abc");
+        req.setAsyncSupported(true);
+        MockHttpServletResponse res = new MockHttpServletResponse();
+
+        filter.doFilter(req, res, (rq, rs) -> {
+            marcar(rq, Contenido.Tipo.AUDIO);
+            rq.startAsync();
+            rs.getOutputStream().write(new byte[10]);
+        });
+        assertEquals(1.0, registry.get("media.streams.active").tag("tipo", "AUDIO").gauge().value());
+        assertNull(registry.find("media.responses").counter());
+
+        MockAsyncContext ctx = (MockAsyncContext) req.getAsyncContext();
+        for (AsyncListener l : ctx.getListeners()) l.onComplete(new AsyncEvent(ctx));
+        assertEquals(0.0, registry.get("media.streams.active").tag("tipo", "AUDIO").gauge().value());
+        assertEquals(10.0, registry.get("media.response.bytes").summary().totalAmount());
+    }
+
+    @Test
+    @DisplayName("Un corte del cliente al escribir se cuenta como aborto")
+    void corteDelCliente() throws Exception {
+        MockHttpServletRequest req = new MockHttpServletRequest("HEAD", "/Contenidos/ReproducirContenido/abc");
+        MockHttpServletResponse res = new MockHttpServletResponse() {
+            @Override
+            public jakarta.servlet.ServletOutputStream getOutputStream() {
+                return new jakarta.servlet.ServletOutputStream() {
+                    @Override public void write(int b) throws IOException { throw new IOException("Broken pipe"); }
+                    @Override public boolean isReady() { return true; }
+                    @Override public void setWriteListener(jakarta.servlet.WriteListener l) { }
+                };
+            }
+        };
+
+        assertThrows(IOException.class, () -> filter.doFilter(req, res, controlador(null, 200, 5)));
+        assertEquals(1.0, registry.get("media.client.aborts").tag("endpoint", "head").counter().count());
+    }
+
+    @Test
+    @DisplayName("Otras rutas no se miden")
+    void otrasRutas() throws Exception {
+        MockHttpServletRequest req = new MockHttpServletRequest("GET", "/Contenidos/ListarContenidos");
+        filter.doFilter(req, new MockHttpServletResponse(), (rq, rs) -> rs.getOutputStream().write(1));
+        assertNull(registry.find("media.responses").counter());
+    }
+
+    private static FilterChain controlador(Contenido.Tipo tipo, int status, int bytes) {
+        return (rq, rs) -> {
+            marcar(rq, tipo);
+            ((jakarta.servlet.http.HttpServletResponse) rs).setStatus(status);
+            byte[] datos = new byte[bytes];
+            for (int i = 0; i < bytes; i++) rs.getOutputStream().write(datos[i]);
+        };
+    }
+
+    private static void marcar(jakarta.servlet.ServletRequest rq, Contenido.Tipo tipo) {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes((MockHttpServletRequest) rq));
+        StreamingMetricsFilter.marcarTipo(tipo);
+    }
+}
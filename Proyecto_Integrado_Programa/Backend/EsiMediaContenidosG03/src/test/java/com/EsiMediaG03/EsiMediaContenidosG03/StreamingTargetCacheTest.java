@@ -0,0 +1,56 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.services.StreamingTargetCache;
+
+class StreamingTargetCacheTest {
+
+    private StreamingTargetCache cache;
+    private final StreamingTarget target = StreamingTarget.external("https://cdn.example.com/v.mp4", "video/mp4");
+
+    @BeforeEach
+    void setUp() {
+        cache = new StreamingTargetCache();
+        ReflectionTestUtils.setField(cache, "maxEntries", 3);
+    }
+
+    @Test
+    @DisplayName("Llena, expulsa solo la menos usada en vez de vaciarse entera")
+    void llena_expulsaLaMenosUsada() {
+        cache.put("a", target, null);
+        cache.put("b", target, null);
+        cache.put("c", target, null);
+        assertNotNull(cache.get("a"));
+
+        cache.put("d", target, null);
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+    }
+
+    @Test
+    @DisplayName("Llena, primero se van las caducadas")
+    void llena_primeroLasCaducadas() {
+        cache.put("a", target, null);
+        cache.put("b", target, null);
+        cache.put("c", target, null);
+        ReflectionTestUtils.setField(cache, "ttlMs", 0L);
+        cache.put("d", target, null);
+        ReflectionTestUtils.setField(cache, "ttlMs", 60_000L);
+
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+    }
+}
@@ -2,36 +2,56 @@ package com.EsiMediaG03.EsiMediaContenidosG03;
 
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.bson.Document;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
 import com.EsiMediaG03.dao.ContenidoDAO;
+import com.EsiMediaG03.dto.EntradaRanking;
 import com.EsiMediaG03.exceptions.ContenidoException;
 import com.EsiMediaG03.exceptions.ContenidoValidationException;
 import com.EsiMediaG03.http.ContenidoController;
 import com.EsiMediaG03.model.Contenido;
 import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.EstadisticasValoracion;
+import com.EsiMediaG03.services.InteraccionesService;
+import com.EsiMediaG03.services.MigracionInteracciones;
+import com.EsiMediaG03.services.PlayCounterBuffer;
+import com.EsiMediaG03.services.RankingValoraciones;
 
 @ExtendWith(MockitoExtension.class)
 class TDDValoracionContenidoTest {
@@ -39,12 +59,18 @@ class TDDValoracionContenidoTest {
 
     @Mock ContenidoDAO contenidoDAO;
     @Mock MongoTemplate mongoTemplate;
+    @Mock InteraccionesService interacciones;
+    @Mock MigracionInteracciones migracion;
+    @Mock PlayCounterBuffer playCounterBuffer;
+    @Spy EstadisticasValoracion estadisticas = new EstadisticasValoracion();
+    @Mock RankingValoraciones ranking;
     @InjectMocks ContenidoService serviceUnderTest;
 
     @Mock ContenidoService contenidoServiceMock;
     @InjectMocks ContenidoController controllerUnderTest;
 
     private Contenido contenido;
+    private final Set<String> valorados = new HashSet<>();
 
     @BeforeEach
     void baseInit() {
@@ -55,11 +81,12 @@ class TDDValoracionContenidoTest {
             idField.set(contenido, "C1");
         } catch (Exception ignored) {}
 
-        
-        contenido.setReproductores(new HashSet<>(List.of("user@esi.com")));
 
-    
-        contenido.setRatings(new HashMap<>()); 
+        // Solo user@esi.com ha reproducido C1; la colección de valoraciones admite una por usuario
+        lenient().when(interacciones.haReproducido("C1", "user@esi.com")).thenReturn(true);
+        lenient().when(interacciones.registrarValoracion(eq("C1"), anyString(), anyDouble()))
+                .thenAnswer(inv -> valorados.add(inv.getArgument(1)));
+
         contenido.setRatingAvg(0.0);
         contenido.setRatingCount(0);
     }
@@ -72,33 +99,144 @@ class TDDValoracionContenidoTest {
         void initServiceStubs() {
         
             lenient().when(contenidoDAO.findById("C1")).thenReturn(Optional.of(contenido));
+            // Simula el $inc de ratingSum y ratingCount sobre el contenido en memoria
+            lenient().when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class),
+                    any(FindAndModifyOptions.class), eq(Contenido.class))).thenAnswer(inv -> {
+                        Document inc = (Document) ((UpdateDefinition) inv.getArgument(1)).getUpdateObject().get("$inc");
+                        contenido.setRatingSum(contenido.getRatingSum() + ((Number) inc.get("ratingSum")).doubleValue());
+                        contenido.setRatingCount(contenido.getRatingCount() + ((Number) inc.get("ratingCount")).intValue());
+                        Contenido nuevo = new Contenido();
+                        nuevo.setRatingSum(contenido.getRatingSum());
+                        nuevo.setRatingCount(contenido.getRatingCount());
+                        return nuevo;
+                    });
         }
 
         @Test
         @DisplayName("Primera valoración (4.5) -> count=1 y avg=4.5")
         void primerVoto_ok() {
-            when(contenidoDAO.save(any())).thenAnswer(inv -> inv.getArgument(0));
-
             Map<String,Object> res = serviceUnderTest.rateContenido("C1", "user@esi.com", 4.5);
             assertEquals(1, res.get("count"));
             assertEquals(4.5, (double)res.get("avg"), 1e-9);
-            verify(contenidoDAO, times(1)).save(any());
+            verify(mongoTemplate, times(1)).findAndModify(any(Query.class), any(UpdateDefinition.class),
+                    any(FindAndModifyOptions.class), eq(Contenido.class));
+            verify(contenidoDAO, never()).findById(any());
+            verify(contenidoDAO, never()).save(any());
+        }
+
+        @Test
+        @DisplayName("Una sola ida y vuelta: devuelve el documento nuevo y solo con el resumen")
+        void findAndModify_proyectaResumen() {
+            serviceUnderTest.rateContenido("C1", "user@esi.com", 4.0);
+
+            ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+            ArgumentCaptor<FindAndModifyOptions> opts = ArgumentCaptor.forClass(FindAndModifyOptions.class);
+            verify(mongoTemplate).findAndModify(q.capture(), any(UpdateDefinition.class), opts.capture(), eq(Contenido.class));
+            assertEquals(new Document("_id", "C1"), q.getValue().getQueryObject());
+            assertEquals(Set.of("ratingSum", "ratingCount", "titulo", "tipo", "tags"), q.getValue().getFieldsObject().keySet());
+            assertTrue(opts.getValue().isReturnNew());
+        }
+
+        @Test
+        @DisplayName("Dos votos suman y cuentan; media y bayesiana solo se guardan si nadie ha votado después")
+        void media_desdeSumaYRecuento() {
+            valorados.add("ya@esi.com");
+            contenido.setRatingSum(3.0);
+            contenido.setRatingCount(1);
+
+            Map<String,Object> res = serviceUnderTest.rateContenido("C1", "user@esi.com", 4.0);
+
+            assertEquals(2, res.get("count"));
+            assertEquals(3.5, (double) res.get("avg"), 1e-9);
+            ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+            ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+            verify(mongoTemplate).updateFirst(q.capture(), u.capture(), eq(Contenido.class));
+            assertEquals(new Document("_id", "C1").append("ratingCount", 2), q.getValue().getQueryObject());
+            // (10 votos previos * 3.0 + 7) / (10 + 2)
+            assertEquals(new Document("ratingAvg", 3.5).append("ratingBayes", 37.0 / 12),
+                    u.getValue().getUpdateObject().get("$set"));
+
+            ArgumentCaptor<EntradaRanking> e = ArgumentCaptor.forClass(EntradaRanking.class);
+            verify(ranking).actualizar(e.capture());
+            assertEquals(2, e.getValue().ratingCount());
+            assertEquals(37.0 / 12, e.getValue().ratingBayes(), 1e-9);
+        }
+
+        @Test
+        @DisplayName("El mismo $inc suma uno en la cubeta de la media estrella votada")
+        void incrementaCubeta() {
+            serviceUnderTest.rateContenido("C1", "user@esi.com", 4.5);
+
+            ArgumentCaptor<UpdateDefinition> u = ArgumentCaptor.forClass(UpdateDefinition.class);
+            verify(mongoTemplate).findAndModify(any(Query.class), u.capture(), any(FindAndModifyOptions.class), eq(Contenido.class));
+            Document inc = (Document) u.getValue().getUpdateObject().get("$inc");
+            assertEquals(1, inc.get("ratingHistograma.45"));
+        }
+
+        @Test
+        @DisplayName("Distribución: histograma completo, media y bayesiana leyendo solo los contadores")
+        void distribucion_ok() {
+            Contenido guardado = new Contenido();
+            guardado.setRatingSum(13.0);
+            guardado.setRatingCount(3);
+            guardado.setRatingHistograma(Map.of("50", 2L, "30", 1L));
+            when(mongoTemplate.findOne(any(Query.class), eq(Contenido.class))).thenReturn(guardado);
+
+            Map<String,Object> res = serviceUnderTest.distribucionValoraciones("C1");
+
+            assertEquals(13.0 / 3, (double) res.get("avg"), 1e-9);
+            assertEquals(3, res.get("count"));
+            Map<?, ?> histograma = (Map<?, ?>) res.get("histogram");
+            assertEquals(10, histograma.size());
+            assertEquals(2L, histograma.get("5.0"));
+            assertEquals(1L, histograma.get("3.0"));
+            assertEquals(0L, histograma.get("0.5"));
+            // (10 votos previos * 3.0 + 13) / (10 + 3)
+            assertEquals(43.0 / 13, (double) res.get("bayesianScore"), 1e-9);
+
+            ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+            verify(mongoTemplate).findOne(q.capture(), eq(Contenido.class));
+            assertEquals(Set.of("ratingSum", "ratingCount", "ratingHistograma"), q.getValue().getFieldsObject().keySet());
+        }
+
+        @Test
+        @DisplayName("Distribución de un contenido inexistente -> ContenidoException")
+        void distribucion_noExiste() {
+            assertThrows(ContenidoException.class, () -> serviceUnderTest.distribucionValoraciones("C1"));
+        }
+
+        @Test
+        @DisplayName("Antes del $inc se migra el contenido por si le falta ratingSum")
+        void migraAntesDeSumar() {
+            serviceUnderTest.rateContenido("C1", "user@esi.com", 4.0);
+
+            InOrder orden = inOrder(migracion, mongoTemplate);
+            orden.verify(migracion).migrarContenido("C1");
+            orden.verify(mongoTemplate).findAndModify(any(Query.class), any(UpdateDefinition.class),
+                    any(FindAndModifyOptions.class), eq(Contenido.class));
         }
 
         @Test
         @DisplayName("Duplicado: el mismo usuario no puede volver a valorar")
         void votoDuplicado_noPermitido() {
-            when(contenidoDAO.save(any())).thenAnswer(inv -> inv.getArgument(0));
-
-        
             serviceUnderTest.rateContenido("C1", "user@esi.com", 3.0);
 
-            
             assertThrows(ContenidoException.class,
                     () -> serviceUnderTest.rateContenido("C1", "user@esi.com", 5.0));
 
-    
-            verify(contenidoDAO, times(1)).save(any());
+            verify(mongoTemplate, times(1)).findAndModify(any(Query.class), any(UpdateDefinition.class),
+                    any(FindAndModifyOptions.class), eq(Contenido.class));
+        }
+
+        @Test
+        @DisplayName("Si el contenido ya no existe se anula la valoración registrada")
+        void contenidoBorrado_anulaValoracion() {
+            when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class),
+                    any(FindAndModifyOptions.class), eq(Contenido.class))).thenReturn(null);
+
+            assertThrows(ContenidoException.class,
+                    () -> serviceUnderTest.rateContenido("C1", "user@esi.com", 4.0));
+            verify(interacciones).anularValoracion("C1", "user@esi.com");
         }
 
         @Test
@@ -122,15 +260,28 @@ class TDDValoracionContenidoTest {
         void noReprodujo_forbidden() {
             assertThrows(ContenidoException.class,
                     () -> serviceUnderTest.rateContenido("C1", "otro@esi.com", 4.0));
-            verify(contenidoDAO, never()).save(any());
+            verify(interacciones, never()).registrarValoracion(any(), any(), anyDouble());
+            verify(mongoTemplate, never()).findAndModify(any(Query.class), any(UpdateDefinition.class),
+                    any(FindAndModifyOptions.class), eq(Contenido.class));
+        }
+
+        @Test
+        @DisplayName("Reproductor aún sin volcar a Mongo -> puede valorar")
+        void reproductorEnBuffer_puedeValorar() {
+            when(playCounterBuffer.reproductorPendiente("C1", "nuevo@esi.com")).thenReturn(true);
+
+            Map<String,Object> res = serviceUnderTest.rateContenido("C1", "nuevo@esi.com", 3.0);
+
+            assertEquals(1, res.get("count"));
+            verify(interacciones, never()).haReproducido("C1", "nuevo@esi.com");
         }
 
         @Test
         @DisplayName("Resumen -> devuelve count y avg")
         void resumen_ok() {
-            when(contenidoDAO.save(any())).thenAnswer(inv -> inv.getArgument(0));
+            contenido.setRatingCount(1);
+            contenido.setRatingAvg(4.0);
 
-            serviceUnderTest.rateContenido("C1", "user@esi.com", 4.0);
             Map<String,Object> res = serviceUnderTest.ratingResumen("C1");
             assertEquals(1, res.get("count"));
             assertEquals(4.0, (double)res.get("avg"), 1e-9);
@@ -159,6 +310,17 @@ class TDDValoracionContenidoTest {
             assertEquals(2, resp.getBody().get("count"));
         }
 
+        @Test
+        @DisplayName("GET /RatingContenido/{id}/Distribucion -> 200 con el histograma")
+        void getDistribucion_ok() {
+            Map<String, Object> mockRes = Map.of("avg", 4.0, "count", 1, "histogram", Map.of("4.0", 1L), "bayesianScore", 3.09);
+            when(contenidoServiceMock.distribucionValoraciones("C1")).thenReturn(mockRes);
+
+            ResponseEntity<Map<String,Object>> resp = controllerUnderTest.distribucionValoraciones("C1");
+            assertEquals(HttpStatus.OK, resp.getStatusCode());
+            assertEquals(mockRes, resp.getBody());
+        }
+
         @Test
         @DisplayName("GET /RatingContenido/{id} -> 200 con avg y count")
         void getRating_ok() {
@@ -4,6 +4,7 @@ import com.EsiMediaG03.dao.ListaPublicaDAO;
 import com.EsiMediaG03.model.Contenido;
 import com.EsiMediaG03.model.ListaPublica;
 import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.InteraccionesService;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.*;
@@ -27,6 +28,9 @@ class TDD_ContenidosFavoritosTest {
     @Mock
     ListaPublicaDAO listaPublicaDAO;
 
+    @Mock
+    InteraccionesService interacciones;
+
     @InjectMocks
     ContenidoService service;
 
@@ -46,8 +50,8 @@ class TDD_ContenidosFavoritosTest {
 
         service.addFavorito("CNT-123", EMAIL_USUARIO, ROLE_USUARIO);
 
-        verify(mongoTemplate, times(1)).updateFirst(any(Query.class), any(), eq(Contenido.class));
-        verifyNoMoreInteractions(mongoTemplate);
+        verify(interacciones, times(1)).addFavorito("CNT-123", EMAIL_USUARIO);
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(), eq(Contenido.class));
     }
 
     @Test
@@ -60,7 +64,7 @@ class TDD_ContenidosFavoritosTest {
         assertThrows(AccessDeniedException.class,
             () -> service.addFavorito("CNT-PRIV", EMAIL_USUARIO, ROLE_USUARIO));
 
-        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(), eq(Contenido.class));
+        verify(interacciones, never()).addFavorito(any(), any());
     }
 
     @Test
@@ -68,7 +72,7 @@ class TDD_ContenidosFavoritosTest {
     void addFavorito_forbidden_gestor() {
         assertThrows(AccessDeniedException.class,
             () -> service.addFavorito("CNT-999", EMAIL_GESTOR, ROLE_GESTOR));
-        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(), eq(Contenido.class));
+        verify(interacciones, never()).addFavorito(any(), any());
         verifyNoInteractions(listaPublicaDAO);
     }
 
@@ -77,20 +81,21 @@ class TDD_ContenidosFavoritosTest {
     void addFavorito_forbidden_admin() {
         assertThrows(AccessDeniedException.class,
             () -> service.addFavorito("CNT-777", EMAIL_ADMIN, ROLE_ADMIN));
-        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(), eq(Contenido.class));
+        verify(interacciones, never()).addFavorito(any(), any());
         verifyNoInteractions(listaPublicaDAO);
     }
 
     @Test
-    @DisplayName("removeFavorito -> idempotente ($pull); no falla si no estaba")
+    @DisplayName("removeFavorito -> idempotente (borrado por clave); no falla si no estaba")
     void removeFavorito_ok() {
         service.removeFavorito("CNT-XYZ", EMAIL_USUARIO);
-        verify(mongoTemplate, times(1)).updateFirst(any(Query.class), any(), eq(Contenido.class));
+        verify(interacciones, times(1)).removeFavorito("CNT-XYZ", EMAIL_USUARIO);
     }
 
     @Test
     @DisplayName("listFavoritosIds -> devuelve IDs en el orden obtenido")
     void listFavoritos_returnsIds() {
+        when(interacciones.contenidosFavoritos(EMAIL_USUARIO)).thenReturn(List.of("C1", "C2", "C3"));
         Contenido cA = mock(Contenido.class); when(cA.getId()).thenReturn("C3");
         Contenido cB = mock(Contenido.class); when(cB.getId()).thenReturn("C2");
         Contenido cC = mock(Contenido.class); when(cC.getId()).thenReturn("C1");
@@ -100,4 +105,13 @@ class TDD_ContenidosFavoritosTest {
 
         assertEquals(List.of("C3","C2","C1"), ids);
     }
+
+    @Test
+    @DisplayName("listFavoritosIds sin favoritos -> lista vacía sin consultar contenidos")
+    void listFavoritos_vacio() {
+        when(interacciones.contenidosFavoritos(EMAIL_USUARIO)).thenReturn(List.of());
+
+        assertEquals(List.of(), service.listFavoritosIds(EMAIL_USUARIO));
+        verifyNoInteractions(mongoTemplate);
+    }
 }